@@ -0,0 +1,142 @@
+package dbutil.bench;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import dbutil.DB;
+import dbutil.DBL;
+import dbutil.metrics.PqMetrics;
+
+/**
+ * In memory H2 database used by the benchmarks and the load harness. The database runs in Oracle compatibility
+ * mode so the sequence (<tt>seq.nextval</tt>) and paging (<tt>ROWNUM</tt>) sql generated by PojoQuery runs unchanged.
+ * Connections are handed to the library through {@link dbutil.DBInstance#setDataSource} on the {@link #SCHEMA} entry.
+ */
+public final class BenchDatabase {
+	public static final DBL SCHEMA = DBL.QUIZ;
+	public static final String URL = "jdbc:h2:mem:pqbench;MODE=Oracle;DB_CLOSE_DELAY=-1";
+	public static final int ORDERS_PER_CUSTOMER = 5;
+	private static JdbcConnectionPool pool;
+
+	private BenchDatabase() {
+	}
+
+	/**
+	 * Creates (or recreates) the sample tables and fills them with the given number of customers and wide rows
+	 * @param rows number of customers and wide records
+	 * @param maxConnections size of the connection pool handed to the library
+	 */
+	public static synchronized JdbcConnectionPool start(int rows, int maxConnections) throws SQLException {
+		DB.setDebug(false);
+		PqMetrics.setJmxEnabled(false);
+		if (pool == null) {
+			pool = JdbcConnectionPool.create(URL, "sa", "");
+			SCHEMA.getInstance().setDataSource(pool);
+		}
+		pool.setMaxConnections(maxConnections);
+		Connection con = pool.getConnection();
+		try {
+			createTables(con);
+			seed(con, rows);
+		} finally {
+			con.close();
+		}
+		return pool;
+	}
+	public static synchronized void stop() {
+		if (pool != null) {
+			pool.dispose();
+			pool = null;
+			SCHEMA.getInstance().setDataSource(null);
+		}
+	}
+
+	private static void createTables(Connection con) throws SQLException {
+		Statement st = con.createStatement();
+		try {
+			st.execute("drop table if exists BENCH_ORDER");
+			st.execute("drop table if exists BENCH_CUSTOMER");
+			st.execute("drop table if exists BENCH_WIDE");
+			st.execute("drop sequence if exists bench_customer_seq");
+			st.execute("drop sequence if exists bench_order_seq");
+			st.execute("create table BENCH_CUSTOMER (CUSTOMER_ID BIGINT primary key, NAME VARCHAR(60), EMAIL VARCHAR(80), "
+					+ "STATUS VARCHAR(10), CREATED TIMESTAMP)");
+			st.execute("create table BENCH_ORDER (ORDER_ID BIGINT primary key, CUSTOMER_ID BIGINT, AMOUNT DECIMAL(12,2), "
+					+ "STATUS VARCHAR(10), ORDERED TIMESTAMP)");
+			st.execute("create index BENCH_ORDER_CUST on BENCH_ORDER(CUSTOMER_ID)");
+			st.execute("create table BENCH_WIDE (ID BIGINT primary key, "
+					+ "C01 BIGINT, C02 DOUBLE, C03 TIMESTAMP, C04 VARCHAR(40), C05 BIGINT, C06 DOUBLE, "
+					+ "C07 TIMESTAMP, C08 VARCHAR(40), C09 BIGINT, C10 DOUBLE, C11 TIMESTAMP, C12 VARCHAR(40), "
+					+ "C13 BIGINT, C14 DOUBLE, C15 TIMESTAMP, C16 VARCHAR(40), C17 BIGINT, C18 DOUBLE, "
+					+ "C19 TIMESTAMP, C20 VARCHAR(40), C21 BIGINT, C22 DOUBLE, C23 TIMESTAMP)");
+		} finally {
+			st.close();
+		}
+	}
+	private static void seed(Connection con, int rows) throws SQLException {
+		long now = System.currentTimeMillis();
+		PreparedStatement cps = con.prepareStatement("insert into BENCH_CUSTOMER values (?,?,?,?,?)");
+		PreparedStatement ops = con.prepareStatement("insert into BENCH_ORDER values (?,?,?,?,?)");
+		PreparedStatement wps = con.prepareStatement("insert into BENCH_WIDE values (?" + repeat(",?", 23) + ")");
+		try {
+			long orderId = 1;
+			for (int x = 1; x <= rows; x++) {
+				cps.setLong(1, x);
+				cps.setString(2, "customer " + x);
+				cps.setString(3, "customer" + x + "@example.com");
+				cps.setString(4, x % 3 == 0 ? "CLOSED" : "OPEN");
+				cps.setTimestamp(5, new Timestamp(now - x * 60000L));
+				cps.addBatch();
+				for (int o = 0; o < ORDERS_PER_CUSTOMER; o++) {
+					ops.setLong(1, orderId++);
+					ops.setLong(2, x);
+					ops.setBigDecimal(3, new BigDecimal(x * 10 + o).movePointLeft(1));
+					ops.setString(4, o % 2 == 0 ? "PAID" : "OPEN");
+					ops.setTimestamp(5, new Timestamp(now - o * 3600000L));
+					ops.addBatch();
+				}
+				wps.setLong(1, x);
+				for (int c = 1; c <= 23; c++) {
+					switch (c % 4) {
+					case 0: wps.setString(c + 1, "value " + c + "/" + x); break;
+					case 1: wps.setLong(c + 1, x * 100L + c); break;
+					case 2: wps.setDouble(c + 1, x + c / 10.0); break;
+					default: wps.setTimestamp(c + 1, new Timestamp(now - c * 1000L));
+					}
+				}
+				wps.addBatch();
+				if (x % 500 == 0) {
+					cps.executeBatch();
+					ops.executeBatch();
+					wps.executeBatch();
+				}
+			}
+			cps.executeBatch();
+			ops.executeBatch();
+			wps.executeBatch();
+			Statement st = con.createStatement();
+			try {
+				st.execute("create sequence bench_customer_seq start with " + (rows + 1));
+				st.execute("create sequence bench_order_seq start with " + orderId);
+			} finally {
+				st.close();
+			}
+		} finally {
+			cps.close();
+			ops.close();
+			wps.close();
+		}
+	}
+	private static String repeat(String s, int times) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < times; x++)
+			sb.append(s);
+		return sb.toString();
+	}
+}
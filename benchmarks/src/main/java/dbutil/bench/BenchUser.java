@@ -0,0 +1,31 @@
+package dbutil.bench;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import dbutil.PqUser;
+
+/**
+ * Simple in memory user for the benchmarks and the load harness
+ */
+public class BenchUser implements PqUser {
+	private final String name;
+	private final Set<String> groups;
+
+	public BenchUser(String name, String... groups) {
+		this.name = name;
+		this.groups = new HashSet<String>(Arrays.asList(groups));
+	}
+	public String getName() {
+		return name;
+	}
+	@Override
+	public boolean isInGroup(String group) {
+		return groups.contains(group);
+	}
+	@Override
+	public String toString() {
+		return name;
+	}
+}
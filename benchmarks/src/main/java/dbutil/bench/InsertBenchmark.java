@@ -0,0 +1,53 @@
+package dbutil.bench;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+/**
+ * Single row insert with a sequence backed id retrieved through getGeneratedKeys
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+	private final BenchUser user = new BenchUser("bench");
+
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		BenchDatabase.start(1000, 8);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.stop();
+	}
+
+	@Benchmark
+	public Customer insert() throws Exception {
+		Customer c = new Customer();
+		c.setName("inserted");
+		c.setEmail("inserted@example.com");
+		c.setStatus("OPEN");
+		c.setCreated(new Date());
+		new PojoQuery<Customer>(c).setSecurityUser(user).insert();
+		return c;
+	}
+}
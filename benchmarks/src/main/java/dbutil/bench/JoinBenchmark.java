@@ -0,0 +1,55 @@
+package dbutil.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+/**
+ * Loading a one to many relation through a join field in the select clause (one extra query per parent row)
+ * and filtering on a joined field in the where clause (single query with generated join)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+	@Param({"1", "10", "100"})
+	public int customers;
+	private final BenchUser user = new BenchUser("bench");
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.start(1000, 8);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.stop();
+	}
+
+	@Benchmark
+	public List<Customer> loadOrders() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "select *, orders where id <= ?", (long) customers).setSecurityUser(user).list();
+	}
+	@Benchmark
+	public List<Customer> whereOnJoin() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where orders.status = ? and id <= ?", "PAID", (long) customers).setSecurityUser(user).list();
+	}
+}
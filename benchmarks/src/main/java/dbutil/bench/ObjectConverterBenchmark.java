@@ -0,0 +1,56 @@
+package dbutil.bench;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.ObjectConverter;
+
+/**
+ * Cost of the per column conversion done while hydrating entities
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectConverterBenchmark {
+	private Object bigDecimal = new BigDecimal("12345");
+	private Object string = "12345";
+	private Object integer = Integer.valueOf(12345);
+	private Object timestamp = new Timestamp(System.currentTimeMillis());
+	private Object flag = "Y";
+
+	@Benchmark
+	public Integer sameType() {
+		return ObjectConverter.convert(integer, Integer.class);
+	}
+	@Benchmark
+	public Date subType() {
+		return ObjectConverter.convert(timestamp, Date.class);
+	}
+	@Benchmark
+	public Long bigDecimalToLong() {
+		return ObjectConverter.convert(bigDecimal, Long.class);
+	}
+	@Benchmark
+	public Integer stringToInteger() {
+		return ObjectConverter.convert(string, Integer.class);
+	}
+	@Benchmark
+	public Boolean stringToBoolean() {
+		return ObjectConverter.convert(flag, Boolean.class);
+	}
+}
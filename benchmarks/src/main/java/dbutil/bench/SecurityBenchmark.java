@@ -0,0 +1,46 @@
+package dbutil.bench;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.DBField;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.WideRecord;
+
+/**
+ * Evaluation of @PojoSecurity field and class rights for a user
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SecurityBenchmark {
+	private final BenchUser user = new BenchUser("bench");
+	private final BenchUser admin = new BenchUser("admin", "admin");
+
+	@Benchmark
+	public Set<DBField> fieldObjects() throws Exception {
+		return new PojoQuery<Customer>(Customer.class).getFieldObjects(user);
+	}
+	@Benchmark
+	public Set<DBField> selectableFieldsAdmin() throws Exception {
+		return new PojoQuery<Customer>(Customer.class).setSecurityUser(admin).getSelectableFieldObjects(admin);
+	}
+	@Benchmark
+	public Set<DBField> selectableFieldsWide() throws Exception {
+		return new PojoQuery<WideRecord>(WideRecord.class).setSecurityUser(user).getSelectableFieldObjects(user);
+	}
+}
@@ -0,0 +1,60 @@
+package dbutil.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.WideRecord;
+
+/**
+ * executeSelect end to end: sql generation, execution against H2 and hydration of narrow (5 column) and
+ * wide (24 column) entities at different row counts
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelectBenchmark {
+	@Param({"1", "100", "1000"})
+	public int rows;
+	private final BenchUser user = new BenchUser("bench");
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.start(1000, 8);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.stop();
+	}
+
+	@Benchmark
+	public List<Customer> narrow() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where id <= ?", (long) rows).setSecurityUser(user).list();
+	}
+	@Benchmark
+	public List<WideRecord> wide() throws Exception {
+		return new PojoQuery<WideRecord>(WideRecord.class, "where id <= ?", (long) rows).setSecurityUser(user).list();
+	}
+	@Benchmark
+	public List<Customer> narrowNoSecurity() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where id <= ?", (long) rows).disableSecurity().list();
+	}
+}
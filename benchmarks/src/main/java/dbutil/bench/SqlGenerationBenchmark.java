@@ -0,0 +1,52 @@
+package dbutil.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dbutil.PojoQuery;
+import dbutil.PojoQuery.QueryType;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.WideRecord;
+
+/**
+ * Cost of turning pql into sql (regex field translation, security checks and join generation). No database access.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlGenerationBenchmark {
+	private final BenchUser user = new BenchUser("bench");
+
+	@Benchmark
+	public String selectAll() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where status=? order by created", "OPEN").setSecurityUser(user).getSql(QueryType.select);
+	}
+	@Benchmark
+	public String selectFields() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "select id, name where status=? and created > ?", "OPEN", null).setSecurityUser(user).getSql(QueryType.select);
+	}
+	@Benchmark
+	public String selectWide() throws Exception {
+		return new PojoQuery<WideRecord>(WideRecord.class, "where c01 > ? and c04 = ?", 1L, "x").setSecurityUser(user).getSql(QueryType.select);
+	}
+	@Benchmark
+	public String joinWhere() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where orders.status=? and name like ?", "PAID", "c%").setSecurityUser(user).getSql(QueryType.select);
+	}
+	@Benchmark
+	public String count() throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where status=?", "OPEN").setSecurityUser(user).getSql(QueryType.count);
+	}
+}
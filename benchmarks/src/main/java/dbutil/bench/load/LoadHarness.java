@@ -0,0 +1,235 @@
+package dbutil.bench.load;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dbutil.PojoQuery;
+import dbutil.bench.BenchDatabase;
+import dbutil.bench.BenchUser;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.metrics.ConnectionStats;
+import dbutil.metrics.LatencyHistogram;
+import dbutil.metrics.PqMetrics;
+
+/**
+ * Runnable load test that drives a mix of list/single/insert/update calls (with joins) through PojoQuery from
+ * an increasing number of threads against the in memory H2 database. Every thread acts as a distinct PqUser.
+ * For each concurrency step it reports throughput, latency percentiles per operation and the time spent waiting
+ * for a pooled connection.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar dbutil.bench.load.LoadHarness -threads 1,8,32,128 -duration 10 -pool 10
+ *   -threads   comma separated concurrency steps (default 1,4,16,64)
+ *   -duration  measured seconds per step (default 10)
+ *   -warmup    unmeasured seconds before each step (default 2)
+ *   -pool      maximum pooled connections (default 10)
+ *   -rows      customers seeded into the database (default 1000)
+ *   -mix       operation weights (default list=40,single=40,insert=10,update=10)
+ *   -virtual   run the workers on virtual threads, needs java 21+ (default false)
+ * </pre>
+ */
+public class LoadHarness {
+	private static final String[] OPERATIONS = {"list", "single", "insert", "update"};
+	private final int[] threadSteps;
+	private final int duration;
+	private final int warmup;
+	private final int pool;
+	private final int rows;
+	private final int[] weights = new int[OPERATIONS.length];
+	private final boolean virtual;
+
+	public LoadHarness(Map<String, String> options) {
+		String[] steps = option(options, "threads", "1,4,16,64").split(",");
+		threadSteps = new int[steps.length];
+		for (int x = 0; x < steps.length; x++) {
+			threadSteps[x] = Integer.parseInt(steps[x].trim());
+		}
+		duration = Integer.parseInt(option(options, "duration", "10"));
+		warmup = Integer.parseInt(option(options, "warmup", "2"));
+		pool = Integer.parseInt(option(options, "pool", "10"));
+		rows = Integer.parseInt(option(options, "rows", "1000"));
+		virtual = Boolean.parseBoolean(option(options, "virtual", "false"));
+		for (String w: option(options, "mix", "list=40,single=40,insert=10,update=10").split(",")) {
+			String[] kv = w.split("=");
+			int idx = indexOf(kv[0].trim());
+			if (idx < 0)
+				throw new IllegalArgumentException("Unknown operation in mix: " + kv[0]);
+			weights[idx] = Integer.parseInt(kv[1].trim());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		for (int x = 0; x + 1 < args.length; x += 2) {
+			options.put(args[x].replaceFirst("^-+", ""), args[x + 1]);
+		}
+		new LoadHarness(options).run();
+	}
+
+	public void run() throws Exception {
+		BenchDatabase.start(rows, pool);
+		try {
+			System.out.println(String.format("pool=%d rows=%d duration=%ds warmup=%ds virtual=%s mix=%s", pool, rows, duration, warmup,
+					virtual, mixDescription()));
+			System.out.println(String.format("%8s %10s %7s %9s %9s %9s %9s %11s %11s %11s %6s", "threads", "ops/s", "errors",
+					"p50 ms", "p95 ms", "p99 ms", "max ms", "wait p50", "wait p99", "wait max", "peak"));
+			for (int threads: threadSteps) {
+				runStep(threads);
+			}
+		} finally {
+			BenchDatabase.stop();
+		}
+	}
+
+	private void runStep(int threads) throws Exception {
+		final LatencyHistogram all = new LatencyHistogram();
+		final LatencyHistogram[] perOp = new LatencyHistogram[OPERATIONS.length];
+		for (int x = 0; x < perOp.length; x++) {
+			perOp[x] = new LatencyHistogram();
+		}
+		final AtomicLong errors = new AtomicLong();
+		final long warmupEnd = System.nanoTime() + warmup * 1000000000L;
+		final long end = warmupEnd + duration * 1000000000L;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final ConnectionStats cs = PqMetrics.getConnectionStats(BenchDatabase.SCHEMA);
+		boolean measuring = false;
+		ThreadFactory factory = threadFactory();
+		for (int t = 0; t < threads; t++) {
+			final BenchUser user = new BenchUser("user-" + t);
+			final Random random = new Random(t);
+			factory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long now;
+						while ((now = System.nanoTime()) < end) {
+							int op = pickOperation(random);
+							boolean failed = false;
+							try {
+								execute(op, user, random);
+							} catch (Exception e) {
+								failed = true;
+							}
+							long elapsed = System.nanoTime() - now;
+							if (now >= warmupEnd) {
+								all.recordNanos(elapsed);
+								perOp[op].recordNanos(elapsed);
+								if (failed)
+									errors.incrementAndGet();
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		while (!measuring) {
+			long wait = warmupEnd - System.nanoTime();
+			if (wait > 0)
+				Thread.sleep(Math.max(1, wait / 1000000));
+			else {
+				cs.reset();
+				measuring = true;
+			}
+		}
+		done.await();
+		System.out.println(String.format("%8d %10.1f %7d %9.2f %9.2f %9.2f %9.2f %11.3f %11.3f %11.3f %6d", threads,
+				all.getCount() / (double) duration, errors.get(), millis(all.getPercentileMicros(50)), millis(all.getPercentileMicros(95)),
+				millis(all.getPercentileMicros(99)), millis(all.getMaxMicros()), cs.getWaitPercentileMillis(50), cs.getWaitPercentileMillis(99),
+				cs.getMaxWaitMillis(), cs.getPeakConnectionsInUse()));
+		for (int x = 0; x < OPERATIONS.length; x++) {
+			LatencyHistogram h = perOp[x];
+			if (h.getCount() > 0)
+				System.out.println(String.format("%8s %10.1f %7s %9.2f %9.2f %9.2f %9.2f", OPERATIONS[x], h.getCount() / (double) duration, "",
+						millis(h.getPercentileMicros(50)), millis(h.getPercentileMicros(95)), millis(h.getPercentileMicros(99)), millis(h.getMaxMicros())));
+		}
+	}
+
+	private void execute(int op, BenchUser user, Random random) throws Exception {
+		long id = 1 + random.nextInt(rows);
+		if ("list".equals(OPERATIONS[op])) {
+			List<Customer> list = new PojoQuery<Customer>(Customer.class, "select *, orders where id >= ? and id < ?", id, id + 20)
+					.setSecurityUser(user).list();
+			if (list.isEmpty() && id + 20 <= rows)
+				throw new IllegalStateException("list returned no rows");
+		} else if ("single".equals(OPERATIONS[op])) {
+			Customer c = new PojoQuery<Customer>(Customer.class, "select *, orders where id = ?", id).setSecurityUser(user).single();
+			if (c == null)
+				throw new IllegalStateException("customer " + id + " not found");
+		} else if ("insert".equals(OPERATIONS[op])) {
+			CustomerOrder o = new CustomerOrder();
+			o.setCustomerId(id);
+			o.setAmount(new BigDecimal(random.nextInt(100000)).movePointLeft(2));
+			o.setStatus("OPEN");
+			o.setOrdered(new Date());
+			new PojoQuery<CustomerOrder>(o).setSecurityUser(user).insert();
+		} else {
+			Customer c = new Customer();
+			c.setId(id);
+			c.setStatus(random.nextBoolean() ? "OPEN" : "CLOSED");
+			new PojoQuery<Customer>(c).setSecurityUser(user).update("status");
+		}
+	}
+	private int pickOperation(Random random) {
+		int total = 0;
+		for (int w: weights)
+			total += w;
+		int r = random.nextInt(total);
+		for (int x = 0; x < weights.length; x++) {
+			r -= weights[x];
+			if (r < 0)
+				return x;
+		}
+		return weights.length - 1;
+	}
+	/**
+	 * Virtual threads are created through reflection so the harness still compiles and runs on java 8
+	 */
+	private ThreadFactory threadFactory() throws Exception {
+		if (virtual) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			} catch (NoSuchMethodException e) {
+				throw new UnsupportedOperationException("Virtual threads need java 21 or later (running " + System.getProperty("java.version") + ")");
+			}
+		}
+		return new ThreadFactory() {
+			private int ct = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "pq-load-" + (ct++));
+			}
+		};
+	}
+	private String mixDescription() {
+		List<String> parts = new ArrayList<String>();
+		for (int x = 0; x < OPERATIONS.length; x++) {
+			parts.add(OPERATIONS[x] + "=" + weights[x]);
+		}
+		return parts.toString();
+	}
+	private static int indexOf(String op) {
+		for (int x = 0; x < OPERATIONS.length; x++) {
+			if (OPERATIONS[x].equals(op))
+				return x;
+		}
+		return -1;
+	}
+	private static String option(Map<String, String> options, String key, String defaultValue) {
+		String value = options.get(key);
+		return value == null ? System.getProperty("pq.load." + key, defaultValue) : value;
+	}
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}
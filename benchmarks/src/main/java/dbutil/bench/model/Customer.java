@@ -0,0 +1,74 @@
+package dbutil.bench.model;
+
+import java.util.Date;
+import java.util.List;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.JoinTable;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * Narrow sample entity (5 columns) with a one to many join to {@link CustomerOrder}
+ */
+@DbTable(value = "BENCH_CUSTOMER", schema = DBL.QUIZ, alias = "c")
+@PojoSecurity(everyone = "11")
+public class Customer {
+	@Id(sequence = "bench_customer_seq")
+	@DbColumn("CUSTOMER_ID")
+	@PojoSecurity(everyone = "111")
+	private Long id;
+	@DbColumn("NAME")
+	@PojoSecurity(everyone = "111")
+	private String name;
+	@DbColumn("EMAIL")
+	@PojoSecurity(groups = {"admin"}, groupsecurity = {"111"}, everyone = "001")
+	private String email;
+	@DbColumn("STATUS")
+	@PojoSecurity(everyone = "111")
+	private String status;
+	@DbColumn("CREATED")
+	@PojoSecurity(everyone = "101")
+	private Date created;
+	@JoinTable(localFields = {"id"}, foreignFields = {"customerId"})
+	private List<CustomerOrder> orders;
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getEmail() {
+		return email;
+	}
+	public void setEmail(String email) {
+		this.email = email;
+	}
+	public String getStatus() {
+		return status;
+	}
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	public Date getCreated() {
+		return created;
+	}
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+	public List<CustomerOrder> getOrders() {
+		return orders;
+	}
+	public void setOrders(List<CustomerOrder> orders) {
+		this.orders = orders;
+	}
+}
@@ -0,0 +1,62 @@
+package dbutil.bench.model;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+@DbTable(value = "BENCH_ORDER", schema = DBL.QUIZ, alias = "o")
+@PojoSecurity(everyone = "11")
+public class CustomerOrder {
+	@Id(sequence = "bench_order_seq")
+	@DbColumn("ORDER_ID")
+	@PojoSecurity(everyone = "111")
+	private Long id;
+	@DbColumn("CUSTOMER_ID")
+	@PojoSecurity(everyone = "111")
+	private Long customerId;
+	@DbColumn("AMOUNT")
+	@PojoSecurity(everyone = "111")
+	private BigDecimal amount;
+	@DbColumn("STATUS")
+	@PojoSecurity(everyone = "111")
+	private String status;
+	@DbColumn("ORDERED")
+	@PojoSecurity(everyone = "111")
+	private Date ordered;
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public Long getCustomerId() {
+		return customerId;
+	}
+	public void setCustomerId(Long customerId) {
+		this.customerId = customerId;
+	}
+	public BigDecimal getAmount() {
+		return amount;
+	}
+	public void setAmount(BigDecimal amount) {
+		this.amount = amount;
+	}
+	public String getStatus() {
+		return status;
+	}
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	public Date getOrdered() {
+		return ordered;
+	}
+	public void setOrdered(Date ordered) {
+		this.ordered = ordered;
+	}
+}
@@ -0,0 +1,235 @@
+package dbutil.bench.model;
+
+import java.util.Date;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * Wide sample entity (24 columns) used to measure hydration cost per column
+ */
+@DbTable(value = "BENCH_WIDE", schema = DBL.QUIZ, alias = "w")
+@PojoSecurity(everyone = "11")
+public class WideRecord {
+	@Id
+	@DbColumn("ID")
+	@PojoSecurity(everyone = "111")
+	private Long id;
+	@DbColumn("C01")
+	@PojoSecurity(everyone = "111")
+	private Long c01;
+	@DbColumn("C02")
+	@PojoSecurity(everyone = "111")
+	private Double c02;
+	@DbColumn("C03")
+	@PojoSecurity(everyone = "111")
+	private Date c03;
+	@DbColumn("C04")
+	@PojoSecurity(everyone = "111")
+	private String c04;
+	@DbColumn("C05")
+	@PojoSecurity(everyone = "111")
+	private Long c05;
+	@DbColumn("C06")
+	@PojoSecurity(everyone = "111")
+	private Double c06;
+	@DbColumn("C07")
+	@PojoSecurity(everyone = "111")
+	private Date c07;
+	@DbColumn("C08")
+	@PojoSecurity(everyone = "111")
+	private String c08;
+	@DbColumn("C09")
+	@PojoSecurity(everyone = "111")
+	private Long c09;
+	@DbColumn("C10")
+	@PojoSecurity(everyone = "111")
+	private Double c10;
+	@DbColumn("C11")
+	@PojoSecurity(everyone = "111")
+	private Date c11;
+	@DbColumn("C12")
+	@PojoSecurity(everyone = "111")
+	private String c12;
+	@DbColumn("C13")
+	@PojoSecurity(everyone = "111")
+	private Long c13;
+	@DbColumn("C14")
+	@PojoSecurity(everyone = "111")
+	private Double c14;
+	@DbColumn("C15")
+	@PojoSecurity(everyone = "111")
+	private Date c15;
+	@DbColumn("C16")
+	@PojoSecurity(everyone = "111")
+	private String c16;
+	@DbColumn("C17")
+	@PojoSecurity(everyone = "111")
+	private Long c17;
+	@DbColumn("C18")
+	@PojoSecurity(everyone = "111")
+	private Double c18;
+	@DbColumn("C19")
+	@PojoSecurity(everyone = "111")
+	private Date c19;
+	@DbColumn("C20")
+	@PojoSecurity(everyone = "111")
+	private String c20;
+	@DbColumn("C21")
+	@PojoSecurity(everyone = "111")
+	private Long c21;
+	@DbColumn("C22")
+	@PojoSecurity(everyone = "111")
+	private Double c22;
+	@DbColumn("C23")
+	@PojoSecurity(everyone = "111")
+	private Date c23;
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public Long getC01() {
+		return c01;
+	}
+	public void setC01(Long c01) {
+		this.c01 = c01;
+	}
+	public Double getC02() {
+		return c02;
+	}
+	public void setC02(Double c02) {
+		this.c02 = c02;
+	}
+	public Date getC03() {
+		return c03;
+	}
+	public void setC03(Date c03) {
+		this.c03 = c03;
+	}
+	public String getC04() {
+		return c04;
+	}
+	public void setC04(String c04) {
+		this.c04 = c04;
+	}
+	public Long getC05() {
+		return c05;
+	}
+	public void setC05(Long c05) {
+		this.c05 = c05;
+	}
+	public Double getC06() {
+		return c06;
+	}
+	public void setC06(Double c06) {
+		this.c06 = c06;
+	}
+	public Date getC07() {
+		return c07;
+	}
+	public void setC07(Date c07) {
+		this.c07 = c07;
+	}
+	public String getC08() {
+		return c08;
+	}
+	public void setC08(String c08) {
+		this.c08 = c08;
+	}
+	public Long getC09() {
+		return c09;
+	}
+	public void setC09(Long c09) {
+		this.c09 = c09;
+	}
+	public Double getC10() {
+		return c10;
+	}
+	public void setC10(Double c10) {
+		this.c10 = c10;
+	}
+	public Date getC11() {
+		return c11;
+	}
+	public void setC11(Date c11) {
+		this.c11 = c11;
+	}
+	public String getC12() {
+		return c12;
+	}
+	public void setC12(String c12) {
+		this.c12 = c12;
+	}
+	public Long getC13() {
+		return c13;
+	}
+	public void setC13(Long c13) {
+		this.c13 = c13;
+	}
+	public Double getC14() {
+		return c14;
+	}
+	public void setC14(Double c14) {
+		this.c14 = c14;
+	}
+	public Date getC15() {
+		return c15;
+	}
+	public void setC15(Date c15) {
+		this.c15 = c15;
+	}
+	public String getC16() {
+		return c16;
+	}
+	public void setC16(String c16) {
+		this.c16 = c16;
+	}
+	public Long getC17() {
+		return c17;
+	}
+	public void setC17(Long c17) {
+		this.c17 = c17;
+	}
+	public Double getC18() {
+		return c18;
+	}
+	public void setC18(Double c18) {
+		this.c18 = c18;
+	}
+	public Date getC19() {
+		return c19;
+	}
+	public void setC19(Date c19) {
+		this.c19 = c19;
+	}
+	public String getC20() {
+		return c20;
+	}
+	public void setC20(String c20) {
+		this.c20 = c20;
+	}
+	public Long getC21() {
+		return c21;
+	}
+	public void setC21(Long c21) {
+		this.c21 = c21;
+	}
+	public Double getC22() {
+		return c22;
+	}
+	public void setC22(Double c22) {
+		this.c22 = c22;
+	}
+	public Date getC23() {
+		return c23;
+	}
+	public void setC23(Date c23) {
+		this.c23 = c23;
+	}
+}
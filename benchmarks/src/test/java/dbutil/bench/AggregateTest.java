@@ -0,0 +1,54 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+
+/**
+ * The seeded orders of customer x have the amounts x.0 to x.4, the even ones PAID and the odd ones OPEN
+ */
+public class AggregateTest extends BenchDatabaseTest {
+	private static final double DELTA = 0.0001;
+
+	@Test
+	public void computesSingleValues() throws Exception {
+		BenchUser user = new BenchUser("user");
+		assertEquals(1413, new PojoQuery<CustomerOrder>(CustomerOrder.class, "where status = ?", "PAID").setSecurityUser(user).sum("amount"), DELTA);
+		assertEquals(CUSTOMERS, new PojoQuery<CustomerOrder>(CustomerOrder.class).setSecurityUser(user).countDistinct("customerId"));
+		assertEquals(0, new BigDecimal("30.4").compareTo(new PojoQuery<CustomerOrder>(CustomerOrder.class).setSecurityUser(user).max("amount", BigDecimal.class)));
+		assertEquals(3.2, new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ?", 3L).setSecurityUser(user).avg("amount"), DELTA);
+	}
+	@Test
+	public void groupsByField() throws Exception {
+		Map<Object, double[]> totals = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId <= ?", 10L).disableSecurity()
+				.aggregate().sum("amount").count().groupBy("status").grouped();
+		assertEquals(2, totals.size());
+		assertArrayEquals(new double[] { 171, 30 }, totals.get("PAID"), DELTA);
+		assertArrayEquals(new double[] { 114, 20 }, totals.get("OPEN"), DELTA);
+	}
+	@Test
+	public void ignoresTheRownumColumnOfALimit() throws Exception {
+		double[] all = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where status = ?", "PAID").disableSecurity().aggregate().count().max("amount").values();
+		double[] limited = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where status = ? limit(1, 10)", "PAID").disableSecurity().aggregate().count().max("amount").values();
+		assertArrayEquals(new double[] { 90, 30.4 }, all, DELTA);
+		assertArrayEquals(all, limited, DELTA);
+	}
+	@Test
+	public void returnsNaNWithoutRows() throws Exception {
+		double[] none = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId < 0").disableSecurity().aggregate().sum("amount").values();
+		assertTrue(Double.isNaN(none[0]));
+	}
+	@Test(expected = IllegalAccessException.class)
+	public void refusesFieldsTheUserMayNotSelect() throws Exception {
+		new PojoQuery<Customer>(Customer.class).setSecurityUser(new BenchUser("user")).countDistinct("email");
+	}
+}
@@ -0,0 +1,45 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.bench.model.WideRecord;
+
+public class BenchDatabaseBehaviorTest extends BenchDatabaseTest {
+	@Test
+	public void seedsTheSampleTables() throws Exception {
+		assertEquals(CUSTOMERS, new PojoQuery<Customer>(Customer.class, "").disableSecurity().count());
+		assertEquals(CUSTOMERS * BenchDatabase.ORDERS_PER_CUSTOMER, new PojoQuery<CustomerOrder>(CustomerOrder.class, "").disableSecurity().count());
+		assertEquals(CUSTOMERS, new PojoQuery<WideRecord>(WideRecord.class, "").disableSecurity().count());
+	}
+	@Test
+	public void restartRecreatesTheTables() throws Exception {
+		Customer c = new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).disableSecurity().single();
+		c.setName("changed");
+		new PojoQuery<Customer>(c).disableSecurity().update("name");
+		BenchDatabase.start(CUSTOMERS, 8);
+		assertEquals("customer 1", new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).disableSecurity().single().getName());
+	}
+	@Test
+	public void pagesWithRownumInOracleMode() throws Exception {
+		List<Customer> page = new PojoQuery<Customer>(Customer.class, "order by id limit(3, 4)").disableSecurity().list();
+		assertEquals(4, page.size());
+		// page 3 of 4 rows each
+		assertEquals(Long.valueOf(9), page.get(0).getId());
+	}
+	@Test
+	public void insertsWithTheSequence() throws Exception {
+		Customer c = new Customer();
+		c.setName("new");
+		new PojoQuery<Customer>(c).disableSecurity().insert();
+		assertNotNull(c.getId());
+		assertEquals(Long.valueOf(CUSTOMERS + 1), c.getId());
+	}
+}
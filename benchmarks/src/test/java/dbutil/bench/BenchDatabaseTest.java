@@ -0,0 +1,35 @@
+package dbutil.bench;
+
+import java.sql.SQLException;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+
+import dbutil.DB;
+import dbutil.DBInstance;
+import dbutil.ReplicaSet;
+
+/**
+ * Base of the behavior tests. Every test runs against freshly seeded sample tables and the settings of the shared
+ * schema (data source, replicas, bulkhead) are put back afterwards
+ */
+public abstract class BenchDatabaseTest {
+	protected static final int CUSTOMERS = 30;
+	protected JdbcConnectionPool pool;
+
+	@Before
+	public void startDatabase() throws SQLException {
+		pool = BenchDatabase.start(CUSTOMERS, 8);
+	}
+	@After
+	public void resetSchema() {
+		DBInstance db = BenchDatabase.SCHEMA.getInstance();
+		db.setDataSource(pool);
+		db.getReplicas().clear();
+		db.getReplicas().setBalance(ReplicaSet.Balance.ROUND_ROBIN).setReadYourWritesMillis(0);
+		db.getBulkhead().setMaxConcurrent(0).setMaxWaiting(Integer.MAX_VALUE).setWaitTimeoutMillis(30000)
+				.setCircuit(0, 0, 20, 30000).reset();
+		DB.setDebug(false);
+	}
+}
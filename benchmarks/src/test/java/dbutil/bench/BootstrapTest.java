@@ -0,0 +1,42 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import dbutil.Bootstrap;
+import dbutil.DBL;
+import dbutil.bench.broken.MisspelledOrder;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.bench.model.WideRecord;
+import dbutil.metrics.PqMetrics;
+
+public class BootstrapTest extends BenchDatabaseTest {
+	@Test
+	public void warmsUpTheEntitiesOfAPackage() throws Exception {
+		PqMetrics.reset();
+		Bootstrap.Report report = new Bootstrap("dbutil.bench.model").setConnections(6).run();
+		List<Class<?>> entities = report.getEntities();
+		assertTrue(entities.contains(Customer.class));
+		assertTrue(entities.contains(CustomerOrder.class));
+		assertTrue(entities.contains(WideRecord.class));
+		assertTrue(report.toString(), report.getProblems().isEmpty());
+		// the connections are opened at the same time to fill the pool
+		assertEquals(6, PqMetrics.getConnectionStats(DBL.QUIZ).getPeakConnectionsInUse());
+		assertEquals(0, PqMetrics.getConnectionStats(DBL.QUIZ).getConnectionsInUse());
+	}
+	@Test
+	public void reportsColumnsMissingFromTheTable() throws Exception {
+		Bootstrap.Report report = new Bootstrap("dbutil.bench.broken").setConnections(1).run();
+		assertEquals(1, report.getEntities().size());
+		boolean found = false;
+		for (String problem: report.getProblems()) {
+			found |= problem.startsWith(MisspelledOrder.class.getName() + ".amount: column AMMOUNT was not found");
+		}
+		assertTrue(report.toString(), found);
+	}
+}
@@ -0,0 +1,92 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dbutil.BufferedResult;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+
+public class BufferedResultTest extends BenchDatabaseTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void assertSameOrder(CustomerOrder expected, CustomerOrder actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getCustomerId(), actual.getCustomerId());
+		assertEquals(0, expected.getAmount().compareTo(actual.getAmount()));
+		assertEquals(expected.getStatus(), actual.getStatus());
+		assertEquals(expected.getOrdered(), actual.getOrdered());
+	}
+
+	@Test
+	public void keepsSmallResultsInMemory() throws Exception {
+		BufferedResult<Customer> result = new PojoQuery<Customer>(Customer.class, "order by id").disableSecurity().buffered(1024 * 1024, folder.getRoot());
+		try {
+			assertEquals(CUSTOMERS, result.size());
+			assertEquals(0, result.getSpilledRows());
+			assertEquals("customer 7", result.get(6).getName());
+			assertEquals(0, folder.getRoot().list().length);
+		} finally {
+			result.close();
+		}
+	}
+	@Test
+	public void spillsRowsPastTheMemoryLimitToAFile() throws Exception {
+		BenchDatabase.start(4000, 8);
+		List<CustomerOrder> all = new PojoQuery<CustomerOrder>(CustomerOrder.class, "order by id").disableSecurity().list();
+		BufferedResult<CustomerOrder> result = new PojoQuery<CustomerOrder>(CustomerOrder.class, "order by id").disableSecurity().buffered(64 * 1024, folder.getRoot());
+		try {
+			assertEquals(all.size(), result.size());
+			assertTrue(result.getSpilledRows() > all.size() / 2);
+			assertTrue(result.getSpilledBytes() > 0);
+			assertEquals(1, folder.getRoot().list().length);
+			int x = 0;
+			for (CustomerOrder o: result) {
+				assertSameOrder(all.get(x++), o);
+			}
+			Random random = new Random(1);
+			for (int n = 0; n < 500; n++) {
+				int idx = random.nextInt(result.size());
+				assertSameOrder(all.get(idx), result.get(idx));
+			}
+		} finally {
+			result.close();
+		}
+		// the spill file is deleted on close
+		assertEquals(0, folder.getRoot().list().length);
+	}
+	@Test
+	public void joinsSpilledRows() throws Exception {
+		BufferedResult<Customer> result = new PojoQuery<Customer>(Customer.class, "select id, name, orders where id < ? order by id", 5L).disableSecurity().buffered(0, folder.getRoot());
+		try {
+			assertEquals(4, result.size());
+			assertEquals(4, result.getSpilledRows());
+			assertEquals("customer 3", result.get(2).getName());
+			assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, result.get(2).getOrders().size());
+			assertNull(result.get(2).getEmail());
+		} finally {
+			result.close();
+		}
+	}
+	@Test
+	public void appliesFieldSecurity() throws Exception {
+		BufferedResult<Customer> result = new PojoQuery<Customer>(Customer.class, "order by id").setSecurityUser(new BenchUser("user")).buffered(0, folder.getRoot());
+		try {
+			assertEquals("customer 1", result.get(0).getName());
+			assertNull(result.get(0).getEmail());
+		} finally {
+			result.close();
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+}
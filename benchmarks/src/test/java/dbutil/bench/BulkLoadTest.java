@@ -0,0 +1,113 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import dbutil.BulkLoader;
+import dbutil.Export;
+import dbutil.PojoQuery;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.metrics.PqMetrics;
+import dbutil.metrics.QueryStats;
+
+public class BulkLoadTest extends BenchDatabaseTest {
+	private static final String CSV = "customer_id,AMOUNT,status,ordered,junk\n"
+			+ "1,2.5,PAID,2024-01-02 03:04:05,x\n"
+			+ "2,abc,PAID,2024-01-02 03:04:05,x\n"
+			+ "3,1,\"OP,EN\",2024-01-02 03:04:05,x\n"
+			+ "4,1,WAYTOOLONGSTATUS,2024-01-02 03:04:05,x\n"
+			+ "1,2\n";
+
+	private long orders() throws Exception {
+		return new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().count();
+	}
+	private Set<Long> rejectedLines(BulkLoader.Report report) {
+		Set<Long> lines = new HashSet<Long>();
+		for (BulkLoader.Rejected r: report.getRejected()) {
+			lines.add(r.getLine());
+		}
+		return lines;
+	}
+
+	@Test
+	public void loadsCsvAndRejectsBadRows() throws Exception {
+		long before = orders();
+		BulkLoader.Report report = new BulkLoader<CustomerOrder>(CustomerOrder.class).disableSecurity().load(new StringReader(CSV));
+		assertFalse(report.toString(), report.isAborted());
+		assertEquals(5, report.getRead());
+		assertEquals(2, report.getInserted());
+		assertEquals(3, report.getRejectedCount());
+		// a bad number, a value the database refuses and a short row
+		assertEquals(new HashSet<Long>(Arrays.asList(3L, 5L, 6L)), rejectedLines(report));
+		assertEquals(Arrays.asList("junk"), report.getUnmappedColumns());
+		assertEquals(before + 2, orders());
+		assertEquals(1, new PojoQuery<CustomerOrder>(CustomerOrder.class, "where status = ?", "OP,EN").disableSecurity().count());
+	}
+	@Test
+	public void loadsManyRowsOnSeveralThreads() throws Exception {
+		long before = orders();
+		StringBuilder csv = new StringBuilder("customer_id,amount,status\n");
+		for (int x = 0; x < 20000; x++) {
+			csv.append(x % CUSTOMERS + 1).append(',').append(x % 100).append(".5,LOADED\n");
+		}
+		PqMetrics.reset();
+		BulkLoader.Report report = new BulkLoader<CustomerOrder>(CustomerOrder.class).disableSecurity().setThreads(4).setBatchSize(500)
+				.setCommitInterval(2000).load(new StringReader(csv.toString()));
+		assertEquals(20000, report.getInserted());
+		assertEquals(0, report.getRejectedCount());
+		// one insert per batch and loaded rows are not fetched rows
+		QueryStats entity = PqMetrics.getEntityStats(CustomerOrder.class);
+		assertEquals(40, entity.getOperationCount("insert"));
+		assertEquals(0, entity.getRowsFetched());
+		assertEquals(before + 20000, orders());
+	}
+	@Test
+	public void loadsJsonLines() throws Exception {
+		String json = "{\"customerId\": 3, \"amount\": 12.25, \"status\": \"J\\\"S\", \"ordered\": \"2024-05-06\"}\n"
+				+ "{\"customerId\": 3, \"amount\": [1]}\n"
+				+ "\n"
+				+ "{\"customerId\":null,\"amount\":1,\"bogus\":true}\n";
+		BulkLoader.Report report = new BulkLoader<CustomerOrder>(CustomerOrder.class).disableSecurity().setFormat(Export.Format.JSON).load(new StringReader(json));
+		assertEquals(3, report.getRead());
+		assertEquals(2, report.getInserted());
+		assertEquals(1, report.getRejectedCount());
+		assertEquals(2, report.getRejected().get(0).getLine());
+		assertEquals(Arrays.asList("bogus"), report.getUnmappedColumns());
+		CustomerOrder loaded = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ? and amount = ?", 3L, new BigDecimal("12.25")).disableSecurity().single();
+		assertEquals("J\"S", loaded.getStatus());
+	}
+	@Test
+	public void abortsAfterTooManyRejectedRows() throws Exception {
+		BulkLoader.Report report = new BulkLoader<CustomerOrder>(CustomerOrder.class).disableSecurity().setMaxRejected(1).load(new StringReader(CSV));
+		assertTrue(report.isAborted());
+		assertEquals("More than 1 rows were rejected", report.getAbortReason());
+		assertEquals(1, report.getRejected().size());
+	}
+	@Test
+	public void abortsWhenAWriterDies() throws Exception {
+		BenchDatabase.SCHEMA.getInstance().setDataSource((DataSource) Proxy.newProxyInstance(BulkLoadTest.class.getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				throw new IllegalStateException("boom");
+			}
+		}));
+		BulkLoader.Report report = new BulkLoader<CustomerOrder>(CustomerOrder.class).disableSecurity().load(new StringReader(CSV));
+		assertTrue(report.isAborted());
+		assertEquals(IllegalStateException.class, report.getAbortCause().getClass());
+		assertEquals(0, report.getInserted());
+	}
+}
@@ -0,0 +1,179 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import dbutil.Bulkhead;
+import dbutil.DB;
+import dbutil.DBInstance;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+public class BulkheadTest extends BenchDatabaseTest {
+	// keeps a connection (and so a permit) until released
+	private static class Holder extends DB {
+		Holder hold() throws Exception {
+			beginTransaction();
+			init(BenchDatabase.SCHEMA);
+			return this;
+		}
+		void release() {
+			endTransaction();
+		}
+	}
+
+	private volatile boolean down;
+
+	private long count() throws Exception {
+		return new PojoQuery<Customer>(Customer.class).disableSecurity().count();
+	}
+
+	@Test
+	public void rejectsWhenTheWaitQueueIsFull() throws Exception {
+		Bulkhead bulkhead = BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(2).setMaxWaiting(0);
+		Holder h1 = new Holder().hold(), h2 = new Holder().hold();
+		try {
+			assertEquals(2, bulkhead.getInUse());
+			try {
+				count();
+				fail();
+			} catch (SQLTransientConnectionException e) {
+				assertEquals("QUIZ has 2 statements running and the wait queue is full", e.getMessage());
+			}
+			assertEquals(1, bulkhead.getRejected());
+		} finally {
+			h1.release();
+			h2.release();
+		}
+		assertEquals(0, bulkhead.getInUse());
+		assertEquals(CUSTOMERS, count());
+	}
+	@Test
+	public void timesOutWaitingForAPermit() throws Exception {
+		Bulkhead bulkhead = BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(1).setMaxWaiting(5).setWaitTimeoutMillis(200);
+		Holder h = new Holder().hold();
+		try {
+			long start = System.currentTimeMillis();
+			try {
+				count();
+				fail();
+			} catch (SQLTransientConnectionException e) {
+				assertEquals("Timed out waiting 200ms for a QUIZ connection", e.getMessage());
+			}
+			assertTrue(System.currentTimeMillis() - start >= 190);
+			assertEquals(1, bulkhead.getTimedOut());
+		} finally {
+			h.release();
+		}
+	}
+	@Test
+	public void waitsForAPermitToBeReleased() throws Exception {
+		BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(1).setWaitTimeoutMillis(5000);
+		final Holder h = new Holder().hold();
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				h.release();
+			}
+		};
+		releaser.start();
+		assertEquals(CUSTOMERS, count());
+		releaser.join();
+	}
+	@Test
+	public void opensTheCircuitWhenTheDatabaseFails() throws Exception {
+		DBInstance db = BenchDatabase.SCHEMA.getInstance();
+		db.setDataSource((DataSource) Proxy.newProxyInstance(BulkheadTest.class.getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (down && method.getName().equals("getConnection"))
+					throw new SQLException("db down");
+				try {
+					return method.invoke(pool, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		}));
+		Bulkhead bulkhead = db.getBulkhead().setCircuit(0.5, 0, 4, 300);
+		down = true;
+		for (int x = 0; x < 4; x++) {
+			try {
+				count();
+				fail();
+			} catch (SQLException e) {
+				assertEquals("db down", e.getMessage());
+			}
+		}
+		assertEquals(Bulkhead.State.OPEN, bulkhead.getCircuitState());
+		try {
+			count();
+			fail();
+		} catch (SQLTransientConnectionException e) {
+			assertEquals("QUIZ is unavailable (circuit open), failing fast", e.getMessage());
+		}
+		assertEquals(1, bulkhead.getShortCircuited());
+		down = false;
+		Thread.sleep(350);
+		assertEquals(Bulkhead.State.HALF_OPEN, bulkhead.getCircuitState());
+		for (int x = 0; x < 3; x++) {
+			assertEquals(CUSTOMERS, count());
+		}
+		assertEquals(Bulkhead.State.CLOSED, bulkhead.getCircuitState());
+		assertEquals(1, bulkhead.getOpenedCount());
+		assertEquals(0, bulkhead.getInUse());
+	}
+	@Test
+	public void keepsTheLimitWhenReconfiguredWhileInUse() throws Exception {
+		Bulkhead bulkhead = BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(1).setMaxWaiting(0);
+		Holder h1 = new Holder().hold();
+		bulkhead.setMaxConcurrent(1);
+		// the permit of h1 goes back to the replaced semaphore, not to the new one
+		h1.release();
+		Holder h2 = new Holder().hold();
+		try {
+			count();
+			fail();
+		} catch (SQLTransientConnectionException e) {
+		} finally {
+			h2.release();
+		}
+		assertEquals(0, bulkhead.getInUse());
+	}
+	@Test
+	public void releasesThePermitWhenTheDataSourceBreaks() throws Exception {
+		DBInstance db = BenchDatabase.SCHEMA.getInstance();
+		db.setDataSource((DataSource) Proxy.newProxyInstance(BulkheadTest.class.getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				throw new IllegalStateException("pool closed");
+			}
+		}));
+		Bulkhead bulkhead = db.getBulkhead().setMaxConcurrent(1);
+		for (int x = 0; x < 2; x++) {
+			try {
+				count();
+				fail();
+			} catch (IllegalStateException e) {
+			}
+		}
+		assertEquals(0, bulkhead.getInUse());
+		assertEquals(0, bulkhead.getTimedOut());
+	}
+}
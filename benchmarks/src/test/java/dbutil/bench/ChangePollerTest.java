@@ -0,0 +1,130 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dbutil.ChangePoller;
+import dbutil.PojoQuery;
+import dbutil.WatermarkStore;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+
+public class ChangePollerTest extends BenchDatabaseTest {
+	private static final int ORDERS = CUSTOMERS * BenchDatabase.ORDERS_PER_CUSTOMER;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// acknowledges every batch and remembers what it was given
+	private static class Collector<T> implements ChangePoller.Consumer<T> {
+		final List<Integer> sizes = new ArrayList<Integer>();
+		final List<T> rows = new ArrayList<T>();
+
+		@Override
+		public boolean accept(List<T> changes) {
+			sizes.add(changes.size());
+			rows.addAll(changes);
+			return true;
+		}
+	}
+
+	private static Set<Long> ids(List<CustomerOrder> orders) {
+		Set<Long> ids = new HashSet<Long>();
+		for (CustomerOrder o: orders) {
+			ids.add(o.getId());
+		}
+		return ids;
+	}
+	private void insertOrder(String status) throws Exception {
+		CustomerOrder o = new CustomerOrder();
+		o.setCustomerId(1L);
+		o.setStatus(status);
+		o.setAmount(BigDecimal.ONE);
+		o.setOrdered(new Date());
+		new PojoQuery<CustomerOrder>(o).disableSecurity().insert();
+	}
+
+	@Test
+	public void readsTheTableInBatchesAndThenOnlyNewRows() throws Exception {
+		Collector<CustomerOrder> consumer = new Collector<CustomerOrder>();
+		ChangePoller<CustomerOrder> poller = new ChangePoller<CustomerOrder>(CustomerOrder.class, "id").setBatchSize(30).disableSecurity();
+		assertEquals(ORDERS, poller.poll(consumer));
+		for (int size: consumer.sizes) {
+			assertTrue(size <= 30);
+		}
+		assertEquals(ORDERS, ids(consumer.rows).size());
+		assertEquals(Long.valueOf(ORDERS), poller.getWatermark());
+		assertEquals(0, poller.poll(consumer));
+		insertOrder("NEW");
+		assertEquals(1, poller.poll(consumer));
+		assertEquals(Long.valueOf(ORDERS + 1), poller.getWatermark());
+	}
+	@Test
+	public void keepsTheWatermarkInAStore() throws Exception {
+		File file = new File(folder.getRoot(), "watermarks.properties");
+		assertEquals(ORDERS, new ChangePoller<CustomerOrder>(CustomerOrder.class, "id").setStore(new WatermarkStore.PropertiesFile(file)).disableSecurity().poll(new Collector<CustomerOrder>()));
+		insertOrder("NEW");
+		// a new poller, as after a restart, goes on where the last one stopped
+		Collector<CustomerOrder> consumer = new Collector<CustomerOrder>();
+		ChangePoller<CustomerOrder> poller = new ChangePoller<CustomerOrder>(CustomerOrder.class, "id").setStore(new WatermarkStore.PropertiesFile(file)).disableSecurity();
+		assertEquals(Long.valueOf(ORDERS), poller.getWatermark());
+		assertEquals(1, poller.poll(consumer));
+		assertEquals("NEW", consumer.rows.get(0).getStatus());
+	}
+	@Test
+	public void neverSplitsRowsWithTheSameWatermark() throws Exception {
+		insertOrder("NEW");
+		Collector<CustomerOrder> consumer = new Collector<CustomerOrder>();
+		// orders of different customers share their timestamps, more of them than fit in a batch
+		ChangePoller<CustomerOrder> poller = new ChangePoller<CustomerOrder>(CustomerOrder.class, "ordered").setBatchSize(7).setFilter("status <> ?", "NEW").disableSecurity();
+		assertEquals(ORDERS, poller.poll(consumer));
+		assertEquals(ORDERS, ids(consumer.rows).size());
+		for (CustomerOrder o: consumer.rows) {
+			assertTrue(!"NEW".equals(o.getStatus()));
+		}
+	}
+	@Test
+	public void keepsTheWatermarkWhenABatchIsNotAcknowledged() throws Exception {
+		ChangePoller<CustomerOrder> poller = new ChangePoller<CustomerOrder>(CustomerOrder.class, "id").setBatchSize(10).disableSecurity();
+		assertEquals(0, poller.poll(new ChangePoller.Consumer<CustomerOrder>() {
+			@Override
+			public boolean accept(List<CustomerOrder> changes) {
+				return false;
+			}
+		}));
+		assertNull(poller.getWatermark());
+	}
+	@Test
+	public void startsAtTheInitialWatermark() throws Exception {
+		Collector<CustomerOrder> consumer = new Collector<CustomerOrder>();
+		assertEquals(10, new ChangePoller<CustomerOrder>(CustomerOrder.class, "id").setInitialWatermark(ORDERS - 10L).disableSecurity().poll(consumer));
+		assertEquals(Long.valueOf(ORDERS - 9), consumer.rows.get(0).getId());
+	}
+	@Test(expected = IllegalAccessException.class)
+	public void refusesAWatermarkTheUserMayNotSelect() throws Exception {
+		new ChangePoller<Customer>(Customer.class, "email").setSecurityUser(new BenchUser("user")).poll(new Collector<Customer>());
+	}
+	@Test
+	public void pollsAsAUserWhoMaySelectTheWatermark() throws Exception {
+		Collector<Customer> consumer = new Collector<Customer>();
+		assertEquals(CUSTOMERS, new ChangePoller<Customer>(Customer.class, "email").setSecurityUser(new BenchUser("admin", "admin")).poll(consumer));
+		assertEquals(CUSTOMERS, new ChangePoller<Customer>(Customer.class, "id").setSecurityUser(new BenchUser("user")).poll(new Collector<Customer>()));
+	}
+	@Test(expected = NoSuchFieldException.class)
+	public void needsAColumnAsTheWatermark() throws Exception {
+		new ChangePoller<Customer>(Customer.class, "orders");
+	}
+}
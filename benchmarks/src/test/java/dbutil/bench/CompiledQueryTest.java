@@ -0,0 +1,84 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import dbutil.CompiledQuery;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+
+public class CompiledQueryTest extends BenchDatabaseTest {
+	@Test
+	public void runsWithDifferentParameters() throws Exception {
+		CompiledQuery<CustomerOrder> query = CompiledQuery.compile(CustomerOrder.class, "where customerId = ? order by id");
+		List<CustomerOrder> orders = query.withoutSecurity().list(3L);
+		assertEquals(new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ? order by id", 3L).disableSecurity().list().size(), orders.size());
+		assertEquals(Long.valueOf(11), orders.get(0).getId());
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, query.withoutSecurity().count(4L));
+		assertTrue(query.withoutSecurity().exists(4L));
+		assertFalse(query.withoutSecurity().exists(-1L));
+		assertEquals(Long.valueOf(6), query.withoutSecurity().single(2L).getId());
+	}
+	@Test
+	public void selectsTheColumnsOfEachUser() throws Exception {
+		CompiledQuery<Customer> query = CompiledQuery.compile(Customer.class, "where id = ?");
+		assertNull(query.asUser(new BenchUser("user")).single(1L).getEmail());
+		assertEquals("customer1@example.com", query.asUser(new BenchUser("admin", "admin")).single(1L).getEmail());
+		assertNull(query.asUser(new BenchUser("other")).single(1L).getEmail());
+	}
+	@Test
+	public void keepsTheLimitOfThePql() throws Exception {
+		CompiledQuery<Customer> page = CompiledQuery.compile(Customer.class, "where id > ? order by id limit(2, 5)");
+		List<Customer> customers = page.withoutSecurity().list(0L);
+		assertEquals(5, customers.size());
+		assertEquals(Long.valueOf(6), customers.get(0).getId());
+	}
+	@Test
+	public void buildsTheStatementOnce() throws Exception {
+		CompiledQuery<Customer> query = CompiledQuery.compile(Customer.class, "select *, orders where id = ?");
+		String sql = query.withoutSecurity().getSql(PojoQuery.QueryType.select);
+		assertEquals(sql, new PojoQuery<Customer>(Customer.class, "select *, orders where id = ?", 1L).disableSecurity().getSql(PojoQuery.QueryType.select));
+		assertTrue(sql, sql.trim().endsWith("where c.CUSTOMER_ID = ?"));
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, query.withoutSecurity().single(2L).getOrders().size());
+	}
+	@Test
+	public void isSharedBetweenThreads() throws Exception {
+		final CompiledQuery<CustomerOrder> query = CompiledQuery.compile(CustomerOrder.class, "where customerId = ? order by id").withoutSecurity();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int x = 0; x < 200; x++) {
+				final long customer = x % CUSTOMERS + 1;
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						List<CustomerOrder> orders = query.list(customer);
+						for (CustomerOrder o: orders) {
+							assertEquals(Long.valueOf(customer), o.getCustomerId());
+						}
+						return orders.size();
+					}
+				}));
+			}
+			int rows = 0;
+			for (Future<Integer> f: futures) {
+				rows += f.get();
+			}
+			assertEquals(200 * BenchDatabase.ORDERS_PER_CUSTOMER, rows);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
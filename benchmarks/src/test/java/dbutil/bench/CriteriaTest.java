@@ -0,0 +1,74 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import dbutil.Condition;
+import dbutil.Criteria;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.bench.model.CustomerOrder_;
+import dbutil.bench.model.Customer_;
+
+public class CriteriaTest extends BenchDatabaseTest {
+	private static Criteria<Customer> openWithLargeOrders(String status, BigDecimal amount, Long... ids) {
+		return Criteria.from(Customer.class).where(Customer_.status.eq(status))
+				.and(Customer_.orders.join().amount.gt(amount).or(Customer_.id.in(ids))).orderBy(Customer_.name.desc());
+	}
+
+	@Test
+	public void buildsTheSqlAndParameters() throws Exception {
+		Criteria<Customer> criteria = openWithLargeOrders("OPEN", new BigDecimal("3"), 1L, 2L);
+		String sql = criteria.query().disableSecurity().getSql(PojoQuery.QueryType.select);
+		assertTrue(sql, sql.contains("join BENCH_ORDER o on c.CUSTOMER_ID=o.CUSTOMER_ID"));
+		assertTrue(sql, sql.contains("where (c.STATUS=? and (o.AMOUNT>? or c.CUSTOMER_ID in (?,?)))"));
+		assertTrue(sql, sql.trim().endsWith("order by c.NAME desc"));
+		assertEquals(Arrays.<Object>asList("OPEN", new BigDecimal("3"), 1L, 2L), criteria.getParameters());
+	}
+	@Test
+	public void findsWhatTheSamePqlFinds() throws Exception {
+		Criteria<Customer> criteria = openWithLargeOrders("OPEN", new BigDecimal("3"), 1L, 2L);
+		List<Customer> found = criteria.query().disableSecurity().list();
+		List<Customer> expected = new PojoQuery<Customer>(Customer.class, "where status = ? and (orders.amount > ? or id in (?,?)) order by name desc",
+				"OPEN", new BigDecimal("3"), 1L, 2L).disableSecurity().list();
+		assertEquals(expected.size(), found.size());
+		assertEquals(expected.get(0).getId(), found.get(0).getId());
+		assertEquals(found.size(), criteria.query().disableSecurity().count());
+		assertTrue(criteria.query().disableSecurity().exists());
+	}
+	@Test
+	public void combinesConditions() throws Exception {
+		assertEquals(10, Criteria.from(Customer.class).where(Condition.not(Customer_.status.eq("OPEN"))).query().disableSecurity().count());
+		assertEquals(5, Criteria.from(Customer.class).where(Customer_.id.between(3L, 7L)).query().disableSecurity().count());
+		assertEquals(11, Criteria.from(Customer.class).where(Customer_.name.like("customer 1%")).query().disableSecurity().count());
+		assertEquals(3, Criteria.from(Customer.class).where(Customer_.id.in(Arrays.asList(1L, 2L, 3L))).query().disableSecurity().count());
+		assertEquals(0, Criteria.from(Customer.class).where(Customer_.name.isNull()).query().disableSecurity().count());
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, Criteria.from(CustomerOrder.class).where(CustomerOrder_.customerId.eq(3L)).query().disableSecurity().list().size());
+	}
+	@Test
+	public void pagesTheResult() throws Exception {
+		List<Customer> page = Criteria.from(Customer.class).orderBy(Customer_.id.asc()).page(2, 5).query().disableSecurity().list();
+		assertEquals(5, page.size());
+		assertEquals(Long.valueOf(6), page.get(0).getId());
+	}
+	@Test
+	public void equalsACriteriaOfTheSameShape() {
+		Criteria<Customer> a = openWithLargeOrders("OPEN", new BigDecimal("3"), 1L, 2L);
+		Criteria<Customer> b = openWithLargeOrders("X", BigDecimal.ONE, 5L, 6L);
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(openWithLargeOrders("OPEN", BigDecimal.ONE, 1L, 2L, 3L)));
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAttributesOfAnotherEntity() {
+		Criteria.from(Customer.class).where(CustomerOrder_.status.eq("PAID"));
+	}
+}
@@ -0,0 +1,76 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import dbutil.DBL;
+import dbutil.EntityMeta;
+import dbutil.EntityMetas;
+import dbutil.PojoQuery;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.bench.model.Customer;
+
+public class EntityMetaTest extends BenchDatabaseTest {
+	// skipped by the processor, an inner class can't be created without its enclosing instance
+	@DbTable(value = "BENCH_CUSTOMER", schema = DBL.QUIZ)
+	public class Inner {
+		@DbColumn("CUSTOMER_ID")
+		private Long id;
+	}
+
+	@Test
+	public void usesTheGeneratedMetadata() {
+		EntityMeta<Customer> meta = EntityMetas.get(Customer.class);
+		assertTrue(meta.isGenerated());
+		assertEquals("BENCH_CUSTOMER", meta.getTable());
+		assertEquals("c", meta.getAlias());
+		assertArrayEquals(new String[] { "id", "name", "email", "status", "created" }, meta.getFieldNames());
+		assertArrayEquals(new int[] { 0 }, meta.getIdIndexes());
+	}
+	@Test
+	public void generatesTheStatements() {
+		EntityMeta<Customer> meta = EntityMetas.get(Customer.class);
+		assertEquals("insert into BENCH_CUSTOMER(CUSTOMER_ID,NAME,EMAIL,STATUS,CREATED) values(bench_customer_seq.nextval,?,?,?,?)", meta.getInsertSql());
+		assertEquals("update BENCH_CUSTOMER set NAME=?,EMAIL=?,STATUS=?,CREATED=? where CUSTOMER_ID=?", meta.getUpdateSql());
+		assertEquals("delete from BENCH_CUSTOMER where CUSTOMER_ID=?", meta.getDeleteSql());
+		assertTrue(meta.getSelectSql().startsWith("select c.CUSTOMER_ID,c.NAME,c.EMAIL,c.STATUS,c.CREATED from BENCH_CUSTOMER c"));
+	}
+	@Test
+	public void readsAndWritesFields() throws Exception {
+		EntityMeta<Customer> meta = EntityMetas.get(Customer.class);
+		Customer c = meta.newInstance();
+		meta.set(c, meta.indexOf("name"), "set by meta");
+		assertEquals("set by meta", c.getName());
+		c.setStatus("OPEN");
+		assertEquals("OPEN", meta.get(c, meta.indexOf("status")));
+		assertEquals(-1, meta.indexOf("orders"));
+	}
+	@Test
+	public void parsesTheSecurityOnce() {
+		EntityMeta<Customer> meta = EntityMetas.get(Customer.class);
+		int email = meta.indexOf("email");
+		assertEquals(1, meta.getFieldSecurity(email).getRights(new BenchUser("user")));
+		assertEquals(7, meta.getFieldSecurity(email).getRights(new BenchUser("admin", "admin")));
+		assertEquals(3, meta.getTableSecurity().getRights(null));
+	}
+	@Test
+	public void selectsTheColumnsOfTheMetadata() throws Exception {
+		String sql = new PojoQuery<Customer>(Customer.class, "").disableSecurity().getSql(PojoQuery.QueryType.select);
+		assertTrue(sql, sql.startsWith("select c.CUSTOMER_ID,c.NAME,c.EMAIL,c.STATUS,c.CREATED"));
+		Customer c = new PojoQuery<Customer>(Customer.class, "where id = ?", 4L).setSecurityUser(new BenchUser("user")).single();
+		assertEquals("customer 4", c.getName());
+		assertNull(c.getEmail());
+	}
+	@Test(expected = InstantiationException.class)
+	public void refusesToCreateAnEntityWithoutANoArgumentConstructor() throws Exception {
+		EntityMeta<Inner> meta = EntityMetas.get(Inner.class);
+		assertFalse(meta.isGenerated());
+		meta.newInstance();
+	}
+}
@@ -0,0 +1,83 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+public class ExistsTest extends BenchDatabaseTest {
+	// statement prepared last
+	private volatile String sql;
+
+	private Object wrap(final Object target, final Class<?> type) {
+		return Proxy.newProxyInstance(ExistsTest.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("prepareStatement"))
+					sql = (String) args[0];
+				Object result;
+				try {
+					result = method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Connection)
+					return wrap(result, Connection.class);
+				return result;
+			}
+		});
+	}
+
+	@Test
+	public void checksTheWhereClause() throws Exception {
+		assertTrue(new PojoQuery<Customer>(Customer.class, "where name = ?", "customer 3").disableSecurity().exists());
+		assertFalse(new PojoQuery<Customer>(Customer.class, "where name = ?", "nobody").disableSecurity().exists());
+		assertTrue(new PojoQuery<Customer>(Customer.class).disableSecurity().exists());
+	}
+	@Test
+	public void ignoresTheOrderByAndFollowsJoins() throws Exception {
+		assertTrue(new PojoQuery<Customer>(Customer.class, "where orders.status = ? order by name", "PAID").disableSecurity().exists());
+		assertFalse(new PojoQuery<Customer>(Customer.class, "where orders.status = ? order by name", "LOST").disableSecurity().exists());
+	}
+	@Test
+	public void matchesTheExampleObject() throws Exception {
+		Customer c = new Customer();
+		c.setName("nobody");
+		assertFalse(new PojoQuery<Customer>(c).disableSecurity().exists());
+		c.setName("customer 3");
+		assertTrue(new PojoQuery<Customer>(c).disableSecurity().exists());
+		assertEquals(1, new PojoQuery<Customer>(c).disableSecurity().count());
+	}
+	@Test
+	public void readsAtMostOneRow() throws Exception {
+		BenchDatabase.SCHEMA.getInstance().setDataSource((DataSource) wrap(pool, DataSource.class));
+		assertTrue(new PojoQuery<Customer>(Customer.class, "where id > ?", 0L).disableSecurity().exists());
+		// every customer matches, the statement that was sent must still return a single row
+		Connection con = pool.getConnection();
+		try {
+			PreparedStatement ps = con.prepareStatement(sql);
+			ps.setLong(1, 0L);
+			ResultSet rs = ps.executeQuery();
+			int rows = 0;
+			while (rs.next())
+				rows++;
+			assertEquals(1, rows);
+		} finally {
+			con.close();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import dbutil.Export;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+
+public class ExportTest extends BenchDatabaseTest {
+	@Test
+	public void writesCsvWithAHeader() throws Exception {
+		StringWriter out = new StringWriter();
+		int rows = new PojoQuery<Customer>(Customer.class, "where id <= ? order by id", 3L).disableSecurity().export().setDateFormat("yyyy").to(out);
+		assertEquals(3, rows);
+		String[] lines = out.toString().split("\n");
+		assertEquals(4, lines.length);
+		assertEquals("id,name,email,status,created", lines[0]);
+		assertTrue(lines[3], lines[3].matches("3,customer 3,customer3@example.com,CLOSED,\\d{4}"));
+	}
+	@Test
+	public void writesJsonLines() throws Exception {
+		StringWriter out = new StringWriter();
+		new PojoQuery<CustomerOrder>(CustomerOrder.class, "where id < ? order by id", 3L).disableSecurity().export().setFormat(Export.Format.JSON).setDateFormat("yyyy").to(out);
+		String[] lines = out.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1], lines[1].matches("\\{\"id\":2,\"customerId\":1,\"amount\":1.1,\"status\":\"OPEN\",\"ordered\":\"\\d{4}\"\\}"));
+	}
+	@Test
+	public void writesTheSelectedColumns() throws Exception {
+		StringWriter out = new StringWriter();
+		new PojoQuery<Customer>(Customer.class, "select name, email where id < ? order by id", 3L).disableSecurity().export().useColumnNames(true).setDelimiter(';').to(out);
+		assertEquals("NAME;EMAIL\ncustomer 1;customer1@example.com\ncustomer 2;customer2@example.com\n", out.toString());
+	}
+	@Test
+	public void leavesOutFieldsTheUserMayNotSelect() throws Exception {
+		StringWriter out = new StringWriter();
+		new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).setSecurityUser(new BenchUser("user")).export().setHeader(false).setDateFormat("yyyy").to(out);
+		assertTrue(out.toString(), out.toString().matches("1,customer 1,OPEN,\\d{4}\n"));
+	}
+	@Test
+	public void escapesValues() throws Exception {
+		Customer c = new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).disableSecurity().single();
+		c.setName("a, \"b\"");
+		new PojoQuery<Customer>(c).disableSecurity().update("name");
+		StringWriter csv = new StringWriter();
+		new PojoQuery<Customer>(Customer.class, "select name where id = ?", 1L).disableSecurity().export().setHeader(false).to(csv);
+		assertEquals("\"a, \"\"b\"\"\"\n", csv.toString());
+		StringWriter json = new StringWriter();
+		new PojoQuery<Customer>(Customer.class, "select name where id = ?", 1L).disableSecurity().export().setFormat(Export.Format.JSON).to(json);
+		assertEquals("{\"name\":\"a, \\\"b\\\"\"}\n", json.toString());
+	}
+	@Test
+	public void streamsAllRowsToAnOutputStream() throws Exception {
+		BenchDatabase.start(5000, 8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(5000, new PojoQuery<Customer>(Customer.class, "order by id").disableSecurity().export().setFormat(Export.Format.JSON).to(out));
+		String[] lines = out.toString("UTF-8").split("\n");
+		assertEquals(5000, lines.length);
+		assertTrue(lines[4999], lines[4999].startsWith("{\"id\":5000,\"name\":\"customer 5000\","));
+	}
+}
@@ -0,0 +1,178 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dbutil.Criteria;
+import dbutil.DBL;
+import dbutil.FanOutQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.bench.model.Customer_;
+
+public class FanOutQueryTest extends BenchDatabaseTest {
+	// the customers with id % 3 == 1 and 2 are copied to these schemas, their order amounts times 1000
+	private static final DBL[] SHARDS = { DBL.RMS, DBL.NSS };
+	private final DataSource[] original = new DataSource[SHARDS.length];
+	private final JdbcConnectionPool[] shards = new JdbcConnectionPool[SHARDS.length];
+
+	private JdbcConnectionPool copy(String name, int mod) throws Exception {
+		JdbcConnectionPool shard = JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";MODE=Oracle;DB_CLOSE_DELAY=-1", "sa", "");
+		Connection src = pool.getConnection();
+		Connection dst = shard.getConnection();
+		try {
+			Statement st = dst.createStatement();
+			st.execute("drop table if exists BENCH_ORDER");
+			st.execute("drop table if exists BENCH_CUSTOMER");
+			st.execute("create table BENCH_CUSTOMER (CUSTOMER_ID BIGINT primary key, NAME VARCHAR(60), EMAIL VARCHAR(80), STATUS VARCHAR(10), CREATED TIMESTAMP)");
+			st.execute("create table BENCH_ORDER (ORDER_ID BIGINT primary key, CUSTOMER_ID BIGINT, AMOUNT DECIMAL(12,2), STATUS VARCHAR(10), ORDERED TIMESTAMP)");
+			st.close();
+			for (String table: new String[] { "BENCH_CUSTOMER", "BENCH_ORDER" }) {
+				ResultSet rs = src.createStatement().executeQuery("select * from " + table + " where mod(CUSTOMER_ID, 3) = " + mod);
+				PreparedStatement ps = dst.prepareStatement("insert into " + table + " values (?,?,?,?,?)");
+				while (rs.next()) {
+					for (int x = 1; x <= 5; x++) {
+						ps.setObject(x, rs.getObject(x));
+					}
+					if (table.equals("BENCH_ORDER"))
+						ps.setBigDecimal(3, rs.getBigDecimal(3).multiply(BigDecimal.valueOf(1000)));
+					ps.executeUpdate();
+				}
+				rs.close();
+				ps.close();
+			}
+		} finally {
+			src.close();
+			dst.close();
+		}
+		return shard;
+	}
+
+	@Before
+	public void createShards() throws Exception {
+		for (int x = 0; x < SHARDS.length; x++) {
+			original[x] = SHARDS[x].getInstance().getDataSource();
+			shards[x] = copy("pqshard" + x, x + 1);
+			SHARDS[x].getInstance().setDataSource(shards[x]);
+		}
+	}
+	@After
+	public void dropShards() {
+		for (int x = 0; x < SHARDS.length; x++) {
+			SHARDS[x].getInstance().setDataSource(original[x]);
+			shards[x].dispose();
+		}
+	}
+
+	@Test
+	public void combinesTheRowsOfEverySchema() throws Exception {
+		List<Customer> all = new FanOutQuery<Customer>(Customer.class, "").on(DBL.QUIZ, DBL.RMS, DBL.NSS).disableSecurity().list();
+		// the main schema has all customers, the shards a third each
+		assertEquals(CUSTOMERS * 5 / 3, all.size());
+	}
+	@Test
+	public void mergesTheOrderOfEachSchema() throws Exception {
+		List<Customer> customers = new FanOutQuery<Customer>(Customer.class, "where status = ? order by name desc, id", "OPEN").on(DBL.QUIZ, DBL.RMS, DBL.NSS)
+				.disableSecurity().ordered().list();
+		assertEquals(40, customers.size());
+		for (int x = 1; x < customers.size(); x++) {
+			Customer a = customers.get(x - 1), b = customers.get(x);
+			int cmp = a.getName().compareTo(b.getName());
+			assertTrue(cmp > 0 || (cmp == 0 && a.getId() <= b.getId()));
+		}
+		assertEquals("customer 8", customers.get(0).getName());
+	}
+	@Test
+	public void mergesTheOrderOfACriteria() throws Exception {
+		List<Customer> customers = new FanOutQuery<Customer>(Criteria.from(Customer.class).where(Customer_.id.lt(10L)).orderBy(Customer_.id.desc()))
+				.on(DBL.QUIZ, DBL.RMS, DBL.NSS).disableSecurity().ordered().list();
+		assertEquals(9 + 6, customers.size());
+		assertEquals(Long.valueOf(9), customers.get(0).getId());
+		assertEquals(Long.valueOf(8), customers.get(1).getId());
+		assertEquals(Long.valueOf(8), customers.get(2).getId());
+		assertEquals(Long.valueOf(1), customers.get(customers.size() - 1).getId());
+	}
+	@Test
+	public void limitsEachSchemaToThePage() throws Exception {
+		List<Customer> page = new FanOutQuery<Customer>(Customer.class, "order by id limit(1, 4)").on(DBL.QUIZ, DBL.RMS).disableSecurity().ordered().list();
+		assertEquals(8, page.size());
+	}
+	@Test
+	public void joinsFromTheSchemaOfTheRow() throws Exception {
+		final Map<DBL, Integer> large = new HashMap<DBL, Integer>();
+		new FanOutQuery<Customer>(Customer.class, "select id, name, orders where id < ?", 20L).on(DBL.QUIZ, DBL.RMS).disableSecurity().forEach(new FanOutQuery.Consumer<Customer>() {
+			@Override
+			public boolean accept(DBL schema, Customer c) {
+				assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, c.getOrders().size());
+				for (CustomerOrder o: c.getOrders()) {
+					if (o.getAmount().compareTo(BigDecimal.valueOf(5000)) > 0)
+						large.put(schema, large.containsKey(schema) ? large.get(schema) + 1 : 1);
+				}
+				return true;
+			}
+		});
+		assertEquals(1, large.size());
+		assertEquals(Integer.valueOf(25), large.get(DBL.RMS));
+	}
+	@Test
+	public void joinsWithASinglePermitPerSchema() throws Exception {
+		BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(1).setWaitTimeoutMillis(1500);
+		List<Customer> customers = new FanOutQuery<Customer>(Customer.class, "select id, name, orders where id < ? order by id", 5L).on(DBL.QUIZ).disableSecurity().ordered().list();
+		assertEquals(4, customers.size());
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, customers.get(0).getOrders().size());
+		assertEquals(0, BenchDatabase.SCHEMA.getInstance().getBulkhead().getInUse());
+	}
+	@Test
+	public void stopsWhenTheConsumerIsDone() throws Exception {
+		final int[] seen = { 0 };
+		int rows = new FanOutQuery<Customer>(Customer.class, "order by id").on(DBL.QUIZ, DBL.RMS, DBL.NSS).disableSecurity().setQueueSize(10).ordered()
+				.forEach(new FanOutQuery.Consumer<Customer>() {
+					@Override
+					public boolean accept(DBL schema, Customer c) {
+						return ++seen[0] < 5;
+					}
+				});
+		assertEquals(5, rows);
+		assertEquals(0, pool.getActiveConnections());
+		assertEquals(0, shards[0].getActiveConnections());
+		assertEquals(0, shards[1].getActiveConnections());
+	}
+	@Test
+	public void failsOrReturnsPartialResultsWhenASchemaFails() throws Exception {
+		try {
+			new FanOutQuery<Customer>(Customer.class, "").on(DBL.QUIZ, DBL.GIS).disableSecurity().list();
+			fail();
+		} catch (Exception e) {
+		}
+		FanOutQuery<Customer> partial = new FanOutQuery<Customer>(Customer.class, "order by id").on(DBL.QUIZ, DBL.GIS, DBL.RMS).disableSecurity().ordered().setPartialResults(true);
+		assertEquals(CUSTOMERS + CUSTOMERS / 3, partial.list().size());
+		assertEquals(1, partial.getFailures().size());
+		assertTrue(partial.getFailures().containsKey(DBL.GIS));
+	}
+	@Test
+	public void onlyMergesByFieldsOfTheEntity() throws Exception {
+		try {
+			new FanOutQuery<Customer>(Customer.class, "order by c.name, o.amount").on(DBL.QUIZ).ordered().list();
+			fail();
+		} catch (NoSuchFieldException e) {
+			assertEquals("Unable to merge by o.amount, only fields of Customer can be merged", e.getMessage());
+		}
+	}
+}
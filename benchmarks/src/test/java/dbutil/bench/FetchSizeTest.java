@@ -0,0 +1,93 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dbutil.DB;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+public class FetchSizeTest extends BenchDatabaseTest {
+	// fetch size passed to the last prepared statement, 0 when the driver default was kept
+	private volatile int fetchSize;
+
+	private Object wrap(final Object target, final Class<?> type) {
+		return Proxy.newProxyInstance(FetchSizeTest.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("setFetchSize"))
+					fetchSize = (Integer) args[0];
+				Object result;
+				try {
+					result = method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if (result instanceof Connection)
+					return wrap(result, Connection.class);
+				if (result instanceof PreparedStatement) {
+					fetchSize = 0;
+					return wrap(result, PreparedStatement.class);
+				}
+				return result;
+			}
+		});
+	}
+
+	@Before
+	public void recordFetchSizes() {
+		BenchDatabase.SCHEMA.getInstance().setDataSource((DataSource) wrap(pool, DataSource.class));
+	}
+	@After
+	public void resetDefault() {
+		DB.setDefaultFetchSize(0);
+	}
+
+	@Test
+	public void keepsTheDriverDefaultUnlessConfigured() throws Exception {
+		new PojoQuery<Customer>(Customer.class).disableSecurity().list();
+		assertEquals(0, fetchSize);
+	}
+	@Test
+	public void usesTheFetchSizeOfTheQuery() throws Exception {
+		assertEquals(CUSTOMERS, new PojoQuery<Customer>(Customer.class).disableSecurity().setFetchSize(200).list().size());
+		assertEquals(200, fetchSize);
+	}
+	@Test
+	public void usesTheGlobalDefault() throws Exception {
+		DB.setDefaultFetchSize(500);
+		new PojoQuery<Customer>(Customer.class).disableSecurity().list();
+		assertEquals(500, fetchSize);
+		new PojoQuery<Customer>(Customer.class).disableSecurity().setFetchSize(20).list();
+		assertEquals(20, fetchSize);
+	}
+	@Test
+	public void sizesAnAdaptiveFetchFromTheColumns() throws Exception {
+		// a customer is estimated at 216 bytes (its orders are not a column) so 256KB would be 1213 rows, more than the cap
+		new PojoQuery<Customer>(Customer.class).disableSecurity().setFetchSize(DB.FETCH_ADAPTIVE).list();
+		assertEquals(1000, fetchSize);
+	}
+	@Test
+	public void capsTheFetchSizeAtThePageOfALimit() throws Exception {
+		assertEquals(25, new PojoQuery<Customer>(Customer.class, "order by id limit(1, 25)").disableSecurity().setFetchSize(DB.FETCH_ADAPTIVE).list().size());
+		assertEquals(25, fetchSize);
+	}
+	@Test
+	public void exportsInBatchesWithoutAConfiguredFetchSize() throws Exception {
+		new PojoQuery<Customer>(Customer.class).disableSecurity().export().to(new StringWriter());
+		assertEquals(1000, fetchSize);
+	}
+}
@@ -0,0 +1,76 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dbutil.EntityCache;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.HiddenIdCustomer;
+
+public class GetAllTest extends BenchDatabaseTest {
+	// caches by id only, enough for a single entity class
+	private static class MapCache implements EntityCache {
+		final Map<Object, Object> entries = new HashMap<Object, Object>();
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T get(Class<T> entity, Object id) {
+			return (T) entries.get(id);
+		}
+		@Override
+		public <T> void put(Class<T> entity, Object id, T value) {
+			entries.put(id, value);
+		}
+	}
+
+	@Test
+	public void loadsMoreIdsThanOneInListHolds() throws Exception {
+		BenchDatabase.start(2600, 8);
+		List<Object> ids = new ArrayList<Object>();
+		for (int id = 1; id <= 2503; id++) {
+			ids.add(id);
+		}
+		ids.add(999999L);
+		Map<Object, Customer> found = new PojoQuery<Customer>(Customer.class).disableSecurity().getAll(ids);
+		assertEquals(2503, found.size());
+		// keyed by the id converted to the field type, in the order of the passed ids
+		assertEquals(Long.valueOf(1), found.keySet().iterator().next());
+		assertEquals("customer 2503", found.get(2503L).getName());
+	}
+	@Test
+	public void onlyLoadsIdsMissingFromTheCache() throws Exception {
+		MapCache cache = new MapCache();
+		new PojoQuery<Customer>(Customer.class).disableSecurity().useCache(cache).getAll(Arrays.asList(1, 2, 3));
+		assertEquals(3, cache.entries.size());
+		Customer cached = (Customer) cache.entries.get(2L);
+		Map<Object, Customer> found = new PojoQuery<Customer>(Customer.class).disableSecurity().useCache(cache).getAll(Arrays.asList(1, 2, 3, 4, 5));
+		assertEquals(Arrays.<Object>asList(1L, 2L, 3L, 4L, 5L), new ArrayList<Object>(found.keySet()));
+		assertTrue(cached == found.get(2L));
+		assertEquals(5, cache.entries.size());
+	}
+	@Test
+	public void appliesFieldSecurity() throws Exception {
+		Customer c = new PojoQuery<Customer>(Customer.class).setSecurityUser(new BenchUser("user")).getAll(Arrays.asList(1)).get(1L);
+		assertEquals("customer 1", c.getName());
+		assertNull(c.getEmail());
+	}
+	@Test(expected = IllegalAccessException.class)
+	public void refusesToKeyByAHiddenId() throws Exception {
+		new PojoQuery<HiddenIdCustomer>(HiddenIdCustomer.class).setSecurityUser(new BenchUser("user")).getAll(Arrays.asList(1, 2));
+	}
+	@Test
+	public void keysByTheIdWhenTheUserMaySelectIt() throws Exception {
+		Map<Object, HiddenIdCustomer> found = new PojoQuery<HiddenIdCustomer>(HiddenIdCustomer.class).setSecurityUser(new BenchUser("admin", "admin")).getAll(Arrays.asList(1, 2));
+		assertEquals(2, found.size());
+	}
+}
@@ -0,0 +1,39 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import dbutil.IdIndex;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.bench.model.HiddenIdCustomer;
+
+public class IdIndexTest extends BenchDatabaseTest {
+	@Test
+	public void findsEntitiesByPrimitiveAndBoxedIds() throws Exception {
+		IdIndex<Customer> index = new PojoQuery<Customer>(Customer.class).disableSecurity().index();
+		assertEquals(CUSTOMERS, index.size());
+		assertEquals("customer 7", index.get(7).getName());
+		assertEquals("customer 7", index.get(7L).getName());
+		assertEquals("customer 7", index.get(Long.valueOf(7)).getName());
+		assertTrue(index.containsId(CUSTOMERS));
+		assertFalse(index.containsId(CUSTOMERS + 1));
+		assertNull(index.get(99999));
+	}
+	@Test
+	public void keepsTheOrderOfTheQuery() throws Exception {
+		IdIndex<CustomerOrder> index = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ? order by id desc", 2L).disableSecurity().index();
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, index.size());
+		assertEquals(Long.valueOf(10), index.values().get(0).getId());
+		assertEquals(Long.valueOf(6), index.values().get(4).getId());
+	}
+	@Test(expected = IllegalAccessException.class)
+	public void refusesToIndexByAHiddenId() throws Exception {
+		new PojoQuery<HiddenIdCustomer>(HiddenIdCustomer.class).setSecurityUser(new BenchUser("user")).index();
+	}
+}
@@ -0,0 +1,67 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import dbutil.DBL;
+import dbutil.PojoQuery;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.metrics.ConnectionStats;
+import dbutil.metrics.PqMetrics;
+import dbutil.metrics.QueryStats;
+
+public class MetricsTest extends BenchDatabaseTest {
+	@Test
+	public void countsQueriesAndRowsPerEntityAndSchema() throws Exception {
+		PqMetrics.reset();
+		new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ?", 1L).disableSecurity().list();
+		QueryStats entity = PqMetrics.getEntityStats(CustomerOrder.class);
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, entity.getRowsFetched());
+		new PojoQuery<CustomerOrder>(CustomerOrder.class, "").disableSecurity().count();
+		assertEquals(2, entity.getQueryCount());
+		assertEquals(1, entity.getOperationCount("select"));
+		assertEquals(1, entity.getOperationCount("count"));
+		assertTrue(PqMetrics.getSchemaStats(DBL.QUIZ).getQueryCount() >= 2);
+	}
+	@Test
+	public void countsFailedQueries() throws Exception {
+		PqMetrics.reset();
+		try {
+			new PojoQuery<CustomerOrder>(CustomerOrder.class, "where nosuchcolumn = 1").disableSecurity().list();
+			fail("the query should fail");
+		} catch (SQLException e) {
+			// expected
+		}
+		assertEquals(1, PqMetrics.getEntityStats(CustomerOrder.class).getOperationErrorCount("select"));
+	}
+	@Test
+	public void releasesEveryConnection() throws Exception {
+		PqMetrics.reset();
+		for (int x = 0; x < 5; x++) {
+			new PojoQuery<CustomerOrder>(CustomerOrder.class, "").disableSecurity().count();
+		}
+		ConnectionStats cs = PqMetrics.getConnectionStats(DBL.QUIZ);
+		assertEquals(5, cs.getConnectionsAcquired());
+		assertEquals(0, cs.getConnectionsInUse());
+		assertTrue(cs.getPeakConnectionsInUse() >= 1);
+	}
+	@Test
+	public void registersMBeans() throws Exception {
+		PqMetrics.setJmxEnabled(true);
+		try {
+			// stats are registered when they are first used
+			PqMetrics.getEntityStats(MetricsTest.class);
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(PqMetrics.JMX_DOMAIN + ":type=Entity,name=" + MetricsTest.class.getName())));
+		} finally {
+			PqMetrics.setJmxEnabled(false);
+		}
+	}
+}
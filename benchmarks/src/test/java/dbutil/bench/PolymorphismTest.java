@@ -0,0 +1,101 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.poly.BuildingPermit;
+import dbutil.bench.poly.ElectricalPermit;
+import dbutil.bench.poly.Permit;
+
+public class PolymorphismTest extends BenchDatabaseTest {
+	@Before
+	public void createPermits() throws Exception {
+		Connection con = pool.getConnection();
+		try {
+			Statement st = con.createStatement();
+			st.execute("drop table if exists BENCH_PERMIT");
+			st.execute("drop sequence if exists bench_permit_seq");
+			st.execute("create table BENCH_PERMIT(PERMIT_ID bigint primary key, PERMIT_TYPE varchar(1), FLOORS int, AMPS int)");
+			st.execute("create sequence bench_permit_seq start with 10");
+			st.execute("insert into BENCH_PERMIT values(1, 'B', 3, null), (2, 'E', null, 200), (3, 'B', 12, null), (4, 'X', null, null)");
+			st.close();
+		} finally {
+			con.close();
+		}
+	}
+
+	@Test
+	public void createsEachRowAsItsSubtype() throws Exception {
+		List<Permit> permits = new PojoQuery<Permit>(Permit.class, "order by id").list();
+		assertEquals(4, permits.size());
+		assertEquals(BuildingPermit.class, permits.get(0).getClass());
+		assertEquals(Integer.valueOf(3), ((BuildingPermit) permits.get(0)).getFloors());
+		assertEquals(ElectricalPermit.class, permits.get(1).getClass());
+		assertEquals(Integer.valueOf(200), ((ElectricalPermit) permits.get(1)).getAmps());
+		// a type without a mapping stays the base class
+		assertEquals(Permit.class, permits.get(3).getClass());
+	}
+	@Test
+	public void filtersOnSubtypeColumns() throws Exception {
+		List<Permit> permits = new PojoQuery<Permit>(Permit.class, "where floors > ? or amps > ? order by id", 5, 100).list();
+		assertEquals(2, permits.size());
+		assertEquals(Long.valueOf(2), permits.get(0).getId());
+		assertEquals(Long.valueOf(3), permits.get(1).getId());
+	}
+	@Test
+	public void queriesASubtypeWithoutItsOwnTable() throws Exception {
+		List<BuildingPermit> permits = new PojoQuery<BuildingPermit>(BuildingPermit.class, "where type = ? order by id", "B").list();
+		assertEquals(2, permits.size());
+		assertEquals(Long.valueOf(1), permits.get(0).getId());
+		assertEquals("B", permits.get(0).getType());
+		assertEquals(Integer.valueOf(12), permits.get(1).getFloors());
+		assertEquals(2, new PojoQuery<BuildingPermit>(BuildingPermit.class, "where type = ?", "B").count());
+	}
+	@Test
+	public void readsOnlyTheRowsOfTheSubtype() throws Exception {
+		List<BuildingPermit> permits = new PojoQuery<BuildingPermit>(BuildingPermit.class, "order by id").list();
+		assertEquals(2, permits.size());
+		assertEquals(Long.valueOf(1), permits.get(0).getId());
+		assertEquals(Long.valueOf(3), permits.get(1).getId());
+		assertEquals(2, new PojoQuery<BuildingPermit>(BuildingPermit.class).count());
+		// an or of the where clause stays within the rows of the subtype
+		assertEquals(1, new PojoQuery<ElectricalPermit>(ElectricalPermit.class, "where id = ? or id = ?", 1L, 2L).count());
+		BuildingPermit example = new BuildingPermit();
+		example.setId(2L);
+		assertFalse(new PojoQuery<BuildingPermit>(example).exists());
+	}
+	@Test
+	public void updatesAndDeletesOnlyTheRowsOfTheSubtype() throws Exception {
+		ElectricalPermit permit = new ElectricalPermit();
+		permit.setAmps(500);
+		assertEquals(1, new PojoQuery<ElectricalPermit>(permit, "where id < ?", 4L).disableSecurity().update("amps"));
+		assertEquals(1, new PojoQuery<Permit>(Permit.class, "where amps = ?", 500).count());
+		// row 1 is a building permit
+		permit.setId(1L);
+		assertEquals(0, new PojoQuery<ElectricalPermit>(permit).disableSecurity().update("amps"));
+		assertEquals(0, new PojoQuery<ElectricalPermit>(permit).disableSecurity().delete());
+		assertEquals(4, new PojoQuery<Permit>(Permit.class).count());
+	}
+	@Test
+	public void insertsASubtypeIntoTheTableOfItsBase() throws Exception {
+		BuildingPermit permit = new BuildingPermit();
+		permit.setType("B");
+		permit.setFloors(7);
+		new PojoQuery<BuildingPermit>(permit).insert();
+		assertEquals(Long.valueOf(10), permit.getId());
+		Permit read = new PojoQuery<Permit>(Permit.class, "where id = ?", 10L).single();
+		assertTrue(read instanceof BuildingPermit);
+		assertEquals(Integer.valueOf(7), ((BuildingPermit) read).getFloors());
+		assertNull(new PojoQuery<ElectricalPermit>(ElectricalPermit.class, "where id = ?", 10L).single());
+	}
+}
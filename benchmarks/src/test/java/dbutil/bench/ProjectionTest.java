@@ -0,0 +1,58 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+public class ProjectionTest extends BenchDatabaseTest {
+	public static class Name {
+		final Long id;
+		final String name;
+
+		public Name(Long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+	public static class Mail {
+		final String email;
+		final long id;
+
+		Mail(String email, long id) {
+			this.email = email;
+			this.id = id;
+		}
+	}
+
+	@Test
+	public void mapsTheSelectedFieldsIntoTheConstructor() throws Exception {
+		List<Name> names = new PojoQuery<Customer>(Customer.class, "select id, name where id <= ? order by id", 3L).disableSecurity().project(Name.class);
+		assertEquals(3, names.size());
+		assertEquals(Long.valueOf(2), names.get(1).id);
+		assertEquals("customer 2", names.get(1).name);
+	}
+	@Test
+	public void passesHiddenFieldsAsNull() throws Exception {
+		List<Mail> hidden = new PojoQuery<Customer>(Customer.class, "select email, id where id = ?", 3L).setSecurityUser(new BenchUser("user")).project(Mail.class);
+		assertNull(hidden.get(0).email);
+		assertEquals(3, hidden.get(0).id);
+		List<Mail> shown = new PojoQuery<Customer>(Customer.class, "select email, id where id = ?", 3L).setSecurityUser(new BenchUser("admin", "admin")).project(Mail.class);
+		assertEquals("customer3@example.com", shown.get(0).email);
+	}
+	@Test
+	public void pagesTheProjection() throws Exception {
+		List<Name> page = new PojoQuery<Customer>(Customer.class, "select id, name order by id limit(2, 5)").disableSecurity().project(Name.class);
+		assertEquals(5, page.size());
+		assertEquals(Long.valueOf(6), page.get(0).id);
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAConstructorThatDoesNotMatch() throws Exception {
+		new PojoQuery<Customer>(Customer.class, "select name, id, status").disableSecurity().project(Name.class);
+	}
+}
@@ -0,0 +1,108 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dbutil.DBInstance;
+import dbutil.PojoQuery;
+import dbutil.ReplicaSet;
+import dbutil.bench.model.Customer;
+
+public class ReplicaTest extends BenchDatabaseTest {
+	private final AtomicInteger primary = new AtomicInteger();
+	private final AtomicInteger replica1 = new AtomicInteger();
+	private final AtomicInteger replica2 = new AtomicInteger();
+	private DBInstance db;
+
+	// the replicas are the same database, only the connections taken from each are counted
+	private DataSource counting(final DataSource dataSource, final AtomicInteger connections) {
+		return (DataSource) Proxy.newProxyInstance(ReplicaTest.class.getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getConnection"))
+					connections.incrementAndGet();
+				return method.invoke(dataSource, args);
+			}
+		});
+	}
+	private Customer read(long id) throws Exception {
+		return new PojoQuery<Customer>(Customer.class, "where id = ?", id).disableSecurity().single();
+	}
+
+	@Before
+	public void addReplicas() {
+		db = BenchDatabase.SCHEMA.getInstance();
+		db.setDataSource(counting(pool, primary));
+		db.getReplicas().add(counting(pool, replica1)).add(counting(pool, replica2));
+	}
+
+	@Test
+	public void spreadsReadsOverTheReplicas() throws Exception {
+		for (int x = 0; x < 10; x++) {
+			read(1);
+		}
+		new PojoQuery<Customer>(Customer.class).disableSecurity().count();
+		assertEquals(0, primary.get());
+		assertEquals(11, replica1.get() + replica2.get());
+		assertEquals(5, Math.min(replica1.get(), replica2.get()));
+		assertArrayEquals(new int[] { 0, 0 }, db.getReplicas().getInFlight());
+	}
+	@Test
+	public void writesGoToThePrimary() throws Exception {
+		Customer c = read(1);
+		c.setName("changed");
+		new PojoQuery<Customer>(c).disableSecurity().update("name");
+		assertEquals(1, primary.get());
+		// without a read your writes window the next read may miss the change on a lagging replica
+		read(1);
+		assertEquals(1, primary.get());
+	}
+	@Test
+	public void readsYourWritesFromThePrimaryForAWhile() throws Exception {
+		db.getReplicas().setReadYourWritesMillis(200);
+		Customer c = read(1);
+		c.setName("changed");
+		new PojoQuery<Customer>(c).disableSecurity().update("name");
+		assertEquals("changed", read(1).getName());
+		assertEquals(2, primary.get());
+		Thread.sleep(250);
+		read(1);
+		assertEquals(2, primary.get());
+		assertEquals(2, replica1.get() + replica2.get());
+	}
+	@Test
+	public void fallsBackToThePrimaryWhenAReplicaIsDown() throws Exception {
+		db.getReplicas().clear();
+		db.getReplicas().add((DataSource) Proxy.newProxyInstance(ReplicaTest.class.getClassLoader(), new Class<?>[] { DataSource.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				throw new SQLException("replica down");
+			}
+		}));
+		assertEquals("customer 1", read(1).getName());
+		assertEquals(1, primary.get());
+		assertArrayEquals(new int[] { 0 }, db.getReplicas().getInFlight());
+	}
+	@Test
+	public void picksTheReplicaWithTheFewestConnections() throws Exception {
+		db.getReplicas().setBalance(ReplicaSet.Balance.LEAST_IN_FLIGHT);
+		for (int x = 0; x < 4; x++) {
+			new PojoQuery<Customer>(Customer.class).disableSecurity().exists();
+		}
+		// nothing is in flight between the queries so the round robin start position breaks the ties
+		assertEquals(2, replica1.get());
+		assertEquals(2, replica2.get());
+		assertArrayEquals(new int[] { 0, 0 }, db.getReplicas().getInFlight());
+	}
+}
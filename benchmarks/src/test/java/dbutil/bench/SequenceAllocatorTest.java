@@ -0,0 +1,102 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.SequenceAllocator;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.metrics.PqMetrics;
+import dbutil.metrics.QueryStats;
+
+public class SequenceAllocatorTest extends BenchDatabaseTest {
+	// the first value of bench_order_seq after seeding
+	private static final long FIRST_ID = CUSTOMERS * BenchDatabase.ORDERS_PER_CUSTOMER + 1;
+
+	private static List<CustomerOrder> orders(int count) {
+		List<CustomerOrder> orders = new ArrayList<CustomerOrder>();
+		for (int x = 0; x < count; x++) {
+			CustomerOrder o = new CustomerOrder();
+			o.setCustomerId(2L);
+			o.setStatus("BULK");
+			o.setAmount(BigDecimal.TEN);
+			o.setOrdered(new Date());
+			orders.add(o);
+		}
+		return orders;
+	}
+
+	@After
+	public void unregister() {
+		SequenceAllocator.unregister(BenchDatabase.SCHEMA, "bench_order_seq");
+		SequenceAllocator.unregister(BenchDatabase.SCHEMA, "bench_pooled_seq");
+	}
+
+	@Test
+	public void insertAllTakesIdsFromTheSequenceWithoutAnAllocator() throws Exception {
+		List<CustomerOrder> orders = orders(7);
+		PqMetrics.reset();
+		assertEquals(7, new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().setBatchSize(3).insertAll(orders));
+		// inserted rows are not fetched rows
+		QueryStats entity = PqMetrics.getEntityStats(CustomerOrder.class);
+		assertEquals(1, entity.getOperationCount("insert"));
+		assertEquals(0, entity.getRowsFetched());
+		assertEquals(7, new PojoQuery<CustomerOrder>(CustomerOrder.class, "where status = ?", "BULK").disableSecurity().count());
+	}
+	@Test
+	public void fetchesBlocksOfIds() throws Exception {
+		SequenceAllocator.register(BenchDatabase.SCHEMA, "bench_order_seq", 5, SequenceAllocator.Strategy.FETCH);
+		List<CustomerOrder> orders = orders(7);
+		assertEquals(7, new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().insertAll(orders));
+		for (int x = 0; x < orders.size(); x++) {
+			assertEquals(Long.valueOf(FIRST_ID + x), orders.get(x).getId());
+		}
+		assertEquals("BULK", new PojoQuery<CustomerOrder>(CustomerOrder.class, "where id = ?", FIRST_ID + 6).disableSecurity().single().getStatus());
+		// a single insert uses what is left of the second block
+		CustomerOrder o = orders(1).get(0);
+		new PojoQuery<CustomerOrder>(o).disableSecurity().insert();
+		assertEquals(Long.valueOf(FIRST_ID + 7), o.getId());
+		// writers without the allocator skip the fetched block
+		SequenceAllocator.unregister(BenchDatabase.SCHEMA, "bench_order_seq");
+		o = orders(1).get(0);
+		new PojoQuery<CustomerOrder>(o).disableSecurity().insert();
+		assertEquals(Long.valueOf(FIRST_ID + 10), o.getId());
+	}
+	@Test
+	public void reservesARangePerNextValueOfAPooledSequence() throws Exception {
+		Connection con = pool.getConnection();
+		try {
+			Statement st = con.createStatement();
+			st.execute("drop sequence if exists bench_pooled_seq");
+			st.execute("create sequence bench_pooled_seq start with 1000 increment by 10");
+			st.close();
+		} finally {
+			con.close();
+		}
+		SequenceAllocator allocator = SequenceAllocator.register(BenchDatabase.SCHEMA, "bench_pooled_seq", 10, SequenceAllocator.Strategy.POOLED);
+		for (long id = 1000; id < 1012; id++) {
+			assertEquals(id, allocator.next());
+		}
+		long[] ids = allocator.next(3);
+		assertEquals(1012, ids[0]);
+		assertEquals(1014, ids[2]);
+	}
+	@Test
+	public void insertAllDoesNotHoldAPermitWhileFetchingIds() throws Exception {
+		BenchDatabase.SCHEMA.getInstance().getBulkhead().setMaxConcurrent(1).setWaitTimeoutMillis(1500);
+		SequenceAllocator.register(BenchDatabase.SCHEMA, "bench_order_seq", 5, SequenceAllocator.Strategy.FETCH);
+		List<CustomerOrder> orders = orders(7);
+		assertEquals(7, new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().insertAll(orders));
+		assertEquals(Long.valueOf(FIRST_ID + 6), orders.get(6).getId());
+		assertEquals(0, BenchDatabase.SCHEMA.getInstance().getBulkhead().getInUse());
+	}
+}
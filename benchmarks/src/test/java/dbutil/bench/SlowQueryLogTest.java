@@ -0,0 +1,81 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.metrics.SlowQuery;
+import dbutil.metrics.SlowQueryLog;
+
+public class SlowQueryLogTest extends BenchDatabaseTest {
+	private final SlowQueryLog log = SlowQueryLog.getInstance();
+
+	@After
+	public void disableLog() {
+		log.setThresholdMillis(-1);
+		log.setExplainEnabled(true);
+		log.clear();
+	}
+
+	@Test
+	public void recordsQueriesOverTheThreshold() throws Exception {
+		log.clear();
+		log.setExplainEnabled(false);
+		log.setThresholdMillis(0);
+		new PojoQuery<Customer>(Customer.class, "where name = ?", "customer 4").disableSecurity().list();
+		List<SlowQuery> slow = log.getSlowQueries();
+		assertEquals(1, slow.size());
+		SlowQuery sq = slow.get(0);
+		assertEquals("QUIZ", sq.getSchema());
+		assertEquals(Customer.class.getName(), sq.getEntity());
+		assertEquals("select", sq.getOperation());
+		assertEquals(1, sq.getRows());
+		assertTrue(sq.getSql().contains("c.NAME = ?"));
+		// parameter values are never kept, only their types
+		assertArrayEquals(new String[] { "String" }, sq.getParameterTypes());
+		assertFalse(sq.toString().contains("customer 4"));
+	}
+	@Test
+	public void ignoresQueriesUnderTheThreshold() throws Exception {
+		log.clear();
+		log.setThresholdMillis(60000);
+		new PojoQuery<Customer>(Customer.class, "").disableSecurity().list();
+		assertTrue(log.getSlowQueries().isEmpty());
+	}
+	@Test
+	public void capturesThePlanInTheBackground() throws Exception {
+		log.clear();
+		log.setThresholdMillis(0);
+		new PojoQuery<Customer>(Customer.class, "where id = ?", 3L).disableSecurity().list();
+		SlowQuery sq = log.getSlowQueries().get(0);
+		for (int x = 0; x < 100 && sq.getPlan() == null; x++) {
+			Thread.sleep(50);
+		}
+		assertNotNull(sq.getPlan());
+	}
+	@Test
+	public void keepsTheNewestEntries() throws Exception {
+		log.clear();
+		log.setExplainEnabled(false);
+		log.setCapacity(3);
+		try {
+			log.setThresholdMillis(0);
+			for (long id = 1; id <= 5; id++) {
+				new PojoQuery<Customer>(Customer.class, "where id = ?", id).disableSecurity().list();
+			}
+			assertEquals(3, log.getSlowQueries().size());
+			assertEquals(5, log.getRecordedCount());
+		} finally {
+			log.setCapacity(100);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import org.junit.Test;
+
+import dbutil.CancelHandle;
+import dbutil.Deadline;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+
+public class TimeoutTest extends BenchDatabaseTest {
+	// a cross join of the orders that takes far longer than any of the limits below
+	private static final String SLOW = "where id > (select count(*) from BENCH_ORDER a, BENCH_ORDER b, BENCH_ORDER c)";
+
+	@Test
+	public void stopsAStatementAfterItsTimeout() throws Exception {
+		BenchDatabase.start(400, 8);
+		long start = System.currentTimeMillis();
+		try {
+			new PojoQuery<Customer>(Customer.class, SLOW).disableSecurity().setTimeout(300).list();
+			fail();
+		} catch (SQLTimeoutException e) {
+		}
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(0, BenchDatabase.SCHEMA.getInstance().getBulkhead().getInUse());
+	}
+	@Test
+	public void cancelsARunningStatement() throws Exception {
+		BenchDatabase.start(400, 8);
+		PojoQuery<Customer> pq = new PojoQuery<Customer>(Customer.class, SLOW).disableSecurity();
+		final CancelHandle handle = pq.getCancelHandle();
+		Thread canceller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				handle.cancel();
+			}
+		};
+		canceller.start();
+		try {
+			pq.count();
+			fail();
+		} catch (SQLException e) {
+			assertEquals("Query was cancelled", e.getMessage());
+		}
+		canceller.join();
+		assertTrue(handle.isCancelled());
+	}
+	@Test
+	public void doesNotRunAStatementPastItsDeadline() throws Exception {
+		Deadline deadline = Deadline.in(0);
+		Thread.sleep(2);
+		assertTrue(deadline.isExpired());
+		try {
+			new PojoQuery<Customer>(Customer.class).disableSecurity().setDeadline(deadline).list();
+			fail();
+		} catch (SQLTimeoutException e) {
+			assertEquals("Query deadline passed before the statement was run", e.getMessage());
+		}
+	}
+	@Test
+	public void leavesFastQueriesAlone() throws Exception {
+		Customer c = new PojoQuery<Customer>(Customer.class, "select *, orders where id < ?", 2L).disableSecurity().setTimeout(5000).single();
+		assertEquals(BenchDatabase.ORDERS_PER_CUSTOMER, c.getOrders().size());
+	}
+}
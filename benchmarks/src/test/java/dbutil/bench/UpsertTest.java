@@ -0,0 +1,138 @@
+package dbutil.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import dbutil.Dialect;
+import dbutil.PojoQuery;
+import dbutil.bench.model.Customer;
+import dbutil.bench.model.CustomerOrder;
+import dbutil.metrics.PqMetrics;
+import dbutil.metrics.QueryStats;
+
+public class UpsertTest extends BenchDatabaseTest {
+	private long orders() throws Exception {
+		return new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().count();
+	}
+	private CustomerOrder order(Long id, long customerId, String amount, String status) {
+		CustomerOrder o = new CustomerOrder();
+		o.setId(id);
+		o.setCustomerId(customerId);
+		o.setAmount(new BigDecimal(amount));
+		o.setStatus(status);
+		o.setOrdered(new Date());
+		return o;
+	}
+
+	@Test
+	public void updatesExistingRowsAndInsertsNewOnes() throws Exception {
+		List<CustomerOrder> all = new ArrayList<CustomerOrder>(new PojoQuery<CustomerOrder>(CustomerOrder.class, "where id <= ? order by id", 2L).disableSecurity().list());
+		for (CustomerOrder o: all) {
+			o.setAmount(new BigDecimal("77.00"));
+		}
+		all.add(order(999999L, 5, "5.50", "NEW"));
+		long before = orders();
+		assertEquals(3, new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().setBatchSize(2).upsertAll(all));
+		assertEquals(before + 1, orders());
+		assertEquals(2, new PojoQuery<CustomerOrder>(CustomerOrder.class, "where amount = ?", new BigDecimal("77.00")).disableSecurity().count());
+		assertEquals(0, new BigDecimal("5.50").compareTo(new PojoQuery<CustomerOrder>(CustomerOrder.class, "where id = ?", 999999L).disableSecurity().single().getAmount()));
+	}
+	@Test
+	public void rollsBackTheBatchesSentBeforeAFailure() throws Exception {
+		final List<CustomerOrder> all = new ArrayList<CustomerOrder>();
+		for (long id = 999991; id <= 999993; id++) {
+			all.add(order(id, 5, "1.00", "NEW"));
+		}
+		// the third row breaks after the batch of the first two was sent
+		Collection<CustomerOrder> failing = new AbstractCollection<CustomerOrder>() {
+			@Override
+			public Iterator<CustomerOrder> iterator() {
+				final Iterator<CustomerOrder> it = all.iterator();
+				return new Iterator<CustomerOrder>() {
+					private int read;
+
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					@Override
+					public CustomerOrder next() {
+						if (++read == 3)
+							throw new IllegalStateException("broken row");
+						return it.next();
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return all.size();
+			}
+		};
+		long before = orders();
+		try {
+			new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().setBatchSize(2).upsertAll(failing);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(before, orders());
+	}
+	@Test
+	public void doesNotCountWrittenRowsAsFetched() throws Exception {
+		List<CustomerOrder> all = new ArrayList<CustomerOrder>();
+		all.add(order(999998L, 5, "1.00", "NEW"));
+		all.add(order(999999L, 5, "2.00", "NEW"));
+		PqMetrics.reset();
+		assertEquals(2, new PojoQuery<CustomerOrder>(CustomerOrder.class).disableSecurity().upsertAll(all));
+		QueryStats entity = PqMetrics.getEntityStats(CustomerOrder.class);
+		assertEquals(1, entity.getOperationCount("upsert"));
+		assertEquals(0, entity.getRowsFetched());
+	}
+	@Test
+	public void upsertsASingleObject() throws Exception {
+		CustomerOrder o = order(999999L, 5, "5.50", "NEW");
+		assertEquals(1, new PojoQuery<CustomerOrder>(o).disableSecurity().upsert());
+		o.setAmount(new BigDecimal("6.00"));
+		assertEquals(1, new PojoQuery<CustomerOrder>(o).disableSecurity().upsert());
+		assertEquals(0, new BigDecimal("6.00").compareTo(new PojoQuery<CustomerOrder>(CustomerOrder.class, "where id = ?", 999999L).disableSecurity().single().getAmount()));
+	}
+	@Test
+	public void matchesOnOtherKeysAndTakesNewIdsFromTheSequence() throws Exception {
+		CustomerOrder o = order(null, 42, "1", "UNIQ");
+		assertEquals(1, new PojoQuery<CustomerOrder>(o).disableSecurity().upsert("customerId", "status"));
+		o.setAmount(new BigDecimal("2"));
+		assertEquals(1, new PojoQuery<CustomerOrder>(o).disableSecurity().upsert("customerId", "status"));
+		List<CustomerOrder> found = new PojoQuery<CustomerOrder>(CustomerOrder.class, "where customerId = ?", 42L).disableSecurity().list();
+		assertEquals(1, found.size());
+		assertNotNull(found.get(0).getId());
+		assertEquals(0, BigDecimal.valueOf(2).compareTo(found.get(0).getAmount()));
+	}
+	@Test
+	public void onlyUpdatesFieldsTheUserMayUpdate() throws Exception {
+		Customer c = new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).disableSecurity().single();
+		Date created = c.getCreated();
+		c.setName("renamed");
+		c.setCreated(new Date(0));
+		new PojoQuery<Customer>(c).setSecurityUser(new BenchUser("user")).upsert();
+		Customer read = new PojoQuery<Customer>(Customer.class, "where id = ?", 1L).disableSecurity().single();
+		assertEquals("renamed", read.getName());
+		assertEquals(created, read.getCreated());
+	}
+	@Test
+	public void writesTheStatementOfEachDialect() {
+		assertEquals("insert into T (K,A,B,ID) values (?,?,?,nextval('t_seq')) on conflict (K) do update set A=excluded.A",
+				Dialect.POSTGRESQL.getUpsertStatement("T", new String[] { "K", "A", "B" }, new String[] { "K" }, new String[] { "A" }, new String[] { "ID" }, new String[] { "nextval('t_seq')" }));
+		assertEquals("insert into T (K,A) values (?,?) on duplicate key update A=values(A)",
+				Dialect.MYSQL.getUpsertStatement("T", new String[] { "K", "A" }, new String[] { "K" }, new String[] { "A" }, new String[0], new String[0]));
+	}
+}
@@ -0,0 +1,25 @@
+package dbutil.bench.broken;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+
+/**
+ * Maps a column that BENCH_ORDER does not have, for the startup validation
+ */
+@DbTable(value = "BENCH_ORDER", schema = DBL.QUIZ, alias = "o")
+public class MisspelledOrder {
+	@Id
+	@DbColumn("ORDER_ID")
+	private Long id;
+	@DbColumn("AMMOUNT")
+	private Double amount;
+
+	public Long getId() {
+		return id;
+	}
+	public Double getAmount() {
+		return amount;
+	}
+}
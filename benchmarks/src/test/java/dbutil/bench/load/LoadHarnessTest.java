@@ -0,0 +1,55 @@
+package dbutil.bench.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dbutil.bench.BenchDatabaseTest;
+
+public class LoadHarnessTest extends BenchDatabaseTest {
+	@Test
+	public void runsEachConcurrencyStepWithoutErrors() throws Exception {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("threads", "1,4");
+		options.put("duration", "1");
+		options.put("warmup", "0");
+		options.put("rows", "50");
+		options.put("pool", "4");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(out, true));
+		try {
+			new LoadHarness(options).run();
+		} finally {
+			System.setOut(stdout);
+		}
+		List<String[]> steps = new ArrayList<String[]>();
+		for (String line: out.toString().split("\n")) {
+			String[] cols = line.trim().split("\\s+");
+			if (cols.length == 11 && cols[0].matches("\\d+"))
+				steps.add(cols);
+		}
+		assertEquals(2, steps.size());
+		assertEquals("1", steps.get(0)[0]);
+		assertEquals("4", steps.get(1)[0]);
+		for (String[] step: steps) {
+			assertTrue(Double.parseDouble(step[1]) > 0);
+			assertEquals("errors at " + step[0] + " threads", "0", step[2]);
+			assertTrue(Integer.parseInt(step[10]) <= 4);
+		}
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownOperations() {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("mix", "list=1,delete=1");
+		new LoadHarness(options);
+	}
+}
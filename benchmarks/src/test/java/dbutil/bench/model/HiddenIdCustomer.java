@@ -0,0 +1,35 @@
+package dbutil.bench.model;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * {@link Customer} as seen by an entity whose id only admins may select
+ */
+@DbTable(value = "BENCH_CUSTOMER", schema = DBL.QUIZ, alias = "c")
+@PojoSecurity(everyone = "11")
+public class HiddenIdCustomer {
+	@Id(sequence = "bench_customer_seq")
+	@DbColumn("CUSTOMER_ID")
+	@PojoSecurity(groups = {"admin"}, groupsecurity = {"111"}, everyone = "011")
+	private Long id;
+	@DbColumn("NAME")
+	@PojoSecurity(everyone = "111")
+	private String name;
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,20 @@
+package dbutil.bench.poly;
+
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * {@link Permit} of type B, mapped to the table of its base class
+ */
+public class BuildingPermit extends Permit {
+	@DbColumn("FLOORS")
+	@PojoSecurity(everyone = "111")
+	private Integer floors;
+
+	public Integer getFloors() {
+		return floors;
+	}
+	public void setFloors(Integer floors) {
+		this.floors = floors;
+	}
+}
@@ -0,0 +1,20 @@
+package dbutil.bench.poly;
+
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * {@link Permit} of type E, mapped to the table of its base class
+ */
+public class ElectricalPermit extends Permit {
+	@DbColumn("AMPS")
+	@PojoSecurity(everyone = "111")
+	private Integer amps;
+
+	public Integer getAmps() {
+		return amps;
+	}
+	public void setAmps(Integer amps) {
+		this.amps = amps;
+	}
+}
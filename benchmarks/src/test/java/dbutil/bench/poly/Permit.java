@@ -0,0 +1,40 @@
+package dbutil.bench.poly;
+
+import dbutil.DBL;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Discriminator;
+import dbutil.annotations.DiscriminatorMap;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * Base of a single table hierarchy, the rows of BENCH_PERMIT are created as the subtype of their PERMIT_TYPE
+ */
+@DbTable(value = "BENCH_PERMIT", schema = DBL.QUIZ, alias = "p")
+@PojoSecurity(everyone = "11")
+@Discriminator(column = "PERMIT_TYPE", value = {
+		@DiscriminatorMap(value = "B", relatedClass = BuildingPermit.class),
+		@DiscriminatorMap(value = "E", relatedClass = ElectricalPermit.class)})
+public class Permit {
+	@Id(sequence = "bench_permit_seq")
+	@DbColumn("PERMIT_ID")
+	@PojoSecurity(everyone = "111")
+	private Long id;
+	@DbColumn("PERMIT_TYPE")
+	@PojoSecurity(everyone = "111")
+	private String type;
+
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
+}
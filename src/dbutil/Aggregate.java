@@ -0,0 +1,163 @@
+package dbutil;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.NamingException;
+
+/**
+ * Aggregate functions pushed down to the database for the rows matched by a PojoQuery.
+ * Field names are entity field names and are translated through @DbColumn; the user must be allowed to select
+ * every aggregated or grouped field.
+ * <pre>
+ * Map&lt;Object, double[]&gt; totals = new PojoQuery&lt;Bill&gt;(Bill.class, "where status=?", "OPEN").setSecurityUser(user)
+ *     .aggregate().sum("amount").count().groupBy("dept").grouped();
+ * double[] deptTotals = totals.get("PUBLIC WORKS"); // {sum(amount), count(*)}
+ * </pre>
+ */
+public class Aggregate<T> {
+	private final PojoQuery<T> query;
+	private final List<String> functions = new ArrayList<String>();
+	// entity field for each function, null for count(*)
+	private final List<String> fields = new ArrayList<String>();
+	private final List<String> groupFields = new ArrayList<String>();
+
+	Aggregate(PojoQuery<T> query) {
+		this.query = query;
+	}
+
+	public Aggregate<T> sum(String field) {
+		return add("sum", field);
+	}
+	public Aggregate<T> avg(String field) {
+		return add("avg", field);
+	}
+	public Aggregate<T> min(String field) {
+		return add("min", field);
+	}
+	public Aggregate<T> max(String field) {
+		return add("max", field);
+	}
+	public Aggregate<T> count() {
+		return add("count", null);
+	}
+	public Aggregate<T> countDistinct(String field) {
+		return add("count distinct", field);
+	}
+	public Aggregate<T> groupBy(String... fields) {
+		groupFields.addAll(Arrays.asList(fields));
+		return this;
+	}
+
+	/**
+	 * Runs an ungrouped aggregate
+	 * @return one value per aggregate function in the order they were added. Null results (no rows) are NaN
+	 */
+	public double[] values() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		if (!groupFields.isEmpty())
+			throw new IllegalStateException("Use grouped() to run an aggregate with group by fields");
+		List<Object[]> rows = run();
+		double[] values = new double[functions.size()];
+		Object[] row = rows.isEmpty() ? new Object[functions.size()] : rows.get(0);
+		for (int x = 0; x < values.length; x++) {
+			values[x] = toDouble(row[x]);
+		}
+		return values;
+	}
+	/**
+	 * Runs an ungrouped aggregate and returns a single result converted to the given type (useful for min/max of dates or strings)
+	 */
+	public <V> V value(int idx, Class<V> type) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		if (!groupFields.isEmpty())
+			throw new IllegalStateException("Use grouped() to run an aggregate with group by fields");
+		List<Object[]> rows = run();
+		return rows.isEmpty() ? null : ObjectConverter.convert(rows.get(0)[idx], type);
+	}
+	/**
+	 * Runs a grouped aggregate
+	 * @return map of group value to the aggregate values of that group, ordered by group. The key is the value of the
+	 * group field converted to the field type or an immutable list of values when grouping by more than one field
+	 */
+	public Map<Object, double[]> grouped() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		if (groupFields.isEmpty())
+			throw new IllegalStateException("Add at least one groupBy field before calling grouped()");
+		Class<?>[] groupTypes = new Class<?>[groupFields.size()];
+		for (int x = 0; x < groupTypes.length; x++) {
+			groupTypes[x] = Projection.box(query.getFieldType(groupFields.get(x)));
+		}
+		List<Object[]> rows = run();
+		Map<Object, double[]> results = new LinkedHashMap<Object, double[]>();
+		int nfunc = functions.size();
+		for (Object[] row: rows) {
+			double[] values = new double[nfunc];
+			for (int x = 0; x < nfunc; x++) {
+				values[x] = toDouble(row[x]);
+			}
+			Object key;
+			if (groupTypes.length == 1) {
+				key = ObjectConverter.convert(row[nfunc], groupTypes[0]);
+			} else {
+				Object[] keys = new Object[groupTypes.length];
+				for (int x = 0; x < keys.length; x++) {
+					keys[x] = ObjectConverter.convert(row[nfunc + x], groupTypes[x]);
+				}
+				key = Collections.unmodifiableList(Arrays.asList(keys));
+			}
+			results.put(key, values);
+		}
+		return results;
+	}
+
+	private Aggregate<T> add(String function, String field) {
+		functions.add(function);
+		fields.add(field);
+		return this;
+	}
+	private List<Object[]> run() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		if (functions.isEmpty())
+			throw new IllegalStateException("No aggregate functions were added");
+		StringBuilder select = new StringBuilder("select ");
+		for (int x = 0; x < functions.size(); x++) {
+			String fn = functions.get(x);
+			String field = fields.get(x);
+			if (x > 0)
+				select.append(", ");
+			if (field == null)
+				select.append("count(*)");
+			else if (fn.equals("count distinct"))
+				select.append("count(distinct " + query.getAggregateColumn(field) + ")");
+			else
+				select.append(fn + "(" + query.getAggregateColumn(field) + ")");
+			select.append(" as a" + x);
+		}
+		String groupBy = null;
+		if (!groupFields.isEmpty()) {
+			StringBuilder gb = new StringBuilder();
+			for (String g: groupFields) {
+				String col = query.getAggregateColumn(g);
+				select.append(", " + col);
+				if (gb.length() > 0)
+					gb.append(", ");
+				gb.append(col);
+			}
+			groupBy = gb.toString();
+		}
+		return query.executeAggregate(select.toString(), groupBy);
+	}
+	private static double toDouble(Object value) {
+		if (value == null)
+			return Double.NaN;
+		else if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		else if (value instanceof java.util.Date)
+			return ((java.util.Date) value).getTime();
+		else
+			throw new IllegalArgumentException("Aggregate result " + value + " is not numeric. Use value(idx, type) instead");
+	}
+}
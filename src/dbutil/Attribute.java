@@ -0,0 +1,149 @@
+package dbutil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import dbutil.annotations.DbTable;
+
+/**
+ * A @DbColumn field of an entity as it appears in the generated <tt>&lt;Entity&gt;_</tt> metamodel classes. Its
+ * column is resolved once, so the conditions it creates are plain sql with parameters:
+ * <pre>
+ * Condition open = Bill_.status.eq("OPEN").and(Bill_.due.lt(today));
+ * Condition admin = User_.roles.join().name.in("admin", "ops");
+ * </pre>
+ * @param <E> the entity declaring the column
+ * @param <V> the (boxed) type of the field
+ */
+public class Attribute<E, V> {
+	private final Class<E> entity;
+	private final String name;
+	private final String column;
+	private final Class<V> type;
+	// the join that leads to the entity, null for a field of the queried class
+	private final JoinAttribute<?, E, ?> via;
+	// alias.COLUMN
+	private final String sql;
+
+	public Attribute(Class<E> entity, String name, String column, Class<V> type, JoinAttribute<?, E, ?> via) {
+		this.entity = entity;
+		this.name = name;
+		this.column = column;
+		this.type = type;
+		this.via = via;
+		Class<?> tblcls = PojoQuery.getTableClass(entity);
+		DbTable tbl = tblcls == null ? null : tblcls.getAnnotation(DbTable.class);
+		String alias = tbl == null ? entity.getSimpleName() : tbl.alias().equals("") ? tblcls.getSimpleName() : tbl.alias();
+		this.sql = alias + "." + column;
+	}
+
+	public Class<E> getEntityClass() {
+		return entity;
+	}
+	public String getName() {
+		return name;
+	}
+	public String getColumn() {
+		return column;
+	}
+	public Class<V> getType() {
+		return type;
+	}
+
+	/**
+	 * @return column = value, or column is null for a null value
+	 */
+	public Condition eq(V value) {
+		return value == null ? isNull() : compare("=", value);
+	}
+	/**
+	 * @return column &lt;&gt; value, or column is not null for a null value
+	 */
+	public Condition ne(V value) {
+		return value == null ? isNotNull() : compare("<>", value);
+	}
+	public Condition lt(V value) {
+		return compare("<", value);
+	}
+	public Condition le(V value) {
+		return compare("<=", value);
+	}
+	public Condition gt(V value) {
+		return compare(">", value);
+	}
+	public Condition ge(V value) {
+		return compare(">=", value);
+	}
+	public Condition like(String pattern) {
+		return compare(" like ", pattern);
+	}
+	public Condition between(V low, V high) {
+		List<Object> parms = new ArrayList<Object>(2);
+		parms.add(low);
+		parms.add(high);
+		return condition(sql + " between ? and ?", parms);
+	}
+	@SafeVarargs
+	public final Condition in(V... values) {
+		// copied element by element, a view of the varargs array would let it escape
+		List<V> list = new ArrayList<V>(values.length);
+		for (V v: values) {
+			list.add(v);
+		}
+		return in(list);
+	}
+	/**
+	 * @return column in (?, ...). An empty collection matches no rows
+	 */
+	public Condition in(Collection<? extends V> values) {
+		if (values.isEmpty())
+			return condition("1=0", Collections.emptyList());
+		StringBuilder in = new StringBuilder(sql).append(" in (");
+		for (int x = 0; x < values.size(); x++) {
+			in.append(x > 0 ? ",?" : "?");
+		}
+		return condition(in.append(')').toString(), new ArrayList<Object>(values));
+	}
+	public Condition isNull() {
+		return condition(sql + " is null", Collections.emptyList());
+	}
+	public Condition isNotNull() {
+		return condition(sql + " is not null", Collections.emptyList());
+	}
+	public Criteria.Order asc() {
+		return new Criteria.Order(this, false);
+	}
+	public Criteria.Order desc() {
+		return new Criteria.Order(this, true);
+	}
+
+	private Condition compare(String op, Object value) {
+		return condition(sql + op + "?", Collections.singletonList(value));
+	}
+	private Condition condition(String where, List<?> parms) {
+		return new Condition(where, parms, getJoins(), Collections.<Class<?>>singleton(getRootClass()));
+	}
+	// the joins needed to reach the column, outermost first
+	Set<JoinAttribute<?, ?, ?>> getJoins() {
+		Set<JoinAttribute<?, ?, ?>> joins = new LinkedHashSet<JoinAttribute<?, ?, ?>>();
+		if (via != null)
+			via.collectJoins(joins);
+		return joins;
+	}
+	// the class a query must be on to use this attribute
+	Class<?> getRootClass() {
+		return via == null ? entity : via.getRootClass();
+	}
+	String getSql() {
+		return sql;
+	}
+
+	@Override
+	public String toString() {
+		return via == null ? name : via + "." + name;
+	}
+}
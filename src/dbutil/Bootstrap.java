@@ -0,0 +1,360 @@
+package dbutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import dbutil.PojoQuery.QueryType;
+import dbutil.annotations.DbTable;
+
+/**
+ * Startup warm up for the @DbTable classes of a package (and its sub packages). Run it once while the
+ * application starts so the first user requests don't pay for the lazy initialization:
+ * <ul>
+ * <li>entity metadata, id fields and the select/count sql of every entity are built in parallel</li>
+ * <li>the connection pool of every schema used by the entities is filled by opening the given number of
+ * connections at the same time</li>
+ * <li>the select by id, count, insert, update and delete statements are prepared on each of those connections so
+ * drivers with a statement cache keep them</li>
+ * <li>the table and column names are checked against DatabaseMetaData</li>
+ * </ul>
+ * <pre>
+ * Bootstrap.Report report = new Bootstrap("gov.city.model").setConnections(5).run();
+ * if (!report.getProblems().isEmpty())
+ *     throw new IllegalStateException(report.toString());
+ * </pre>
+ */
+public class Bootstrap {
+	private final String[] packages;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int connections = 1;
+	private boolean prepare = true;
+	private boolean validate = true;
+	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+	public Bootstrap(String... packages) {
+		this.packages = packages;
+	}
+	public Bootstrap setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+	/**
+	 * @param connections number of connections opened at the same time per schema. 0 skips the database part
+	 */
+	public Bootstrap setConnections(int connections) {
+		this.connections = Math.max(0, connections);
+		return this;
+	}
+	public Bootstrap setPrepareStatements(boolean flag) {
+		this.prepare = flag;
+		return this;
+	}
+	public Bootstrap setValidate(boolean flag) {
+		this.validate = flag;
+		return this;
+	}
+	public Bootstrap setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		return this;
+	}
+
+	public Report run() throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		final Report report = new Report();
+		List<Class<?>> entities = findEntities();
+		report.entities.addAll(entities);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Class<?> cls: entities) {
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						warmMetadata(cls, report);
+					}
+				}));
+			}
+			waitFor(futures, report);
+		} finally {
+			pool.shutdown();
+		}
+
+		if (connections > 0) {
+			Map<DBL, List<EntityMeta<?>>> bySchema = new LinkedHashMap<DBL, List<EntityMeta<?>>>();
+			for (Class<?> cls: entities) {
+				DBL dbl = cls.getAnnotation(DbTable.class).schema();
+				List<EntityMeta<?>> metas = bySchema.get(dbl);
+				if (metas == null) {
+					metas = new ArrayList<EntityMeta<?>>();
+					bySchema.put(dbl, metas);
+				}
+				metas.add(EntityMetas.get(cls));
+			}
+			for (Map.Entry<DBL, List<EntityMeta<?>>> e: bySchema.entrySet()) {
+				warmSchema(e.getKey(), e.getValue(), report);
+			}
+		}
+		report.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (DB.isDebug())
+			System.out.println("PQ BOOTSTRAP: " + report);
+		return report;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void warmMetadata(Class<?> cls, Report report) {
+		try {
+			EntityMetas.get(cls);
+			IdIndex.getIdFields(cls);
+			// runs the select/count sql generation once so the regular expressions and field lookups are loaded
+			new PojoQuery<Object>((Class<Object>) cls, "").disableSecurity().getSql(QueryType.select);
+			new PojoQuery<Object>((Class<Object>) cls, "").disableSecurity().getSql(QueryType.count);
+		} catch (Exception e) {
+			report.problem(cls.getName() + ": unable to build metadata: " + e);
+		}
+	}
+
+	// opens the connections of a schema at the same time so the pool grows to the requested size
+	private void warmSchema(final DBL dbl, final List<EntityMeta<?>> metas, final Report report) throws InterruptedException {
+		final CountDownLatch opened = new CountDownLatch(connections);
+		ExecutorService pool = Executors.newFixedThreadPool(connections);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int x = 0; x < connections; x++) {
+				final boolean first = x == 0;
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						new Warmer(dbl, metas, report).warm(opened, first);
+					}
+				}));
+			}
+			waitFor(futures, report);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void waitFor(List<Future<?>> futures, Report report) throws InterruptedException {
+		for (Future<?> f: futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				report.problem("warm up failed: " + e.getCause());
+			}
+		}
+	}
+
+	private List<Class<?>> findEntities() throws IOException {
+		Set<String> classNames = new HashSet<String>();
+		for (String pkg: packages) {
+			String path = pkg.replace('.', '/');
+			Enumeration<URL> urls = classLoader.getResources(path);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if ("file".equals(url.getProtocol())) {
+					findClasses(new File(URLDecoder.decode(url.getPath(), "UTF-8")), pkg, classNames);
+				} else if ("jar".equals(url.getProtocol())) {
+					JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						String name = entries.nextElement().getName();
+						if (name.startsWith(path + "/") && name.endsWith(".class"))
+							classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+					}
+				}
+			}
+		}
+		List<Class<?>> entities = new ArrayList<Class<?>>();
+		for (String name: classNames) {
+			if (name.endsWith(EntityMetas.SUFFIX) || name.endsWith("package-info"))
+				continue;
+			try {
+				Class<?> cls = Class.forName(name, false, classLoader);
+				if (cls.getAnnotation(DbTable.class) != null)
+					entities.add(cls);
+			} catch (Throwable e) {
+				// not loadable in this environment (missing optional dependency)
+			}
+		}
+		Collections.sort(entities, new Comparator<Class<?>>() {
+			@Override
+			public int compare(Class<?> c1, Class<?> c2) {
+				return c1.getName().compareTo(c2.getName());
+			}
+		});
+		return entities;
+	}
+	private static void findClasses(File dir, String pkg, Set<String> classNames) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f: files) {
+			if (f.isDirectory())
+				findClasses(f, pkg + "." + f.getName(), classNames);
+			else if (f.getName().endsWith(".class"))
+				classNames.add(pkg + "." + f.getName().substring(0, f.getName().length() - 6));
+		}
+	}
+
+	/**
+	 * Holds one connection of a schema open until all connections of the schema have been opened
+	 */
+	private final class Warmer extends DB {
+		private final DBL dbl;
+		private final List<EntityMeta<?>> metas;
+		private final Report report;
+
+		Warmer(DBL dbl, List<EntityMeta<?>> metas, Report report) {
+			this.dbl = dbl;
+			this.metas = metas;
+			this.report = report;
+		}
+		// the first connection validates the mapping and reports statements that fail to prepare
+		void warm(CountDownLatch opened, boolean first) {
+			boolean counted = false;
+			try {
+				beginTransaction();
+				init(dbl);
+				opened.countDown();
+				counted = true;
+				if (first && validate) {
+					for (EntityMeta<?> meta: metas) {
+						validate(meta);
+					}
+				}
+				if (prepare) {
+					for (EntityMeta<?> meta: metas) {
+						prepare(meta, first);
+					}
+				}
+				// keep the connection until every connection of the schema is open
+				opened.await(30, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				report.problem(dbl.name() + ": unable to open connection: " + e);
+			} finally {
+				if (!counted)
+					opened.countDown();
+				endTransaction();
+			}
+		}
+		private void prepare(EntityMeta<?> meta, boolean first) {
+			String[] sql = {
+				meta.getIdIndexes().length == 0 ? null : meta.getSelectSql() + getIdWhere(meta),
+				"select count(*) as ct from " + meta.getTable() + " " + meta.getAlias(),
+				meta.getInsertSql(), meta.getUpdateSql(), meta.getDeleteSql()
+			};
+			for (String s: sql) {
+				if (s == null)
+					continue;
+				try {
+					prepareStatement(s);
+				} catch (SQLException e) {
+					if (first)
+						report.problem(meta.getEntityClass().getName() + ": unable to prepare " + s + ": " + e.getMessage());
+				} finally {
+					closeQuietly();
+				}
+			}
+		}
+		private String getIdWhere(EntityMeta<?> meta) {
+			StringBuilder where = new StringBuilder(" where ");
+			String[] columns = meta.getColumns();
+			int[] ids = meta.getIdIndexes();
+			for (int x = 0; x < ids.length; x++) {
+				where.append(x > 0 ? " and " : "").append(meta.getAlias() + "." + columns[ids[x]] + "=?");
+			}
+			return where.toString();
+		}
+		private void validate(EntityMeta<?> meta) throws SQLException {
+			DatabaseMetaData md = getMetaData();
+			String table = meta.getTable();
+			String schema = null;
+			int dot = table.lastIndexOf('.');
+			if (dot > 0) {
+				schema = table.substring(0, dot);
+				table = table.substring(dot + 1);
+			}
+			Set<String> found = new HashSet<String>();
+			// identifiers are stored upper case by most databases and lower case by postgres
+			String[] tableNames = { table, table.toUpperCase(), table.toLowerCase() };
+			String[] schemaNames = { schema, schema == null ? null : schema.toUpperCase(), schema == null ? null : schema.toLowerCase() };
+			for (int x = 0; x < tableNames.length && found.isEmpty(); x++) {
+				ResultSet rs = md.getColumns(null, schemaNames[x], tableNames[x], null);
+				try {
+					while (rs.next()) {
+						found.add(rs.getString("COLUMN_NAME").toUpperCase());
+					}
+				} finally {
+					rs.close();
+				}
+			}
+			String name = meta.getEntityClass().getName();
+			if (found.isEmpty()) {
+				report.problem(name + ": table " + meta.getTable() + " was not found");
+				return;
+			}
+			String[] columns = meta.getColumns();
+			String[] fields = meta.getFieldNames();
+			for (int x = 0; x < columns.length; x++) {
+				if (!found.contains(columns[x].toUpperCase()))
+					report.problem(name + "." + fields[x] + ": column " + columns[x] + " was not found in " + meta.getTable());
+			}
+		}
+	}
+
+	/**
+	 * Outcome of a warm up. Problems are mapping or connection errors that would otherwise show up on the first query
+	 */
+	public static class Report {
+		private final List<Class<?>> entities = new ArrayList<Class<?>>();
+		private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+		private long millis;
+
+		private void problem(String problem) {
+			problems.add(problem);
+		}
+		public List<Class<?>> getEntities() {
+			return Collections.unmodifiableList(entities);
+		}
+		public List<String> getProblems() {
+			synchronized (problems) {
+				return new ArrayList<String>(problems);
+			}
+		}
+		public long getMillis() {
+			return millis;
+		}
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(entities.size() + " entities warmed up in " + millis + "ms");
+			for (String p: getProblems()) {
+				sb.append("\n  ").append(p);
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package dbutil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingException;
+
+/**
+ * The rows of a PojoQuery held for random access within a memory budget. Rows past the budget are kept in a memory
+ * mapped temp file, so results larger than the heap can be sorted by index or read more than once:
+ * <pre>
+ * BufferedResult&lt;Bill&gt; bills = new PojoQuery&lt;Bill&gt;(Bill.class, "where year=?", 2016).buffered(64 * 1024 * 1024);
+ * try {
+ *     for (Bill b: bills) { ... }
+ *     Bill last = bills.get(bills.size() - 1);
+ * } finally {
+ *     bills.close();
+ * }
+ * </pre>
+ * The raw column values are buffered and an entity is created, with its joins, each time a row is read. Close the
+ * result to delete the temp file. Not thread safe.
+ */
+public class BufferedResult<T> implements Iterable<T>, Closeable {
+	private final SpillBuffer rows;
+	private final PojoQuery<T>.RowMapper mapper;
+	private final Row row;
+
+	BufferedResult(SpillBuffer rows, String[] columns, PojoQuery<T>.RowMapper mapper) {
+		this.rows = rows;
+		this.mapper = mapper;
+		this.row = new Row(columns);
+	}
+
+	public int size() {
+		return rows.size();
+	}
+	/**
+	 * @return a new entity created from the row at the index
+	 */
+	public T get(int index) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		row.values = rows.get(index);
+		return mapper.map(row);
+	}
+	/**
+	 * @return the number of rows that did not fit in the memory budget and were written to disk
+	 */
+	public int getSpilledRows() {
+		return rows.getSpilledRows();
+	}
+	public long getSpilledBytes() {
+		return rows.getSpilledBytes();
+	}
+	/**
+	 * Iterates the rows in query order. Errors reading a row are thrown as an IllegalStateException
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int next = 0;
+			@Override
+			public boolean hasNext() {
+				return next < size();
+			}
+			@Override
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				try {
+					return get(next++);
+				} catch (Exception e) {
+					throw new IllegalStateException("Unable to read buffered row " + (next - 1) + ": " + e.getMessage(), e);
+				}
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	@Override
+	public void close() throws IOException {
+		rows.close();
+	}
+
+	// presents one buffered row to the row mapper the way a buffered dbutil.ResultSet would. Also used by
+	// PojoQuery.executeStream for the current row of an open cursor
+	static final class Row extends ResultSet {
+		private final Map<String, Integer> index = new HashMap<String, Integer>();
+		private final String[] columns;
+		Object[] values;
+
+		Row(String[] columns) {
+			this.columns = columns;
+			for (int x = 0; x < columns.length; x++) {
+				index.put(columns[x], x);
+			}
+		}
+		@Override
+		public boolean next() {
+			return false;
+		}
+		@Override
+		public int getSize() {
+			return 1;
+		}
+		@Override
+		public Map<String, Object> getRow() {
+			Map<String, Object> map = new HashMap<String, Object>();
+			for (int x = 0; x < columns.length; x++) {
+				map.put(columns[x], values[x]);
+			}
+			return map;
+		}
+		@Override
+		public Object getObject(String param) throws InvalidParameterException {
+			Integer x = index.get(param.toUpperCase());
+			if (x == null)
+				throw new InvalidParameterException("Invalid column name: " + param);
+			return values[x];
+		}
+	}
+}
@@ -0,0 +1,864 @@
+package dbutil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+
+import dbutil.annotations.DbTable;
+import dbutil.annotations.FormName;
+import dbutil.metrics.PqMetrics;
+
+/**
+ * Loads CSV or JSON lines into the table of a @DbTable class. Input columns are matched to entity fields by their
+ * @DbColumn name, @FormName or field name (ignoring case). Rows flow through a bounded pipeline:
+ * <ul>
+ * <li>the calling thread parses the input into batches of raw values</li>
+ * <li>converter threads turn the values into the types of the fields. Rows that don't convert are rejected</li>
+ * <li>writer threads each hold a pooled connection and insert the rows with jdbc batches, committing every
+ * commit interval rows. A failed batch is rolled back and its rows retried one at a time so only the bad rows
+ * are rejected</li>
+ * </ul>
+ * <pre>
+ * BulkLoader.Report report = new BulkLoader&lt;TaxBill&gt;(TaxBill.class).setThreads(4).setBatchSize(500)
+ *     .setCommitInterval(5000).disableSecurity().load(new FileInputStream("bills.csv"));
+ * for (BulkLoader.Rejected r: report.getRejected())
+ *     log.warn("line " + r.getLine() + ": " + r.getMessage());
+ * </pre>
+ */
+@SuppressWarnings("unchecked")
+public class BulkLoader<T> {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// marks the end of the input on a queue
+	private static final List<Object[]> END = Collections.unmodifiableList(new ArrayList<Object[]>());
+
+	private final Class<T> cls;
+	private final EntityMeta<T> meta;
+	private final DBL dbl;
+	private Export.Format format = Export.Format.CSV;
+	private char delimiter = ',';
+	private boolean header = true;
+	private String[] columns = null;
+	private String dateFormat = null;
+	private int threads = 2;
+	private int converters = 1;
+	private int batchSize = 500;
+	private int commitInterval = 5000;
+	private int queueSize = 8;
+	private int maxRejected = 1000;
+	private boolean securityEnabled = true;
+	private PqUser securityUser = null;
+
+	public BulkLoader(Class<T> cls) {
+		this.cls = cls;
+		this.meta = EntityMetas.get(cls);
+		// subtypes mapped by a @Discriminator are stored in the table of their base class
+		Class<?> tblcls = cls;
+		while (tblcls.getAnnotation(DbTable.class) == null) {
+			tblcls = tblcls.getSuperclass();
+		}
+		this.dbl = tblcls.getAnnotation(DbTable.class).schema();
+	}
+	public BulkLoader<T> setFormat(Export.Format format) {
+		this.format = format;
+		return this;
+	}
+	public BulkLoader<T> setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+	/**
+	 * @param header false when the first CSV line is data. The columns are then taken from setColumns or the
+	 * order of the @DbColumn fields
+	 */
+	public BulkLoader<T> setHeader(boolean header) {
+		this.header = header;
+		return this;
+	}
+	/**
+	 * @param names field or column name of each CSV column of a file without a header
+	 */
+	public BulkLoader<T> setColumns(String... names) {
+		this.columns = names;
+		return this;
+	}
+	/**
+	 * @param pattern SimpleDateFormat pattern of the date fields. By default ISO dates and MM/dd/yyyy are accepted
+	 */
+	public BulkLoader<T> setDateFormat(String pattern) {
+		this.dateFormat = pattern;
+		return this;
+	}
+	/**
+	 * @param threads number of writer threads, each holding one connection for the whole load
+	 */
+	public BulkLoader<T> setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+	public BulkLoader<T> setConverters(int converters) {
+		this.converters = Math.max(1, converters);
+		return this;
+	}
+	public BulkLoader<T> setBatchSize(int rows) {
+		this.batchSize = Math.max(1, rows);
+		return this;
+	}
+	/**
+	 * @param rows rows each writer inserts between commits. Rounded up to a multiple of the batch size
+	 */
+	public BulkLoader<T> setCommitInterval(int rows) {
+		this.commitInterval = Math.max(1, rows);
+		return this;
+	}
+	/**
+	 * @param batches batches waiting between two stages before the earlier stage blocks
+	 */
+	public BulkLoader<T> setQueueSize(int batches) {
+		this.queueSize = Math.max(1, batches);
+		return this;
+	}
+	/**
+	 * @param rows the load stops when more rows than this are rejected
+	 */
+	public BulkLoader<T> setMaxRejected(int rows) {
+		this.maxRejected = rows;
+		return this;
+	}
+	public BulkLoader<T> setSecurityUser(PqUser user) {
+		this.securityEnabled = true;
+		this.securityUser = user;
+		return this;
+	}
+	public BulkLoader<T> disableSecurity() {
+		this.securityEnabled = false;
+		return this;
+	}
+
+	/**
+	 * Loads UTF-8 input. The stream is not closed
+	 */
+	public Report load(InputStream in) throws IOException, InterruptedException, IllegalAccessException {
+		return load(new InputStreamReader(in, UTF8));
+	}
+	/**
+	 * Loads the input and waits for every row to be committed or rejected. The reader is not closed
+	 */
+	public Report load(Reader in) throws IOException, InterruptedException, IllegalAccessException {
+		long start = System.nanoTime();
+		Plan plan = new Plan();
+		Report report = new Report(maxRejected);
+		BlockingQueue<List<Object[]>> parsed = new ArrayBlockingQueue<List<Object[]>>(queueSize);
+		BlockingQueue<List<Object[]>> converted = new ArrayBlockingQueue<List<Object[]>>(queueSize);
+		ExecutorService pool = Executors.newFixedThreadPool(converters + threads);
+		try {
+			AtomicInteger running = new AtomicInteger(converters);
+			for (int x = 0; x < converters; x++) {
+				pool.submit(new Converter(plan, parsed, converted, running, report));
+			}
+			for (int x = 0; x < threads; x++) {
+				pool.submit(new Writer(plan, converted, report));
+			}
+			try {
+				parse(in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 65536), plan, parsed, report);
+			} finally {
+				for (int x = 0; x < converters; x++) {
+					put(parsed, END, report);
+				}
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				// writers finish the queued batches
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		report.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (DB.isDebug())
+			System.out.println("PQ BULK LOAD " + cls.getSimpleName() + ": " + report);
+		return report;
+	}
+
+	// puts a batch on a queue unless the load was stopped
+	private static boolean put(BlockingQueue<List<Object[]>> queue, List<Object[]> batch, Report report) throws InterruptedException {
+		while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			if (report.isAborted())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The insert statement and how input columns map to its parameters. Built once per load
+	 */
+	private final class Plan {
+		final String sql;
+		// meta field index of each insert parameter
+		final int[] params;
+		final Class<?>[] types;
+		// insert parameter of each field name, column name and form name (upper case), -1 for fields not inserted
+		final Map<String, Integer> names = new HashMap<String, Integer>();
+
+		Plan() throws IllegalAccessException {
+			if (securityEnabled && !allowed(meta.getTableSecurity(), 2))
+				throw new IllegalAccessException("You don't have rights to insert into " + meta.getTable());
+			String[] fieldNames = meta.getFieldNames();
+			String[] allColumns = meta.getColumns();
+			int[] ids = meta.getIdIndexes();
+			List<String> cols = new ArrayList<String>();
+			List<String> sequences = new ArrayList<String>();
+			List<Integer> idlist = new ArrayList<Integer>();
+			List<Integer> paramlist = new ArrayList<Integer>();
+			for (int x = 0; x < fieldNames.length; x++) {
+				String sequence = getSequence(fieldNames[x]);
+				boolean allowed = !securityEnabled || sequence.length() > 0 || allowed(meta.getFieldSecurity(x), 1);
+				if (!allowed)
+					continue;
+				if (contains(ids, x))
+					idlist.add(cols.size());
+				cols.add(allColumns[x]);
+				sequences.add(sequence);
+				if (sequence.length() == 0)
+					paramlist.add(x);
+			}
+			if (cols.isEmpty())
+				throw new IllegalAccessException("You don't have rights to insert any field of " + cls.getSimpleName());
+			int[] idIdx = new int[idlist.size()];
+			for (int x = 0; x < idIdx.length; x++) {
+				idIdx[x] = idlist.get(x);
+			}
+			sql = EntityMetas.buildSql(meta.getTable(), meta.getAlias(), cols.toArray(new String[cols.size()]), idIdx,
+					sequences.toArray(new String[sequences.size()]))[1];
+			params = new int[paramlist.size()];
+			types = new Class<?>[params.length];
+			Class<?>[] fieldTypes = meta.getFieldTypes();
+			for (int x = 0; x < params.length; x++) {
+				params[x] = paramlist.get(x);
+				types[x] = Projection.box(fieldTypes[params[x]]);
+			}
+			for (int x = 0; x < fieldNames.length; x++) {
+				Integer param = -1;
+				for (int p = 0; p < params.length; p++) {
+					if (params[p] == x)
+						param = p;
+				}
+				names.put(fieldNames[x].toUpperCase(), param);
+				names.put(allColumns[x].toUpperCase(), param);
+				Field f = findField(fieldNames[x]);
+				FormName fn = f == null ? null : f.getAnnotation(FormName.class);
+				if (fn != null)
+					names.put(fn.value().toUpperCase(), param);
+			}
+		}
+		/**
+		 * @return the insert parameter of every input column, -1 for columns that are not loaded
+		 */
+		int[] map(String[] header) {
+			int[] slots = new int[header.length];
+			for (int x = 0; x < header.length; x++) {
+				Integer p = names.get(header[x].trim().toUpperCase());
+				slots[x] = p == null ? -1 : p;
+			}
+			return slots;
+		}
+		private boolean allowed(SecurityDescriptor sd, int right) {
+			return sd != null && (sd.getRights(securityUser) & right) != 0;
+		}
+		private String getSequence(String fieldName) {
+			Field f = findField(fieldName);
+			dbutil.annotations.Id id = f == null ? null : f.getAnnotation(dbutil.annotations.Id.class);
+			return id == null ? "" : id.sequence();
+		}
+	}
+	private Field findField(String name) {
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			try {
+				return c.getDeclaredField(name);
+			} catch (NoSuchFieldException e) {
+				// look in the super class
+			}
+		}
+		return null;
+	}
+	private static boolean contains(int[] values, int value) {
+		for (int v: values) {
+			if (v == value)
+				return true;
+		}
+		return false;
+	}
+
+	// parser stage. each row is {Long line, String raw, String[] values in insert parameter order}
+	private void parse(BufferedReader in, Plan plan, BlockingQueue<List<Object[]>> out, Report report) throws IOException, InterruptedException {
+		int[] slots = null;
+		if (format == Export.Format.CSV && !header) {
+			String[] names = columns;
+			if (names == null)
+				names = meta.getColumns();
+			slots = plan.map(names);
+		}
+		List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+		CsvReader csv = format == Export.Format.CSV ? new CsvReader(in, delimiter) : null;
+		long line = 0;
+		while (!report.isAborted()) {
+			Object[] row;
+			if (csv != null) {
+				String[] values = csv.next();
+				if (values == null)
+					break;
+				line = csv.getLine();
+				if (slots == null) {
+					slots = plan.map(values);
+					report.unmapped(values, slots);
+					continue;
+				}
+				String[] params = new String[plan.params.length];
+				for (int x = 0; x < values.length && x < slots.length; x++) {
+					if (slots[x] >= 0)
+						params[slots[x]] = values[x];
+				}
+				row = new Object[] { line, null, params };
+				if (values.length != slots.length)
+					row[1] = "Expected " + slots.length + " columns but found " + values.length;
+			} else {
+				String text = in.readLine();
+				if (text == null)
+					break;
+				line++;
+				if (text.trim().length() == 0)
+					continue;
+				String[] params = new String[plan.params.length];
+				row = new Object[] { line, null, params };
+				try {
+					new JsonLine(text).parse(plan, params, report);
+				} catch (IllegalArgumentException e) {
+					row[1] = e.getMessage();
+				}
+			}
+			report.read.incrementAndGet();
+			batch.add(row);
+			if (batch.size() == batchSize) {
+				if (!put(out, batch, report))
+					break;
+				batch = new ArrayList<Object[]>(batchSize);
+			}
+		}
+		if (!batch.isEmpty())
+			put(out, batch, report);
+	}
+
+	/**
+	 * Converts the raw values of the parsed rows into the types of their fields
+	 */
+	private final class Converter implements Runnable {
+		private final Plan plan;
+		private final BlockingQueue<List<Object[]>> in;
+		private final BlockingQueue<List<Object[]>> out;
+		private final AtomicInteger running;
+		private final Report report;
+		private final SimpleDateFormat dates = dateFormat == null ? null : new SimpleDateFormat(dateFormat);
+
+		Converter(Plan plan, BlockingQueue<List<Object[]>> in, BlockingQueue<List<Object[]>> out, AtomicInteger running, Report report) {
+			this.plan = plan;
+			this.in = in;
+			this.out = out;
+			this.running = running;
+			this.report = report;
+			if (dates != null)
+				dates.setLenient(false);
+		}
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					List<Object[]> batch = in.poll(100, TimeUnit.MILLISECONDS);
+					if (batch == END || report.isAborted())
+						break;
+					if (batch == null)
+						continue;
+					List<Object[]> rows = new ArrayList<Object[]>(batch.size());
+					for (Object[] row: batch) {
+						if (row[1] != null) {
+							report.reject((Long) row[0], (String) row[1]);
+							continue;
+						}
+						String[] values = (String[]) row[2];
+						List<Object> params = new ArrayList<Object>(values.length);
+						String error = null;
+						for (int x = 0; x < values.length && error == null; x++) {
+							try {
+								params.add(convert(values[x], plan.types[x]));
+							} catch (RuntimeException e) {
+								error = meta.getFieldNames()[plan.params[x]] + ": cannot convert '" + values[x] + "' to " + plan.types[x].getSimpleName();
+							}
+						}
+						if (error != null)
+							report.reject((Long) row[0], error);
+						else
+							rows.add(new Object[] { row[0], params });
+					}
+					if (!rows.isEmpty() && !put(out, rows, report))
+						break;
+				}
+			} catch (InterruptedException e) {
+				report.abort("Load was interrupted");
+			} catch (RuntimeException e) {
+				report.abort("Converting rows failed: " + e, e);
+			} catch (Error e) {
+				report.abort("Converting rows failed: " + e, e);
+				throw e;
+			} finally {
+				// the last converter tells every writer that no more rows come
+				if (running.decrementAndGet() == 0) {
+					for (int x = 0; x < threads; x++) {
+						try {
+							put(out, END, report);
+						} catch (InterruptedException e) {
+							report.abort("Load was interrupted");
+						}
+					}
+				}
+			}
+		}
+		private Object convert(String value, Class<?> type) {
+			if (value == null || (value.length() == 0 && type != String.class))
+				return null;
+			if (type == String.class)
+				return value;
+			if (type == Boolean.class) {
+				String s = value.trim();
+				return s.equalsIgnoreCase("y") || s.equalsIgnoreCase("yes") || s.equalsIgnoreCase("true") || s.equals("1");
+			}
+			if (type == Character.class)
+				return value.charAt(0);
+			if (Date.class.isAssignableFrom(type) && dates != null) {
+				ParsePosition pos = new ParsePosition(0);
+				Date d = dates.parse(value.trim(), pos);
+				if (d == null || pos.getIndex() != value.trim().length())
+					throw new IllegalArgumentException("Unparseable date: " + value);
+				return d;
+			}
+			if (Date.class.isAssignableFrom(type))
+				return ObjectConverter.convert(value, Date.class);
+			return ObjectConverter.convert(value, type);
+		}
+	}
+
+	/**
+	 * Inserts the converted rows in batches over one connection
+	 */
+	private final class Writer extends DB implements Runnable {
+		private final Plan plan;
+		private final BlockingQueue<List<Object[]>> in;
+		private final Report report;
+		// rows inserted since the last commit. retried one at a time when a later batch of the transaction fails
+		private final List<Object[]> uncommitted = new ArrayList<Object[]>();
+
+		Writer(Plan plan, BlockingQueue<List<Object[]>> in, Report report) {
+			this.plan = plan;
+			this.in = in;
+			this.report = report;
+		}
+		@Override
+		public void run() {
+			try {
+				beginTransaction();
+				init(dbl);
+				prepareStatement(plan.sql);
+				while (true) {
+					List<Object[]> batch = in.poll(100, TimeUnit.MILLISECONDS);
+					if (batch == END || report.isAborted())
+						break;
+					if (batch != null)
+						insert(batch);
+				}
+				if (!report.isAborted())
+					commitRows();
+			} catch (InterruptedException e) {
+				report.abort("Load was interrupted");
+			} catch (NamingException e) {
+				report.abort("Unable to connect to " + dbl + ": " + e.getMessage());
+			} catch (SQLException e) {
+				report.abort("Insert into " + meta.getTable() + " failed: " + e.getMessage());
+			} catch (IOException e) {
+				report.abort("Insert into " + meta.getTable() + " failed: " + e.getMessage());
+			} catch (RuntimeException e) {
+				// a writer that dies without aborting leaves the converters and the parser waiting on full queues
+				report.abort("Insert into " + meta.getTable() + " failed: " + e, e);
+			} catch (Error e) {
+				report.abort("Insert into " + meta.getTable() + " failed: " + e, e);
+				throw e;
+			} finally {
+				if (report.isAborted() && !uncommitted.isEmpty()) {
+					try {
+						rollback();
+					} catch (Exception e) {
+						// the connection is closed below
+					}
+				}
+				closeQuietly();
+				endTransaction();
+			}
+		}
+		private void insert(List<Object[]> batch) throws SQLException, IOException {
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				for (Object[] row: batch) {
+					setParameters((List<Object>) row[1]);
+					addBatch();
+				}
+				executeBatch();
+				failed = false;
+			} catch (SQLException e) {
+				clearBatch();
+				rollback();
+				List<Object[]> retry = new ArrayList<Object[]>(uncommitted);
+				retry.addAll(batch);
+				uncommitted.clear();
+				insertOneByOne(retry);
+				return;
+			} finally {
+				PqMetrics.recordQuery(dbl, cls, "insert", System.nanoTime() - start, 0, failed);
+			}
+			uncommitted.addAll(batch);
+			if (uncommitted.size() >= commitInterval)
+				commitRows();
+		}
+		// finds the bad rows of a failed transaction. each good row is committed on its own
+		private void insertOneByOne(List<Object[]> rows) throws SQLException, IOException {
+			for (Object[] row: rows) {
+				try {
+					setParameters((List<Object>) row[1]);
+					addBatch();
+					executeBatch();
+					commit();
+					report.inserted.incrementAndGet();
+				} catch (SQLException e) {
+					clearBatch();
+					rollback();
+					report.reject((Long) row[0], e.getMessage());
+				}
+			}
+		}
+		private void commitRows() throws SQLException {
+			commit();
+			report.inserted.addAndGet(uncommitted.size());
+			uncommitted.clear();
+		}
+	}
+
+	/**
+	 * Minimal CSV reader: quoted values may contain the delimiter, doubled quotes and line breaks
+	 */
+	private static final class CsvReader {
+		private final BufferedReader in;
+		private final char delimiter;
+		private final StringBuilder value = new StringBuilder();
+		private long line = 0;
+		private long nextLine = 1;
+
+		CsvReader(BufferedReader in, char delimiter) {
+			this.in = in;
+			this.delimiter = delimiter;
+		}
+		// line the last record started on
+		long getLine() {
+			return line;
+		}
+		String[] next() throws IOException {
+			List<String> values = new ArrayList<String>();
+			value.setLength(0);
+			boolean quoted = false;
+			boolean any = false;
+			line = nextLine;
+			int ch;
+			while ((ch = in.read()) != -1) {
+				any = true;
+				if (quoted) {
+					if (ch == '"') {
+						in.mark(1);
+						if (in.read() == '"') {
+							value.append('"');
+						} else {
+							in.reset();
+							quoted = false;
+						}
+					} else {
+						if (ch == '\n')
+							nextLine++;
+						value.append((char) ch);
+					}
+				} else if (ch == '"' && value.length() == 0) {
+					quoted = true;
+				} else if (ch == delimiter) {
+					values.add(value.toString());
+					value.setLength(0);
+				} else if (ch == '\r') {
+					// dropped, \n ends the record
+				} else if (ch == '\n') {
+					nextLine++;
+					if (values.isEmpty() && value.length() == 0) {
+						// blank line
+						line = nextLine;
+						any = false;
+						continue;
+					}
+					break;
+				} else {
+					value.append((char) ch);
+				}
+			}
+			if (!any)
+				return null;
+			values.add(value.toString());
+			return values.toArray(new String[values.size()]);
+		}
+	}
+
+	/**
+	 * Parses a flat JSON object. Nested objects and arrays are rejected
+	 */
+	private final class JsonLine {
+		private final String text;
+		private int pos = 0;
+
+		JsonLine(String text) {
+			this.text = text;
+		}
+		void parse(Plan plan, String[] params, Report report) {
+			skip();
+			expect('{');
+			skip();
+			if (peek() == '}')
+				return;
+			while (true) {
+				skip();
+				String key = string();
+				skip();
+				expect(':');
+				skip();
+				String value = value(key);
+				Integer p = plan.names.get(key.toUpperCase());
+				if (p == null || p < 0)
+					report.unmapped(key);
+				else
+					params[p] = value;
+				skip();
+				char ch = next();
+				if (ch == '}')
+					break;
+				if (ch != ',')
+					throw error("Expected , or }");
+			}
+		}
+		private String value(String key) {
+			char ch = peek();
+			if (ch == '"')
+				return string();
+			if (ch == '{' || ch == '[')
+				throw error("Nested value of " + key + " is not supported");
+			int start = pos;
+			while (pos < text.length() && ",} \t".indexOf(text.charAt(pos)) < 0) {
+				pos++;
+			}
+			String literal = text.substring(start, pos);
+			if (literal.length() == 0)
+				throw error("Missing value of " + key);
+			return literal.equals("null") ? null : literal;
+		}
+		private String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char ch = next();
+				if (ch == '"')
+					return sb.toString();
+				if (ch != '\\') {
+					sb.append(ch);
+					continue;
+				}
+				ch = next();
+				switch (ch) {
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (pos + 4 > text.length())
+						throw error("Bad unicode escape");
+					sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default: sb.append(ch);
+				}
+			}
+		}
+		private void skip() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+		private char peek() {
+			if (pos >= text.length())
+				throw error("Unexpected end of line");
+			return text.charAt(pos);
+		}
+		private char next() {
+			char ch = peek();
+			pos++;
+			return ch;
+		}
+		private void expect(char ch) {
+			if (next() != ch)
+				throw error("Expected " + ch);
+		}
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + pos);
+		}
+	}
+
+	/**
+	 * A row that was not loaded
+	 */
+	public static final class Rejected {
+		private final long line;
+		private final String message;
+
+		Rejected(long line, String message) {
+			this.line = line;
+			this.message = message;
+		}
+		/**
+		 * @return line of the input the row starts on
+		 */
+		public long getLine() {
+			return line;
+		}
+		public String getMessage() {
+			return message;
+		}
+		@Override
+		public String toString() {
+			return "line " + line + ": " + message;
+		}
+	}
+
+	/**
+	 * Outcome of a load. Rows are either inserted or rejected unless the load was aborted
+	 */
+	public static class Report {
+		private final int maxRejected;
+		private final AtomicLong read = new AtomicLong();
+		private final AtomicLong inserted = new AtomicLong();
+		private final AtomicLong rejectedCount = new AtomicLong();
+		private final List<Rejected> rejected = Collections.synchronizedList(new ArrayList<Rejected>());
+		private final List<String> unmapped = Collections.synchronizedList(new ArrayList<String>());
+		private volatile String abortReason = null;
+		private volatile Throwable abortCause = null;
+		private long millis;
+
+		private Report(int maxRejected) {
+			this.maxRejected = maxRejected;
+		}
+		private void reject(long line, String message) {
+			long ct = rejectedCount.incrementAndGet();
+			if (ct <= maxRejected)
+				rejected.add(new Rejected(line, message));
+			else
+				abort("More than " + maxRejected + " rows were rejected");
+		}
+		private void abort(String reason) {
+			abort(reason, null);
+		}
+		private synchronized void abort(String reason, Throwable cause) {
+			if (abortReason == null) {
+				abortCause = cause;
+				abortReason = reason;
+			}
+		}
+		private void unmapped(String[] header, int[] slots) {
+			for (int x = 0; x < header.length; x++) {
+				if (slots[x] < 0)
+					unmapped(header[x]);
+			}
+		}
+		private void unmapped(String name) {
+			synchronized (unmapped) {
+				if (!unmapped.contains(name))
+					unmapped.add(name);
+			}
+		}
+		public long getRead() {
+			return read.get();
+		}
+		public long getInserted() {
+			return inserted.get();
+		}
+		public long getRejectedCount() {
+			return rejectedCount.get();
+		}
+		/**
+		 * @return the first maxRejected rejected rows ordered by the time they were rejected
+		 */
+		public List<Rejected> getRejected() {
+			synchronized (rejected) {
+				return new ArrayList<Rejected>(rejected);
+			}
+		}
+		/**
+		 * @return input columns that were not loaded because they match no field or the user may not insert them
+		 */
+		public List<String> getUnmappedColumns() {
+			synchronized (unmapped) {
+				return new ArrayList<String>(unmapped);
+			}
+		}
+		public boolean isAborted() {
+			return abortReason != null;
+		}
+		public String getAbortReason() {
+			return abortReason;
+		}
+		/**
+		 * @return the unexpected exception that aborted the load or null
+		 */
+		public Throwable getAbortCause() {
+			return abortCause;
+		}
+		public long getMillis() {
+			return millis;
+		}
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(read + " rows read, " + inserted + " inserted, " + rejectedCount + " rejected in " + millis + "ms");
+			if (abortReason != null)
+				sb.append(", aborted: " + abortReason);
+			if (!unmapped.isEmpty())
+				sb.append(", unmapped columns: " + getUnmappedColumns());
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package dbutil;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dbutil.metrics.PqMetrics;
+
+/**
+ * Limits how much of the application a single schema can tie up. Every connection taken by {@link DB#init(DBL)}
+ * holds a permit of the bulkhead of its schema until the connection is released.
+ * <ul>
+ * <li><b>max concurrent</b>: connections (and so statements) open at the same time. 0 (the default) is unlimited</li>
+ * <li><b>max waiting / wait timeout</b>: callers queue for a permit up to the timeout. When the queue is full the
+ * caller fails immediately</li>
+ * <li><b>circuit</b>: when enough of the recent calls failed or were slow the circuit opens and calls fail fast
+ * for the open period. Afterwards a few trial calls are let through (half open) and the circuit closes again
+ * when they succeed</li>
+ * </ul>
+ * Rejected calls throw a {@link SQLTransientConnectionException}. Only connection errors and exceptions that are
+ * not {@link SQLNonTransientException} count as failures, so a bad where clause does not open the circuit.
+ * Configure the bulkhead at startup before the schema is used. The state is registered with JMX as
+ * <tt>dbutil:type=Bulkhead,name=&lt;DBL&gt;</tt>.
+ * <pre>
+ * DBL.GIS.getInstance().getBulkhead().setMaxConcurrent(10).setMaxWaiting(20).setWaitTimeoutMillis(2000)
+ *     .setCircuit(0.5, 5000, 20, 30000);
+ * </pre>
+ */
+public final class Bulkhead implements BulkheadMBean {
+	public static enum State { CLOSED, OPEN, HALF_OPEN };
+
+	private volatile int maxConcurrent = 0;
+	private volatile Semaphore permits = null;
+	private volatile int maxWaiting = Integer.MAX_VALUE;
+	private volatile long waitTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong shortCircuited = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+
+	// circuit settings. a failure rate of 0 disables the circuit
+	private volatile double failureRate = 0;
+	private volatile long slowCallNanos = 0;
+	private volatile int windowSize = 20;
+	private volatile long openNanos = TimeUnit.SECONDS.toNanos(30);
+	private volatile int halfOpenCalls = 3;
+	// circuit state, guarded by this
+	private State state = State.CLOSED;
+	private long openedAt;
+	private int calls;
+	private int failures;
+	private int trials;
+	private int trialSuccesses;
+	private volatile boolean registered = false;
+
+	Bulkhead() { }
+
+	public Bulkhead setMaxConcurrent(int max) {
+		this.maxConcurrent = Math.max(0, max);
+		this.permits = max > 0 ? new Semaphore(max, true) : null;
+		return this;
+	}
+	public Bulkhead setMaxWaiting(int max) {
+		this.maxWaiting = Math.max(0, max);
+		return this;
+	}
+	public Bulkhead setWaitTimeoutMillis(long millis) {
+		this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+		return this;
+	}
+	/**
+	 * @param failureRate share of failed or slow calls (0-1) within a window that opens the circuit. 0 disables it
+	 * @param slowCallMillis statements running longer than this count as failures. 0 ignores latency
+	 * @param windowSize number of calls evaluated together
+	 * @param openMillis how long the circuit stays open before trial calls are let through
+	 */
+	public synchronized Bulkhead setCircuit(double failureRate, long slowCallMillis, int windowSize, long openMillis) {
+		this.failureRate = failureRate;
+		this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+		this.windowSize = Math.max(1, windowSize);
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		return this;
+	}
+	public Bulkhead setHalfOpenCalls(int calls) {
+		this.halfOpenCalls = Math.max(1, calls);
+		return this;
+	}
+
+	/**
+	 * Takes a permit, waiting for one up to the wait timeout
+	 * @return the semaphore the permit was taken from, null when the concurrency is not limited. It is passed back to
+	 * release so a permit taken before setMaxConcurrent replaced the semaphore does not add to the new limit
+	 * @throws SQLTransientConnectionException when the circuit is open, the wait queue is full or the wait timed out
+	 */
+	Semaphore acquire(DBL dbl) throws SQLTransientConnectionException {
+		if (!registered) {
+			registered = true;
+			PqMetrics.register("Bulkhead", dbl.name(), this);
+		}
+		if (!allowCall()) {
+			shortCircuited.incrementAndGet();
+			throw new SQLTransientConnectionException(dbl.name() + " is unavailable (circuit open), failing fast");
+		}
+		Semaphore p = permits;
+		if (p != null && !p.tryAcquire()) {
+			if (waiting.incrementAndGet() > maxWaiting) {
+				waiting.decrementAndGet();
+				rejected.incrementAndGet();
+				callRejected();
+				throw new SQLTransientConnectionException(dbl.name() + " has " + maxConcurrent + " statements running and the wait queue is full");
+			}
+			try {
+				if (!p.tryAcquire(waitTimeoutNanos, TimeUnit.NANOSECONDS)) {
+					timedOut.incrementAndGet();
+					callRejected();
+					throw new SQLTransientConnectionException("Timed out waiting " + TimeUnit.NANOSECONDS.toMillis(waitTimeoutNanos) + "ms for a " + dbl.name() + " connection");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				callRejected();
+				throw new SQLTransientConnectionException("Interrupted while waiting for a " + dbl.name() + " connection", e);
+			} finally {
+				waiting.decrementAndGet();
+			}
+		}
+		inUse.incrementAndGet();
+		return p;
+	}
+	/**
+	 * Returns the permit taken by acquire and records the outcome of the call for the circuit
+	 * @param permit semaphore returned by acquire
+	 * @param failed exception of the call or null
+	 * @param longestNanos duration of the longest statement run with the permit
+	 */
+	void release(Semaphore permit, SQLException failed, long longestNanos) {
+		inUse.decrementAndGet();
+		if (permit != null)
+			permit.release();
+		boolean failure = failed != null && (!(failed instanceof SQLNonTransientException) || failed instanceof SQLNonTransientConnectionException);
+		long slow = slowCallNanos;
+		record(failure || (slow > 0 && longestNanos > slow));
+	}
+
+	private synchronized boolean allowCall() {
+		if (failureRate <= 0)
+			return true;
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedAt < openNanos)
+				return false;
+			state = State.HALF_OPEN;
+			trials = 0;
+			trialSuccesses = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (trials >= halfOpenCalls)
+				return false;
+			trials++;
+		}
+		return true;
+	}
+	// a trial call that never ran must not keep the circuit half open forever
+	private synchronized void callRejected() {
+		if (state == State.HALF_OPEN && trials > 0)
+			trials--;
+	}
+	private synchronized void record(boolean failure) {
+		if (failureRate <= 0)
+			return;
+		if (state == State.HALF_OPEN) {
+			if (failure)
+				open();
+			else if (++trialSuccesses >= halfOpenCalls) {
+				state = State.CLOSED;
+				calls = 0;
+				failures = 0;
+			}
+			return;
+		}
+		if (state == State.OPEN)
+			return;
+		calls++;
+		if (failure)
+			failures++;
+		if (calls >= windowSize) {
+			if ((double) failures / calls >= failureRate)
+				open();
+			calls = 0;
+			failures = 0;
+		}
+	}
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		opened.incrementAndGet();
+	}
+
+	public synchronized State getCircuitState() {
+		// report an expired open circuit as half open even before the next call
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos)
+			return State.HALF_OPEN;
+		return state;
+	}
+	@Override
+	public String getState() {
+		return getCircuitState().name();
+	}
+	@Override
+	public int getInUse() {
+		return inUse.get();
+	}
+	@Override
+	public int getWaiting() {
+		return waiting.get();
+	}
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+	@Override
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+	@Override
+	public long getShortCircuited() {
+		return shortCircuited.get();
+	}
+	@Override
+	public long getOpenedCount() {
+		return opened.get();
+	}
+	@Override
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+	@Override
+	public int getMaxWaiting() {
+		return maxWaiting;
+	}
+	@Override
+	public long getWaitTimeoutMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTimeoutNanos);
+	}
+	@Override
+	public synchronized void reset() {
+		state = State.CLOSED;
+		calls = 0;
+		failures = 0;
+		rejected.set(0);
+		timedOut.set(0);
+		shortCircuited.set(0);
+		opened.set(0);
+	}
+}
@@ -0,0 +1,21 @@
+package dbutil;
+
+/**
+ * JMX view of a {@link Bulkhead}
+ */
+public interface BulkheadMBean {
+	public String getState();
+	public int getInUse();
+	public int getWaiting();
+	public long getRejected();
+	public long getTimedOut();
+	public long getShortCircuited();
+	public long getOpenedCount();
+	public int getMaxConcurrent();
+	public int getMaxWaiting();
+	public long getWaitTimeoutMillis();
+	/**
+	 * Closes the circuit and clears the counters
+	 */
+	public void reset();
+}
@@ -0,0 +1,89 @@
+package dbutil;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels the statements of a running query from another thread, for example when the user abandons a request.
+ * The handle is shared with the joined queries of the query so cancelling stops the whole object graph.
+ * Statements still running at their deadline are cancelled the same way, so deadlines are kept to the millisecond
+ * even though Statement.setQueryTimeout only takes seconds.
+ * <pre>
+ * PojoQuery&lt;Report&gt; pq = new PojoQuery&lt;Report&gt;(Report.class, "where year=?", 2016);
+ * CancelHandle handle = pq.getCancelHandle();
+ * // on another thread
+ * handle.cancel();
+ * </pre>
+ */
+public final class CancelHandle {
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "pq-deadline-cancel");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+	// open statements and their deadline timer (null when the statement has no deadline)
+	private final Map<Statement, Object> statements = new ConcurrentHashMap<Statement, Object>();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels the running statements and makes every following statement of the query fail
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (Statement st: statements.keySet()) {
+			cancelQuietly(st);
+		}
+	}
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Registers a prepared statement. Fails without running it when the query was cancelled or its deadline passed
+	 */
+	void attach(final Statement st, Deadline deadline) throws SQLException {
+		if (cancelled)
+			throw new SQLException("Query was cancelled", "HY008");
+		Object timeout = Boolean.TRUE;
+		if (deadline != null) {
+			if (deadline.isExpired())
+				throw new SQLTimeoutException("Query deadline passed before the statement was run");
+			st.setQueryTimeout(deadline.getTimeoutSeconds());
+			timeout = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					cancelQuietly(st);
+				}
+			}, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		}
+		statements.put(st, timeout);
+		// cancel() may have run between the check and the put
+		if (cancelled)
+			cancelQuietly(st);
+	}
+	void detach(Statement st) {
+		Object timeout = statements.remove(st);
+		if (timeout instanceof ScheduledFuture)
+			((ScheduledFuture<?>) timeout).cancel(false);
+	}
+	private static void cancelQuietly(Statement st) {
+		try {
+			st.cancel();
+		} catch (Exception e) {
+			// already closed or the driver does not support cancel
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package dbutil;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import dbutil.annotations.DbColumn;
+
+/**
+ * Reads the rows of an entity that changed since the last poll, using a column that only grows, like a last modified
+ * timestamp or a sequence id. Each poll is an index range scan past the watermark instead of a scan of the table:
+ * <pre>
+ * ChangePoller&lt;Bill&gt; poller = new ChangePoller&lt;Bill&gt;(Bill.class, "modified")
+ *     .setFilter("status &lt;&gt; ?", "DRAFT")
+ *     .setStore(new WatermarkStore.PropertiesFile(new File("/var/lib/billing/watermarks.properties")));
+ * // every minute
+ * poller.poll(new ChangePoller.Consumer&lt;Bill&gt;() {
+ *     public boolean accept(List&lt;Bill&gt; changes) {
+ *         return ledger.publish(changes);
+ *     }
+ * });
+ * </pre>
+ * Changes are handed to the consumer in watermark order, in batches of at most setBatchSize rows. The watermark is
+ * saved after the consumer acknowledges a batch by returning true. A batch that is not acknowledged, or that throws,
+ * is delivered again by the next poll, so consumers should tolerate seeing a row twice.
+ * <p>Rows with the same watermark are never split between batches. The watermark must be assigned in commit order
+ * (or polled with a lag) since a row committed later with a smaller value than the saved watermark is not seen.
+ */
+public class ChangePoller<T> {
+	/**
+	 * Receives the changes of one batch
+	 */
+	public interface Consumer<T> {
+		/**
+		 * @return true to acknowledge the batch and advance the watermark past it
+		 */
+		public boolean accept(List<T> changes);
+	}
+
+	private final Class<T> cls;
+	private final Field field;
+	private String name;
+	private String filter = null;
+	private Object[] filterParms = new Object[0];
+	private int batchSize = 1000;
+	private WatermarkStore store = new WatermarkStore.InMemory();
+	private Object initialWatermark = null;
+	private boolean securityEnabled = true;
+	private PqUser securityUser = null;
+	private long timeoutMillis = -1;
+
+	/**
+	 * @param watermarkField entity field of the column that grows with every change. It should be indexed
+	 */
+	public ChangePoller(Class<T> cls, String watermarkField) throws NoSuchFieldException {
+		this.cls = cls;
+		Field f = null;
+		for (Class<?> c = cls; c != null && f == null; c = c.getSuperclass()) {
+			try {
+				f = c.getDeclaredField(watermarkField);
+			} catch (NoSuchFieldException e) {
+				// look in the super class
+			}
+		}
+		if (f == null || f.getAnnotation(DbColumn.class) == null)
+			throw new NoSuchFieldException(cls.getSimpleName() + "." + watermarkField + " is not a @DbColumn field");
+		f.setAccessible(true);
+		this.field = f;
+		this.name = cls.getName() + "." + watermarkField;
+	}
+
+	/**
+	 * @param name key of the watermark in the store. Defaults to the entity class and field name
+	 */
+	public ChangePoller<T> setName(String name) {
+		this.name = name;
+		return this;
+	}
+	/**
+	 * Only polls rows matching the pql condition, e.g. "status &lt;&gt; ?"
+	 */
+	public ChangePoller<T> setFilter(String condition, Object... parms) {
+		this.filter = condition;
+		this.filterParms = parms;
+		return this;
+	}
+	public ChangePoller<T> setBatchSize(int rows) {
+		this.batchSize = Math.max(1, rows);
+		return this;
+	}
+	public ChangePoller<T> setStore(WatermarkStore store) {
+		this.store = store;
+		return this;
+	}
+	/**
+	 * @param watermark where to start when the store has no watermark yet. Null reads the whole table first
+	 */
+	public ChangePoller<T> setInitialWatermark(Object watermark) {
+		this.initialWatermark = watermark;
+		return this;
+	}
+	public ChangePoller<T> setSecurityUser(PqUser user) {
+		this.securityEnabled = true;
+		this.securityUser = user;
+		return this;
+	}
+	public ChangePoller<T> disableSecurity() {
+		this.securityEnabled = false;
+		return this;
+	}
+	/**
+	 * Limits each query of a poll
+	 */
+	public ChangePoller<T> setTimeout(long millis) {
+		this.timeoutMillis = millis;
+		return this;
+	}
+
+	/**
+	 * @return the last acknowledged watermark, or the initial watermark
+	 */
+	public synchronized Object getWatermark() throws IOException {
+		Object wm = store.load(name);
+		return wm == null ? initialWatermark : ObjectConverter.convert(wm, Projection.box(field.getType()));
+	}
+
+	/**
+	 * Hands the rows past the watermark to the consumer until it is caught up or does not acknowledge a batch
+	 * @return the number of acknowledged rows
+	 */
+	public synchronized int poll(Consumer<T> consumer) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		checkWatermarkSelectable();
+		int acked = 0;
+		Object wm = getWatermark();
+		while (true) {
+			List<T> batch = query(wm, false).setMaxRows(batchSize).list();
+			boolean full = batch.size() == batchSize;
+			if (batch.isEmpty())
+				break;
+			Object last = field.get(batch.get(batch.size() - 1));
+			if (full) {
+				// rows with the last watermark may go on past the batch. leave them for the next batch
+				int end = batch.size();
+				while (end > 0 && same(last, field.get(batch.get(end - 1)))) {
+					end--;
+				}
+				if (end > 0)
+					batch = new ArrayList<T>(batch.subList(0, end));
+				else
+					batch = query(last, true).list();
+				last = field.get(batch.get(batch.size() - 1));
+			}
+			if (!consumer.accept(batch))
+				break;
+			store.save(name, last);
+			wm = last;
+			acked += batch.size();
+			if (!full)
+				break;
+		}
+		return acked;
+	}
+
+	// a watermark the user may not select reads back as null, so the poller could never advance past it
+	private void checkWatermarkSelectable() throws IllegalAccessException {
+		if (!securityEnabled)
+			return;
+		EntityMeta<T> meta = EntityMetas.get(cls);
+		int idx = meta.indexOf(field.getName());
+		SecurityDescriptor sd = idx < 0 ? null : meta.getFieldSecurity(idx);
+		if (sd == null || (sd.getRights(securityUser) & 4) == 0)
+			throw new IllegalAccessException("You don't have rights to select " + cls.getSimpleName() + "." + field.getName() + ", the watermark of " + name);
+	}
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static boolean same(Object a, Object b) {
+		if (a instanceof Comparable && b != null && a.getClass() == b.getClass())
+			return ((Comparable) a).compareTo(b) == 0;
+		return a.equals(b);
+	}
+	// rows past the watermark in watermark order, or the rows at the watermark
+	private PojoQuery<T> query(Object wm, boolean at) {
+		String f = field.getName();
+		StringBuilder pql = new StringBuilder("where ");
+		List<Object> parms = new ArrayList<Object>();
+		if (wm == null)
+			pql.append(f + " is not null");
+		else {
+			pql.append(f + (at ? " = ?" : " > ?"));
+			parms.add(wm);
+		}
+		if (filter != null) {
+			pql.append(" and (" + filter + ")");
+			for (Object p: filterParms) {
+				parms.add(p);
+			}
+		}
+		pql.append(" order by " + f);
+		PojoQuery<T> q = new PojoQuery<T>(cls, pql.toString(), parms.toArray());
+		if (securityEnabled)
+			q.setSecurityUser(securityUser);
+		else
+			q.disableSecurity();
+		if (timeoutMillis >= 0)
+			q.setTimeout(timeoutMillis);
+		return q;
+	}
+}
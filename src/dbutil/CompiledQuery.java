@@ -0,0 +1,193 @@
+package dbutil;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.NamingException;
+
+import dbutil.PojoQuery.QueryType;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * A query on an entity class that is parsed once and run any number of times with different parameter values.
+ * Instances are immutable and safe to share between threads, so hot queries can be compiled at startup and kept in
+ * static fields:
+ * <pre>
+ * private static final CompiledQuery&lt;Bill&gt; OPEN_BILLS = CompiledQuery.compile(Bill.class, "where status=? and due &lt; ? order by due");
+ *
+ * List&lt;Bill&gt; bills = OPEN_BILLS.asUser(user).list("OPEN", today);
+ * long late = OPEN_BILLS.asUser(user).withTimeout(2000).count("LATE", today);
+ * </pre>
+ * The generated sql, selected fields and joins are kept per query type and, for select statements, per set of
+ * security groups of the user, since those decide which columns are selected. Each run executes on its own
+ * PojoQuery with its own connection and statement.
+ */
+public final class CompiledQuery<T> {
+	private final Class<T> cls;
+	private final String pql;
+	// shared by every view of the query
+	private final ConcurrentMap<String, Plan> plans;
+	private final String[] groups;
+	// per run settings
+	private final boolean securityEnabled;
+	private final PqUser user;
+	private final long timeoutMillis;
+	private final Deadline deadline;
+	private final int fetchSize;
+
+	private CompiledQuery(Class<T> cls, String pql, ConcurrentMap<String, Plan> plans, String[] groups, boolean securityEnabled,
+			PqUser user, long timeoutMillis, Deadline deadline, int fetchSize) {
+		this.cls = cls;
+		this.pql = pql;
+		this.plans = plans;
+		this.groups = groups;
+		this.securityEnabled = securityEnabled;
+		this.user = user;
+		this.timeoutMillis = timeoutMillis;
+		this.deadline = deadline;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Parses the query and builds its select statement. Names in the pql that are not fields pass through to the sql
+	 * as they do for a PojoQuery, so they are only reported by the database when the query runs
+	 * @param pql the where, order by and select parts as passed to new PojoQuery(cls, pql, ...)
+	 */
+	public static <T> CompiledQuery<T> compile(Class<T> cls, String pql) throws NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		CompiledQuery<T> query = new CompiledQuery<T>(cls, pql, new ConcurrentHashMap<String, Plan>(), getGroups(cls), true, null, -1, null, 0);
+		query.withoutSecurity().plan(QueryType.select);
+		return query;
+	}
+	// the groups named by the field security of the class. membership in them is all that changes the select list
+	private static String[] getGroups(Class<?> cls) {
+		Set<Field> fields = new LinkedHashSet<Field>();
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			Collections.addAll(fields, c.getDeclaredFields());
+		}
+		Polymorphism<?> poly = Polymorphism.get(cls);
+		if (poly != null)
+			fields.addAll(poly.getSubtypeFields());
+		Set<String> groups = new LinkedHashSet<String>();
+		for (Field f: fields) {
+			PojoSecurity pjs = f.getAnnotation(PojoSecurity.class);
+			if (pjs != null)
+				Collections.addAll(groups, pjs.groups());
+		}
+		return groups.toArray(new String[groups.size()]);
+	}
+
+	/**
+	 * @return this query checking the security of the given user
+	 */
+	public CompiledQuery<T> asUser(PqUser user) {
+		return new CompiledQuery<T>(cls, pql, plans, groups, true, user, timeoutMillis, deadline, fetchSize);
+	}
+	public CompiledQuery<T> withoutSecurity() {
+		return new CompiledQuery<T>(cls, pql, plans, groups, false, null, timeoutMillis, deadline, fetchSize);
+	}
+	public CompiledQuery<T> withTimeout(long millis) {
+		return new CompiledQuery<T>(cls, pql, plans, groups, securityEnabled, user, millis, deadline, fetchSize);
+	}
+	public CompiledQuery<T> withDeadline(Deadline deadline) {
+		return new CompiledQuery<T>(cls, pql, plans, groups, securityEnabled, user, timeoutMillis, deadline, fetchSize);
+	}
+	public CompiledQuery<T> withFetchSize(int rows) {
+		return new CompiledQuery<T>(cls, pql, plans, groups, securityEnabled, user, timeoutMillis, deadline, rows);
+	}
+
+	public List<T> list(Object... parms) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return newQuery(QueryType.select, parms).list();
+	}
+	public T single(Object... parms) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return newQuery(QueryType.select, parms).single();
+	}
+	public long count(Object... parms) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return newQuery(QueryType.count, parms).count();
+	}
+	public boolean exists(Object... parms) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return newQuery(QueryType.exists, parms).exists();
+	}
+	/**
+	 * @return the sql generated for the query type and the current user
+	 */
+	public String getSql(QueryType qt) throws NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		return plan(qt).sql;
+	}
+	@Override
+	public String toString() {
+		return cls.getSimpleName() + ": " + pql;
+	}
+
+	private PojoQuery<T> newQuery(QueryType qt, Object[] parms) throws NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		return configure(new PojoQuery<T>(cls, pql, parms)).usePlan(plan(qt));
+	}
+	private PojoQuery<T> configure(PojoQuery<T> q) {
+		if (securityEnabled)
+			q.setSecurityUser(user);
+		else
+			q.disableSecurity();
+		if (timeoutMillis >= 0)
+			q.setTimeout(timeoutMillis);
+		if (deadline != null)
+			q.setDeadline(deadline);
+		if (fetchSize != 0)
+			q.setFetchSize(fetchSize);
+		return q;
+	}
+	private Plan plan(QueryType qt) throws NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		String key = planKey(qt);
+		Plan plan = plans.get(key);
+		if (plan == null) {
+			plan = configure(new PojoQuery<T>(cls, pql)).compile(qt);
+			Plan found = plans.putIfAbsent(key, plan);
+			if (found != null)
+				plan = found;
+		}
+		return plan;
+	}
+	// count and exists don't depend on the user. a select depends on the groups that grant rights to its fields
+	private String planKey(QueryType qt) {
+		if (!securityEnabled)
+			return qt.name() + "!";
+		if (qt != QueryType.select || groups.length == 0 || user == null)
+			return qt.name();
+		BitSet member = new BitSet(groups.length);
+		for (int x = 0; x < groups.length; x++) {
+			if (user.isInGroup(groups[x]))
+				member.set(x);
+		}
+		return qt.name() + member;
+	}
+
+	/**
+	 * The sql of one query type and what PojoQuery would otherwise derive while generating it
+	 */
+	static final class Plan {
+		final QueryType type;
+		final String sql;
+		final List<Field> selectedFields;
+		final List<String> joinFields;
+		// parameters added by keywords like limit(), bound after the caller's parameters
+		final List<Object> keywordParms;
+		final int limitRows;
+
+		Plan(QueryType type, String sql, Collection<Field> selectedFields, Collection<String> joinFields, Collection<Object> keywordParms, int limitRows) {
+			this.type = type;
+			this.sql = sql;
+			this.selectedFields = Collections.unmodifiableList(new ArrayList<Field>(selectedFields));
+			this.joinFields = Collections.unmodifiableList(new ArrayList<String>(joinFields));
+			this.keywordParms = Collections.unmodifiableList(new ArrayList<Object>(keywordParms));
+			this.limitRows = limitRows;
+		}
+	}
+}
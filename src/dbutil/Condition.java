@@ -0,0 +1,79 @@
+package dbutil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A where condition built from metamodel attributes. Conditions are immutable; and/or/not return new ones.
+ * <pre>
+ * Condition c = Bill_.status.eq("OPEN").and(Bill_.amount.gt(limit).or(Bill_.due.lt(today)));
+ * </pre>
+ */
+public final class Condition {
+	private final String sql;
+	private final List<Object> parms;
+	// joins needed by the columns of the condition, outermost first
+	private final Set<JoinAttribute<?, ?, ?>> joins;
+	// classes the attributes belong to (the start of their join path)
+	private final Set<Class<?>> roots;
+
+	Condition(String sql, Collection<?> parms, Set<JoinAttribute<?, ?, ?>> joins, Set<Class<?>> roots) {
+		this.sql = sql;
+		this.parms = Collections.unmodifiableList(new ArrayList<Object>(parms));
+		this.joins = Collections.unmodifiableSet(joins);
+		this.roots = Collections.unmodifiableSet(roots);
+	}
+
+	public Condition and(Condition other) {
+		return combine(" and ", other);
+	}
+	public Condition or(Condition other) {
+		return combine(" or ", other);
+	}
+	public static Condition not(Condition c) {
+		return new Condition("not (" + c.sql + ")", c.parms, c.joins, c.roots);
+	}
+	/**
+	 * @return all conditions joined with and, or null when there are none
+	 */
+	public static Condition all(Collection<Condition> conditions) {
+		Condition all = null;
+		for (Condition c: conditions) {
+			all = all == null ? c : all.and(c);
+		}
+		return all;
+	}
+
+	private Condition combine(String op, Condition other) {
+		List<Object> combined = new ArrayList<Object>(parms.size() + other.parms.size());
+		combined.addAll(parms);
+		combined.addAll(other.parms);
+		Set<JoinAttribute<?, ?, ?>> j = new LinkedHashSet<JoinAttribute<?, ?, ?>>(joins);
+		j.addAll(other.joins);
+		Set<Class<?>> r = new LinkedHashSet<Class<?>>(roots);
+		r.addAll(other.roots);
+		return new Condition("(" + sql + op + other.sql + ")", combined, j, r);
+	}
+
+	String getSql() {
+		return sql;
+	}
+	List<Object> getParameters() {
+		return parms;
+	}
+	Set<JoinAttribute<?, ?, ?>> getJoins() {
+		return joins;
+	}
+	Set<Class<?>> getRootClasses() {
+		return roots;
+	}
+
+	@Override
+	public String toString() {
+		return sql + " " + parms;
+	}
+}
@@ -0,0 +1,168 @@
+package dbutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A query built from the generated <tt>&lt;Entity&gt;_</tt> metamodel classes instead of a pql string. Field and
+ * join names are checked by the compiler and the columns are resolved when the metamodel is loaded, so building the
+ * sql involves no parsing:
+ * <pre>
+ * List&lt;User&gt; admins = Criteria.from(User.class)
+ *     .where(User_.status.eq("A"))
+ *     .and(User_.roles.join().name.in("admin", "ops"))
+ *     .orderBy(User_.lastName.asc())
+ *     .query().setSecurityUser(user).list();
+ * </pre>
+ * Criteria are immutable. Two criteria are equal when they produce the same sql, whatever their parameter values,
+ * so they can be used as cache keys.
+ */
+public final class Criteria<T> {
+	private final Class<T> cls;
+	private final Condition where;
+	private final List<Order> orders;
+	private final int page;
+	private final int perPage;
+
+	private Criteria(Class<T> cls, Condition where, List<Order> orders, int page, int perPage) {
+		this.cls = cls;
+		this.where = where;
+		this.orders = orders;
+		this.page = page;
+		this.perPage = perPage;
+	}
+
+	public static <T> Criteria<T> from(Class<T> cls) {
+		return new Criteria<T>(cls, null, Collections.<Order>emptyList(), 0, 0);
+	}
+
+	/**
+	 * Replaces the where condition
+	 */
+	public Criteria<T> where(Condition condition) {
+		checkRoots(condition);
+		return new Criteria<T>(cls, condition, orders, page, perPage);
+	}
+	public Criteria<T> and(Condition condition) {
+		return where(where == null ? condition : where.and(condition));
+	}
+	public Criteria<T> or(Condition condition) {
+		return where(where == null ? condition : where.or(condition));
+	}
+	public Criteria<T> orderBy(Order... order) {
+		List<Order> list = new ArrayList<Order>(orders);
+		for (Order o: order) {
+			if (!isRoot(o.attribute.getRootClass()))
+				throw new IllegalArgumentException(o.attribute + " is not an attribute of " + cls.getSimpleName());
+			list.add(o);
+		}
+		return new Criteria<T>(cls, where, Collections.unmodifiableList(list), page, perPage);
+	}
+	/**
+	 * Same as the limit(page, perPage) keyword of the pql
+	 * @param page first page is 1
+	 */
+	public Criteria<T> page(int page, int perPage) {
+		if (page < 1 || perPage < 1)
+			throw new IllegalArgumentException("Page and page size start at 1");
+		return new Criteria<T>(cls, where, orders, page, perPage);
+	}
+
+	/**
+	 * @return a query running this criteria. Security, time limits and fetch sizes are set on the query as usual
+	 */
+	public PojoQuery<T> query() {
+		return new PojoQuery<T>(this);
+	}
+
+	public Class<T> getEntityClass() {
+		return cls;
+	}
+	public List<Object> getParameters() {
+		return where == null ? Collections.emptyList() : where.getParameters();
+	}
+	int getPage() {
+		return page;
+	}
+	List<Order> getOrders() {
+		return orders;
+	}
+	int getPerPage() {
+		return perPage;
+	}
+	// joins of the where and order by columns, outermost first
+	Set<JoinAttribute<?, ?, ?>> getJoins() {
+		Set<JoinAttribute<?, ?, ?>> joins = new LinkedHashSet<JoinAttribute<?, ?, ?>>();
+		if (where != null)
+			joins.addAll(where.getJoins());
+		for (Order o: orders) {
+			joins.addAll(o.attribute.getJoins());
+		}
+		return joins;
+	}
+	String getWhereSql() {
+		return where == null ? "" : "where " + where.getSql();
+	}
+	String getOrderBySql() {
+		if (orders.isEmpty())
+			return "";
+		StringBuilder sb = new StringBuilder("order by ");
+		for (int x = 0; x < orders.size(); x++) {
+			Order o = orders.get(x);
+			sb.append(x > 0 ? ", " : "").append(o.attribute.getSql()).append(o.descending ? " desc" : "");
+		}
+		return sb.toString();
+	}
+
+	private void checkRoots(Condition condition) {
+		for (Class<?> root: condition.getRootClasses()) {
+			if (!isRoot(root))
+				throw new IllegalArgumentException(condition.getSql() + " uses attributes of " + root.getSimpleName() + " in a query of " + cls.getSimpleName());
+		}
+	}
+	// attributes of a super or sub class are columns of the same table
+	private boolean isRoot(Class<?> root) {
+		return root.isAssignableFrom(cls) || cls.isAssignableFrom(root);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Criteria))
+			return false;
+		Criteria<?> other = (Criteria<?>) o;
+		return cls == other.cls && page == other.page && perPage == other.perPage && getWhereSql().equals(other.getWhereSql())
+				&& getOrderBySql().equals(other.getOrderBySql()) && new ArrayList<Object>(getJoins()).equals(new ArrayList<Object>(other.getJoins()));
+	}
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(new Object[] {cls, getWhereSql(), getOrderBySql(), page, perPage});
+	}
+	@Override
+	public String toString() {
+		return cls.getSimpleName() + ": " + getWhereSql() + (orders.isEmpty() ? "" : " " + getOrderBySql())
+				+ (perPage > 0 ? " limit(" + page + ", " + perPage + ")" : "");
+	}
+
+	/**
+	 * A column of the order by, created with Attribute.asc() or desc()
+	 */
+	public static final class Order {
+		private final Attribute<?, ?> attribute;
+		private final boolean descending;
+
+		Order(Attribute<?, ?> attribute, boolean descending) {
+			this.attribute = attribute;
+			this.descending = descending;
+		}
+		Attribute<?, ?> getAttribute() {
+			return attribute;
+		}
+		boolean isDescending() {
+			return descending;
+		}
+	}
+}
@@ -5,10 +5,12 @@ import java.io.InputStream;
 //import java.lang.annotation.Annotation;
 import java.sql.Blob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
@@ -16,6 +18,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +26,7 @@ import javax.naming.NamingException;
 //import dbutil.annotations.DbColumn;
 
 import dbutil.DBL;
+import dbutil.metrics.PqMetrics;
 
 /**
  * @author Rob Richards Created on 3/6/2013
@@ -33,13 +37,65 @@ import dbutil.DBL;
  */
 public abstract class DB {
 	private transient Connection con;
+	// schema the current connection was taken from. used to report connection usage to PqMetrics
+	private DBL dbl;
+	// replica the current connection was taken from, null for the primary
+	private ReplicaSet.Replica replica;
+	// bulkhead permit held with the connection, the last statement error and the longest statement run with it
+	private Bulkhead bulkhead;
+	private Semaphore permit;
+	private SQLException failure;
+	private long longestStatementNanos;
+	// limits applied to every statement prepared until they are changed
+	private Deadline deadline;
+	private CancelHandle cancelHandle;
 	private boolean isTransaction = false;
 	private transient PreparedStatement ps;
 	private Map<String,ArrayList<Integer>> namedParmMap = new HashMap<String,ArrayList<Integer>>();
 	private boolean generatedKeysAvailable = false;
+	// prints connection, query and parameter information to System.out. turn off for benchmarks and batch jobs
+	private static volatile boolean DEBUG = true;
+	/**
+	 * Fetch size that asks PojoQuery to size the fetch from the width of the selected row and the requested page
+	 */
+	public static final int FETCH_ADAPTIVE = -1;
+	// fetch size used when neither the query nor its @DbTable sets one. 0 keeps the driver default
+	private static volatile int defaultFetchSize = 0;
+	// applied to the next statements prepared on the connection, 0 keeps the driver default
+	private int fetchSize = 0;
+	// rows returned at most by the next statements prepared on the connection, 0 for no limit
+	private int maxRows = 0;
 	
 	
 	protected DB(){	}
+	public static void setDebug(boolean flag){
+		DEBUG = flag;
+	}
+	public static boolean isDebug(){
+		return DEBUG;
+	}
+	/**
+	 * @param rows rows per round trip for queries that don't set their own fetch size, FETCH_ADAPTIVE or 0 for the
+	 * driver default (10 rows on Oracle)
+	 */
+	public static void setDefaultFetchSize(int rows){
+		defaultFetchSize = rows;
+	}
+	public static int getDefaultFetchSize(){
+		return defaultFetchSize;
+	}
+	/**
+	 * Rows fetched per round trip by the statements prepared until closeQuietly() is called
+	 */
+	protected final void setStatementFetchSize(int rows){
+		this.fetchSize = rows;
+	}
+	/**
+	 * Rows returned at most by the statements prepared until closeQuietly() is called
+	 */
+	protected final void setStatementMaxRows(int rows){
+		this.maxRows = rows;
+	}
 	/**
 	 * initializes the database connection with provided schema id number. Static schema variables can be accessed using DB. or directly if your class extends the DB class
 	 * @param idx (schema index number)
@@ -53,17 +109,129 @@ public abstract class DB {
 	protected final void init(int idx) throws NamingException, SQLException{
 		init(DBL.values()[idx]);
 	}
+	/**
+	 * Initializes a connection for a read. Outside of a transaction the connection is taken from a read replica of
+	 * the schema if it has any and the session did not write within the read your writes window (see ReplicaSet).
+	 * Falls back to the primary when the replica cannot be reached
+	 * @param session user or thread the read is done for
+	 */
+	protected final void initRead(DBL dbl, Object session) throws NamingException, SQLException{
+		if(con == null && !isTransaction){
+			ReplicaSet replicas = dbl.getInstance().getReplicas();
+			if(!replicas.isEmpty() && !replicas.mustReadPrimary(session)){
+				ReplicaSet.Replica r = replicas.choose();
+				if(r != null){
+					acquirePermit(dbl);
+					if(DEBUG){
+						System.out.println("ITMDU3: Connecting to: " + dbl.name() + ":" + r);
+					}
+					long start = System.nanoTime();
+					try {
+						con = r.getConnection();
+					} catch (SQLException e) {
+						r.release();
+						PqMetrics.connectionFailed(dbl, System.nanoTime() - start);
+						if(DEBUG){
+							System.out.println("ITMDU3: " + r + " of " + dbl.name() + " failed, reading from the primary: " + e.getMessage());
+						}
+						openPrimary(dbl);
+						return;
+					} catch (RuntimeException e) {
+						r.release();
+						PqMetrics.connectionFailed(dbl, System.nanoTime() - start);
+						releasePermit(new SQLException(e.toString(), e));
+						throw e;
+					}
+					PqMetrics.connectionAcquired(dbl, System.nanoTime() - start);
+					this.dbl = dbl;
+					this.replica = r;
+					dbl.getInstance().detectDialect(con);
+					return;
+				}
+			}
+		}
+		init(dbl);
+	}
+	/**
+	 * Marks a write to the schema so reads of the session go to the primary for the read your writes window
+	 */
+	protected final void recordWrite(DBL dbl, Object session){
+		dbl.getInstance().getReplicas().recordWrite(session);
+	}
 	protected final void init(DBL dbl) throws NamingException, SQLException{
 		if(con == null){
-			//if(DEBUG){
-				System.out.println("ITMDU3: Connecting to: " + dbl.name() + ":" + dbl.getInstance().getJndi());
-			//}
+			acquirePermit(dbl);
+			openPrimary(dbl);
+		}
+	}
+	// the bulkhead permit has to be taken before calling this
+	private void openPrimary(DBL dbl) throws NamingException, SQLException{
+		if(DEBUG){
+			System.out.println("ITMDU3: Connecting to: " + dbl.name() + ":" + dbl.getInstance().getJndi());
+		}
+		long start = System.nanoTime();
+		try {
 			con = dbl.getInstance().getConnection();
-			if (isTransaction)
-				con.setAutoCommit(false);
+		} catch (SQLException e) {
+			PqMetrics.connectionFailed(dbl, System.nanoTime() - start);
+			releasePermit(e);
+			throw e;
+		} catch (NamingException e) {
+			PqMetrics.connectionFailed(dbl, System.nanoTime() - start);
+			releasePermit(new SQLException(e.getMessage()));
+			throw e;
+		} catch (RuntimeException e) {
+			// a broken data source must not keep the permit
+			PqMetrics.connectionFailed(dbl, System.nanoTime() - start);
+			releasePermit(new SQLException(e.toString(), e));
+			throw e;
 		}
+		PqMetrics.connectionAcquired(dbl, System.nanoTime() - start);
+		this.dbl = dbl;
+		dbl.getInstance().detectDialect(con);
+		if (isTransaction)
+			con.setAutoCommit(false);
+	}
+	private void acquirePermit(DBL dbl) throws SQLException{
+		Bulkhead b = dbl.getInstance().getBulkhead();
+		permit = b.acquire(dbl);
+		bulkhead = b;
+		failure = null;
+		longestStatementNanos = 0;
+	}
+	private void releasePermit(SQLException e){
+		if (bulkhead != null) {
+			Bulkhead b = bulkhead;
+			bulkhead = null;
+			b.release(permit, e != null ? e : failure, longestStatementNanos);
+			permit = null;
+		}
+	}
+	// reports statements stopped by the cancel handle or the deadline as such instead of the driver's error
+	private SQLException translate(SQLException e){
+		if (cancelHandle != null && cancelHandle.isCancelled())
+			return new SQLException("Query was cancelled", "HY008", e);
+		if (deadline != null && deadline.isExpired() && !(e instanceof SQLTimeoutException))
+			return new SQLTimeoutException("Query did not finish before its deadline", e);
+		return e;
+	}
+	// remembers the outcome of a statement for the bulkhead circuit
+	private void statementDone(long start, SQLException e){
+		long nanos = System.nanoTime() - start;
+		if (nanos > longestStatementNanos)
+			longestStatementNanos = nanos;
+		if (e != null)
+			failure = e;
 	}
 
+	/**
+	 * Applies a deadline and/or cancel handle to the statements prepared from now on
+	 */
+	protected final void setLimits(Deadline deadline, CancelHandle cancelHandle){
+		this.deadline = deadline;
+		// statements still need a handle to be cancelled at their deadline
+		this.cancelHandle = cancelHandle == null && deadline != null ? new CancelHandle() : cancelHandle;
+	}
 	protected final void prepareStatement(String sql) throws SQLException {
 		prepareStatement(sql, null);
 	}
@@ -99,6 +267,12 @@ public abstract class DB {
 			ps = con.prepareStatement(sql, generatedKeys);
 		else
 			ps = con.prepareStatement(sql);
+		if (fetchSize > 0)
+			ps.setFetchSize(fetchSize);
+		if (maxRows > 0)
+			ps.setMaxRows(maxRows);
+		if (cancelHandle != null)
+			cancelHandle.attach(ps, deadline);
 	}
 	protected final void setParameter(int idx, Object value) throws SQLException {
 		ps.setObject(idx, value);
@@ -115,16 +289,17 @@ public abstract class DB {
 	}
 	protected final void setParameters(List<Object> parms) throws SQLException, IOException{
 		Object[] parmArray = parms.toArray();
-		System.out.println("Passed parameters:");
+		if (DEBUG)
+			System.out.println("Passed parameters:");
 		
 		for(int x = 0; x < parmArray.length; x++){
 			Object parm = parmArray[x];
-			//if (DEBUG) {
+			if (DEBUG) {
 				if (parm == null)
 					System.out.print("(" + (x+1) + ",null) ");
 				else
 					System.out.print("(" + (x+1) + "," +parm.getClass().getSimpleName() + "," + parm + ") ");
-			//}
+			}
 			if (parm == null) {
 				ps.setString(x+1, null);
 				//ps.setNull(x+1, java.sql.Types.NULL);
@@ -137,7 +312,8 @@ public abstract class DB {
 				ps.setInt(x + 1, (Integer) parm);
 			}
 			else if (Date.class.isAssignableFrom(cls)) {
-				java.sql.Timestamp val = new java.sql.Timestamp(((Date) parm).getTime());
+				// timestamps keep their nanos so they compare equal to the column they were read from
+				java.sql.Timestamp val = parm instanceof java.sql.Timestamp ? (java.sql.Timestamp) parm : new java.sql.Timestamp(((Date) parm).getTime());
 				ps.setTimestamp(x + 1, val);
 			}
 			else if(cls == Long.class) {
@@ -170,6 +346,8 @@ public abstract class DB {
 	protected final dbutil.ResultSet executeQuery() throws SQLException {
 		dbutil.ResultSet rsc = new dbutil.ResultSet();
 		ResultSet rs = null;
+		long start = System.nanoTime();
+		SQLException error = null;
 		try {
 			rs = ps.executeQuery();
 			ResultSetMetaData rsmd = rs.getMetaData();
@@ -183,30 +361,103 @@ public abstract class DB {
 				rsc.push(rsmap);
 			}
 		}
+		catch (SQLException e) {
+			error = translate(e);
+			throw error;
+		}
 		finally {
+			statementDone(start, error);
 			closeQuietly(rs);
 			closeQuietly();
 		}
 		return rsc;
 	}
 	
+	/**
+	 * Streams the rows of the prepared statement to the handler without buffering them in a dbutil.ResultSet
+	 * @return the number of rows handled
+	 */
+	protected final int executeQuery(RowHandler handler) throws SQLException {
+		ResultSet rs = null;
+		int rows = 0;
+		long start = System.nanoTime();
+		SQLException error = null;
+		try {
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				handler.handle(rs);
+				rows++;
+			}
+		}
+		catch (SQLException e) {
+			error = translate(e);
+			throw error;
+		}
+		finally {
+			statementDone(start, error);
+			closeQuietly(rs);
+			closeQuietly();
+		}
+		return rows;
+	}
+	
 	protected final int executeUpdate() throws SQLException {
+		long start = System.nanoTime();
+		SQLException error = null;
 		try {
 			return ps.executeUpdate();
 		}
+		catch (SQLException e) {
+			error = translate(e);
+			throw error;
+		}
 		finally {
+			statementDone(start, error);
 			closeQuietly();
 		}
 	}
+	/**
+	 * Adds the parameters that are currently set to the batch of the prepared statement
+	 */
+	protected final void addBatch() throws SQLException {
+		ps.addBatch();
+	}
+	/**
+	 * Runs the batch of the prepared statement. Unlike executeUpdate the statement stays open for the next batch
+	 * @return the update count of every statement in the batch
+	 */
+	protected final int[] executeBatch() throws SQLException {
+		long start = System.nanoTime();
+		SQLException error = null;
+		try {
+			return ps.executeBatch();
+		}
+		catch (SQLException e) {
+			error = translate(e);
+			throw error;
+		}
+		finally {
+			statementDone(start, error);
+		}
+	}
+	protected final void clearBatch() throws SQLException {
+		ps.clearBatch();
+	}
 	protected final List<Object> executeInsert() throws SQLException {
 		List<Object> keys = null;
+		long start = System.nanoTime();
+		SQLException error = null;
 		try {
 			int ct = ps.executeUpdate();
 			if (ct < 1)
 				throw new SQLException("Unable to insert row");
 			else
 				keys = getGeneratedKeyValues();
+		} catch (SQLException e) {
+			error = translate(e);
+			throw error;
 		} finally {
+			statementDone(start, error);
 			closeQuietly();
 		}
 		return keys;
@@ -215,10 +466,13 @@ public abstract class DB {
 		List<Object> keys = new LinkedList<Object>();
 		if (this.generatedKeysAvailable) {
 			try {
-				int idx=0;
 				ResultSet gkrs = ps.getGeneratedKeys();
+				int columns = gkrs.getMetaData().getColumnCount();
+				// every key column of every inserted row, row by row
 				while (gkrs.next()) {
-					keys.add(gkrs.getObject(++idx));
+					for (int idx = 1; idx <= columns; idx++) {
+						keys.add(gkrs.getObject(idx));
+					}
 				}
 			}
 			finally {
@@ -227,11 +481,18 @@ public abstract class DB {
 		}
 		return keys;
 	}
+	protected final DatabaseMetaData getMetaData() throws SQLException{
+		return con.getMetaData();
+	}
 	protected final void setAutoCommit(boolean flag) throws SQLException{
 		con.setAutoCommit(flag);
 	}
 	protected final void closeQuietly(){		
+		fetchSize = 0;
+		maxRows = 0;
 		if(ps != null){
+			if (cancelHandle != null)
+				cancelHandle.detach(ps);
 			try{
 				ps.close();
 			}
@@ -239,9 +500,13 @@ public abstract class DB {
 			}
 		}
 		try{
-			if(!isTransaction){
-				con.close();
+			if(!isTransaction && con != null){
+				Connection c = con;
 				con = null;
+				PqMetrics.connectionReleased(dbl);
+				releaseReplica();
+				releasePermit(null);
+				c.close();
 			}
 		}
 		catch(Exception e){
@@ -267,6 +532,18 @@ public abstract class DB {
 	}
 	protected final void endTransaction(){
 		endTransaction(con);
+		if (con != null) {
+			con = null;
+			PqMetrics.connectionReleased(dbl);
+			releaseReplica();
+			releasePermit(null);
+		}
+	}
+	private void releaseReplica(){
+		if (replica != null) {
+			replica.release();
+			replica = null;
+		}
 	}
 	protected final void endTransaction(Connection conn){
 		try{
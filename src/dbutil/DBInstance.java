@@ -13,6 +13,14 @@ public final class DBInstance{
 	private String test;
 	private String prod;
 	private int prodLocation = DBInstance.ITMDAPPS;
+	// detected from the connection metadata the first time a connection is opened
+	private volatile Dialect dialect;
+	// when set, connections are taken from this DataSource instead of looking up the jndi name
+	private volatile DataSource dataSource;
+	// read only copies that PojoQuery reads are balanced over
+	private final ReplicaSet replicas = new ReplicaSet();
+	// limits connections and fails fast while the database is unhealthy
+	private final Bulkhead bulkhead = new Bulkhead();
 	public DBInstance(){
 	}
 	/**
@@ -67,10 +75,59 @@ public final class DBInstance{
 	public void setProdLocation(int prodLocation){
 		this.prodLocation = prodLocation;
 	}
+	/**
+	 * @return the sql dialect of this database. A connection is opened to detect it if none has been opened yet
+	 */
+	public Dialect getDialect() throws NamingException, SQLException{
+		if(dialect == null){
+			Connection con = getConnection();
+			try{
+				detectDialect(con);
+			}
+			finally{
+				con.close();
+			}
+		}
+		return dialect;
+	}
+	public void setDialect(Dialect dialect){
+		this.dialect = dialect;
+	}
+	void detectDialect(Connection con) throws SQLException{
+		if(dialect == null){
+			dialect = Dialect.fromProductName(con.getMetaData().getDatabaseProductName());
+		}
+	}
 	public String getJndi(){
 		return prod;
 	}
+	/**
+	 * Use the given DataSource for this database instead of the jndi lookup. Useful outside of a container
+	 * (batch jobs, benchmarks) or to plug in an application managed connection pool
+	 */
+	public void setDataSource(DataSource dataSource){
+		this.dataSource = dataSource;
+	}
+	public DataSource getDataSource(){
+		return dataSource;
+	}
+	/**
+	 * @return the read replicas of this database. Empty unless replicas are added
+	 */
+	public ReplicaSet getReplicas(){
+		return replicas;
+	}
+	/**
+	 * @return the bulkhead limiting the connections of this database. Unlimited unless configured
+	 */
+	public Bulkhead getBulkhead(){
+		return bulkhead;
+	}
 	public Connection getConnection() throws NamingException, SQLException{
+		DataSource configured = dataSource;
+		if(configured != null){
+			return configured.getConnection();
+		}
 		Context ctx = new InitialContext();
 		DataSource ds = null;
 		ds = (DataSource) ctx.lookup(getJndi());
@@ -0,0 +1,45 @@
+package dbutil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a query (including the joined queries that load its object graph) has to finish.
+ * <pre>
+ * Deadline d = Deadline.in(2000);
+ * List&lt;User&gt; users = new PojoQuery&lt;User&gt;(User.class, "select *, roles where dept=?", dept).setDeadline(d).list();
+ * </pre>
+ */
+public final class Deadline {
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+	public static Deadline in(long millis) {
+		return after(millis, TimeUnit.MILLISECONDS);
+	}
+	public static Deadline after(long duration, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(duration));
+	}
+
+	public long remainingNanos() {
+		return deadlineNanos - System.nanoTime();
+	}
+	public long remainingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+	}
+	public boolean isExpired() {
+		return remainingNanos() <= 0;
+	}
+	/**
+	 * @return the remaining time rounded up to whole seconds for Statement.setQueryTimeout
+	 */
+	int getTimeoutSeconds() {
+		long nanos = remainingNanos();
+		return nanos <= 0 ? 1 : (int) Math.min(Integer.MAX_VALUE, (nanos + 999999999L) / 1000000000L);
+	}
+	@Override
+	public String toString() {
+		return "deadline in " + remainingMillis() + "ms";
+	}
+}
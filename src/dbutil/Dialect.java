@@ -0,0 +1,186 @@
+package dbutil;
+
+/**
+ * Database specific sql used by the library. The dialect for a schema is detected from the connection metadata
+ * the first time a connection is opened (see {@link DBInstance#getDialect()}) and can be overridden with
+ * {@link DBInstance#setDialect(Dialect)}.
+ */
+public enum Dialect {
+	ORACLE, H2, POSTGRESQL, MYSQL, SQLSERVER, GENERIC;
+
+	public static Dialect fromProductName(String productName) {
+		String name = productName == null ? "" : productName.toLowerCase();
+		if (name.contains("oracle"))
+			return ORACLE;
+		else if (name.contains("h2"))
+			return H2;
+		else if (name.contains("postgres"))
+			return POSTGRESQL;
+		else if (name.contains("mysql") || name.contains("mariadb"))
+			return MYSQL;
+		else if (name.contains("microsoft") || name.contains("sql server"))
+			return SQLSERVER;
+		else
+			return GENERIC;
+	}
+
+	/**
+	 * @param sql query to explain
+	 * @param statementId identifier used to find the plan again when the database stores it in a plan table
+	 * @return the statements to run in order. The last statement returns the plan as rows of text or null if
+	 * the dialect has no way of returning a plan over jdbc
+	 */
+	public String[] getExplainStatements(String sql, String statementId) {
+		switch (this) {
+		case ORACLE:
+			return new String[] {
+				"explain plan set statement_id = '" + statementId + "' for " + sql,
+				"select plan_table_output from table(dbms_xplan.display(null, '" + statementId + "', 'TYPICAL'))"
+			};
+		case H2:
+		case POSTGRESQL:
+		case MYSQL:
+			return new String[] { "explain " + sql };
+		default:
+			return null;
+		}
+	}
+	/**
+	 * Wraps a query so the database stops at the first matching row
+	 * @return a statement returning a single column <tt>ct</tt> that is 1 when the query matches at least one row.
+	 * Oracle returns no row at all when nothing matches
+	 */
+	public String getExistsStatement(String sql) {
+		if (this == ORACLE)
+			return "select 1 as ct from dual where exists (" + sql + ")";
+		else
+			return "select case when exists (" + sql + ") then 1 else 0 end as ct";
+	}
+	/**
+	 * @return the number of bind parameters put in a single in list or or'd id lookup. Oracle does not allow more
+	 * than 1000 expressions in a list and SQL Server allows 2100 parameters per statement
+	 */
+	public int getMaxInListSize() {
+		return this == SQLSERVER ? 2000 : 1000;
+	}
+	/**
+	 * @return expression that takes the next value of a sequence or null when the database has no sequences
+	 */
+	public String getNextValue(String sequence) {
+		switch (this) {
+		case ORACLE:
+		case H2:
+			return sequence + ".nextval";
+		case POSTGRESQL:
+			return "nextval('" + sequence + "')";
+		case MYSQL:
+			return null;
+		default:
+			return "next value for " + sequence;
+		}
+	}
+	/**
+	 * @return a query returning ct values of the sequence in a column named <tt>id</tt>, or null when the database
+	 * can only return one value per statement (ct &gt; 1) or has no sequences
+	 */
+	public String getNextValuesStatement(String sequence, int ct) {
+		switch (this) {
+		case ORACLE:
+			return "select " + sequence + ".nextval as id from dual" + (ct > 1 ? " connect by level <= " + ct : "");
+		case H2:
+			return "select " + sequence + ".nextval as id from system_range(1, " + ct + ")";
+		case POSTGRESQL:
+			return "select nextval('" + sequence + "') as id from generate_series(1, " + ct + ")";
+		case MYSQL:
+			return null;
+		default:
+			return ct > 1 ? null : "select next value for " + sequence + " as id";
+		}
+	}
+	/**
+	 * Builds a statement that inserts a row or updates it when a row with the same keys exists, in one round trip
+	 * @param columns columns bound as parameters in this order
+	 * @param keys columns (among the bound columns) that identify the row. MySQL always uses the primary and unique keys
+	 * @param updates columns updated when the row exists
+	 * @param seqColumns columns filled by seqValues (for example sequence expressions) when the row is inserted
+	 */
+	public String getUpsertStatement(String table, String[] columns, String[] keys, String[] updates, String[] seqColumns, String[] seqValues) {
+		StringBuilder sql = new StringBuilder();
+		if (this == POSTGRESQL || this == MYSQL) {
+			sql.append("insert into " + table + " (" + join(columns, "", "") + (seqColumns.length > 0 ? "," + join(seqColumns, "", "") : ""));
+			sql.append(") values (" + repeat("?", columns.length) + (seqValues.length > 0 ? "," + join(seqValues, "", "") : "") + ")");
+			if (this == POSTGRESQL) {
+				sql.append(" on conflict (" + join(keys, "", "") + ") do ");
+				if (updates.length == 0)
+					sql.append("nothing");
+				else
+					sql.append("update set " + assign(updates, "", "excluded."));
+			} else {
+				// mysql needs an assignment even when nothing is updated
+				String[] set = updates.length == 0 ? new String[] { keys[0] } : updates;
+				sql.append(" on duplicate key update ");
+				for (int x = 0; x < set.length; x++) {
+					sql.append(x > 0 ? "," : "").append(set[x] + "=values(" + set[x] + ")");
+				}
+			}
+			return sql.toString();
+		}
+		sql.append("merge into " + table + " t using ");
+		if (this == ORACLE) {
+			sql.append("(select ");
+			for (int x = 0; x < columns.length; x++) {
+				sql.append(x > 0 ? "," : "").append("? as " + columns[x]);
+			}
+			sql.append(" from dual) s");
+		} else {
+			sql.append("(values (" + repeat("?", columns.length) + ")) s (" + join(columns, "", "") + ")");
+		}
+		sql.append(" on (");
+		for (int x = 0; x < keys.length; x++) {
+			sql.append(x > 0 ? " and " : "").append("t." + keys[x] + "=s." + keys[x]);
+		}
+		sql.append(")");
+		if (updates.length > 0)
+			sql.append(" when matched then update set " + assign(updates, "t.", "s."));
+		sql.append(" when not matched then insert (" + join(columns, "", "") + (seqColumns.length > 0 ? "," + join(seqColumns, "", "") : ""));
+		sql.append(") values (" + join(columns, "s.", "") + (seqValues.length > 0 ? "," + join(seqValues, "", "") : "") + ")");
+		// sql server requires merge statements to be terminated
+		if (this == SQLSERVER)
+			sql.append(";");
+		return sql.toString();
+	}
+	private static String join(String[] values, String prefix, String suffix) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < values.length; x++) {
+			sb.append(x > 0 ? "," : "").append(prefix + values[x] + suffix);
+		}
+		return sb.toString();
+	}
+	private static String repeat(String value, int ct) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < ct; x++) {
+			sb.append(x > 0 ? "," : "").append(value);
+		}
+		return sb.toString();
+	}
+	private static String assign(String[] columns, String target, String source) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < columns.length; x++) {
+			sb.append(x > 0 ? "," : "").append(target + columns[x] + "=" + source + columns[x]);
+		}
+		return sb.toString();
+	}
+	/**
+	 * @return true if nulls come after every value in an ascending order by (and first in a descending one) when
+	 * the order by does not say nulls first or last
+	 */
+	public boolean sortsNullsHigh() {
+		return this == ORACLE || this == POSTGRESQL || this == GENERIC;
+	}
+	/**
+	 * @return true if the parameters of the explained query have to be bound before the explain statement will run
+	 */
+	public boolean bindsExplainParameters() {
+		return this != ORACLE;
+	}
+}
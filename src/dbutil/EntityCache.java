@@ -0,0 +1,15 @@
+package dbutil;
+
+/**
+ * Cache consulted by {@link PojoQuery#getAll(java.util.Collection)} before going to the database. Ids are the value
+ * of the @Id field converted to the field type or an {@link IdKey} for entities with more than one @Id field.
+ * Entities are cached after the security of the query that loaded them has been applied, so a cache should not be
+ * shared between users with different select rights.
+ */
+public interface EntityCache {
+	/**
+	 * @return the cached entity or null when the id is not cached
+	 */
+	public <T> T get(Class<T> entity, Object id);
+	public <T> void put(Class<T> entity, Object id, T value);
+}
@@ -0,0 +1,62 @@
+package dbutil;
+
+/**
+ * Mapping metadata and accessors for a @DbTable class. Generated at compile time as <tt>&lt;Entity&gt;_PqMeta</tt>
+ * by {@link dbutil.processor.EntityMetaProcessor} or built reflectively when no generated class exists.
+ * Use {@link EntityMetas#get(Class)} to obtain the metadata of a class.
+ * <p>Indexes refer to the @DbColumn fields of the entity in declaration order, super class fields last.
+ */
+public interface EntityMeta<T> {
+	public Class<T> getEntityClass();
+	public String getTable();
+	public String getAlias();
+	public String[] getFieldNames();
+	public String[] getColumns();
+	public Class<?>[] getFieldTypes();
+	/**
+	 * @return indexes of the @Id fields
+	 */
+	public int[] getIdIndexes();
+	/**
+	 * @return the index of the @DbColumn field or -1
+	 */
+	public int indexOf(String fieldName);
+	/**
+	 * @return true when this metadata was generated at compile time
+	 */
+	public boolean isGenerated();
+
+	public T newInstance() throws InstantiationException, IllegalAccessException;
+	public Object get(T obj, int idx) throws IllegalAccessException;
+	/**
+	 * Sets a field. Null values leave primitive fields untouched
+	 */
+	public void set(T obj, int idx, Object value) throws IllegalAccessException;
+
+	/**
+	 * @return <tt>select alias.COL,... from TABLE alias</tt> with every column
+	 */
+	public String getSelectSql();
+	/**
+	 * @return insert of every column with one parameter per non sequence column in field order and
+	 * <tt>sequence.nextval</tt> for the sequence ids
+	 */
+	public String getInsertSql();
+	/**
+	 * @return update of every non id column by id (non id parameters first) or null when the entity has no @Id
+	 */
+	public String getUpdateSql();
+	/**
+	 * @return delete by id or null when the entity has no @Id
+	 */
+	public String getDeleteSql();
+
+	/**
+	 * @return the class level insert/delete security or null if the class has no @PojoSecurity
+	 */
+	public SecurityDescriptor getTableSecurity();
+	/**
+	 * @return the select/update/insert security of a field or null if the field has no @PojoSecurity
+	 */
+	public SecurityDescriptor getFieldSecurity(int idx);
+}
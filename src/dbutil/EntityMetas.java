@@ -0,0 +1,95 @@
+package dbutil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Looks up the {@link EntityMeta} of a @DbTable class. The generated <tt>&lt;Entity&gt;_PqMeta</tt> class is used
+ * when the annotation processor ran over the entity, otherwise the metadata is built with reflection.
+ */
+@SuppressWarnings("unchecked")
+public final class EntityMetas {
+	public static final String SUFFIX = "_PqMeta";
+	private static final ConcurrentMap<Class<?>, EntityMeta<?>> metas = new ConcurrentHashMap<Class<?>, EntityMeta<?>>();
+
+	private EntityMetas() { }
+
+	public static <T> EntityMeta<T> get(Class<T> cls) {
+		EntityMeta<T> meta = (EntityMeta<T>) metas.get(cls);
+		if (meta == null) {
+			meta = loadGenerated(cls);
+			if (meta == null)
+				meta = new ReflectiveEntityMeta<T>(cls);
+			EntityMeta<T> prev = (EntityMeta<T>) metas.putIfAbsent(cls, meta);
+			if (prev != null)
+				meta = prev;
+		}
+		return meta;
+	}
+	/**
+	 * @return the name of the class generated for the entity. Nested classes use the outer class names joined by _
+	 */
+	public static String getGeneratedName(String binaryName) {
+		return binaryName.replace('$', '_') + SUFFIX;
+	}
+
+	/**
+	 * Builds the sql skeletons of an entity. Used by the annotation processor at compile time and by the reflective
+	 * metadata so both produce the same statements.
+	 * @param sequences the @Id sequence of each column or an empty string
+	 * @return select, insert, update and delete statements. Update and delete are null when there are no ids
+	 */
+	public static String[] buildSql(String table, String alias, String[] columns, int[] ids, String[] sequences) {
+		StringBuilder select = new StringBuilder("select ");
+		StringBuilder insert = new StringBuilder("insert into " + table + "(");
+		StringBuilder values = new StringBuilder();
+		StringBuilder update = new StringBuilder("update " + table + " set ");
+		StringBuilder where = new StringBuilder(" where ");
+		boolean hasSet = false;
+		for (int x = 0; x < columns.length; x++) {
+			if (x > 0) {
+				select.append(",");
+				insert.append(",");
+				values.append(",");
+			}
+			select.append(alias + "." + columns[x]);
+			insert.append(columns[x]);
+			values.append(sequences[x].length() > 0 ? sequences[x] + ".nextval" : "?");
+			if (!contains(ids, x)) {
+				update.append(hasSet ? "," : "").append(columns[x] + "=?");
+				hasSet = true;
+			}
+		}
+		for (int x = 0; x < ids.length; x++) {
+			where.append(x > 0 ? " and " : "").append(columns[ids[x]] + "=?");
+		}
+		select.append(" from " + table + " " + alias);
+		insert.append(") values(" + values + ")");
+		return new String[] {
+			select.toString(),
+			insert.toString(),
+			ids.length == 0 || !hasSet ? null : update.toString() + where,
+			ids.length == 0 ? null : "delete from " + table + where
+		};
+	}
+
+	private static <T> EntityMeta<T> loadGenerated(Class<T> cls) {
+		try {
+			Class<?> gen = Class.forName(getGeneratedName(cls.getName()), true, cls.getClassLoader());
+			return (EntityMeta<T>) gen.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (Exception e) {
+			if (DB.isDebug())
+				System.out.println("PQ: unable to load generated metadata for " + cls.getName() + ", using reflection: " + e);
+			return null;
+		}
+	}
+	private static boolean contains(int[] arr, int val) {
+		for (int i: arr) {
+			if (i == val)
+				return true;
+		}
+		return false;
+	}
+}
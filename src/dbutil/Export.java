@@ -0,0 +1,331 @@
+package dbutil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import dbutil.annotations.DbColumn;
+
+/**
+ * Writes the rows matched by a PojoQuery straight from the open jdbc cursor as CSV or JSON lines. No entities are
+ * created and a single row buffer is reused, so memory stays flat however many rows are exported.
+ * Fields the user is not allowed to select are left out of the export. Binary fields are never exported.
+ * <pre>
+ * int rows = new PojoQuery&lt;Bill&gt;(Bill.class, "where status=?", "OPEN").setSecurityUser(user)
+ *     .export().setFormat(Export.Format.CSV).to(response.getOutputStream());
+ * </pre>
+ * The statement uses an adaptive fetch size unless one is set on the query, @DbTable or DB. PostgreSQL only fetches
+ * in batches inside a transaction and MySQL only streams with a fetch size of Integer.MIN_VALUE.
+ */
+public class Export<T> {
+	public static enum Format { CSV, JSON }
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// how each column is read and written
+	private static final int TEXT = 0, INTEGER = 1, DECIMAL = 2, FLOAT = 3, DATE = 4, OTHER = 5;
+
+	private final PojoQuery<T> query;
+	private Format format = Format.CSV;
+	private boolean header = true;
+	private boolean columnNames = false;
+	private char delimiter = ',';
+	private String dateFormat = "yyyy-MM-dd'T'HH:mm:ss";
+
+	Export(PojoQuery<T> query) {
+		this.query = query;
+	}
+
+	public Export<T> setFormat(Format format) {
+		this.format = format;
+		return this;
+	}
+	/**
+	 * @param header false to leave out the CSV header line
+	 */
+	public Export<T> setHeader(boolean header) {
+		this.header = header;
+		return this;
+	}
+	/**
+	 * @param flag true to name columns by their @DbColumn instead of their entity field
+	 */
+	public Export<T> useColumnNames(boolean flag) {
+		this.columnNames = flag;
+		return this;
+	}
+	public Export<T> setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+	/**
+	 * @param pattern SimpleDateFormat pattern for date and timestamp fields
+	 */
+	public Export<T> setDateFormat(String pattern) {
+		this.dateFormat = pattern;
+		return this;
+	}
+
+	/**
+	 * Writes the rows as UTF-8. The stream is flushed but not closed
+	 * @return the number of rows written
+	 */
+	public int to(OutputStream out) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), 16384);
+		int rows = to(writer);
+		writer.flush();
+		return rows;
+	}
+	/**
+	 * Writes the rows to the writer. The writer is flushed but not closed
+	 * @return the number of rows written
+	 */
+	public int to(Writer out) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		try {
+			int rows = query.executeExport(this, out);
+			out.flush();
+			return rows;
+		} catch (SQLException e) {
+			// write errors are passed through the row handler as the cause of an sql exception
+			if (e.getCause() instanceof IOException && e.getMessage().startsWith(WRITE_FAILED))
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+	private static final String WRITE_FAILED = "Export write failed";
+
+	/**
+	 * @param fields the selected fields the user may read, in the order of their columns
+	 */
+	RowHandler rowHandler(List<Field> fields, Writer out) throws IOException {
+		return new Rows(fields, out);
+	}
+
+	private final class Rows implements RowHandler {
+		private final Writer out;
+		private final String[] columns;
+		private final int[] kinds;
+		private final Class<?>[] types;
+		// json keys including the quotes and colon, written as is
+		private final char[][] keys;
+		private final SimpleDateFormat dates = new SimpleDateFormat(dateFormat);
+		private final StringBuilder row = new StringBuilder(256);
+		private char[] buf = new char[256];
+		private int[] idx;
+
+		Rows(List<Field> fields, Writer out) throws IOException {
+			this.out = out;
+			int n = 0;
+			for (Field f: fields) {
+				if (!isBinary(f.getType()))
+					n++;
+			}
+			columns = new String[n];
+			kinds = new int[n];
+			types = new Class<?>[n];
+			keys = new char[n][];
+			String[] names = new String[n];
+			int x = 0;
+			for (Field f: fields) {
+				if (isBinary(f.getType()))
+					continue;
+				columns[x] = f.getAnnotation(DbColumn.class).value();
+				names[x] = columnNames ? columns[x] : f.getName();
+				types[x] = Projection.box(f.getType());
+				kinds[x] = kind(types[x]);
+				row.setLength(0);
+				appendJsonString(names[x]);
+				keys[x] = row.append(':').toString().toCharArray();
+				x++;
+			}
+			row.setLength(0);
+			if (format == Format.CSV && header) {
+				for (x = 0; x < n; x++) {
+					if (x > 0)
+						row.append(delimiter);
+					appendCsv(names[x]);
+				}
+				flushRow();
+			}
+		}
+
+		@Override
+		public void handle(ResultSet rs) throws SQLException {
+			if (idx == null)
+				idx = columnIndexes(rs);
+			row.setLength(0);
+			if (format == Format.JSON)
+				row.append('{');
+			for (int x = 0; x < idx.length; x++) {
+				if (x > 0)
+					row.append(format == Format.JSON ? ',' : delimiter);
+				if (format == Format.JSON)
+					row.append(keys[x]);
+				appendValue(rs, x);
+			}
+			if (format == Format.JSON)
+				row.append('}');
+			try {
+				flushRow();
+			} catch (IOException e) {
+				throw new SQLException(WRITE_FAILED + ": " + e.getMessage(), e);
+			}
+		}
+
+		private void appendValue(ResultSet rs, int x) throws SQLException {
+			int c = idx[x];
+			boolean json = format == Format.JSON;
+			switch (kinds[x]) {
+			case INTEGER:
+				long l = rs.getLong(c);
+				if (rs.wasNull())
+					appendNull();
+				else
+					row.append(l);
+				break;
+			case FLOAT:
+				double d = rs.getDouble(c);
+				if (rs.wasNull() || (json && (Double.isNaN(d) || Double.isInfinite(d))))
+					appendNull();
+				else
+					row.append(d);
+				break;
+			case DECIMAL:
+				BigDecimal bd = rs.getBigDecimal(c);
+				if (bd == null)
+					appendNull();
+				else
+					row.append(bd.toPlainString());
+				break;
+			case DATE:
+				Timestamp ts = rs.getTimestamp(c);
+				if (ts == null)
+					appendNull();
+				else
+					appendText(dates.format(ts));
+				break;
+			case TEXT:
+				String s = rs.getString(c);
+				if (s == null)
+					appendNull();
+				else
+					appendText(s);
+				break;
+			default:
+				Object o = ObjectConverter.convert(rs.getObject(c), types[x]);
+				if (o == null)
+					appendNull();
+				else if (o instanceof Boolean)
+					row.append(((Boolean) o).booleanValue());
+				else
+					appendText(o.toString());
+			}
+		}
+		private void appendNull() {
+			if (format == Format.JSON)
+				row.append("null");
+		}
+		private void appendText(String s) {
+			if (format == Format.JSON)
+				appendJsonString(s);
+			else
+				appendCsv(s);
+		}
+		private void appendCsv(String s) {
+			boolean quote = false;
+			for (int x = 0; x < s.length() && !quote; x++) {
+				char ch = s.charAt(x);
+				quote = ch == delimiter || ch == '"' || ch == '\n' || ch == '\r';
+			}
+			if (!quote) {
+				row.append(s);
+				return;
+			}
+			row.append('"');
+			for (int x = 0; x < s.length(); x++) {
+				char ch = s.charAt(x);
+				if (ch == '"')
+					row.append('"');
+				row.append(ch);
+			}
+			row.append('"');
+		}
+		private void appendJsonString(String s) {
+			row.append('"');
+			for (int x = 0; x < s.length(); x++) {
+				char ch = s.charAt(x);
+				switch (ch) {
+				case '"': row.append("\\\""); break;
+				case '\\': row.append("\\\\"); break;
+				case '\n': row.append("\\n"); break;
+				case '\r': row.append("\\r"); break;
+				case '\t': row.append("\\t"); break;
+				default:
+					if (ch < 0x20 || ch == '\u2028' || ch == '\u2029') {
+						String hex = Integer.toHexString(ch);
+						row.append("\\u");
+						for (int p = hex.length(); p < 4; p++) {
+							row.append('0');
+						}
+						row.append(hex);
+					} else
+						row.append(ch);
+				}
+			}
+			row.append('"');
+		}
+		// copies the row buffer to the writer without creating a string
+		private void flushRow() throws IOException {
+			row.append('\n');
+			int len = row.length();
+			if (buf.length < len)
+				buf = new char[Math.max(len, buf.length * 2)];
+			row.getChars(0, len, buf, 0);
+			out.write(buf, 0, len);
+		}
+		private int[] columnIndexes(ResultSet rs) throws SQLException {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			int[] found = new int[columns.length];
+			for (int x = 0; x < columns.length; x++) {
+				for (int c = 1; c <= rsmd.getColumnCount(); c++) {
+					if (columns[x].equalsIgnoreCase(rsmd.getColumnLabel(c)) || columns[x].equalsIgnoreCase(rsmd.getColumnName(c))) {
+						found[x] = c;
+						break;
+					}
+				}
+				if (found[x] == 0)
+					throw new SQLException("Column " + columns[x] + " was not returned by the query");
+			}
+			return found;
+		}
+	}
+
+	private static boolean isBinary(Class<?> type) {
+		return type.isArray() || java.sql.Blob.class.isAssignableFrom(type) || java.io.InputStream.class.isAssignableFrom(type);
+	}
+	private static int kind(Class<?> type) {
+		if (type == String.class || type == Character.class || java.sql.Clob.class.isAssignableFrom(type))
+			return TEXT;
+		else if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class)
+			return INTEGER;
+		else if (type == Double.class || type == Float.class)
+			return FLOAT;
+		else if (BigDecimal.class.isAssignableFrom(type) || java.math.BigInteger.class.isAssignableFrom(type))
+			return DECIMAL;
+		else if (java.util.Date.class.isAssignableFrom(type))
+			return DATE;
+		else
+			return OTHER;
+	}
+}
@@ -0,0 +1,497 @@
+package dbutil;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.NamingException;
+
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+
+/**
+ * Runs one entity query against several schemas that share its tables (test and production copies, the copies of
+ * each department) at the same time, each on a pooled connection of its own:
+ * <pre>
+ * List&lt;Permit&gt; permits = new FanOutQuery&lt;Permit&gt;(Permit.class, "where owner like ? order by issued desc", "SMITH%")
+ *     .on(DBL.LIRA, DBL.PROPREG, DBL.DPW)
+ *     .ordered()
+ *     .list();
+ * </pre>
+ * Every schema streams the entities of its open cursor into a bounded queue and the caller's thread takes them
+ * from there, so the first rows are handed over while the slower schemas are still running and a slow consumer
+ * holds the cursors instead of buffering whole results. Without ordered() rows are handed over as they arrive.
+ * With it the sorted rows of the schemas are merged by the fields of the order by (a k-way merge), so the caller
+ * sees a single sorted result.
+ * <p>A failing schema cancels the others and its error is thrown, unless partial results are allowed. The timeout
+ * applies to the fan out as a whole.
+ * <p>Entities with joins are read from each schema first and joined once its cursor is closed, so the join queries
+ * don't wait for the connection the cursor holds. A limit in the pql or criteria pages the rows of each schema on
+ * its own, it does not limit the merged result.
+ */
+public class FanOutQuery<T> {
+	/**
+	 * Receives the rows of a fan out on the calling thread
+	 */
+	public interface Consumer<T> {
+		/**
+		 * @param schema the schema the row was read from
+		 * @return false to stop, which cancels the queries that are still running
+		 */
+		public boolean accept(DBL schema, T row);
+	}
+	// receives the entities of one schema on its worker thread
+	interface Sink<T> {
+		void put(T obj) throws SQLException;
+	}
+
+	// the queries of a fan out must all run at once so the merge can take a row from each. the bulkheads of the
+	// schemas limit the connections
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "pq-fanout-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	private static final Pattern ORDER_BY = Pattern.compile("(?is).*\\border\\s+by\\s+(.*?)\\s*(limit\\s*\\(\\s*\\d+\\s*,\\s*\\d+\\s*\\)\\s*)?$");
+	private static final Pattern ORDER_ITEM = Pattern.compile("(?i)^(?:(\\w+)\\.)?(\\w+)(?:\\s+(asc|desc))?(?:\\s+nulls\\s+(first|last))?$");
+
+	private final Class<T> cls;
+	private final String pql;
+	private final Object[] parms;
+	private final Criteria<T> criteria;
+	private final Set<DBL> schemas = new LinkedHashSet<DBL>();
+	private boolean securityEnabled = true;
+	private PqUser securityUser = null;
+	private long timeoutMillis = -1;
+	private Deadline deadline = null;
+	private int fetchSize = 0;
+	private int maxRows = 0;
+	private int queueSize = 1000;
+	private boolean ordered = false;
+	private Comparator<? super T> comparator = null;
+	private boolean partialResults = false;
+	private final Map<DBL, Exception> failures = new LinkedHashMap<DBL, Exception>();
+
+	public FanOutQuery(Class<T> cls, String pql, Object... parms) {
+		this.cls = cls;
+		this.pql = pql;
+		this.parms = parms;
+		this.criteria = null;
+	}
+	public FanOutQuery(Criteria<T> criteria) {
+		this.cls = criteria.getEntityClass();
+		this.pql = null;
+		this.parms = null;
+		this.criteria = criteria;
+	}
+
+	/**
+	 * Adds schemas to run the query against. Their tables must have the columns of the entity's @DbTable schema
+	 */
+	public FanOutQuery<T> on(DBL... schemas) {
+		return on(Arrays.asList(schemas));
+	}
+	public FanOutQuery<T> on(Collection<DBL> schemas) {
+		this.schemas.addAll(schemas);
+		return this;
+	}
+	public FanOutQuery<T> setSecurityUser(PqUser user) {
+		this.securityEnabled = true;
+		this.securityUser = user;
+		return this;
+	}
+	public FanOutQuery<T> disableSecurity() {
+		this.securityEnabled = false;
+		return this;
+	}
+	/**
+	 * Limits how long the whole fan out may take. Overrides @DbTable(timeout)
+	 */
+	public FanOutQuery<T> setTimeout(long millis) {
+		this.timeoutMillis = millis;
+		return this;
+	}
+	public FanOutQuery<T> setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+	public FanOutQuery<T> setFetchSize(int rows) {
+		this.fetchSize = rows;
+		return this;
+	}
+	/**
+	 * Stops the query of each schema after the given number of rows. With ordered() the first rows handed over
+	 * are then still the first rows over all schemas
+	 */
+	public FanOutQuery<T> setMaxRows(int rows) {
+		this.maxRows = Math.max(0, rows);
+		return this;
+	}
+	/**
+	 * Rows each schema may read ahead of the consumer
+	 */
+	public FanOutQuery<T> setQueueSize(int rows) {
+		this.queueSize = Math.max(1, rows);
+		return this;
+	}
+	/**
+	 * Merges the rows of the schemas by the order by of the query. Only fields of the queried entity can be merged.
+	 * Nulls are placed the way the database of the first schema sorts them. Text is compared by its characters,
+	 * which matches a binary collation. Use ordered(Comparator) when the database sorts text differently
+	 */
+	public FanOutQuery<T> ordered() {
+		this.ordered = true;
+		this.comparator = null;
+		return this;
+	}
+	/**
+	 * Merges the rows of the schemas with the comparator, which must agree with the order by of the query
+	 */
+	public FanOutQuery<T> ordered(Comparator<? super T> comparator) {
+		this.ordered = true;
+		this.comparator = comparator;
+		return this;
+	}
+	/**
+	 * @param partial true to hand over the rows of the schemas that could be read when others fail. The errors
+	 * of the failed schemas are kept in getFailures()
+	 */
+	public FanOutQuery<T> setPartialResults(boolean partial) {
+		this.partialResults = partial;
+		return this;
+	}
+	/**
+	 * @return the errors of the schemas that failed during the last run
+	 */
+	public synchronized Map<DBL, Exception> getFailures() {
+		return Collections.unmodifiableMap(new LinkedHashMap<DBL, Exception>(failures));
+	}
+
+	/**
+	 * @return the rows of all schemas, merged when the query is ordered
+	 */
+	public List<T> list() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InterruptedException {
+		final List<T> rows = new ArrayList<T>();
+		forEach(new Consumer<T>() {
+			@Override
+			public boolean accept(DBL schema, T row) {
+				rows.add(row);
+				return true;
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Runs the query against every schema at once and hands the rows to the consumer on this thread
+	 * @return the number of rows handed over
+	 */
+	public synchronized int forEach(Consumer<T> consumer) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InterruptedException {
+		failures.clear();
+		if (schemas.isEmpty())
+			return 0;
+		// resolve the order by first so a query that can't be merged fails before it runs
+		OrderBy orderBy = ordered && comparator == null ? new OrderBy() : null;
+		Deadline shared = deadline != null ? deadline : timeoutMillis >= 0 ? Deadline.in(timeoutMillis) : null;
+		BlockingQueue<Item<T>> arrivals = ordered ? null : new ArrayBlockingQueue<Item<T>>(queueSize);
+		List<Stream> streams = new ArrayList<Stream>();
+		for (DBL dbl: schemas) {
+			streams.add(new Stream(dbl, streams.size(), arrivals != null ? arrivals : new ArrayBlockingQueue<Item<T>>(queueSize), shared));
+		}
+		try {
+			for (Stream s: streams) {
+				s.future = executor.submit(s);
+			}
+			return ordered ? merge(streams, orderBy, consumer) : drain(streams, arrivals, consumer);
+		} finally {
+			stop(streams);
+		}
+	}
+
+	// hands over rows in the order they arrive
+	private int drain(List<Stream> streams, BlockingQueue<Item<T>> arrivals, Consumer<T> consumer) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InterruptedException {
+		int rows = 0;
+		int open = streams.size();
+		while (open > 0) {
+			Item<T> item = arrivals.take();
+			if (item.row == null) {
+				open--;
+				checkFailure(item.source);
+				continue;
+			}
+			rows++;
+			if (!consumer.accept(item.source.schema, item.row))
+				break;
+		}
+		return rows;
+	}
+	// k-way merge of the sorted streams, with ties in the order of the schemas
+	private int merge(List<Stream> streams, OrderBy orderBy, Consumer<T> consumer) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InterruptedException {
+		List<Item<T>> firsts = new ArrayList<Item<T>>();
+		for (Stream s: streams) {
+			Item<T> first = next(s);
+			if (first != null)
+				firsts.add(first);
+		}
+		final Comparator<? super T> rowOrder = comparator != null ? comparator : orderBy.comparator();
+		PriorityQueue<Item<T>> heads = new PriorityQueue<Item<T>>(streams.size(), new Comparator<Item<T>>() {
+			@Override
+			public int compare(Item<T> a, Item<T> b) {
+				int c = rowOrder.compare(a.row, b.row);
+				return c != 0 ? c : a.source.index - b.source.index;
+			}
+		});
+		heads.addAll(firsts);
+		int rows = 0;
+		while (!heads.isEmpty()) {
+			Item<T> item = heads.poll();
+			rows++;
+			if (!consumer.accept(item.source.schema, item.row))
+				break;
+			Item<T> following = next(item.source);
+			if (following != null)
+				heads.add(following);
+		}
+		return rows;
+	}
+	// the next row of a stream or null at its end
+	private Item<T> next(Stream s) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InterruptedException {
+		Item<T> item = s.queue.take();
+		if (item.row != null)
+			return item;
+		checkFailure(s);
+		return null;
+	}
+	private void checkFailure(Stream s) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		Exception e = s.error;
+		if (e == null)
+			return;
+		failures.put(s.schema, e);
+		if (partialResults)
+			return;
+		if (e instanceof SQLException)
+			throw (SQLException) e;
+		else if (e instanceof NamingException)
+			throw (NamingException) e;
+		else if (e instanceof IOException)
+			throw (IOException) e;
+		else if (e instanceof IllegalAccessException)
+			throw (IllegalAccessException) e;
+		else if (e instanceof InstantiationException)
+			throw (InstantiationException) e;
+		else if (e instanceof NoSuchFieldException)
+			throw (NoSuchFieldException) e;
+		else if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		throw new SQLException("Query of " + s.schema + " failed: " + e.getMessage(), e);
+	}
+	// cancels the queries still running and waits for them to give their connections back
+	private void stop(List<Stream> streams) throws InterruptedException {
+		for (Stream s: streams) {
+			s.stopped = true;
+			if (!s.finished)
+				s.query.getCancelHandle().cancel();
+		}
+		for (Stream s: streams) {
+			if (s.future == null)
+				continue;
+			try {
+				s.future.get();
+			} catch (ExecutionException e) {
+				// the stream keeps its own errors
+			}
+		}
+	}
+
+	// the rows of one schema
+	private final class Stream implements Runnable, Sink<T> {
+		private final DBL schema;
+		private final int index;
+		private final BlockingQueue<Item<T>> queue;
+		private final PojoQuery<T> query;
+		private Future<?> future;
+		private volatile boolean stopped = false;
+		private volatile boolean finished = false;
+		private volatile Exception error;
+
+		Stream(DBL schema, int index, BlockingQueue<Item<T>> queue, Deadline deadline) {
+			this.schema = schema;
+			this.index = index;
+			this.queue = queue;
+			this.query = criteria != null ? new PojoQuery<T>(criteria) : new PojoQuery<T>(cls, pql, parms);
+			query.setSchema(schema).setFetchSize(fetchSize).setMaxRows(maxRows);
+			if (deadline != null)
+				query.setDeadline(deadline);
+			if (securityEnabled)
+				query.setSecurityUser(securityUser);
+			else
+				query.disableSecurity();
+			// created up front so stop() does not race the query for it
+			query.getCancelHandle();
+		}
+		@Override
+		public void run() {
+			try {
+				query.executeStream(this);
+			} catch (Exception e) {
+				if (!stopped)
+					error = e;
+			} finally {
+				finished = true;
+				try {
+					offer(new Item<T>(this, null));
+				} catch (SQLException e) {
+					// stopped, nobody is waiting for the end of the stream
+				}
+			}
+		}
+		@Override
+		public void put(T obj) throws SQLException {
+			offer(new Item<T>(this, obj));
+		}
+		private void offer(Item<T> item) throws SQLException {
+			try {
+				while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+					if (stopped)
+						throw new SQLException("Query was cancelled", "HY008");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Query was interrupted", "HY008", e);
+			}
+		}
+	}
+	private static final class Item<T> {
+		private final FanOutQuery<T>.Stream source;
+		// null marks the end of the stream
+		private final T row;
+
+		Item(FanOutQuery<T>.Stream source, T row) {
+			this.source = source;
+			this.row = row;
+		}
+	}
+
+	// compares entities by the fields of the order by of the pql or criteria
+	private final class OrderBy {
+		private final List<Field> fields = new ArrayList<Field>();
+		private final List<Boolean> descending = new ArrayList<Boolean>();
+		// true, false or null to sort nulls the way the database does
+		private final List<Boolean> nullsFirst = new ArrayList<Boolean>();
+
+		OrderBy() throws NoSuchFieldException {
+			if (criteria != null) {
+				for (Criteria.Order o: criteria.getOrders()) {
+					Attribute<?, ?> a = o.getAttribute();
+					if (!a.getJoins().isEmpty())
+						throw new NoSuchFieldException("Unable to merge by " + a + ", only fields of " + cls.getSimpleName() + " can be merged");
+					add(getField(a.getName()), o.isDescending(), null);
+				}
+			} else {
+				Matcher m = ORDER_BY.matcher(pql == null ? "" : pql);
+				if (m.matches()) {
+					Class<?> tblcls = PojoQuery.getTableClass(cls);
+					DbTable tbl = tblcls == null ? null : tblcls.getAnnotation(DbTable.class);
+					String alias = tbl == null ? cls.getSimpleName() : tbl.alias().equals("") ? tblcls.getSimpleName() : tbl.alias();
+					for (String part: m.group(1).split(",")) {
+						Matcher item = ORDER_ITEM.matcher(part.trim());
+						if (!item.matches() || (item.group(1) != null && !item.group(1).equalsIgnoreCase(alias)))
+							throw new NoSuchFieldException("Unable to merge by " + part.trim() + ", only fields of " + cls.getSimpleName() + " can be merged");
+						Boolean nulls = item.group(4) == null ? null : Boolean.valueOf(item.group(4).equalsIgnoreCase("first"));
+						add(getField(item.group(2)), "desc".equalsIgnoreCase(item.group(3)), nulls);
+					}
+				}
+			}
+			if (fields.isEmpty())
+				throw new IllegalArgumentException("An ordered fan out of " + cls.getSimpleName() + " needs an order by");
+		}
+		private void add(Field f, boolean desc, Boolean nulls) throws NoSuchFieldException {
+			if (!Comparable.class.isAssignableFrom(Projection.box(f.getType())))
+				throw new NoSuchFieldException("Unable to merge by " + f.getName() + ", " + f.getType().getSimpleName() + " is not comparable");
+			f.setAccessible(true);
+			fields.add(f);
+			descending.add(desc);
+			nullsFirst.add(nulls);
+		}
+		// a field by name or by the name of its column
+		private Field getField(String name) throws NoSuchFieldException {
+			Field byColumn = null;
+			for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+				for (Field f: c.getDeclaredFields()) {
+					DbColumn col = f.getAnnotation(DbColumn.class);
+					if (col == null)
+						continue;
+					if (f.getName().equals(name))
+						return f;
+					if (byColumn == null && col.value().equalsIgnoreCase(name))
+						byColumn = f;
+				}
+			}
+			if (byColumn == null)
+				throw new NoSuchFieldException(cls.getSimpleName() + "." + name + " is not a @DbColumn field");
+			return byColumn;
+		}
+
+		Comparator<T> comparator() throws NamingException, SQLException {
+			final boolean nullsHigh = schemas.iterator().next().getInstance().getDialect().sortsNullsHigh();
+			return new Comparator<T>() {
+				@Override
+				@SuppressWarnings({"unchecked", "rawtypes"})
+				public int compare(T a, T b) {
+					for (int x = 0; x < fields.size(); x++) {
+						Object va, vb;
+						try {
+							va = fields.get(x).get(a);
+							vb = fields.get(x).get(b);
+						} catch (IllegalAccessException e) {
+							throw new IllegalStateException(e);
+						}
+						boolean desc = descending.get(x);
+						int c;
+						if (va == null || vb == null) {
+							if (va == vb)
+								continue;
+							Boolean first = nullsFirst.get(x);
+							boolean nullFirst = first != null ? first : nullsHigh == desc;
+							c = va == null ? (nullFirst ? -1 : 1) : (nullFirst ? 1 : -1);
+						} else {
+							c = ((Comparable) va).compareTo(vb);
+							if (desc)
+								c = -c;
+						}
+						if (c != 0)
+							return c;
+					}
+					return 0;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package dbutil;
+
+import java.lang.reflect.Field;
+
+/**
+ * Base class of the <tt>&lt;Entity&gt;_PqMeta</tt> classes written by {@link dbutil.processor.EntityMetaProcessor}.
+ * The generated subclass passes the mapping as constants and implements newInstance/get/set with direct field or
+ * reflective calls, the same field access as the reflective metadata.
+ */
+public abstract class GeneratedEntityMeta<T> implements EntityMeta<T> {
+	private final Class<T> cls;
+	private final String table;
+	private final String alias;
+	private final String[] names;
+	private final String[] columns;
+	private final Class<?>[] types;
+	private final int[] ids;
+	private final String[] sql;
+	private final SecurityDescriptor tableSecurity;
+	private final SecurityDescriptor[] fieldSecurity;
+	// fields that have no accessible accessor are read and written reflectively
+	private final Field[] reflected;
+
+	protected GeneratedEntityMeta(Class<T> cls, String table, String alias, String[] names, String[] columns,
+			Class<?>[] types, int[] ids, String[] sql, SecurityDescriptor tableSecurity, SecurityDescriptor[] fieldSecurity) {
+		this.cls = cls;
+		this.table = table;
+		this.alias = alias;
+		this.names = names;
+		this.columns = columns;
+		this.types = types;
+		this.ids = ids;
+		this.sql = sql;
+		this.tableSecurity = tableSecurity;
+		this.fieldSecurity = fieldSecurity;
+		this.reflected = new Field[names.length];
+	}
+
+	/**
+	 * @return the field at idx made accessible, for fields the generated code cannot reach directly
+	 */
+	protected final Field field(int idx) {
+		Field f = reflected[idx];
+		if (f == null) {
+			for (Class<?> c = cls; c != null && f == null; c = c.getSuperclass()) {
+				try {
+					f = c.getDeclaredField(names[idx]);
+				} catch (NoSuchFieldException e) {
+					// declared in a super class
+				}
+			}
+			if (f == null)
+				throw new IllegalStateException(cls.getName() + "." + names[idx] + " no longer exists. Recompile the entity");
+			f.setAccessible(true);
+			reflected[idx] = f;
+		}
+		return f;
+	}
+	protected final IndexOutOfBoundsException badIndex(int idx) {
+		return new IndexOutOfBoundsException(cls.getSimpleName() + " has no field at index " + idx);
+	}
+
+	@Override
+	public final Class<T> getEntityClass() {
+		return cls;
+	}
+	@Override
+	public final String getTable() {
+		return table;
+	}
+	@Override
+	public final String getAlias() {
+		return alias;
+	}
+	@Override
+	public final String[] getFieldNames() {
+		return names.clone();
+	}
+	@Override
+	public final String[] getColumns() {
+		return columns.clone();
+	}
+	@Override
+	public final Class<?>[] getFieldTypes() {
+		return types.clone();
+	}
+	@Override
+	public final int[] getIdIndexes() {
+		return ids.clone();
+	}
+	@Override
+	public final int indexOf(String fieldName) {
+		for (int x = 0; x < names.length; x++) {
+			if (names[x].equals(fieldName))
+				return x;
+		}
+		return -1;
+	}
+	@Override
+	public final boolean isGenerated() {
+		return true;
+	}
+	@Override
+	public final String getSelectSql() {
+		return sql[0];
+	}
+	@Override
+	public final String getInsertSql() {
+		return sql[1];
+	}
+	@Override
+	public final String getUpdateSql() {
+		return sql[2];
+	}
+	@Override
+	public final String getDeleteSql() {
+		return sql[3];
+	}
+	@Override
+	public final SecurityDescriptor getTableSecurity() {
+		return tableSecurity;
+	}
+	@Override
+	public final SecurityDescriptor getFieldSecurity(int idx) {
+		return fieldSecurity[idx];
+	}
+}
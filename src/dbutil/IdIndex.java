@@ -0,0 +1,157 @@
+package dbutil;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dbutil.annotations.Id;
+
+/**
+ * Read only index of query results by id, returned by {@link PojoQuery#index()}.
+ * Entities with a single integral @Id (Long, Integer, Short) are stored in an open addressing table keyed by the
+ * primitive id so no key objects are created. Other ids are kept in a HashMap keyed by the id value or by an
+ * {@link IdKey} when the entity has more than one @Id field. Rows with a null id are not indexed and when an id is
+ * returned more than once (joined rows) the first row is kept.
+ * <pre>IdIndex&lt;Code&gt; codes = new PojoQuery&lt;Code&gt;(Code.class).index();
+ * Code c = codes.get(42);</pre>
+ */
+@SuppressWarnings("unchecked")
+public final class IdIndex<T> {
+	private static final ConcurrentMap<Class<?>, Field[]> idFieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+	private final Field[] idfields;
+	private final List<T> values;
+	// open addressing table used for single integral ids. a null value marks an empty slot
+	private long[] keys;
+	private Object[] slots;
+	private int mask;
+	// used for every other kind of id
+	private Map<Object, T> map;
+	private int size;
+
+	IdIndex(Class<T> cls, Collection<T> entities) throws IllegalAccessException {
+		idfields = getIdFields(cls);
+		if (idfields.length == 0)
+			throw new IllegalArgumentException(cls.getSimpleName() + " does not have any @Id fields");
+		values = new ArrayList<T>(entities.size());
+		if (isIntegral()) {
+			int capacity = Integer.highestOneBit(Math.max(4, entities.size() * 2 - 1)) << 1;
+			keys = new long[capacity];
+			slots = new Object[capacity];
+			mask = capacity - 1;
+			for (T obj: entities) {
+				Object id = idfields[0].get(obj);
+				if (id != null)
+					put(((Number) id).longValue(), obj);
+			}
+		} else {
+			map = new HashMap<Object, T>(Math.max(16, entities.size() * 4 / 3 + 1));
+			for (T obj: entities) {
+				Object key = getKey(obj);
+				if (key != null && !map.containsKey(key)) {
+					map.put(key, obj);
+					values.add(obj);
+					size++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the @Id fields of the class in declaration order (super class fields last), made accessible.
+	 * The lookup is cached per class
+	 */
+	static Field[] getIdFields(Class<?> cls) {
+		Field[] fields = idFieldCache.get(cls);
+		if (fields == null) {
+			List<Field> found = new ArrayList<Field>();
+			for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+				for (Field f: c.getDeclaredFields()) {
+					if (f.getAnnotation(Id.class) != null) {
+						f.setAccessible(true);
+						found.add(f);
+					}
+				}
+			}
+			fields = found.toArray(new Field[found.size()]);
+			idFieldCache.putIfAbsent(cls, fields);
+		}
+		return fields;
+	}
+
+	/**
+	 * @param id the id value or an IdKey for entities with more than one @Id field
+	 */
+	public T get(Object id) {
+		if (id == null)
+			return null;
+		if (keys != null)
+			return id instanceof Number ? get(((Number) id).longValue()) : null;
+		if (idfields.length == 1 && !idfields[0].getType().isInstance(id))
+			id = ObjectConverter.convert(id, Projection.box(idfields[0].getType()));
+		return map.get(id);
+	}
+	public T get(long id) {
+		if (keys == null)
+			return get(Long.valueOf(id));
+		for (int x = hash(id) & mask; slots[x] != null; x = (x + 1) & mask) {
+			if (keys[x] == id)
+				return (T) slots[x];
+		}
+		return null;
+	}
+	public boolean containsId(Object id) {
+		return get(id) != null;
+	}
+	public int size() {
+		return size;
+	}
+	/**
+	 * @return the indexed entities in query order
+	 */
+	public List<T> values() {
+		return Collections.unmodifiableList(values);
+	}
+
+	private boolean isIntegral() {
+		if (idfields.length != 1)
+			return false;
+		Class<?> type = Projection.box(idfields[0].getType());
+		return type == Long.class || type == Integer.class || type == Short.class;
+	}
+	private void put(long id, T obj) {
+		int x = hash(id) & mask;
+		while (slots[x] != null) {
+			if (keys[x] == id)
+				return;
+			x = (x + 1) & mask;
+		}
+		keys[x] = id;
+		slots[x] = obj;
+		values.add(obj);
+		size++;
+	}
+	private Object getKey(T obj) throws IllegalAccessException {
+		if (idfields.length == 1)
+			return idfields[0].get(obj);
+		Object[] ids = new Object[idfields.length];
+		for (int x = 0; x < ids.length; x++) {
+			ids[x] = idfields[x].get(obj);
+			if (ids[x] == null)
+				return null;
+		}
+		return IdKey.wrap(ids);
+	}
+	private static int hash(long id) {
+		// murmur3 finalizer so sequential ids spread over the table
+		id ^= id >>> 33;
+		id *= 0xff51afd7ed558ccdL;
+		id ^= id >>> 33;
+		return (int) id;
+	}
+}
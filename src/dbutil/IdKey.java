@@ -0,0 +1,50 @@
+package dbutil;
+
+import java.util.Arrays;
+
+/**
+ * Immutable key for entities with more than one @Id field. Values are held in the declaration order of the @Id
+ * fields and the hash is computed once so the key is cheap to use in large maps.
+ * <pre>Map&lt;Object, Enrollment&gt; found = new PojoQuery&lt;Enrollment&gt;(Enrollment.class).getAll(keys);
+ * Enrollment e = found.get(IdKey.of(studentId, courseId));</pre>
+ */
+public final class IdKey {
+	private final Object[] values;
+	private final int hash;
+
+	private IdKey(Object[] values) {
+		this.values = values;
+		this.hash = Arrays.hashCode(values);
+	}
+	public static IdKey of(Object... values) {
+		return new IdKey(values.clone());
+	}
+	// used internally when the array is not shared with the caller
+	static IdKey wrap(Object[] values) {
+		return new IdKey(values);
+	}
+
+	public Object get(int idx) {
+		return values[idx];
+	}
+	public int size() {
+		return values.length;
+	}
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof IdKey))
+			return false;
+		IdKey other = (IdKey) o;
+		return hash == other.hash && Arrays.equals(values, other.values);
+	}
+	@Override
+	public String toString() {
+		return Arrays.toString(values);
+	}
+}
@@ -0,0 +1,81 @@
+package dbutil;
+
+import java.util.Set;
+
+/**
+ * A @JoinTable field of an entity as it appears in the generated <tt>&lt;Entity&gt;_</tt> metamodel classes.
+ * join() returns the attributes of the joined entity, so conditions on them add the join to the query:
+ * <pre>
+ * Criteria.from(Customer.class).where(Customer_.orders.join().status.eq("OPEN"))
+ * </pre>
+ * Like a join in the pql where clause, the joined table is referenced by the alias of its @DbTable.
+ * @param <E> the entity declaring the join field
+ * @param <J> the joined entity
+ * @param <P> the generated attributes of the joined entity
+ */
+public abstract class JoinAttribute<E, J, P> {
+	private final Class<E> entity;
+	private final String name;
+	private final Class<J> target;
+	private final JoinAttribute<?, E, ?> via;
+	private volatile P path;
+
+	protected JoinAttribute(Class<E> entity, String name, Class<J> target, JoinAttribute<?, E, ?> via) {
+		this.entity = entity;
+		this.name = name;
+		this.target = target;
+		this.via = via;
+	}
+
+	/**
+	 * @return the attributes of the joined entity, reached through this join
+	 */
+	public P join() {
+		P p = path;
+		if (p == null) {
+			p = path();
+			path = p;
+		}
+		return p;
+	}
+	/**
+	 * Creates the generated attributes of the joined entity with this join as their parent
+	 */
+	protected abstract P path();
+
+	public Class<E> getEntityClass() {
+		return entity;
+	}
+	public String getName() {
+		return name;
+	}
+	public Class<J> getTargetClass() {
+		return target;
+	}
+
+	void collectJoins(Set<JoinAttribute<?, ?, ?>> joins) {
+		if (via != null)
+			via.collectJoins(joins);
+		joins.add(this);
+	}
+	Class<?> getRootClass() {
+		return via == null ? entity : via.getRootClass();
+	}
+
+	// two joins are the same when they follow the same fields from the same class
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof JoinAttribute))
+			return false;
+		JoinAttribute<?, ?, ?> other = (JoinAttribute<?, ?, ?>) o;
+		return entity == other.entity && name.equals(other.name) && (via == null ? other.via == null : via.equals(other.via));
+	}
+	@Override
+	public int hashCode() {
+		return (via == null ? 0 : via.hashCode() * 31) + entity.hashCode() * 17 + name.hashCode();
+	}
+	@Override
+	public String toString() {
+		return via == null ? name : via + "." + name;
+	}
+}
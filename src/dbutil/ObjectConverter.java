@@ -5,6 +5,9 @@ import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.sql.Blob;
 import java.sql.SQLException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -140,6 +143,12 @@ public final class ObjectConverter{
 	public static Long bigDecimalToLong(BigDecimal value){
 		return Long.valueOf(value.longValue());
 	}
+	public static Long integerToLong(Integer value){
+		return Long.valueOf(value.longValue());
+	}
+	public static Integer longToInteger(Long value){
+		return Integer.valueOf(value.intValue());
+	}
 	public static Integer shortToInteger(java.lang.Short value) {
 		return Integer.valueOf(value);
 	}
@@ -159,6 +168,43 @@ public final class ObjectConverter{
 	public static Integer stringToInteger(String value){
 		return Integer.valueOf(value);
 	}
+	public static Long stringToLong(String value){
+		return Long.valueOf(value.trim());
+	}
+	public static Short stringToShort(String value){
+		return Short.valueOf(value.trim());
+	}
+	public static Double stringToDouble(String value){
+		return Double.valueOf(value.trim());
+	}
+	public static Float stringToFloat(String value){
+		return Float.valueOf(value.trim());
+	}
+	public static BigDecimal stringToBigDecimal(String value){
+		return new BigDecimal(value.trim());
+	}
+	/**
+	 * Converts String to Date. Accepts ISO dates and timestamps (yyyy-MM-dd, yyyy-MM-dd HH:mm:ss or
+	 * yyyy-MM-dd'T'HH:mm:ss with optional milliseconds) and MM/dd/yyyy.
+	 * @param value The String to be converted.
+	 * @return The converted Date value.
+	 */
+	public static Date stringToDate(String value){
+		String s = value.trim();
+		for (String pattern: DATE_PATTERNS) {
+			SimpleDateFormat df = new SimpleDateFormat(pattern);
+			df.setLenient(false);
+			ParsePosition pos = new ParsePosition(0);
+			Date d = df.parse(s, pos);
+			if (d != null && pos.getIndex() == s.length())
+				return d;
+		}
+		throw new IllegalArgumentException("Unparseable date: " + value);
+	}
+	private static final String[] DATE_PATTERNS = {
+		"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss",
+		"yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd HH:mm", "yyyy-MM-dd", "MM/dd/yyyy HH:mm:ss", "MM/dd/yyyy"
+	};
 	/**
 	 * Converts Boolean to String.
 	 * @param value The Boolean to be converted.
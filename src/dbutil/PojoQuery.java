@@ -1,19 +1,30 @@
 package dbutil;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.naming.NamingException;
@@ -27,6 +38,10 @@ import dbutil.annotations.DbTable;
 import dbutil.annotations.Id;
 import dbutil.annotations.JoinTable;
 import dbutil.annotations.PojoSecurity;
+import dbutil.metrics.PqMetrics;
+import dbutil.metrics.QueryPhases;
+import dbutil.metrics.QueryPhases.Phase;
+import dbutil.metrics.SlowQueryLog;
 
 /**
  * @author Rob Richards Created on 6/16/2016
@@ -49,14 +64,42 @@ public class PojoQuery<T> extends DB{
 	private PqUser securityUser = null;
 	// indicates whether the query will retrieve blob or clob data when run
 	private boolean retrieveBlobs = false;
+	// select and group by clauses used when running an aggregate query (see Aggregate)
+	private String aggregateSelect = null;
+	private String aggregateGroupBy = null;
+	// consulted by getAll before loading entities from the database
+	private EntityCache cache = null;
+	// time limits. the deadline in effect is computed when the query runs and handed to joined queries
+	private long timeoutMillis = -1;
+	private Deadline deadline = null;
+	private Deadline activeDeadline = null;
+	private CancelHandle cancelHandle = null;
+	// rows per round trip requested for this query (0 = @DbTable or global default) and the page size of a limit() keyword
+	private int fetchSize = 0;
+	private int limitRows = 0;
+	// rows returned at most by a select, 0 for all
+	private int maxRows = 0;
+	// rows sent per jdbc batch by insertAll and upsertAll
+	private int batchSize = 500;
+	// sql generated once by a CompiledQuery, used instead of parsing origSql for queries of its type
+	private CompiledQuery.Plan plan = null;
+	// query built from the metamodel instead of origSql
+	private Criteria<T> criteria = null;
+	// schema the query runs against instead of the one of its @DbTable (null for the @DbTable schema)
+	private DBL schema = null;
 
 	//private Object[] parms;
 	private Set<Field> selectedFields = new LinkedHashSet<Field>();
-	private static enum QueryType { select, count, insert, update, delete };
+	public static enum QueryType { select, count, insert, update, delete, aggregate, exists, upsert };
 	// This array is used to store regular expressions for short hand code that can be used in a custom where clause
 	// passed in by an application to illustrate a larger concept.
 	// (example: where clause = "id=4 limit(1, 10)" will generate results for the first page with 10 results per page
+	// fields of each class and its super classes, and the @PojoSecurity of fields outside the entity metadata
+	private static final ConcurrentHashMap<Class<?>, Field[]> allFields = new ConcurrentHashMap<Class<?>, Field[]>();
+	private static final ConcurrentHashMap<Field, SecurityDescriptor> otherFieldSecurity = new ConcurrentHashMap<Field, SecurityDescriptor>();
+	private static final SecurityDescriptor NO_SECURITY = new SecurityDescriptor(new String[0], new String[0], "0");
 	private static final transient String[] keywords = {"(?s)^(.*)limit\\s*\\(\\s*(\\d+),\\s*(\\d+)\\s*\\)(.*)$"};
+	private static final Pattern whereOrderBy = Pattern.compile("(?is)^\\s*where\\s+(.*?)(\\s+order\\s+by\\s+.*)?$");
 //	private static final transient String[] query_templates = {"select %s from %s ", "select count(*) from %s", "insert into %s", "update %s", "delete from %s"};
 //	private static final transient int SELECT = 0, COUNT = 1, INSERT = 2, UPDATE = 3, DELETE = 4;
 	public PojoQuery(){ }
@@ -71,6 +114,11 @@ public class PojoQuery<T> extends DB{
 		this.origSql = sql;
 	}
 
+	public PojoQuery(Criteria<T> criteria) {
+		this.cls = criteria.getEntityClass();
+		this.criteria = criteria;
+	}
+
 	public PojoQuery(T obj) throws IllegalArgumentException{
 		this.cls = (Class<T>) obj.getClass();
 		this.obj = obj;
@@ -83,19 +131,26 @@ public class PojoQuery<T> extends DB{
 	}
 	
 	private String createSql(QueryType qt) throws NoSuchFieldException, NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		if (plan != null && plan.type == qt) {
+			selectedFields.addAll(plan.selectedFields);
+			joinFields.addAll(plan.joinFields);
+			parms.addAll(plan.keywordParms);
+			limitRows = plan.limitRows;
+			return plan.sql;
+		}
+		if (criteria != null)
+			return createSqlFromCriteria(qt);
 		String sql = origSql == null ? "" : origSql;
 		// look for keywords in the query
 		boolean hasLimit = false;
+		limitRows = 0;
 		for (int x=0; x<keywords.length; x++) {
 			if (sql.matches(keywords[x])) {
 				if (x==0) {
 					hasLimit = true;
 					String[] pagedata = sql.replaceAll(keywords[x], "$2,$3").split(",");
 					sql = sql.replaceAll(keywords[x], "$1 $4");
-					Integer page_num = Integer.parseInt(pagedata[0]);
-					Integer num_per_page = Integer.parseInt(pagedata[1]);
-					parms.add((page_num * num_per_page) - (num_per_page - 1));
-					parms.add((page_num * num_per_page));
+					addPageParms(Integer.parseInt(pagedata[0]), Integer.parseInt(pagedata[1]));
 				}
 			}
 		}
@@ -115,22 +170,90 @@ public class PojoQuery<T> extends DB{
 			orderby = "order by " + genOrderBy(query[1]);
 		}
 		String from = genFromStmt();
-		select = qt.ordinal() == QueryType.count.ordinal() ? genCountStmt() : genSelectStmt(select);
+		String groupby = "";
+		if (qt == QueryType.aggregate) {
+			select = aggregateSelect;
+			// aggregate rows are ordered by their group
+			where = where.replaceAll("(?s)\\s+order\\s+by\\s+.*$", "");
+			if (aggregateGroupBy != null) {
+				groupby = "group by " + aggregateGroupBy + "\n";
+				orderby = "order by " + aggregateGroupBy;
+			} else
+				orderby = "";
+		} else if (qt == QueryType.exists) {
+			select = "select 1";
+			where = where.replaceAll("(?s)\\s+order\\s+by\\s+.*$", "");
+			orderby = "";
+		} else if (qt == QueryType.count) {
+			// an order by is not allowed next to count(*) so the pql of a list can be counted as is
+			select = genCountStmt();
+			where = where.replaceAll("(?s)\\s+order\\s+by\\s+.*$", "");
+			orderby = "";
+		} else
+			select = genSelectStmt(select);
 		// indicates a 'retrieve with joins' if a jointable field is found in the where clause
-		where = genJoinAndWhereStmts(cls, where);
-		sql = select + " \n" + from + " \n" + where + "\n" + orderby;
+		where = genJoinAndWhereStmts(cls, addDiscriminatorFilter(where, getTblAlias(cls)));
+		sql = select + " \n" + from + " \n" + where + "\n" + groupby + orderby;
 		if (hasLimit)
-			sql = "SELECT outer.* FROM (SELECT ROWNUM rn, inner.* FROM (" + sql + ") inner) outer WHERE outer.rn >= ? AND outer.rn <= ?";
+			sql = genPageStmt(sql);
+		return sql;
+	}
+	// the columns and joins of a criteria are already resolved, so the statement is assembled without parsing
+	private String createSqlFromCriteria(QueryType qt) throws NoSuchFieldException, NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		limitRows = 0;
+		String select;
+		String groupby = "";
+		String orderby = criteria.getOrderBySql();
+		if (qt == QueryType.aggregate) {
+			select = aggregateSelect;
+			if (aggregateGroupBy != null) {
+				groupby = "group by " + aggregateGroupBy + "\n";
+				orderby = "order by " + aggregateGroupBy;
+			} else
+				orderby = "";
+		} else if (qt == QueryType.exists) {
+			select = "select 1";
+			orderby = "";
+		} else if (qt == QueryType.count) {
+			select = genCountStmt();
+			orderby = "";
+		} else
+			select = genSelectStmt("");
+		for (JoinAttribute<?, ?, ?> j: criteria.getJoins()) {
+			Field f = getField(j.getEntityClass(), j.getName());
+			joinstmts.add(generateJoinStmt(j.getEntityClass(), j.getTargetClass(), f.getAnnotation(JoinTable.class)));
+		}
+		parms.addAll(criteria.getParameters());
+		String sql = select + " \n" + genFromStmt() + " \n" + getAllJoinStmts() + addDiscriminatorFilter(criteria.getWhereSql(), getTblAlias(cls)) + "\n" + groupby + orderby;
+		if (criteria.getPerPage() > 0) {
+			addPageParms(criteria.getPage(), criteria.getPerPage());
+			sql = genPageStmt(sql);
+		}
 		return sql;
 	}
+	// bounds of the rownum window of genPageStmt
+	private void addPageParms(int page, int perPage) {
+		limitRows = perPage;
+		parms.add((page * perPage) - (perPage - 1));
+		parms.add(page * perPage);
+	}
+	private static String genPageStmt(String sql) {
+		// outer and inner are reserved words on some databases so the aliases are prefixed
+		return "SELECT pq_outer.* FROM (SELECT ROWNUM rn, pq_inner.* FROM (" + sql + ") pq_inner) pq_outer WHERE pq_outer.rn >= ? AND pq_outer.rn <= ?";
+	}
 	private String createSqlFromObj(QueryType qt) throws IllegalArgumentException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException{
 		StringBuffer sql = new StringBuffer();
 		Set<Field> fields = getFieldsWithAnnotation(DbColumn.class, this.cls);
-		// generate select query 
-		if (qt == QueryType.select) {
+		// generate select query. count and exists match the rows of the same example object
+		if (qt == QueryType.select || qt == QueryType.count || qt == QueryType.exists) {
 			if (this.origSql != null && this.origSql.matches("^.*where\\s+.*$"))
 				throw new IllegalArgumentException("You cannot pass a where clause and an object when running a select query. Please use the PojoQuery<?>(Class<?> cls, String sql) constructor instead");
-			sql.append(genSelectStmt(this.origSql) + " \n");
+			if (qt == QueryType.count)
+				sql.append(genCountStmt() + " \n");
+			else if (qt == QueryType.exists)
+				sql.append("select 1 \n");
+			else
+				sql.append(genSelectStmt(this.origSql) + " \n");
 			sql.append(genFromStmt() + " \nwhere ");
 			int fieldsSet = 0;
 			for(Field f : fields) {
@@ -148,10 +271,13 @@ public class PojoQuery<T> extends DB{
 			}
 			if (fieldsSet == 0)
 				throw new IllegalArgumentException("Cannot run select query against an object that doesn't have any fields set to a non-null value");
+			String filter = genDiscriminatorFilter(null);
+			if (filter != null)
+				sql.append(" and " + filter);
 		} else if (qt == QueryType.insert) {
 			if (insertAllowed()) {
 				StringBuffer values = new StringBuffer();
-				DbTable tbl = cls.getAnnotation(DbTable.class);
+				DbTable tbl = getDbTable(cls);
 				sql.append("insert into " + tbl.value() + "(");
 				for(Field f : fields) {
 					f.setAccessible(true);
@@ -168,7 +294,16 @@ public class PojoQuery<T> extends DB{
 							parms.add(val);
 						} else if (hasSequence) {
 							sql.append(col.value() + ",");
-							values.append(id.sequence() + ".nextval" + ",");
+							SequenceAllocator allocator = SequenceAllocator.get(getSchema(tbl), id.sequence());
+							if (allocator == null) {
+								values.append(id.sequence() + ".nextval" + ",");
+							} else {
+								// the id is known before the insert so no generated keys are needed
+								Object idval = ObjectConverter.convert(allocator.next(), Projection.box(f.getType()));
+								f.set(obj, idval);
+								values.append("?,");
+								parms.add(idval);
+							}
 						}
 					}
 				}
@@ -180,7 +315,7 @@ public class PojoQuery<T> extends DB{
 			}
 		} else if (qt == QueryType.delete) {
 			if (deleteAllowed()) {
-				DbTable tbl = cls.getAnnotation(DbTable.class);
+				DbTable tbl = getDbTable(cls);
 				sql.append("delete from " + tbl.value());
 				// delete by id if no where clause is passed
 				if (this.origSql == null) {
@@ -200,6 +335,9 @@ public class PojoQuery<T> extends DB{
 						sql.append(col.value() + "= ? " );
 						parms.add(f.get(obj));
 					}
+					String filter = genDiscriminatorFilter(null);
+					if (filter != null)
+						sql.append(" and " + filter);
 				} else if (this.origSql.matches("^\\s*where\\s+.*$")) {
 					sql.append(genJoinAndWhereStmts(cls, this.origSql));
 				} else {
@@ -231,6 +369,64 @@ public class PojoQuery<T> extends DB{
 		this.securityEnabled = false;
 		return this;
 	}
+	/**
+	 * Limits how long each run of this query, including its joined queries, may take. Overrides @DbTable(timeout)
+	 */
+	public PojoQuery<T> setTimeout(long millis) {
+		this.timeoutMillis = millis;
+		return this;
+	}
+	/**
+	 * Shares a fixed deadline, for example with the other queries of a request
+	 */
+	public PojoQuery<T> setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+	/**
+	 * @return handle that cancels the running statements of this query and its joined queries from another thread
+	 */
+	public synchronized CancelHandle getCancelHandle() {
+		if (cancelHandle == null)
+			cancelHandle = new CancelHandle();
+		return cancelHandle;
+	}
+	/**
+	 * Rows fetched per round trip when this query reads its results. Overrides @DbTable(fetchSize) and the global
+	 * default. Use DB.FETCH_ADAPTIVE to size it from the selected columns
+	 */
+	public PojoQuery<T> setFetchSize(int rows) {
+		this.fetchSize = rows;
+		return this;
+	}
+	/**
+	 * Stops a select after the given number of rows (Statement.setMaxRows). Unlike limit() it needs no paging
+	 * wrapper, so it works the same on every database
+	 */
+	public PojoQuery<T> setMaxRows(int rows) {
+		this.maxRows = Math.max(0, rows);
+		return this;
+	}
+	/**
+	 * Rows sent to the database per jdbc batch by insertAll and upsertAll
+	 */
+	public PojoQuery<T> setBatchSize(int rows) {
+		this.batchSize = Math.max(1, rows);
+		return this;
+	}
+	/**
+	 * Runs the query against another schema with the same tables as the schema of the @DbTable, like the test copy
+	 * or the copy of another department. Joined entities of the @DbTable schema are read from it as well. The
+	 * EntityCache is not used since it does not tell schemas apart
+	 */
+	public PojoQuery<T> setSchema(DBL schema) {
+		this.schema = schema;
+		return this;
+	}
+	public PojoQuery<T> useCache(EntityCache cache) {
+		this.cache = cache;
+		return this;
+	}
 
 	public T single() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
 		this.retrieveBlobs = true;
@@ -246,12 +442,50 @@ public class PojoQuery<T> extends DB{
 		long ct = executeCount();
 		return ct;
 	}
+	/**
+	 * Presence check that stops at the first matching row. Use instead of count() &gt; 0
+	 */
+	public boolean exists() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException {
+		boolean found = false;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		// the dialect decides how the exists statement is written so connect first
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		String query = this.obj == null ? createSql(QueryType.exists) : createSqlFromObj(QueryType.exists);
+		sql = getSchema(tbl).getInstance().getDialect().getExistsStatement(query);
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		prepareStatement(sql);
+		setParameters(parms);
+		ResultSet rs = executeQuery();
+		if (rs.next()) {
+			found = rs.getInt("ct") == 1;
+		}
+		phases.lap(Phase.execute);
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.exists, start, found ? 1 : 0, failed, sql, phases);
+		}
+		return found;
+	}
 	public List<T> list() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
 		List<T> results = new ArrayList<T>(executeSelect());
 		return results;
 	}
+	/**
+	 * @return the results sorted in a TreeSet when the entity is Comparable, otherwise in query order
+	 */
 	public Set<T> set() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
-		Set<T> results = new TreeSet<T>(executeSelect());
+		Collection<T> coll = executeSelect();
+		Set<T> results = Comparable.class.isAssignableFrom(cls) ? new TreeSet<T>(coll) : new LinkedHashSet<T>(coll);
 		return results;
 	}
 	public Map<?, T> map() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
@@ -263,69 +497,547 @@ public class PojoQuery<T> extends DB{
 		}
 		return results;
 	}
+	/**
+	 * Indexes the results by id. Cheaper than map() for large results since integral ids are not boxed and no key
+	 * map is built per row
+	 */
+	public IdIndex<T> index() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
+		checkIdsSelectable(Arrays.asList(IdIndex.getIdFields(cls)));
+		return new IdIndex<T>(cls, executeSelect());
+	}
+
+	/**
+	 * Loads the entities with the given ids. Ids are split into chunks that stay within the bind parameter limits of
+	 * the database. Chunks are padded to a power of two by repeating the last id so only a handful of distinct
+	 * statements are ever prepared and they are reused from the driver's statement cache.
+	 * When a cache is set with useCache(EntityCache) only the ids missing from the cache are loaded.
+	 * @param ids values of the @Id field. For entities with several @Id fields pass IdKey, Object[] or List values
+	 * with the ids in the order the fields are declared
+	 * @return the loaded entities keyed by id (the id converted to the field type or an IdKey) in the order of the
+	 * passed ids. Ids that were not found are left out
+	 */
+	public Map<Object, T> getAll(Collection<?> ids) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException {
+		DbTable tbl = getDbTable(cls);
+		List<Field> idfields = Arrays.asList(IdIndex.getIdFields(cls));
+		if (idfields.isEmpty())
+			throw new NoSuchFieldException(cls.getSimpleName() + " does not have any @Id fields");
+		checkIdsSelectable(idfields);
+		Set<Object> keys = new LinkedHashSet<Object>();
+		for (Object id: ids) {
+			keys.add(toIdKey(id, idfields));
+		}
+		Map<Object, T> found = new HashMap<Object, T>();
+		List<Object> missing = new ArrayList<Object>();
+		EntityCache cache = schema == null ? this.cache : null;
+		if (cache != null) {
+			for (Object key: keys) {
+				T cached = cache.get(cls, key);
+				if (cached != null)
+					found.put(key, cached);
+				else
+					missing.add(key);
+			}
+			if (!found.isEmpty())
+				PqMetrics.cacheHit(getSchema(tbl), cls, found.size());
+			if (!missing.isEmpty())
+				PqMetrics.cacheMiss(getSchema(tbl), cls, missing.size());
+		} else
+			missing.addAll(keys);
+
+		int max = Math.max(1, getSchema(tbl).getInstance().getDialect().getMaxInListSize() / idfields.size());
+		for (int from = 0; from < missing.size(); from += max) {
+			List<Object> chunk = missing.subList(from, Math.min(missing.size(), from + max));
+			int size = Math.min(max, Integer.highestOneBit(chunk.size() - 1) << 1);
+			if (chunk.size() == 1)
+				size = 1;
+			List<Object> chunkParms = new ArrayList<Object>(size * idfields.size());
+			for (int x = 0; x < size; x++) {
+				Object key = chunk.get(Math.min(x, chunk.size() - 1));
+				if (idfields.size() == 1)
+					chunkParms.add(key);
+				else {
+					for (int i = 0; i < idfields.size(); i++) {
+						chunkParms.add(((IdKey) key).get(i));
+					}
+				}
+			}
+			PojoQuery<T> pq = new PojoQuery<T>(cls, getIdWhereClause(idfields, size), chunkParms.toArray());
+			pq.securityEnabled = securityEnabled;
+			pq.securityUser = securityUser;
+			pq.schema = schema;
+			for (T obj: pq.executeSelect()) {
+				Object key = getIdKey(obj, idfields);
+				found.put(key, obj);
+				if (cache != null)
+					cache.put(cls, key, obj);
+			}
+		}
+		Map<Object, T> results = new LinkedHashMap<Object, T>();
+		for (Object key: keys) {
+			T obj = found.get(key);
+			if (obj != null)
+				results.put(key, obj);
+		}
+		return results;
+	}
+
+	/**
+	 * Starts an aggregate (sum/avg/min/max/count distinct with optional group by) over the rows matched by this query.
+	 * The where clause, joins and field names are translated the same way as for list()
+	 * <pre>double total = new PojoQuery&lt;Bill&gt;(Bill.class, "where status=?", "OPEN").aggregate().sum("amount").values()[0];</pre>
+	 */
+	public Aggregate<T> aggregate() {
+		return new Aggregate<T>(this);
+	}
+	public double sum(String field) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return aggregate().sum(field).values()[0];
+	}
+	public double avg(String field) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return aggregate().avg(field).values()[0];
+	}
+	public <V> V min(String field, Class<V> type) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return aggregate().min(field).value(0, type);
+	}
+	public <V> V max(String field, Class<V> type) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return aggregate().max(field).value(0, type);
+	}
+	public long countDistinct(String field) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return (long) aggregate().countDistinct(field).values()[0];
+	}
+	// returns the alias.column reference for an aggregated or grouped field after checking the user may select it
+	String getAggregateColumn(String fieldName) throws NoSuchFieldException, NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		Field f = getField(cls, fieldName);
+		DbColumn col = f.getAnnotation(DbColumn.class);
+		if (col == null)
+			throw new NoSuchFieldException(cls.getSimpleName() + "." + fieldName + " does not have a @DbColumn annotation");
+		if (!selectAllowed(f))
+			throw new IllegalAccessException("You don't have rights to select " + cls.getSimpleName() + "." + fieldName);
+		return getTblAlias(cls) + "." + col.value();
+	}
+	Class<?> getFieldType(String fieldName) throws NoSuchFieldException {
+		return getField(cls, fieldName).getType();
+	}
+	// runs the aggregate select built by Aggregate and returns the raw column values of each row
+	List<Object[]> executeAggregate(String select, String groupBy) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		this.aggregateSelect = select;
+		this.aggregateGroupBy = groupBy;
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		sql = createSql(QueryType.aggregate);
+		// the rownum column of a limit() comes before the aggregated columns
+		final int skip = sql.startsWith("SELECT pq_outer.") ? 1 : 0;
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		prepareStatement(sql);
+		setParameters(parms);
+		executeQuery(new RowHandler() {
+			@Override
+			public void handle(java.sql.ResultSet rs) throws SQLException {
+				Object[] row = new Object[rs.getMetaData().getColumnCount() - skip];
+				for (int x = 0; x < row.length; x++) {
+					row[x] = rs.getObject(x + 1 + skip);
+				}
+				rows.add(row);
+			}
+		});
+		phases.lap(Phase.execute);
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.aggregate, start, rows.size(), failed, sql, phases);
+		}
+		return rows;
+	}
+	/**
+	 * Maps the selected fields straight into a record or constructor based DTO without creating the entity. The
+	 * constructor parameters must match the fields of the select clause in order, for example
+	 * <pre>new PojoQuery&lt;User&gt;(User.class, "select id, name where status=?", "A").project(UserName.class)</pre>
+	 * with a <tt>UserName(Long id, String name)</tt> constructor. Fields are still resolved through @DbColumn and
+	 * fields the security user is not allowed to select are passed as null.
+	 */
+	public <R> List<R> project(Class<R> projection) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
+		final List<R> results = new ArrayList<R>();
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		List<Field> fields = getSelectedFieldsInOrder(sql);
+		final Projection<R> p = Projection.get(projection, cls, fields);
+		final boolean[] allowed = new boolean[fields.size()];
+		for (int x = 0; x < allowed.length; x++) {
+			allowed[x] = selectAllowed(fields.get(x));
+		}
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		setStatementFetchSize(getFetchSize(tbl, fields, false));
+		setStatementMaxRows(maxRows);
+		prepareStatement(sql);
+		setParameters(parms);
+		executeQuery(new RowHandler() {
+			private int[] idx;
+			@Override
+			public void handle(java.sql.ResultSet rs) throws SQLException {
+				if (idx == null)
+					idx = p.columnIndexes(rs);
+				results.add(p.newInstance(rs, idx, allowed));
+			}
+		});
+		phases.lap(Phase.execute);
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.select, start, results.size(), failed, sql, phases);
+		}
+		return results;
+	}
+
+	/**
+	 * @return an export that writes the matched rows as CSV or JSON lines without creating entities
+	 */
+	public Export<T> export() {
+		return new Export<T>(this);
+	}
+	// streams the selected columns the user may read to the export writer
+	int executeExport(Export<T> export, Writer out) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		int rows = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		List<Field> fields = new ArrayList<Field>();
+		for (Field f: getSelectedFieldsInOrder(sql)) {
+			if (selectAllowed(f))
+				fields.add(f);
+		}
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		// nothing is kept per row so fetch in batches even when no fetch size is configured
+		setStatementFetchSize(getFetchSize(tbl, fields, true));
+		setStatementMaxRows(maxRows);
+		prepareStatement(sql);
+		setParameters(parms);
+		rows = executeQuery(export.rowHandler(fields, out));
+		phases.lap(Phase.execute);
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.select, start, rows, failed, sql, phases);
+		}
+		return rows;
+	}
 
 	private long executeCount() throws SQLException, NumberFormatException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException, InstantiationException, NamingException, IOException, InvalidParameterException {
 		long ct = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
 		try {
-		String sql = this.obj == null ? createSql(QueryType.count) : createSqlFromObj(QueryType.count);
-		System.out.println("\nPQ QUERY: " + sql);
-		DbTable tbl = cls.getAnnotation(DbTable.class);
-		init(tbl.schema());
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.count) : createSqlFromObj(QueryType.count);
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
 		prepareStatement(sql);
 		setParameters(parms);
 		ResultSet rs = executeQuery();
 		if (rs.next()) {
 			ct = rs.getLong("ct");
 		}
+		phases.lap(Phase.execute);
+		failed = false;
 		} finally {
 			closeQuietly();
+			recordMetrics(tbl, QueryType.count, start, 1, failed, sql, phases);
 		}
 		
 		return ct;
 	}
 	private Collection<T> executeSelect() throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException, InvalidParameterException{
 		Collection<T> coll = new ArrayList<T>();
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
 		try {
-		String sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		phases.lap(Phase.sql);
 
-		System.out.println("\nPQ QUERY: " + sql);
-		DbTable tbl = cls.getAnnotation(DbTable.class);
-		init(tbl.schema());
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		setStatementFetchSize(getFetchSize(tbl, selectedFields, false));
+		setStatementMaxRows(maxRows);
 		prepareStatement(sql);
 		setParameters(parms);
 		ResultSet rs = executeQuery();
-		Set<Field> fields = selectedFields;
+		phases.lap(Phase.execute);
+		RowMapper mapper = new RowMapper();
 		while(rs.next()){
-			T obj = cls.newInstance();
-			for(Field f : fields){
-				DbColumn column = f.getAnnotation(DbColumn.class);
-				if(column != null){
-					Field obj_field = getField(obj.getClass(), f.getName());
-					obj_field.setAccessible(true);
-					Object value = ObjectConverter.convert(rs.getObject(column.value()), f.getType());
-					obj_field.set(obj, value);
+			T obj = mapper.newInstance(rs);
+			if (!joinFields.isEmpty()) {
+				phases.lap(Phase.hydrate);
+				for(String joinField : joinFields){
+					join(obj, joinField);
 				}
-			}
-			for(String joinField : joinFields){
-				join(obj, joinField);
+				phases.lap(Phase.join);
 			}
 			coll.add(obj);
 		}
+		phases.lap(Phase.hydrate);
+		failed = false;
 		} finally {
 			closeQuietly();
+			recordMetrics(tbl, QueryType.select, start, coll.size(), failed, sql, phases);
 		}
 		return coll;
 	}
+	/**
+	 * Runs the query and keeps the rows for random access. Rows are held in memory up to maxMemoryBytes, the rest is
+	 * written to a temp file in the default temp directory and memory mapped. Close the result to delete the file
+	 */
+	public BufferedResult<T> buffered(long maxMemoryBytes) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		return buffered(maxMemoryBytes, null);
+	}
+	/**
+	 * @param directory where the temp file is created, null for java.io.tmpdir
+	 */
+	public BufferedResult<T> buffered(long maxMemoryBytes, File directory) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		BufferedResult<T> result = null;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		final SpillBuffer buffer = new SpillBuffer(maxMemoryBytes, directory);
+		try {
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		// rows are copied out of the cursor one at a time so fetch in batches even when no fetch size is configured
+		setStatementFetchSize(getFetchSize(tbl, selectedFields, true));
+		setStatementMaxRows(maxRows);
+		prepareStatement(sql);
+		setParameters(parms);
+		final List<String> columns = new ArrayList<String>();
+		executeQuery(new RowHandler() {
+			private int count = -1;
+			@Override
+			public void handle(java.sql.ResultSet rs) throws SQLException {
+				if (count < 0) {
+					ResultSetMetaData rsmd = rs.getMetaData();
+					count = rsmd.getColumnCount();
+					for (int x = 1; x <= count; x++) {
+						columns.add(rsmd.getColumnName(x).toUpperCase());
+					}
+				}
+				Object[] values = new Object[count];
+				for (int x = 0; x < count; x++) {
+					values[x] = rs.getObject(x + 1);
+				}
+				try {
+					buffer.add(values);
+				} catch (IOException e) {
+					throw new SQLException("Unable to spill rows to disk: " + e.getMessage(), e);
+				}
+			}
+		});
+		buffer.finish();
+		phases.lap(Phase.execute);
+		result = new BufferedResult<T>(buffer, columns.toArray(new String[columns.size()]), new RowMapper());
+		failed = false;
+		} finally {
+			closeQuietly();
+			if (failed)
+				buffer.close();
+			recordMetrics(tbl, QueryType.select, start, buffer.size(), failed, sql, phases);
+		}
+		return result;
+	}
+
+	// hands each entity of the select to the sink while the cursor is open. used by FanOutQuery. joins run their own
+	// queries, which could wait for a permit of the bulkhead this cursor holds, so entities with joins are read
+	// first and joined after the connection is released
+	int executeStream(final FanOutQuery.Sink<T> sink) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+		final List<T> unjoined = new ArrayList<T>();
+		int rows = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		sql = this.obj == null ? createSql(QueryType.select) : createSqlFromObj(QueryType.select);
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		initRead(getSchema(tbl), getSession());
+		phases.lap(Phase.connect);
+		// nothing is kept per row so fetch in batches even when no fetch size is configured
+		setStatementFetchSize(getFetchSize(tbl, selectedFields, true));
+		setStatementMaxRows(maxRows);
+		prepareStatement(sql);
+		setParameters(parms);
+		final RowMapper mapper = new RowMapper();
+		rows = executeQuery(new RowHandler() {
+			private BufferedResult.Row row;
+			private int count;
+			@Override
+			public void handle(java.sql.ResultSet rs) throws SQLException {
+				if (row == null) {
+					ResultSetMetaData rsmd = rs.getMetaData();
+					count = rsmd.getColumnCount();
+					String[] columns = new String[count];
+					for (int x = 0; x < count; x++) {
+						columns[x] = rsmd.getColumnName(x + 1).toUpperCase();
+					}
+					row = new BufferedResult.Row(columns);
+				}
+				Object[] values = new Object[count];
+				for (int x = 0; x < count; x++) {
+					values[x] = rs.getObject(x + 1);
+				}
+				row.values = values;
+				T obj;
+				try {
+					obj = mapper.newInstance(row);
+				} catch (SQLException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new SQLException("Unable to create " + cls.getSimpleName() + ": " + e.getMessage(), e);
+				}
+				if (joinFields.isEmpty())
+					sink.put(obj);
+				else
+					unjoined.add(obj);
+			}
+		});
+		phases.lap(Phase.execute);
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.select, start, rows, failed, sql, phases);
+		}
+		for (T obj: unjoined) {
+			for (String joinField: joinFields) {
+				join(obj, joinField);
+			}
+			sink.put(obj);
+		}
+		return rows;
+	}
+
+	/**
+	 * Creates entities from the rows of the selected fields. The fields are resolved once per query and the
+	 * generated metadata (or its reflective fallback) populates each row
+	 */
+	final class RowMapper {
+		private final EntityMeta<T> meta = EntityMetas.get(cls);
+		private final List<Field> fields = new ArrayList<Field>();
+		private final int[] metaIdx;
+		private final String[] columns;
+		// polymorphic queries create each row as the subtype named by the discriminator
+		private final Polymorphism.Hydrator<T> hydrator;
+
+		private RowMapper() {
+			for (Field f: selectedFields) {
+				if (f.getAnnotation(DbColumn.class) != null)
+					fields.add(f);
+			}
+			metaIdx = new int[fields.size()];
+			columns = new String[fields.size()];
+			for (int x = 0; x < metaIdx.length; x++) {
+				metaIdx[x] = meta.indexOf(fields.get(x).getName());
+				columns[x] = fields.get(x).getAnnotation(DbColumn.class).value();
+			}
+			Polymorphism<T> poly = Polymorphism.get(cls);
+			hydrator = poly == null ? null : poly.hydrator(fields);
+		}
+		T newInstance(ResultSet rs) throws SQLException, InstantiationException, IllegalAccessException, NoSuchFieldException {
+			if (hydrator != null)
+				return hydrator.newInstance(rs);
+			T obj = meta.newInstance();
+			for (int x = 0; x < metaIdx.length; x++) {
+				Field f = fields.get(x);
+				Object value = ObjectConverter.convert(rs.getObject(columns[x]), f.getType());
+				if (metaIdx[x] >= 0)
+					meta.set(obj, metaIdx[x], value);
+				else {
+					Field obj_field = getField(obj.getClass(), f.getName());
+					obj_field.setAccessible(true);
+					obj_field.set(obj, value);
+				}
+			}
+			return obj;
+		}
+		// the entity of the row including the joins of the select
+		T map(ResultSet rs) throws NamingException, SQLException, IOException, IllegalAccessException, InstantiationException, NoSuchFieldException {
+			T obj = newInstance(rs);
+			for (String joinField: joinFields) {
+				join(obj, joinField);
+			}
+			return obj;
+		}
+	}
+
 	private int executeUpdate(QueryType qt) throws NamingException, SQLException, NumberFormatException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException, InstantiationException, IOException {
 		int numUpdated = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
 		try {
-		String sql = origSql != null ? createSql(qt) : createSqlFromObj(qt);
-		System.out.println("\nPQ QUERY: " + sql);
-		DbTable tbl = cls.getAnnotation(DbTable.class);
-		init(tbl.schema());
+		applyLimits(tbl);
+		sql = origSql != null ? createSql(qt) : createSqlFromObj(qt);
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		init(getSchema(tbl));
+		phases.lap(Phase.connect);
 		// pass ids if qt is insert type so that we can retrieve autonumber/sequence ids with ps.getGeneratedKeys
 		if (QueryType.insert == qt) {
-			Set<Field> seqset = getFieldsWithSequence(cls);
+			// ids already bound (set by the caller or a SequenceAllocator) are not read back
+			List<Field> seqset = new ArrayList<Field>();
+			for (Field f: getFieldsWithSequence(cls)) {
+				f.setAccessible(true);
+				if (!isFieldInitialized(f, f.get(obj)))
+					seqset.add(f);
+			}
 			String[] seqcols = seqset.size() == 0 ? null : new String[seqset.size()];
 			int idx = 0;
 			for (Field f: seqset) {
@@ -336,20 +1048,22 @@ public class PojoQuery<T> extends DB{
 			setParameters(parms);
 			List<Object> keys = executeInsert();
 			numUpdated = 1;
-			idx = 0;
-			for (Field f: seqset) {
-				for (Object key: keys) {
-					f.setAccessible(true);
-					f.set(obj, ObjectConverter.convert(key, f.getType()));
-				}
+			// a single row was inserted so the keys are in the order of the requested columns
+			for (idx = 0; idx < seqset.size() && idx < keys.size(); idx++) {
+				Field f = seqset.get(idx);
+				f.set(obj, ObjectConverter.convert(keys.get(idx), Projection.box(f.getType())));
 			}
 		} else {
 			prepareStatement(sql);
 			setParameters(parms);
 			numUpdated = executeUpdate();
 		}
+		phases.lap(Phase.execute);
+		recordWrite(getSchema(tbl), getSession());
+		failed = false;
 		} finally {
 			closeQuietly();
+			recordMetrics(tbl, qt, start, 0, failed, sql, phases);
 		}
 		return numUpdated;
 	}
@@ -386,10 +1100,15 @@ public class PojoQuery<T> extends DB{
 	// actual update method
 	public int update(Set<Field> fieldsToUpdate) throws NamingException, SQLException, NumberFormatException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException, InstantiationException, IOException {
 		int num_updated = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		StringBuffer sql = null;
+		boolean failed = true;
 		try {
-		DbTable tbl = cls.getAnnotation(DbTable.class);
+		applyLimits(tbl);
 		String tblAlias = getTblAlias(cls);
-		StringBuffer sql = new StringBuffer("update " + tbl.value() + " " + tblAlias + " set ");
+		sql = new StringBuffer("update " + tbl.value() + " " + tblAlias + " set ");
 		List<Object> updateParms = new ArrayList<Object>();
 		Set<Field> updateableFields = new HashSet<Field>();
 		for (Field f: fieldsToUpdate) {
@@ -420,18 +1139,28 @@ public class PojoQuery<T> extends DB{
 				parms.add(idval);
 			}
 			sql.setLength(sql.length()-4);
+			String filter = genDiscriminatorFilter(tblAlias);
+			if (filter != null)
+				sql.append("and " + filter);
 		} 
 		// update using the passed where clause and parms
 		else {
-			sql.append(" " + genJoinAndWhereStmts(cls, this.origSql));
+			sql.append(" " + genJoinAndWhereStmts(cls, addDiscriminatorFilter(this.origSql, tblAlias)));
 		}
-		System.out.println("PQ QUERY: " + sql.toString());
-		init(tbl.schema());
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("PQ QUERY: " + sql.toString());
+		init(getSchema(tbl));
+		phases.lap(Phase.connect);
 		prepareStatement(sql.toString());
 		setParameters(parms);
 		num_updated = executeUpdate();
+		phases.lap(Phase.execute);
+		recordWrite(getSchema(tbl), getSession());
+		failed = false;
 		} finally {
 			closeQuietly();
+			recordMetrics(tbl, QueryType.update, start, 0, failed, sql == null ? null : sql.toString(), phases);
 		}
 		return num_updated;
 	}
@@ -441,14 +1170,363 @@ public class PojoQuery<T> extends DB{
 	public int delete() throws NumberFormatException, IllegalArgumentException, NamingException, SQLException, NoSuchFieldException, IllegalAccessException, InstantiationException, IOException {
 		return executeUpdate(QueryType.delete);
 	}
+	/**
+	 * Inserts the object or updates the row with the same keys in a single statement (merge, insert .. on conflict or
+	 * on duplicate key depending on the database)
+	 * @param keyFields fields that identify the row. Defaults to the @Id fields
+	 * @return 1 when the row was inserted or updated
+	 */
+	public int upsert(String... keyFields) throws NamingException, SQLException, IOException, NoSuchFieldException, IllegalAccessException, InstantiationException {
+		if (obj == null)
+			throw new IllegalArgumentException("upsert() needs an object passed to the PojoQuery constructor. Use upsertAll to write a collection");
+		return executeUpsert(Collections.singletonList(obj), keyFields);
+	}
+	/**
+	 * Upserts the objects with jdbc batches of setBatchSize rows in one transaction. Fields the user may insert are
+	 * written and the ones they may also update are updated when the row exists. All insertable fields are written,
+	 * including nulls. @Id sequences are only used for inserted rows that are not identified by the id
+	 * @param keyFields fields that identify the rows. Defaults to the @Id fields
+	 * @return number of rows inserted or updated
+	 */
+	public int upsertAll(Collection<T> objs, String... keyFields) throws NamingException, SQLException, IOException, NoSuchFieldException, IllegalAccessException, InstantiationException {
+		return executeUpsert(objs, keyFields);
+	}
+	private int executeUpsert(Collection<T> objs, String[] keyFields) throws NamingException, SQLException, IOException, NoSuchFieldException, IllegalAccessException, InstantiationException {
+		if (objs.isEmpty())
+			return 0;
+		if (!insertAllowed())
+			throw new IllegalAccessException("You are not allowed to insert rows into " + cls.getSimpleName());
+		Set<Field> keys = new LinkedHashSet<Field>();
+		if (keyFields.length == 0) {
+			keys = getFieldsWithAnnotation(Id.class, cls);
+		} else {
+			for (String name: keyFields) {
+				Field f = getField(cls, name);
+				if (f.getAnnotation(DbColumn.class) == null)
+					throw new NoSuchFieldException(cls.getSimpleName() + "." + name + " is not a @DbColumn field");
+				keys.add(f);
+			}
+		}
+		if (keys.isEmpty())
+			throw new IllegalArgumentException(cls.getSimpleName() + " has no @Id fields. Pass the fields that identify a row to upsert");
+		int upserted = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		// the statement depends on the dialect so connect first
+		init(getSchema(tbl));
+		phases.lap(Phase.connect);
+		Dialect dialect = getSchema(tbl).getInstance().getDialect();
+		List<Field> bound = new ArrayList<Field>();
+		List<String> columns = new ArrayList<String>();
+		List<String> keyColumns = new ArrayList<String>();
+		List<String> updates = new ArrayList<String>();
+		List<String> seqColumns = new ArrayList<String>();
+		List<String> seqValues = new ArrayList<String>();
+		for (Field f: getFieldsWithAnnotation(DbColumn.class, cls)) {
+			String col = f.getAnnotation(DbColumn.class).value();
+			Id id = f.getAnnotation(Id.class);
+			boolean hasSequence = id != null && !"".equals(id.sequence());
+			if (keys.contains(f)) {
+				if (!hasSequence && !insertFieldAllowed(f))
+					throw new IllegalAccessException("You are not allowed to insert " + cls.getSimpleName() + "." + f.getName());
+				keyColumns.add(col);
+			} else if (hasSequence) {
+				String next = dialect.getNextValue(id.sequence());
+				if (next != null) {
+					seqColumns.add(col);
+					seqValues.add(next);
+				}
+				continue;
+			} else if (!insertFieldAllowed(f)) {
+				// the row could not be inserted with the field so it is left out of both branches
+				continue;
+			} else if (updateAllowed(f)) {
+				updates.add(col);
+			}
+			f.setAccessible(true);
+			bound.add(f);
+			columns.add(col);
+		}
+		sql = dialect.getUpsertStatement(tbl.value(), columns.toArray(new String[columns.size()]), keyColumns.toArray(new String[keyColumns.size()]),
+				updates.toArray(new String[updates.size()]), seqColumns.toArray(new String[seqColumns.size()]), seqValues.toArray(new String[seqValues.size()]));
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		prepareStatement(sql);
+		upserted = executeBatches(objs, bound);
+		phases.lap(Phase.execute);
+		recordWrite(getSchema(tbl), getSession());
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.upsert, start, 0, failed, sql, phases);
+		}
+		return upserted;
+	}
+	/**
+	 * Inserts the objects with jdbc batches of setBatchSize rows in one transaction. Unlike insert() every field the
+	 * user may insert is written, including nulls. Ids of @Id sequences registered with a SequenceAllocator are
+	 * assigned to the objects before the insert. Other sequence ids are taken with nextval and not read back
+	 * @return number of rows inserted
+	 */
+	public int insertAll(Collection<T> objs) throws NamingException, SQLException, IOException, NoSuchFieldException, IllegalAccessException, InstantiationException {
+		if (objs.isEmpty())
+			return 0;
+		if (!insertAllowed())
+			throw new IllegalAccessException("You are not allowed to insert rows into " + cls.getSimpleName());
+		int inserted = 0;
+		DbTable tbl = getDbTable(cls);
+		long start = System.nanoTime();
+		QueryPhases phases = new QueryPhases();
+		String sql = null;
+		boolean failed = true;
+		try {
+		applyLimits(tbl);
+		Dialect dialect = getSchema(tbl).getInstance().getDialect();
+		List<Field> bound = new ArrayList<Field>();
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for (Field f: getFieldsWithAnnotation(DbColumn.class, cls)) {
+			String col = f.getAnnotation(DbColumn.class).value();
+			Id id = f.getAnnotation(Id.class);
+			f.setAccessible(true);
+			if (id != null && !"".equals(id.sequence())) {
+				SequenceAllocator allocator = SequenceAllocator.get(getSchema(tbl), id.sequence());
+				if (allocator == null) {
+					String next = dialect.getNextValue(id.sequence());
+					if (next != null) {
+						columns.append(col + ",");
+						values.append(next + ",");
+					}
+					continue;
+				}
+				assignIds(objs, f, allocator);
+			} else if (!insertFieldAllowed(f)) {
+				continue;
+			}
+			bound.add(f);
+			columns.append(col + ",");
+			values.append("?,");
+		}
+		if (bound.isEmpty())
+			throw new IllegalArgumentException("Nothing to insert");
+		columns.setLength(columns.length() - 1);
+		values.setLength(values.length() - 1);
+		sql = "insert into " + tbl.value() + "(" + columns + ") \nvalues(" + values + ")";
+		phases.lap(Phase.sql);
+		if (isDebug())
+			System.out.println("\nPQ QUERY: " + sql);
+		// connect after the ids are reserved, the allocator takes a connection of its own
+		init(getSchema(tbl));
+		phases.lap(Phase.connect);
+		prepareStatement(sql);
+		inserted = executeBatches(objs, bound);
+		phases.lap(Phase.execute);
+		recordWrite(getSchema(tbl), getSession());
+		failed = false;
+		} finally {
+			closeQuietly();
+			recordMetrics(tbl, QueryType.insert, start, 0, failed, sql, phases);
+		}
+		return inserted;
+	}
+	// gives the objects without an id the next ids of the allocator, reserved in as few round trips as possible
+	private void assignIds(Collection<T> objs, Field f, SequenceAllocator allocator) throws IllegalAccessException, NamingException, SQLException {
+		List<T> missing = new ArrayList<T>();
+		for (T o: objs) {
+			if (!isFieldInitialized(f, f.get(o)))
+				missing.add(o);
+		}
+		if (missing.isEmpty())
+			return;
+		long[] ids = allocator.next(missing.size());
+		Class<?> type = Projection.box(f.getType());
+		for (int x = 0; x < ids.length; x++) {
+			f.set(missing.get(x), ObjectConverter.convert(ids[x], type));
+		}
+	}
+	// binds the fields of each object to the prepared statement and runs the batches in one transaction
+	private int executeBatches(Collection<T> objs, List<Field> bound) throws SQLException, IOException, IllegalAccessException {
+		int rows = 0;
+		boolean committed = false;
+		setAutoCommit(false);
+		try {
+			int pending = 0;
+			for (T o: objs) {
+				List<Object> values = new ArrayList<Object>(bound.size());
+				for (Field f: bound) {
+					values.add(f.get(o));
+				}
+				setParameters(values);
+				addBatch();
+				if (++pending == batchSize) {
+					rows += countRows(executeBatch());
+					pending = 0;
+				}
+			}
+			if (pending > 0)
+				rows += countRows(executeBatch());
+			commit();
+			committed = true;
+		} finally {
+			// whatever failed, the batches sent so far must not be committed when auto commit is turned back on
+			if (!committed) {
+				try {
+					rollback();
+				} catch (SQLException e) {
+					// the original failure is thrown
+				}
+			}
+			setAutoCommit(true);
+		}
+		return rows;
+	}
+	// drivers report 1 per merged row, 2 for a mysql update or SUCCESS_NO_INFO when they don't know
+	private static int countRows(int[] counts) {
+		int rows = 0;
+		for (int ct: counts) {
+			if (ct != 0 && ct != java.sql.Statement.EXECUTE_FAILED)
+				rows++;
+		}
+		return rows;
+	}
+	private void applyLimits(DbTable tbl) {
+		if (deadline != null)
+			activeDeadline = deadline;
+		else if (timeoutMillis >= 0)
+			activeDeadline = Deadline.in(timeoutMillis);
+		else if (tbl != null && tbl.timeout() > 0)
+			activeDeadline = Deadline.in(tbl.timeout() * 1000L);
+		else
+			activeDeadline = null;
+		CancelHandle handle;
+		synchronized (this) {
+			handle = cancelHandle;
+		}
+		setLimits(activeDeadline, handle);
+	}
+	/**
+	 * @return the fetch size of the query, its @DbTable or the global default in that order. An adaptive fetch size
+	 * fills about ADAPTIVE_FETCH_BYTES per round trip with rows of the estimated width of the selected fields. Both are
+	 * capped by the page size of a limit() so the driver does not allocate buffers for rows that never come
+	 * @param adaptive true to size the fetch adaptively when none is configured
+	 */
+	private int getFetchSize(DbTable tbl, Collection<Field> fields, boolean adaptive) {
+		int rows = fetchSize != 0 ? fetchSize : tbl != null && tbl.fetchSize() != 0 ? tbl.fetchSize() : getDefaultFetchSize();
+		if (rows == FETCH_ADAPTIVE || (rows == 0 && adaptive)) {
+			int width = 0;
+			boolean lobs = false;
+			for (Field f: fields) {
+				// the selected fields of a select all include the fields filled by joins
+				if (f.getAnnotation(DbColumn.class) == null)
+					continue;
+				int w = estimateWidth(f.getType());
+				if (w < 0)
+					lobs = true;
+				else
+					width += w;
+			}
+			rows = ADAPTIVE_FETCH_BYTES / Math.max(1, width);
+			// lob locators are fetched with the row and each lob is read with further round trips
+			rows = Math.max(MIN_ADAPTIVE_FETCH, Math.min(rows, lobs ? MAX_LOB_FETCH : MAX_ADAPTIVE_FETCH));
+		}
+		if (rows > 0 && limitRows > 0)
+			rows = Math.min(rows, limitRows);
+		if (rows > 0 && maxRows > 0)
+			rows = Math.min(rows, maxRows);
+		return rows;
+	}
+	private static final int ADAPTIVE_FETCH_BYTES = 256 * 1024;
+	private static final int MIN_ADAPTIVE_FETCH = 10;
+	private static final int MAX_ADAPTIVE_FETCH = 1000;
+	private static final int MAX_LOB_FETCH = 50;
+	// bytes a column of the given type takes in the row buffer of a driver (plus its length/indicator), -1 for lobs
+	private static int estimateWidth(Class<?> type) {
+		if (type.isArray() || Blob.class.isAssignableFrom(type) || Clob.class.isAssignableFrom(type) || InputStream.class.isAssignableFrom(type))
+			return -1;
+		type = Projection.box(type);
+		if (type == Boolean.class || type == Byte.class || type == Short.class || type == Character.class)
+			return 4;
+		else if (type == Integer.class || type == Float.class)
+			return 8;
+		else if (type == Long.class || type == Double.class || java.util.Date.class.isAssignableFrom(type))
+			return 12;
+		else if (Number.class.isAssignableFrom(type))
+			return 26;
+		// strings and anything else: an average varchar
+		return 64;
+	}
+	private DBL getSchema(DbTable tbl) {
+		return schema != null ? schema : tbl.schema();
+	}
+	// session used for the read your writes window of read replicas
+	private Object getSession() {
+		return securityUser != null ? securityUser : Thread.currentThread();
+	}
+	private void recordMetrics(DbTable tbl, QueryType qt, long start, int rows, boolean failed, String sql, QueryPhases phases) {
+		long nanos = System.nanoTime() - start;
+		DBL dbl = tbl == null ? null : getSchema(tbl);
+		PqMetrics.recordQuery(dbl, cls, qt.name(), nanos, rows, failed);
+		SlowQueryLog.getInstance().record(dbl, cls, qt.name(), sql, parms, rows, nanos, phases);
+	}
 	private String getTblAlias(Class<?> cls) throws NoSuchFieldException {
-		DbTable tbl = cls.getAnnotation(DbTable.class);
-		if (tbl == null)
+		Class<?> tblcls = getTableClass(cls);
+		if (tblcls == null)
 			throw new NoSuchFieldException(cls.getSimpleName() + " does not have a @DbTable annotation");
-		String tblalias = tbl.alias().equals("") ? cls.getSimpleName() : tbl.alias();
+		DbTable tbl = tblcls.getAnnotation(DbTable.class);
+		String tblalias = tbl.alias().equals("") ? tblcls.getSimpleName() : tbl.alias();
 		return tblalias;
 	}
+	/**
+	 * @return the class carrying the @DbTable of an entity or null. @Discriminator subtypes without a @DbTable of
+	 * their own use the table of their base class
+	 */
+	static Class<?> getTableClass(Class<?> cls) {
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			if (c.getAnnotation(DbTable.class) != null)
+				return c;
+		}
+		return null;
+	}
+	static DbTable getDbTable(Class<?> cls) {
+		Class<?> tblcls = getTableClass(cls);
+		return tblcls == null ? null : tblcls.getAnnotation(DbTable.class);
+	}
+	// fields declared by an entity and, for subtypes, by the classes up to the one carrying the @DbTable
+	private static Field[] getTableFields(Class<?> cls) {
+		Class<?> tblcls = getTableClass(cls);
+		if (tblcls == null || tblcls == cls)
+			return cls.getDeclaredFields();
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = cls; c != tblcls.getSuperclass(); c = c.getSuperclass()) {
+			fields.addAll(Arrays.asList(c.getDeclaredFields()));
+		}
+		return fields.toArray(new Field[fields.size()]);
+	}
 	
+	// a query on a @Discriminator subtype only matches the rows mapped to the subtype and its subclasses
+	private String genDiscriminatorFilter(String alias) {
+		Polymorphism<?> poly = Polymorphism.ofSubtype(cls);
+		if (poly == null)
+			return null;
+		return (alias == null ? "" : alias + ".") + poly.getColumn() + " in " + poly.getInList(cls);
+	}
+	private String addDiscriminatorFilter(String where, String alias) {
+		String filter = genDiscriminatorFilter(alias);
+		if (filter == null)
+			return where;
+		if (where.trim().length() == 0)
+			return "where " + filter;
+		Matcher m = whereOrderBy.matcher(where);
+		if (!m.matches())
+			throw new IllegalArgumentException("Cannot add the discriminator of " + cls.getSimpleName() + " to " + where);
+		return "where " + filter + " and (" + m.group(1) + ")" + (m.group(2) == null ? "" : m.group(2));
+	}
 	private String getAllJoinStmts() {
 		StringBuffer joins = new StringBuffer();
 		for (String js: joinstmts) {
@@ -458,13 +1536,13 @@ public class PojoQuery<T> extends DB{
 	}
 	private String generateJoinStmt(Class<?> base, Class<?> joincls, JoinTable jt) throws SecurityException, NoSuchFieldException {
 		StringBuffer sql = new StringBuffer();
-		DbTable jointbl = joincls.getAnnotation(DbTable.class);
+		DbTable jointbl = getDbTable(joincls);
 		String joinAlias = (jointbl.alias().length() > 0 ? jointbl.alias() : joincls.getSimpleName());
 		String localAlias = getTblAlias(base);
 		// check for a linking table
 		if (jt.linkingTable().length > 0) {
 			Class<?> linktblcls = jt.linkingTable()[0];
-			DbTable linktbl = linktblcls.getAnnotation(DbTable.class);
+			DbTable linktbl = getDbTable(linktblcls);
 			String linktblAlias = getTblAlias(linktblcls);
 			sql.append("join " + linktbl.value() + " " + linktblAlias + " on ");
 			for (int x=0; x<jt.localFields().length; x++) {
@@ -511,11 +1589,11 @@ public class PojoQuery<T> extends DB{
 			select = genSelectAllStmt();
 		}
 		else {
-		Set<Field> fields = getAllFields(this.cls);
+		Set<Field> fields = getMappedFields();
 		for(Field f : fields){
 			DbColumn col = f.getAnnotation(DbColumn.class);
 			// check if the field is specified in the select query
-			if(col != null){
+			if(col != null && select.indexOf(f.getName()) > -1){
 				Matcher m = Pattern.compile("(" + tblalias + "\\.)?" + f.getName() + "([^(]|$)").matcher(select);
 				//sql = sql.replaceAll(f.getName() + "([^(])", tblalias + "." + col.value() + "$1");
 				while(m.find()) {
@@ -545,15 +1623,24 @@ public class PojoQuery<T> extends DB{
 		
 		if (select.matches(selectAllRegex))
 			select = genSelectAllStmt();
+		// the discriminator decides which subtype each row is created as
+		Polymorphism<T> poly = Polymorphism.get(cls);
+		if (poly != null && !select.matches("(?is).*\\b" + tblalias + "\\.(\\*|" + Pattern.quote(poly.getColumn()) + "\\b).*"))
+			select += ", " + tblalias + "." + poly.getColumn();
 		
 		return select;
 	}
 	private String genSelectAllStmt() throws NoSuchFieldException, IllegalAccessException, NumberFormatException, InstantiationException, SQLException, NamingException, IOException {
 		String tblalias = getTblAlias(cls);
 		StringBuffer sb = new StringBuffer("select ");
-		if (!securityEnabled) {
+		if (!securityEnabled && Polymorphism.get(cls) == null) {
+			// every column of the entity, as listed by its metadata
+			String all = EntityMetas.get(cls).getSelectSql();
+			sb.append(all.substring("select ".length(), all.indexOf(" from ")) + " ");
+			selectedFields = getMappedFields();
+		} else if (!securityEnabled) {
 			sb.append(tblalias + ".* ");
-			selectedFields = getAllFields(this.cls);
+			selectedFields = getMappedFields();
 		} else {
 			Set<Field> selectableFields = getSelectableFields(cls);
 			if (selectableFields.size() == 0) {
@@ -572,13 +1659,19 @@ public class PojoQuery<T> extends DB{
 	}
 	
 	public String genFromStmt() throws NoSuchFieldException {
-		DbTable db = cls.getAnnotation(DbTable.class);
-		return "from " + db.value() + " " + getTblAlias(cls);
+		EntityMeta<T> meta = EntityMetas.get(cls);
+		return "from " + meta.getTable() + " " + meta.getAlias();
 	}
 	public String genJoinAndWhereStmts(Class<?> base, String query) throws NoSuchFieldException{
-		Field[] fields = base.getDeclaredFields();
+		Field[] fields = getTableFields(base);
+		// polymorphic queries translate the fields of the whole hierarchy
+		if (base == cls && Polymorphism.get(cls) != null)
+			fields = getMappedFields().toArray(new Field[0]);
 		String localAlias = getTblAlias(base);
 		for (Field f: fields) {
+			// only fields named in the query are translated
+			if (query.indexOf(f.getName()) < 0)
+				continue;
 			DbColumn col = f.getAnnotation(DbColumn.class);
 			JoinTable jt = f.getAnnotation(JoinTable.class);
 			if (jt != null) {
@@ -607,7 +1700,8 @@ public class PojoQuery<T> extends DB{
 				}
 			} else if (col != null) {
 				List<Integer[]> coords = new ArrayList<Integer[]>(); 
-				String regexPattern = "\\s*(" + f.getName() + ")([ !=<>)]+|$)";
+				// the field must not be part of a longer name or a join path (orders.status)
+				String regexPattern = "(?<![\\w.])(" + f.getName() + ")([ !=<>)]+|$)";
 				Matcher m = Pattern.compile(regexPattern).matcher(query);
 				while (m.find()) {
 					coords.add(new Integer[]{m.start(1),m.end(1)});
@@ -626,11 +1720,11 @@ public class PojoQuery<T> extends DB{
 	
 	private String genOrderBy(String clause) throws NoSuchFieldException {
 		String tblalias = getTblAlias(cls);
-		Set<Field> fields = getAllFields(this.cls);
+		Set<Field> fields = getMappedFields();
 		for(Field f : fields){
 			DbColumn col = f.getAnnotation(DbColumn.class);
 			// check if the field is specified in the select query
-			if(col != null){
+			if(col != null && clause.indexOf(f.getName()) > -1){
 				Matcher m = Pattern.compile("(" + tblalias + "\\.)?" + f.getName() + "([, ]|$)").matcher(clause);
 				//sql = sql.replaceAll(f.getName() + "([^(])", tblalias + "." + col.value() + "$1");
 				while(m.find()) {
@@ -660,12 +1754,51 @@ public class PojoQuery<T> extends DB{
 		}
 		return parameterized_type;
 	}
+	// generates the sql of a query type once for a CompiledQuery. the query must not have parameters of its own
+	CompiledQuery.Plan compile(QueryType qt) throws NumberFormatException, NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException {
+		String sql = createSql(qt);
+		return new CompiledQuery.Plan(qt, sql, selectedFields, joinFields, parms, limitRows);
+	}
+	PojoQuery<T> usePlan(CompiledQuery.Plan plan) {
+		this.plan = plan;
+		return this;
+	}
 	public String getSql(QueryType qt) throws NumberFormatException, NoSuchFieldException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException{
-		String sql = origSql != null ? createSql(qt) : createSqlFromObj(qt);
+		String sql = origSql != null || criteria != null ? createSql(qt) : createSqlFromObj(qt);
 		return sql;
 	}
 
-	private static final Set<Field> getAllFields(Class<?> currcls){
+	// returns the selected @DbColumn fields in the order their columns appear in the generated select statement
+	private List<Field> getSelectedFieldsInOrder(String sql) throws NoSuchFieldException {
+		String tblalias = getTblAlias(cls);
+		final Map<Field, Integer> positions = new HashMap<Field, Integer>();
+		List<Field> fields = new ArrayList<Field>();
+		for (Field f: selectedFields) {
+			DbColumn col = f.getAnnotation(DbColumn.class);
+			if (col != null) {
+				Matcher m = Pattern.compile(Pattern.quote(tblalias + "." + col.value()) + "\\b").matcher(sql);
+				positions.put(f, m.find() ? m.start() : Integer.MAX_VALUE);
+				fields.add(f);
+			}
+		}
+		Collections.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field f1, Field f2) {
+				return positions.get(f1).compareTo(positions.get(f2));
+			}
+		});
+		return fields;
+	}
+	private static final Set<Field> getAllFields(Class<?> cls){
+		Field[] cached = allFields.get(cls);
+		if (cached == null) {
+			Set<Field> found = findAllFields(cls);
+			cached = found.toArray(new Field[found.size()]);
+			allFields.putIfAbsent(cls, cached);
+		}
+		return new LinkedHashSet<Field>(Arrays.asList(cached));
+	}
+	private static Set<Field> findAllFields(Class<?> currcls){
 		Set<Field> fields = new LinkedHashSet<Field>();
 		Field[] farr = currcls.getDeclaredFields();
 		for(int x = 0; x < farr.length; x++){
@@ -681,6 +1814,14 @@ public class PojoQuery<T> extends DB{
 		}
 		return fields;
 	}
+	// fields of the queried class and its super classes plus the fields of the subtypes mapped by its @Discriminator
+	private Set<Field> getMappedFields() {
+		Set<Field> fields = getAllFields(this.cls);
+		Polymorphism<T> poly = Polymorphism.get(cls);
+		if (poly != null)
+			fields.addAll(poly.getSubtypeFields());
+		return fields;
+	}
 	private static final <A extends Annotation>Set<Field> getFieldsWithAnnotation(Class<A> annotation, Class<?> cls){
 		Set<Field> fieldset = new LinkedHashSet<Field>();
 		Set<Field> fields = getAllFields(cls);
@@ -702,7 +1843,10 @@ public class PojoQuery<T> extends DB{
 	}
 	private Set<Field> getSelectableFields(Class<?> cls) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
 		Set<Field> fieldset = new LinkedHashSet<Field>();
-		Field[] fields = cls.getDeclaredFields();
+		List<Field> fields = new ArrayList<Field>(Arrays.asList(getTableFields(cls)));
+		Polymorphism<?> poly = Polymorphism.get(cls);
+		if (poly != null)
+			fields.addAll(poly.getSubtypeFields());
 		for (Field f: fields) {
 			if (selectAllowed(f)) {
 				if (!Byte[].class.isAssignableFrom(f.getType()))
@@ -742,85 +1886,67 @@ public class PojoQuery<T> extends DB{
 			return val != null;
 	}
 	private boolean insertAllowed() throws IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		if (!securityEnabled)
-			return true;
-		else {
-			String security = getClassSecurity();
-			return security.matches("^1\\d$");
-		}
+		return !securityEnabled || (getClassRights() & 2) != 0;
 	}
 	private boolean deleteAllowed() throws IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		if (!securityEnabled)
-			return true;
-		else {
-			String security = getClassSecurity();
-			return security.matches("^\\d1$");
-		}
+		return !securityEnabled || (getClassRights() & 1) != 0;
 	}
 	private boolean updateAllowed(Field f) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		if (!securityEnabled)
-			return true;
-		else {
-			String security = getFieldSecurity(f);
-			return security.matches("^\\d1\\d$");
-		}
+		return !securityEnabled || (getFieldRights(f) & 2) != 0;
 	}
 	private boolean insertFieldAllowed(Field f) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		if (!securityEnabled)
-			return true;
-		else {
-			String security = getFieldSecurity(f);
-			return security.matches("^\\d\\d1$");
-		}
+		return !securityEnabled || (getFieldRights(f) & 1) != 0;
 	}
 	private boolean selectAllowed(Field f) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		if (!securityEnabled)
-			return true;
-		else {
-			String security = getFieldSecurity(f);
-			return security.matches("^1\\d\\d$");
+		return !securityEnabled || (getFieldRights(f) & 4) != 0;
+	}
+	// select/update/insert rights of the security user as 4/2/1
+	private int getFieldRights(Field f) {
+		SecurityDescriptor sd = getSecurityDescriptor(f);
+		return sd == null ? 0 : sd.getRights(securityUser);
+	}
+	// insert/delete rights of the security user as 2/1
+	private int getClassRights() {
+		SecurityDescriptor sd = EntityMetas.get(cls).getTableSecurity();
+		return sd == null ? 0 : sd.getRights(securityUser);
+	}
+	// the @PojoSecurity of a field as parsed once by the entity metadata
+	private SecurityDescriptor getSecurityDescriptor(Field f) {
+		Class<?> owner = f.getDeclaringClass();
+		if (owner.isAssignableFrom(cls) || cls.isAssignableFrom(owner)) {
+			Class<?> entity = owner.isAssignableFrom(cls) ? cls : owner;
+			EntityMeta<?> meta = EntityMetas.get(entity);
+			int idx = meta.indexOf(f.getName());
+			if (idx >= 0)
+				return meta.getFieldSecurity(idx);
 		}
+		// join fields are not part of the metadata
+		SecurityDescriptor sd = otherFieldSecurity.get(f);
+		if (sd == null) {
+			sd = SecurityDescriptor.of(f.getAnnotation(PojoSecurity.class));
+			if (sd == null)
+				sd = NO_SECURITY;
+			otherFieldSecurity.putIfAbsent(f, sd);
+		}
+		return sd == NO_SECURITY ? null : sd;
 	}
 	private String getFieldSecurity(Field f) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
-		int gssu = 0;
-		int essu = 0;
-		// setup field security (select, update, insert)
-		PojoSecurity pjs = f.getAnnotation(PojoSecurity.class);
-		if(pjs != null){
-			if(securityUser != null){
-				for(int x = 0; x < pjs.groups().length; x++){
-					if(securityUser.isInGroup(pjs.groups()[x])){
-						gssu = gssu | Integer.parseInt(pjs.groupsecurity()[x], 2);
-					}
-				}
-			}
-			essu = Integer.parseInt(pjs.everyone(), 2);
-		}
-		String retstr = String.format("%03d", Integer.parseInt(Integer.toString(gssu | essu, 2)));
-		return retstr;
+		return toBits(getFieldRights(f), 3);
 	}
 	private String getClassSecurity() throws IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException{
-		int gsid = 0;
-		int esid = 0;
-		PojoSecurity tblsec = cls.getAnnotation(PojoSecurity.class);
-		// setup insert/delete rights based on GroupSecurity and TblSessionSecurity annotations
-		if(tblsec != null){
-			// Insert-Delete
-			for(int x = 0; x < tblsec.groups().length; x++){
-				if(securityUser != null && securityUser.isInGroup(tblsec.groups()[x])){
-					gsid = gsid | Integer.parseInt(tblsec.groupsecurity()[x], 2);
-				}
-			}
-			esid = Integer.parseInt(tblsec.everyone(), 2);
-			// if (securityUser != null)
-			// ssid = ssid | Integer.parseInt(tblss.owner(),2);
+		return toBits(getClassRights(), 2);
+	}
+	private static String toBits(int rights, int width) {
+		String bits = Integer.toBinaryString(rights);
+		while (bits.length() < width) {
+			bits = "0" + bits;
 		}
-		return String.format("%02d", Integer.parseInt(Integer.toString(gsid | esid, 2)));
+		return bits;
 	}
 	
 	public Set<DBField> getFieldObjects(PqUser u) throws IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException{
 		Set<DBField> fields = new HashSet<DBField>();
-		Field[] pfields = cls.getDeclaredFields();
+		Field[] pfields = getTableFields(cls);
 		for(Field f : pfields){
 			DBField result = getFieldObject(u, f.getName());
 			if(result != null){
@@ -916,10 +2042,84 @@ public class PojoQuery<T> extends DB{
 		}
 		return ids;
 	}
+	// where clauses used by getAll, one per id field list and chunk size
+	private static final Map<String, String> idWhereClauses = new ConcurrentHashMap<String, String>();
+	private static String getIdWhereClause(List<Field> idfields, int size) {
+		String cachekey = idfields.get(0).getDeclaringClass().getName() + "." + idfields.get(0).getName() + ":" + idfields.size() + ":" + size;
+		String where = idWhereClauses.get(cachekey);
+		if (where == null) {
+			StringBuilder sb = new StringBuilder("where ");
+			if (idfields.size() == 1) {
+				sb.append(idfields.get(0).getName() + " in (");
+				for (int x = 0; x < size; x++) {
+					sb.append(x == 0 ? "?" : ",?");
+				}
+				sb.append(")");
+			} else {
+				for (int x = 0; x < size; x++) {
+					sb.append(x == 0 ? "(" : " or (");
+					for (int i = 0; i < idfields.size(); i++) {
+						if (i > 0)
+							sb.append(" and ");
+						sb.append(idfields.get(i).getName() + "=?");
+					}
+					sb.append(")");
+				}
+			}
+			where = sb.toString();
+			idWhereClauses.put(cachekey, where);
+		}
+		return where;
+	}
+	// converts an id passed to getAll to the key used in its result map
+	private static Object toIdKey(Object id, List<Field> idfields) {
+		if (idfields.size() == 1) {
+			Object key = ObjectConverter.convert(id, Projection.box(idfields.get(0).getType()));
+			if (key == null)
+				throw new IllegalArgumentException("Id values cannot be null");
+			return key;
+		}
+		Object[] values;
+		if (id instanceof IdKey) {
+			values = new Object[((IdKey) id).size()];
+			for (int x = 0; x < values.length; x++) {
+				values[x] = ((IdKey) id).get(x);
+			}
+		} else if (id instanceof Object[])
+			values = ((Object[]) id).clone();
+		else if (id instanceof List)
+			values = ((List<?>) id).toArray();
+		else
+			throw new IllegalArgumentException("Ids of entities with more than one @Id field must be passed as IdKey, Object[] or List values");
+		if (values.length != idfields.size())
+			throw new IllegalArgumentException("Expected " + idfields.size() + " id values but got " + values.length);
+		for (int x = 0; x < values.length; x++) {
+			values[x] = ObjectConverter.convert(values[x], Projection.box(idfields.get(x).getType()));
+			if (values[x] == null)
+				throw new IllegalArgumentException("Id values cannot be null");
+		}
+		return IdKey.wrap(values);
+	}
+	// results keyed by id would get null keys for ids the user may not select
+	private void checkIdsSelectable(List<Field> idfields) throws NumberFormatException, IllegalAccessException, InstantiationException, SQLException, NamingException, IOException, NoSuchFieldException {
+		for (Field f: idfields) {
+			if (!selectAllowed(f))
+				throw new IllegalAccessException("You don't have rights to select " + cls.getSimpleName() + "." + f.getName() + ", which the results are keyed by");
+		}
+	}
+	private static Object getIdKey(Object obj, List<Field> idfields) throws IllegalAccessException {
+		if (idfields.size() == 1)
+			return idfields.get(0).get(obj);
+		Object[] values = new Object[idfields.size()];
+		for (int x = 0; x < values.length; x++) {
+			values[x] = idfields.get(x).get(obj);
+		}
+		return IdKey.wrap(values);
+	}
 	protected PojoQuery<T> addLinkingTblJoin(JoinTable jt) throws NoSuchFieldException {
 		StringBuffer join = new StringBuffer("join ");
 		Class<?> linkTblCls = jt.linkingTable()[0];
-		DbTable linkTbl = linkTblCls.getAnnotation(DbTable.class);
+		DbTable linkTbl = getDbTable(linkTblCls);
 		String linkTblAlias = getTblAlias(linkTblCls);
 		String joinTblAlias = getTblAlias(this.cls);
 		join.append(linkTbl.value() + " " + linkTblAlias +" on "); 
@@ -992,6 +2192,15 @@ public class PojoQuery<T> extends DB{
 		if (jt.linkingTable().length > 0) {
 			jpq.addLinkingTblJoin(jt);
 		}
+		// joined tables that live next to the table of this query are read from the same schema
+		DbTable jointbl = getDbTable(joincls);
+		if (schema != null && jointbl != null && jointbl.schema() == getDbTable(cls).schema())
+			jpq.schema = schema;
+		// joined queries share the time budget and cancel handle of this query
+		jpq.deadline = activeDeadline;
+		synchronized (this) {
+			jpq.cancelHandle = cancelHandle;
+		}
 		// setup security for the join
 		if (!securityEnabled)
 			jpq.disableSecurity();
@@ -0,0 +1,213 @@
+package dbutil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.Discriminator;
+import dbutil.annotations.DiscriminatorMap;
+
+/**
+ * Single table inheritance for a @DbTable class annotated with @Discriminator. A query on the base class selects the
+ * columns of every mapped subtype and creates each row as the subtype named by its discriminator column:
+ * <pre>
+ * &#64;DbTable(value="PERMIT", alias="p")
+ * &#64;Discriminator(column="PERMIT_TYPE", value={
+ *     &#64;DiscriminatorMap(value="B", relatedClass=BuildingPermit.class),
+ *     &#64;DiscriminatorMap(value="E", relatedClass=ElectricalPermit.class)})
+ * public class Permit { ... }
+ *
+ * // one scan returns BuildingPermit and ElectricalPermit objects. subtype fields can be used in the where clause
+ * List&lt;Permit&gt; permits = new PojoQuery&lt;Permit&gt;(Permit.class, "where issued &gt; ? or amps &gt; 200", date).list();
+ * </pre>
+ * Subtypes extend the base class and don't need a @DbTable annotation of their own. A query on a subtype reads the
+ * table of the base class and only matches the rows whose discriminator is mapped to the subtype or its subclasses.
+ */
+@SuppressWarnings({"unchecked"})
+final class Polymorphism<T> {
+	private static final ConcurrentMap<Class<?>, Polymorphism<?>> cache = new ConcurrentHashMap<Class<?>, Polymorphism<?>>();
+	private static final Polymorphism<?> NONE = new Polymorphism<Object>();
+	private final Class<T> base;
+	private final String column;
+	private final Map<String, Class<? extends T>> subtypes;
+	// @DbColumn fields declared by the subtypes, one per column
+	private final List<Field> subtypeFields;
+	// sql in lists of the discriminator values of each queried subtype
+	private final ConcurrentMap<Class<?>, String> inLists = new ConcurrentHashMap<Class<?>, String>();
+
+	private Polymorphism() {
+		base = null;
+		column = null;
+		subtypes = null;
+		subtypeFields = null;
+	}
+	private Polymorphism(Class<T> base, Discriminator d) {
+		this.base = base;
+		this.column = d.column();
+		Map<String, Class<? extends T>> map = new LinkedHashMap<String, Class<? extends T>>();
+		Set<String> columns = new HashSet<String>();
+		for (Class<?> c = base; c != null; c = c.getSuperclass()) {
+			for (Field f: c.getDeclaredFields()) {
+				DbColumn col = f.getAnnotation(DbColumn.class);
+				if (col != null)
+					columns.add(col.value().toUpperCase());
+			}
+		}
+		List<Field> fields = new ArrayList<Field>();
+		for (DiscriminatorMap dm: d.value()) {
+			Class<?> sub = dm.relatedClass();
+			if (!base.isAssignableFrom(sub))
+				throw new IllegalArgumentException(sub.getName() + " is mapped by the @Discriminator of " + base.getName() + " but does not extend it");
+			map.put(dm.value(), (Class<? extends T>) sub);
+			for (Class<?> c = sub; c != base && c != null; c = c.getSuperclass()) {
+				for (Field f: c.getDeclaredFields()) {
+					DbColumn col = f.getAnnotation(DbColumn.class);
+					if (col != null && columns.add(col.value().toUpperCase()))
+						fields.add(f);
+				}
+			}
+		}
+		subtypes = Collections.unmodifiableMap(map);
+		subtypeFields = Collections.unmodifiableList(fields);
+	}
+
+	/**
+	 * @return the inheritance mapping of the class or null if it is not annotated with @Discriminator
+	 */
+	static <T> Polymorphism<T> get(Class<T> base) {
+		Polymorphism<?> p = cache.get(base);
+		if (p == null) {
+			Discriminator d = base.getAnnotation(Discriminator.class);
+			p = d == null ? NONE : new Polymorphism<T>(base, d);
+			cache.putIfAbsent(base, p);
+		}
+		return p == NONE ? null : (Polymorphism<T>) p;
+	}
+
+	/**
+	 * @return the inheritance mapping of the table a subtype is stored in or null if cls is not a subtype of a class
+	 * annotated with @Discriminator
+	 */
+	static Polymorphism<?> ofSubtype(Class<?> cls) {
+		Class<?> tblcls = PojoQuery.getTableClass(cls);
+		return tblcls == null || tblcls == cls ? null : get(tblcls);
+	}
+
+	String getColumn() {
+		return column;
+	}
+	Map<String, Class<? extends T>> getSubtypes() {
+		return subtypes;
+	}
+	List<Field> getSubtypeFields() {
+		return subtypeFields;
+	}
+	/**
+	 * @return the discriminator values mapped to the subtype and its subclasses as an sql in list, for example ('B','C')
+	 */
+	String getInList(Class<?> subtype) {
+		String in = inLists.get(subtype);
+		if (in == null) {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Class<? extends T>> e: subtypes.entrySet()) {
+				if (subtype.isAssignableFrom(e.getValue()))
+					sb.append(sb.length() == 0 ? "('" : ",'").append(e.getKey().replace("'", "''")).append("'");
+			}
+			if (sb.length() == 0)
+				throw new IllegalArgumentException(subtype.getName() + " is not mapped by the @Discriminator of " + base.getName());
+			in = sb.append(")").toString();
+			inLists.putIfAbsent(subtype, in);
+		}
+		return in;
+	}
+
+	/**
+	 * Resolves the selected fields against every subtype once so rows are populated without further lookups
+	 * @param fields selected @DbColumn fields of the base class and the subtypes
+	 */
+	Hydrator<T> hydrator(List<Field> fields) {
+		return new Hydrator<T>(this, fields);
+	}
+
+	/**
+	 * Creates the rows of one query. Each subtype only reads the selected columns of its own fields
+	 */
+	static final class Hydrator<T> {
+		private final String column;
+		private final Field[] fields;
+		private final String[] columns;
+		private final Map<String, Target<? extends T>> targets = new HashMap<String, Target<? extends T>>();
+		// used for discriminator values that are not mapped, null when the base class is abstract
+		private final Target<T> fallback;
+
+		private Hydrator(Polymorphism<T> p, List<Field> selected) {
+			column = p.column;
+			fields = selected.toArray(new Field[selected.size()]);
+			columns = new String[fields.length];
+			for (int x = 0; x < fields.length; x++) {
+				columns[x] = fields[x].getAnnotation(DbColumn.class).value();
+			}
+			for (Map.Entry<String, Class<? extends T>> e: p.subtypes.entrySet()) {
+				targets.put(e.getKey(), target(e.getValue()));
+			}
+			fallback = Modifier.isAbstract(p.base.getModifiers()) ? null : target(p.base);
+		}
+		private <S extends T> Target<S> target(Class<S> cls) {
+			return new Target<S>(EntityMetas.get(cls), fields);
+		}
+
+		T newInstance(ResultSet rs) throws SQLException, InstantiationException, IllegalAccessException {
+			Object value = rs.getObject(column);
+			Target<? extends T> target = targets.get(value == null ? null : value.toString().trim());
+			if (target == null)
+				target = fallback;
+			if (target == null)
+				throw new SQLException("Discriminator " + column + "=" + value + " is not mapped to a subtype");
+			return target.newInstance(rs, fields, columns);
+		}
+	}
+
+	// the fields of one subtype. index -1 is set by reflection and -2 belongs to another subtype and is not read
+	private static final class Target<S> {
+		private final EntityMeta<S> meta;
+		private final int[] idx;
+
+		Target(EntityMeta<S> meta, Field[] fields) {
+			this.meta = meta;
+			idx = new int[fields.length];
+			for (int x = 0; x < fields.length; x++) {
+				if (!fields[x].getDeclaringClass().isAssignableFrom(meta.getEntityClass()))
+					idx[x] = -2;
+				else {
+					idx[x] = meta.indexOf(fields[x].getName());
+					if (idx[x] < 0)
+						fields[x].setAccessible(true);
+				}
+			}
+		}
+		S newInstance(ResultSet rs, Field[] fields, String[] columns) throws SQLException, InstantiationException, IllegalAccessException {
+			S obj = meta.newInstance();
+			for (int x = 0; x < idx.length; x++) {
+				if (idx[x] == -2)
+					continue;
+				Object value = ObjectConverter.convert(rs.getObject(columns[x]), fields[x].getType());
+				if (idx[x] >= 0)
+					meta.set(obj, idx[x], value);
+				else
+					fields[x].set(obj, value);
+			}
+			return obj;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package dbutil;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dbutil.annotations.DbColumn;
+
+/**
+ * Maps selected columns of an entity query straight into the constructor of a record or DTO.
+ * The constructor is resolved once per (projection class, entity class, selected fields) and cached.
+ */
+@SuppressWarnings({"unchecked"})
+final class Projection<R> {
+	private static final ConcurrentMap<String, Projection<?>> cache = new ConcurrentHashMap<String, Projection<?>>();
+	private final Constructor<R> constructor;
+	// boxed parameter types used for conversion
+	private final Class<?>[] types;
+	// default values passed for primitive parameters when the column is null or not selectable
+	private final Object[] defaults;
+	private final String[] columns;
+
+	private Projection(Constructor<R> constructor, String[] columns) {
+		this.constructor = constructor;
+		this.columns = columns;
+		Class<?>[] params = constructor.getParameterTypes();
+		types = new Class<?>[params.length];
+		defaults = new Object[params.length];
+		for (int x = 0; x < params.length; x++) {
+			types[x] = box(params[x]);
+			if (params[x].isPrimitive())
+				defaults[x] = Array.get(Array.newInstance(params[x], 1), 0);
+		}
+		constructor.setAccessible(true);
+	}
+
+	static <R> Projection<R> get(Class<R> projection, Class<?> entity, List<Field> fields) {
+		StringBuilder key = new StringBuilder(projection.getName()).append('|').append(entity.getName());
+		for (Field f: fields) {
+			key.append('|').append(f.getName());
+		}
+		Projection<R> p = (Projection<R>) cache.get(key.toString());
+		if (p == null) {
+			String[] columns = new String[fields.size()];
+			for (int x = 0; x < columns.length; x++) {
+				columns[x] = fields.get(x).getAnnotation(DbColumn.class).value();
+			}
+			p = new Projection<R>(findConstructor(projection, fields), columns);
+			cache.putIfAbsent(key.toString(), p);
+		}
+		return p;
+	}
+
+	/**
+	 * @return the jdbc column index of every constructor parameter
+	 */
+	int[] columnIndexes(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int[] idx = new int[columns.length];
+		for (int x = 0; x < columns.length; x++) {
+			for (int c = 1; c <= rsmd.getColumnCount(); c++) {
+				if (columns[x].equalsIgnoreCase(rsmd.getColumnLabel(c)) || columns[x].equalsIgnoreCase(rsmd.getColumnName(c))) {
+					idx[x] = c;
+					break;
+				}
+			}
+			if (idx[x] == 0)
+				throw new SQLException("Column " + columns[x] + " was not returned by the query");
+		}
+		return idx;
+	}
+	/**
+	 * @param allowed false for parameters whose field the user is not allowed to select. They are passed as null/default
+	 */
+	R newInstance(ResultSet rs, int[] idx, boolean[] allowed) throws SQLException {
+		Object[] args = new Object[types.length];
+		for (int x = 0; x < args.length; x++) {
+			Object value = allowed[x] ? ObjectConverter.convert(rs.getObject(idx[x]), types[x]) : null;
+			args[x] = value == null ? defaults[x] : value;
+		}
+		try {
+			return constructor.newInstance(args);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to create " + constructor.getDeclaringClass().getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static <R> Constructor<R> findConstructor(Class<R> projection, List<Field> fields) {
+		Constructor<R> match = null;
+		for (Constructor<?> c: projection.getDeclaredConstructors()) {
+			Class<?>[] params = c.getParameterTypes();
+			if (params.length != fields.size())
+				continue;
+			boolean assignable = true;
+			boolean exact = true;
+			for (int x = 0; x < params.length && assignable; x++) {
+				Class<?> ftype = box(fields.get(x).getType());
+				Class<?> ptype = box(params[x]);
+				assignable = ptype.isAssignableFrom(ftype);
+				exact = exact && ptype == ftype;
+			}
+			if (assignable) {
+				match = (Constructor<R>) c;
+				if (exact)
+					break;
+			}
+		}
+		if (match == null) {
+			StringBuilder sig = new StringBuilder();
+			for (Field f: fields) {
+				if (sig.length() > 0)
+					sig.append(", ");
+				sig.append(f.getType().getSimpleName() + " " + f.getName());
+			}
+			throw new IllegalArgumentException(projection.getName() + " needs a constructor matching the selected fields (" + sig + ")");
+		}
+		return match;
+	}
+	static Class<?> box(Class<?> type) {
+		if (!type.isPrimitive())
+			return type;
+		else if (type == int.class)
+			return Integer.class;
+		else if (type == long.class)
+			return Long.class;
+		else if (type == double.class)
+			return Double.class;
+		else if (type == boolean.class)
+			return Boolean.class;
+		else if (type == float.class)
+			return Float.class;
+		else if (type == short.class)
+			return Short.class;
+		else if (type == byte.class)
+			return Byte.class;
+		else if (type == char.class)
+			return Character.class;
+		else
+			return Void.class;
+	}
+}
@@ -0,0 +1,178 @@
+package dbutil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * {@link EntityMeta} built with reflection for entities that were not run through the annotation processor
+ */
+final class ReflectiveEntityMeta<T> implements EntityMeta<T> {
+	private final Class<T> cls;
+	private final String table;
+	private final String alias;
+	private final Field[] fields;
+	private final String[] names;
+	private final String[] columns;
+	private final Class<?>[] types;
+	private final int[] ids;
+	private final String[] sql;
+	private final SecurityDescriptor tableSecurity;
+	private final SecurityDescriptor[] fieldSecurity;
+	// no argument constructor, null when the entity does not have one
+	private final Constructor<T> constructor;
+
+	ReflectiveEntityMeta(Class<T> cls) {
+		this.cls = cls;
+		// subtypes mapped by a @Discriminator use the table of the base class
+		Class<?> tblcls = cls;
+		while (tblcls != null && tblcls.getAnnotation(DbTable.class) == null) {
+			tblcls = tblcls.getSuperclass();
+		}
+		if (tblcls == null)
+			throw new IllegalArgumentException(cls.getName() + " does not have a @DbTable annotation");
+		DbTable tbl = tblcls.getAnnotation(DbTable.class);
+		table = tbl.value();
+		alias = tbl.alias().equals("") ? tblcls.getSimpleName() : tbl.alias();
+		List<Field> found = new ArrayList<Field>();
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			for (Field f: c.getDeclaredFields()) {
+				if (f.getAnnotation(DbColumn.class) != null) {
+					f.setAccessible(true);
+					found.add(f);
+				}
+			}
+		}
+		fields = found.toArray(new Field[found.size()]);
+		names = new String[fields.length];
+		columns = new String[fields.length];
+		types = new Class<?>[fields.length];
+		fieldSecurity = new SecurityDescriptor[fields.length];
+		String[] sequences = new String[fields.length];
+		List<Integer> idlist = new ArrayList<Integer>();
+		for (int x = 0; x < fields.length; x++) {
+			names[x] = fields[x].getName();
+			columns[x] = fields[x].getAnnotation(DbColumn.class).value();
+			types[x] = fields[x].getType();
+			fieldSecurity[x] = SecurityDescriptor.of(fields[x].getAnnotation(PojoSecurity.class));
+			Id id = fields[x].getAnnotation(Id.class);
+			sequences[x] = id == null ? "" : id.sequence();
+			if (id != null)
+				idlist.add(x);
+		}
+		ids = new int[idlist.size()];
+		for (int x = 0; x < ids.length; x++) {
+			ids[x] = idlist.get(x);
+		}
+		// subtypes without a class level @PojoSecurity have the rights of the table
+		PojoSecurity pjs = cls.getAnnotation(PojoSecurity.class);
+		tableSecurity = SecurityDescriptor.of(pjs == null ? tblcls.getAnnotation(PojoSecurity.class) : pjs);
+		sql = EntityMetas.buildSql(table, alias, columns, ids, sequences);
+		Constructor<T> c = null;
+		try {
+			c = cls.getDeclaredConstructor();
+		} catch (NoSuchMethodException e) {
+			// newInstance fails when it is called
+		}
+		constructor = c;
+	}
+
+	@Override
+	public Class<T> getEntityClass() {
+		return cls;
+	}
+	@Override
+	public String getTable() {
+		return table;
+	}
+	@Override
+	public String getAlias() {
+		return alias;
+	}
+	@Override
+	public String[] getFieldNames() {
+		return names.clone();
+	}
+	@Override
+	public String[] getColumns() {
+		return columns.clone();
+	}
+	@Override
+	public Class<?>[] getFieldTypes() {
+		return types.clone();
+	}
+	@Override
+	public int[] getIdIndexes() {
+		return ids.clone();
+	}
+	@Override
+	public int indexOf(String fieldName) {
+		for (int x = 0; x < names.length; x++) {
+			if (names[x].equals(fieldName))
+				return x;
+		}
+		return -1;
+	}
+	@Override
+	public boolean isGenerated() {
+		return false;
+	}
+	@Override
+	public T newInstance() throws InstantiationException, IllegalAccessException {
+		if (constructor == null)
+			throw new InstantiationException(cls.getName() + " does not have a no argument constructor");
+		try {
+			return constructor.newInstance();
+		} catch (InvocationTargetException e) {
+			// exceptions of the constructor itself are thrown unwrapped like Class.newInstance did
+			Throwable t = e.getCause();
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			InstantiationException ie = new InstantiationException(cls.getName() + " could not be created: " + t);
+			ie.initCause(t);
+			throw ie;
+		}
+	}
+	@Override
+	public Object get(T obj, int idx) throws IllegalAccessException {
+		return fields[idx].get(obj);
+	}
+	@Override
+	public void set(T obj, int idx, Object value) throws IllegalAccessException {
+		if (value != null || !types[idx].isPrimitive())
+			fields[idx].set(obj, value);
+	}
+	@Override
+	public String getSelectSql() {
+		return sql[0];
+	}
+	@Override
+	public String getInsertSql() {
+		return sql[1];
+	}
+	@Override
+	public String getUpdateSql() {
+		return sql[2];
+	}
+	@Override
+	public String getDeleteSql() {
+		return sql[3];
+	}
+	@Override
+	public SecurityDescriptor getTableSecurity() {
+		return tableSecurity;
+	}
+	@Override
+	public SecurityDescriptor getFieldSecurity(int idx) {
+		return fieldSecurity[idx];
+	}
+}
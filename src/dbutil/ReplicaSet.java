@@ -0,0 +1,138 @@
+package dbutil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * Read replicas of a {@link DBInstance}. PojoQuery reads (list, single, set, map, count, exists, aggregates and
+ * projections) that do not run in a transaction take their connection from a replica, writes and transactional
+ * reads stay on the primary.
+ * <p>With a read your writes window a session that wrote to the primary keeps reading from the primary until the
+ * window has passed so it sees its own changes despite replication lag. The session is the security user of the
+ * query or the current thread when there is none.
+ * <pre>
+ * DBInstance db = DBL.QUIZ.getInstance();
+ * db.getReplicas().add(replicaDs1).add(replicaDs2).setBalance(ReplicaSet.Balance.LEAST_IN_FLIGHT).setReadYourWritesMillis(2000);
+ * </pre>
+ */
+public final class ReplicaSet {
+	public static enum Balance { ROUND_ROBIN, LEAST_IN_FLIGHT };
+
+	private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile Balance balance = Balance.ROUND_ROBIN;
+	private volatile long readYourWritesNanos = 0;
+	// last write per session. weak keys so sessions that are gone don't keep entries alive
+	private final Map<Object, Long> lastWrites = Collections.synchronizedMap(new WeakHashMap<Object, Long>());
+
+	ReplicaSet() { }
+
+	public ReplicaSet add(DataSource dataSource) {
+		replicas.add(new Replica(dataSource, replicas.size()));
+		return this;
+	}
+	public void clear() {
+		replicas.clear();
+	}
+	public int size() {
+		return replicas.size();
+	}
+	public boolean isEmpty() {
+		return replicas.isEmpty();
+	}
+	public ReplicaSet setBalance(Balance balance) {
+		this.balance = balance;
+		return this;
+	}
+	public Balance getBalance() {
+		return balance;
+	}
+	/**
+	 * @param millis how long a session reads from the primary after it wrote. 0 (the default) turns it off
+	 */
+	public ReplicaSet setReadYourWritesMillis(long millis) {
+		this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+		return this;
+	}
+	public long getReadYourWritesMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(readYourWritesNanos);
+	}
+	/**
+	 * @return the number of connections currently open on each replica
+	 */
+	public int[] getInFlight() {
+		Replica[] r = replicas.toArray(new Replica[0]);
+		int[] inFlight = new int[r.length];
+		for (int x = 0; x < r.length; x++) {
+			inFlight[x] = r[x].inFlight.get();
+		}
+		return inFlight;
+	}
+
+	void recordWrite(Object session) {
+		if (readYourWritesNanos > 0 && session != null && !replicas.isEmpty())
+			lastWrites.put(session, System.nanoTime());
+	}
+	boolean mustReadPrimary(Object session) {
+		long window = readYourWritesNanos;
+		if (window == 0 || session == null)
+			return false;
+		Long last = lastWrites.get(session);
+		if (last == null)
+			return false;
+		if (System.nanoTime() - last < window)
+			return true;
+		lastWrites.remove(session);
+		return false;
+	}
+	/**
+	 * @return the replica to read from with its in flight count already taken or null if there are no replicas
+	 */
+	Replica choose() {
+		Replica[] r = replicas.toArray(new Replica[0]);
+		if (r.length == 0)
+			return null;
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % r.length;
+		Replica chosen = r[start];
+		if (balance == Balance.LEAST_IN_FLIGHT) {
+			// start at the round robin position so ties are spread over the replicas
+			for (int x = 1; x < r.length; x++) {
+				Replica candidate = r[(start + x) % r.length];
+				if (candidate.inFlight.get() < chosen.inFlight.get())
+					chosen = candidate;
+			}
+		}
+		chosen.inFlight.incrementAndGet();
+		return chosen;
+	}
+
+	static final class Replica {
+		private final DataSource dataSource;
+		private final int idx;
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private Replica(DataSource dataSource, int idx) {
+			this.dataSource = dataSource;
+			this.idx = idx;
+		}
+		Connection getConnection() throws SQLException {
+			return dataSource.getConnection();
+		}
+		void release() {
+			inFlight.decrementAndGet();
+		}
+		@Override
+		public String toString() {
+			return "replica " + idx;
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package dbutil;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives each row of a query straight from the open jdbc cursor. The ResultSet is positioned on the current row
+ * and must not be advanced or closed by the handler.
+ */
+public interface RowHandler {
+	public void handle(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,45 @@
+package dbutil;
+
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * The contents of a @PojoSecurity annotation with the rights strings parsed once.
+ * Rights are bit masks: select/update/insert (4/2/1) for fields and insert/delete (2/1) for classes.
+ */
+public final class SecurityDescriptor {
+	private final String[] groups;
+	private final int[] groupRights;
+	private final int everyone;
+
+	public SecurityDescriptor(String[] groups, String[] groupsecurity, String everyone) {
+		this.groups = groups.clone();
+		this.groupRights = new int[groups.length];
+		for (int x = 0; x < groups.length; x++) {
+			groupRights[x] = Integer.parseInt(groupsecurity[x], 2);
+		}
+		this.everyone = Integer.parseInt(everyone, 2);
+	}
+	public static SecurityDescriptor of(PojoSecurity pjs) {
+		return pjs == null ? null : new SecurityDescriptor(pjs.groups(), pjs.groupsecurity(), pjs.everyone());
+	}
+
+	/**
+	 * @return the rights of everyone combined with the rights of the groups the user is in
+	 */
+	public int getRights(PqUser user) {
+		int rights = everyone;
+		if (user != null) {
+			for (int x = 0; x < groups.length; x++) {
+				if (user.isInGroup(groups[x]))
+					rights |= groupRights[x];
+			}
+		}
+		return rights;
+	}
+	public String[] getGroups() {
+		return groups.clone();
+	}
+	public int getEveryone() {
+		return everyone;
+	}
+}
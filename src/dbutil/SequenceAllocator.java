@@ -0,0 +1,142 @@
+package dbutil;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.NamingException;
+
+/**
+ * Hands out the ids of an @Id(sequence=...) field from blocks reserved in a single round trip, so inserts bind the
+ * id instead of calling nextval in the statement and don't need getGeneratedKeys. Register the sequences that should
+ * be allocated on the client once at startup:
+ * <pre>
+ * // the sequence was created with INCREMENT BY 50
+ * SequenceAllocator.register(DBL.TAXBILL, "bill_seq", 50, SequenceAllocator.Strategy.POOLED);
+ * // the sequence increments by 1. 100 values are fetched per round trip
+ * SequenceAllocator.register(DBL.PROPREG, "parcel_seq", 100, SequenceAllocator.Strategy.FETCH);
+ * </pre>
+ * Ids of a block that are not used before the application stops are lost, so ids have gaps.
+ */
+public final class SequenceAllocator {
+	public static enum Strategy {
+		/**
+		 * The sequence increments by the block size. Each nextval reserves nextval .. nextval + blockSize - 1
+		 */
+		POOLED,
+		/**
+		 * The sequence increments by 1 and block size values are read with one statement. Safe to mix with writers
+		 * that call nextval themselves
+		 */
+		FETCH
+	}
+	private static final ConcurrentMap<String, SequenceAllocator> allocators = new ConcurrentHashMap<String, SequenceAllocator>();
+
+	private final DBL dbl;
+	private final String sequence;
+	private final int blockSize;
+	private final Strategy strategy;
+	// ids left of the current block. FETCH blocks need not be contiguous
+	private long[] block = new long[0];
+	private int next = 0;
+
+	private SequenceAllocator(DBL dbl, String sequence, int blockSize, Strategy strategy) {
+		this.dbl = dbl;
+		this.sequence = sequence;
+		this.blockSize = blockSize;
+		this.strategy = strategy;
+	}
+
+	public static SequenceAllocator register(DBL dbl, String sequence, int blockSize, Strategy strategy) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Block size must be at least 1");
+		SequenceAllocator allocator = new SequenceAllocator(dbl, sequence, blockSize, strategy);
+		allocators.put(key(dbl, sequence), allocator);
+		return allocator;
+	}
+	public static void unregister(DBL dbl, String sequence) {
+		allocators.remove(key(dbl, sequence));
+	}
+	/**
+	 * @return the allocator of the sequence or null when its ids are taken with nextval in the insert statement
+	 */
+	public static SequenceAllocator get(DBL dbl, String sequence) {
+		return allocators.isEmpty() ? null : allocators.get(key(dbl, sequence));
+	}
+	private static String key(DBL dbl, String sequence) {
+		return dbl.name() + ":" + sequence.toLowerCase();
+	}
+
+	public String getSequence() {
+		return sequence;
+	}
+	public int getBlockSize() {
+		return blockSize;
+	}
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	public long next() throws NamingException, SQLException {
+		return next(1)[0];
+	}
+	/**
+	 * @return ct ids, reserving new blocks as needed
+	 */
+	public synchronized long[] next(int ct) throws NamingException, SQLException {
+		long[] ids = new long[ct];
+		int filled = 0;
+		while (filled < ct) {
+			if (next == block.length) {
+				block = new Reserver().reserve();
+				next = 0;
+			}
+			int n = Math.min(ct - filled, block.length - next);
+			System.arraycopy(block, next, ids, filled, n);
+			next += n;
+			filled += n;
+		}
+		return ids;
+	}
+
+	/**
+	 * Reads a block of values from the sequence over its own connection, outside any transaction of the caller
+	 */
+	private final class Reserver extends DB {
+		long[] reserve() throws NamingException, SQLException {
+			try {
+				init(dbl);
+				Dialect dialect = dbl.getInstance().getDialect();
+				String sql = strategy == Strategy.FETCH ? dialect.getNextValuesStatement(sequence, blockSize) : null;
+				if (sql == null)
+					sql = dialect.getNextValuesStatement(sequence, 1);
+				if (sql == null)
+					throw new SQLException(dialect + " databases do not support sequences");
+				if (isDebug())
+					System.out.println("\nPQ QUERY: " + sql);
+				prepareStatement(sql);
+				dbutil.ResultSet rs = executeQuery();
+				long[] values = new long[strategy == Strategy.POOLED ? blockSize : rs.getSize()];
+				int x = 0;
+				while (rs.next() && x < values.length) {
+					values[x++] = ((Number) rs.getObject("id")).longValue();
+				}
+				if (x == 0)
+					throw new SQLException("Sequence " + sequence + " did not return a value");
+				if (strategy == Strategy.POOLED) {
+					for (int y = 1; y < blockSize; y++) {
+						values[y] = values[0] + y;
+					}
+				} else if (x < values.length) {
+					// the dialect reads one value per round trip
+					long[] read = new long[x];
+					System.arraycopy(values, 0, read, 0, x);
+					values = read;
+				}
+				return values;
+			} finally {
+				closeQuietly();
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package dbutil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows of column values kept in memory up to a byte budget. Later rows are written to a temp file in a compact
+ * tagged binary format and read back through memory mapped segments. Rows are added while the query runs and read
+ * by index afterwards. Not thread safe.
+ */
+final class SpillBuffer implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// rows never cross a segment so each one is read from a single mapping
+	private static final long SEGMENT_BYTES = 256L * 1024 * 1024;
+	private static final byte NULL = 0, STRING = 1, LONG = 2, INT = 3, DOUBLE = 4, DECIMAL = 5, TIMESTAMP = 6, DATE = 7,
+			TIME = 8, BYTES = 9, BOOLEAN = 10, SHORT = 11, FLOAT = 12, BYTE = 13, UTIL_DATE = 14, SERIALIZED = 15;
+
+	// values per row, taken from the first row
+	private int columns = -1;
+	private final long maxMemory;
+	private final File directory;
+	private final List<Object[]> memory = new ArrayList<Object[]>();
+	private long memoryBytes = 0;
+	// spilled rows: file offset of each row
+	private long[] offsets = new long[0];
+	private int spilled = 0;
+	private File file;
+	private OutputStream out;
+	private long written = 0;
+	private final ByteArrayOutputStream row = new ByteArrayOutputStream(256);
+	private MappedByteBuffer[] segments;
+
+	SpillBuffer(long maxMemory, File directory) {
+		this.maxMemory = maxMemory;
+		this.directory = directory;
+	}
+
+	void add(Object[] values) throws IOException, SQLException {
+		if (columns < 0)
+			columns = values.length;
+		if (out == null) {
+			long size = estimate(values);
+			if (memoryBytes + size <= maxMemory) {
+				memory.add(values);
+				memoryBytes += size;
+				return;
+			}
+			file = File.createTempFile("pq-spill", ".bin", directory);
+			file.deleteOnExit();
+			out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		}
+		row.reset();
+		for (Object v: values) {
+			encode(v);
+		}
+		int len = row.size();
+		if (len > SEGMENT_BYTES)
+			throw new SQLException("A row of " + len + " bytes is too large to spill to disk");
+		long segmentEnd = (written / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+		if (written + len > segmentEnd) {
+			// pad to the start of the next segment
+			for (long x = written; x < segmentEnd; x++) {
+				out.write(0);
+			}
+			written = segmentEnd;
+		}
+		if (spilled == offsets.length) {
+			long[] grown = new long[Math.max(1024, offsets.length * 2)];
+			System.arraycopy(offsets, 0, grown, 0, spilled);
+			offsets = grown;
+		}
+		offsets[spilled++] = written;
+		row.writeTo(out);
+		written += len;
+	}
+	/**
+	 * Ends writing and maps the spilled rows for reading
+	 */
+	void finish() throws IOException {
+		if (out == null || segments != null)
+			return;
+		out.close();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			int n = (int) ((written + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+			segments = new MappedByteBuffer[n];
+			for (int x = 0; x < n; x++) {
+				long start = x * SEGMENT_BYTES;
+				segments[x] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, written - start));
+			}
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	int size() {
+		return memory.size() + spilled;
+	}
+	int getSpilledRows() {
+		return spilled;
+	}
+	long getMemoryBytes() {
+		return memoryBytes;
+	}
+	long getSpilledBytes() {
+		return written;
+	}
+
+	Object[] get(int index) throws IOException {
+		if (index < memory.size())
+			return memory.get(index);
+		int s = index - memory.size();
+		if (s >= spilled || index < 0)
+			throw new IndexOutOfBoundsException("Row " + index + " of " + size());
+		long offset = offsets[s];
+		ByteBuffer buf = segments[(int) (offset / SEGMENT_BYTES)].duplicate();
+		buf.position((int) (offset % SEGMENT_BYTES));
+		Object[] values = new Object[columns];
+		for (int x = 0; x < columns; x++) {
+			values[x] = decode(buf);
+		}
+		return values;
+	}
+
+	@Override
+	public void close() {
+		memory.clear();
+		segments = null;
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// already closed by finish
+			}
+		}
+		// a mapped file can't be deleted on some platforms until the mapping is collected. deleteOnExit covers that
+		if (file != null)
+			file.delete();
+	}
+
+	// heap bytes of a row of boxed values, roughly
+	private static long estimate(Object[] values) {
+		long size = 16 + 8L * values.length;
+		for (Object v: values) {
+			if (v == null)
+				continue;
+			else if (v instanceof String)
+				size += 40 + 2L * ((String) v).length();
+			else if (v instanceof byte[])
+				size += 16 + ((byte[]) v).length;
+			else if (v instanceof BigDecimal)
+				size += 72;
+			else if (v instanceof java.util.Date)
+				size += 32;
+			else
+				size += 24;
+		}
+		return size;
+	}
+
+	private void encode(Object v) throws IOException, SQLException {
+		if (v instanceof Clob) {
+			Clob c = (Clob) v;
+			v = c.getSubString(1, (int) c.length());
+		} else if (v instanceof Blob) {
+			Blob b = (Blob) v;
+			v = b.getBytes(1, (int) b.length());
+		}
+		if (v == null)
+			row.write(NULL);
+		else if (v instanceof String) {
+			row.write(STRING);
+			writeBytes(((String) v).getBytes(UTF8));
+		} else if (v instanceof Long) {
+			row.write(LONG);
+			writeLong((Long) v);
+		} else if (v instanceof Integer) {
+			row.write(INT);
+			writeInt((Integer) v);
+		} else if (v instanceof Double) {
+			row.write(DOUBLE);
+			writeLong(Double.doubleToLongBits((Double) v));
+		} else if (v instanceof BigDecimal) {
+			BigDecimal bd = (BigDecimal) v;
+			row.write(DECIMAL);
+			writeInt(bd.scale());
+			writeBytes(bd.unscaledValue().toByteArray());
+		} else if (v instanceof Timestamp) {
+			row.write(TIMESTAMP);
+			writeLong(((Timestamp) v).getTime());
+			writeInt(((Timestamp) v).getNanos());
+		} else if (v instanceof java.sql.Date) {
+			row.write(DATE);
+			writeLong(((java.sql.Date) v).getTime());
+		} else if (v instanceof Time) {
+			row.write(TIME);
+			writeLong(((Time) v).getTime());
+		} else if (v.getClass() == java.util.Date.class) {
+			row.write(UTIL_DATE);
+			writeLong(((java.util.Date) v).getTime());
+		} else if (v instanceof byte[]) {
+			row.write(BYTES);
+			writeBytes((byte[]) v);
+		} else if (v instanceof Boolean) {
+			row.write(BOOLEAN);
+			row.write((Boolean) v ? 1 : 0);
+		} else if (v instanceof Short) {
+			row.write(SHORT);
+			writeInt((Short) v);
+		} else if (v instanceof Float) {
+			row.write(FLOAT);
+			writeInt(Float.floatToIntBits((Float) v));
+		} else if (v instanceof Byte) {
+			row.write(BYTE);
+			row.write((Byte) v);
+		} else if (v instanceof Serializable) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(v);
+			oos.close();
+			row.write(SERIALIZED);
+			writeBytes(bytes.toByteArray());
+		} else {
+			row.write(STRING);
+			writeBytes(v.toString().getBytes(UTF8));
+		}
+	}
+	private void writeInt(int v) {
+		row.write(v >>> 24);
+		row.write(v >>> 16);
+		row.write(v >>> 8);
+		row.write(v);
+	}
+	private void writeLong(long v) {
+		writeInt((int) (v >>> 32));
+		writeInt((int) v);
+	}
+	private void writeBytes(byte[] b) {
+		writeInt(b.length);
+		row.write(b, 0, b.length);
+	}
+
+	private static Object decode(ByteBuffer buf) throws IOException {
+		byte tag = buf.get();
+		switch (tag) {
+		case NULL: return null;
+		case STRING: return new String(readBytes(buf), UTF8);
+		case LONG: return buf.getLong();
+		case INT: return buf.getInt();
+		case DOUBLE: return buf.getDouble();
+		case DECIMAL:
+			int scale = buf.getInt();
+			return new BigDecimal(new BigInteger(readBytes(buf)), scale);
+		case TIMESTAMP:
+			Timestamp ts = new Timestamp(buf.getLong());
+			ts.setNanos(buf.getInt());
+			return ts;
+		case DATE: return new java.sql.Date(buf.getLong());
+		case TIME: return new Time(buf.getLong());
+		case UTIL_DATE: return new java.util.Date(buf.getLong());
+		case BYTES: return readBytes(buf);
+		case BOOLEAN: return buf.get() == 1;
+		case SHORT: return (short) buf.getInt();
+		case FLOAT: return buf.getFloat();
+		case BYTE: return buf.get();
+		case SERIALIZED:
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(buf)));
+			try {
+				return ois.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unable to read a spilled " + e.getMessage(), e);
+			} finally {
+				ois.close();
+			}
+		default: throw new IOException("Corrupt spill file: unknown value tag " + tag);
+		}
+	}
+	private static byte[] readBytes(ByteBuffer buf) {
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return b;
+	}
+}
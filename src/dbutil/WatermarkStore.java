@@ -0,0 +1,129 @@
+package dbutil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the watermark of each ChangePoller between polls. Implement it to keep watermarks in the application's own
+ * tables or configuration service
+ */
+public interface WatermarkStore {
+	/**
+	 * @return the last acknowledged watermark of the poller or null if it never acknowledged a change
+	 */
+	public Object load(String name) throws IOException;
+	public void save(String name, Object watermark) throws IOException;
+
+	/**
+	 * Watermarks that live as long as the application. Pollers start from their initial watermark after a restart
+	 */
+	public static class InMemory implements WatermarkStore {
+		private final Map<String, Object> watermarks = new ConcurrentHashMap<String, Object>();
+
+		@Override
+		public Object load(String name) {
+			return watermarks.get(name);
+		}
+		@Override
+		public void save(String name, Object watermark) {
+			watermarks.put(name, watermark);
+		}
+	}
+
+	/**
+	 * Watermarks in a properties file, rewritten through a temp file on every save. Numbers, strings, dates and
+	 * timestamps (with their nanos) are supported
+	 */
+	public static class PropertiesFile implements WatermarkStore {
+		private final File file;
+		private Properties props;
+
+		public PropertiesFile(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public synchronized Object load(String name) throws IOException {
+			String value = getProperties().getProperty(name);
+			if (value == null)
+				return null;
+			int colon = value.indexOf(':');
+			String type = value.substring(0, colon);
+			String v = value.substring(colon + 1);
+			if ("L".equals(type))
+				return Long.valueOf(v);
+			else if ("I".equals(type))
+				return Integer.valueOf(v);
+			else if ("N".equals(type))
+				return new BigDecimal(v);
+			else if ("D".equals(type))
+				return new Date(Long.parseLong(v));
+			else if ("T".equals(type)) {
+				String[] parts = v.split(":");
+				Timestamp ts = new Timestamp(Long.parseLong(parts[0]));
+				ts.setNanos(Integer.parseInt(parts[1]));
+				return ts;
+			}
+			return v;
+		}
+		@Override
+		public synchronized void save(String name, Object watermark) throws IOException {
+			Properties p = getProperties();
+			if (watermark == null)
+				p.remove(name);
+			else
+				p.setProperty(name, encode(watermark));
+			File tmp = new File(file.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				p.store(out, "PQuery change poller watermarks");
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// windows does not replace an existing file on rename
+				if (!file.delete() || !tmp.renameTo(file))
+					throw new IOException("Unable to replace " + file);
+			}
+		}
+		private Properties getProperties() throws IOException {
+			if (props == null) {
+				props = new Properties();
+				if (file.exists()) {
+					InputStream in = new FileInputStream(file);
+					try {
+						props.load(in);
+					} finally {
+						in.close();
+					}
+				}
+			}
+			return props;
+		}
+		private static String encode(Object v) {
+			if (v instanceof Long)
+				return "L:" + v;
+			else if (v instanceof Integer || v instanceof Short)
+				return "I:" + v;
+			else if (v instanceof BigDecimal)
+				return "N:" + ((BigDecimal) v).toPlainString();
+			else if (v instanceof Number)
+				return "N:" + new BigDecimal(v.toString()).toPlainString();
+			else if (v instanceof Timestamp)
+				return "T:" + ((Timestamp) v).getTime() + ":" + ((Timestamp) v).getNanos();
+			else if (v instanceof Date)
+				return "D:" + ((Date) v).getTime();
+			return "S:" + v;
+		}
+	}
+}
@@ -13,4 +13,13 @@ public @interface DbTable{
 	String value();
 	DBL schema();
 	String alias() default "";
+	/**
+	 * Default timeout in seconds for queries on this table, 0 for none. Overridden by PojoQuery.setTimeout/setDeadline
+	 */
+	int timeout() default 0;
+	/**
+	 * Rows fetched per round trip when selecting from this table. 0 uses the global default (see DB.setDefaultFetchSize)
+	 * and -1 sizes it from the selected columns (DB.FETCH_ADAPTIVE)
+	 */
+	int fetchSize() default 0;
 }
\ No newline at end of file
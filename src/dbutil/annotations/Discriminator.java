@@ -5,8 +5,13 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Maps the subtypes of a @DbTable class stored in the same table. The value of the column decides which
+ * relatedClass each row is created as
+ */
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Discriminator{
+	String column();
 	DiscriminatorMap[] value();
 }
@@ -0,0 +1,80 @@
+package dbutil.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how connections for a schema (DBL) are being used. The DataSource pools live in the container so the
+ * values here are measured from the library side: connections currently checked out and time spent waiting on getConnection.
+ */
+public class ConnectionStats implements ConnectionStatsMBean {
+	private final String name;
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger peakInUse = new AtomicInteger();
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final LatencyHistogram wait = new LatencyHistogram();
+
+	public ConnectionStats(String name) {
+		this.name = name;
+	}
+	public String getName() {
+		return name;
+	}
+
+	public void acquired(long waitNanos) {
+		acquired.incrementAndGet();
+		wait.recordNanos(waitNanos);
+		int current = inUse.incrementAndGet();
+		int peak = peakInUse.get();
+		while (current > peak && !peakInUse.compareAndSet(peak, current)) {
+			peak = peakInUse.get();
+		}
+	}
+	public void released() {
+		inUse.decrementAndGet();
+	}
+	public void failed(long waitNanos) {
+		failures.incrementAndGet();
+		wait.recordNanos(waitNanos);
+	}
+	public LatencyHistogram getWaitHistogram() {
+		return wait;
+	}
+
+	@Override
+	public int getConnectionsInUse() {
+		return inUse.get();
+	}
+	@Override
+	public int getPeakConnectionsInUse() {
+		return peakInUse.get();
+	}
+	@Override
+	public long getConnectionsAcquired() {
+		return acquired.get();
+	}
+	@Override
+	public long getConnectionFailures() {
+		return failures.get();
+	}
+	@Override
+	public double getMeanWaitMillis() {
+		return wait.getMeanMicros() / 1000.0;
+	}
+	@Override
+	public double getWaitPercentileMillis(double percentile) {
+		return wait.getPercentileMicros(percentile) / 1000.0;
+	}
+	@Override
+	public double getMaxWaitMillis() {
+		return wait.getMaxMicros() / 1000.0;
+	}
+	@Override
+	public void reset() {
+		peakInUse.set(inUse.get());
+		acquired.set(0);
+		failures.set(0);
+		wait.reset();
+	}
+}
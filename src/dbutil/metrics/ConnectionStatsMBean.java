@@ -0,0 +1,15 @@
+package dbutil.metrics;
+
+/**
+ * JMX view of connection usage for a single schema (DBL)
+ */
+public interface ConnectionStatsMBean {
+	public int getConnectionsInUse();
+	public int getPeakConnectionsInUse();
+	public long getConnectionsAcquired();
+	public long getConnectionFailures();
+	public double getMeanWaitMillis();
+	public double getWaitPercentileMillis(double percentile);
+	public double getMaxWaitMillis();
+	public void reset();
+}
@@ -0,0 +1,92 @@
+package dbutil.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free log-linear latency histogram (HDR style). Values are recorded in microseconds into buckets that
+ * have 32 linear sub buckets per power of two, which keeps the relative error of any reported percentile under ~3%.
+ * Recording is a single atomic increment so it can be called from every query thread without contention.
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	// largest trackable value is 2^40 microseconds (~12 days); anything above is clamped into the last bucket
+	private static final int MAX_MSB = 40;
+	private static final int BUCKETS = (MAX_MSB - SUB_BITS) * SUB + (SUB * 2);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+	/**
+	 * @param micros latency in microseconds
+	 */
+	public void record(long micros) {
+		if (micros < 0)
+			micros = 0;
+		counts.incrementAndGet(indexOf(micros));
+		total.incrementAndGet();
+		sum.addAndGet(micros);
+		long m = max.get();
+		while (micros > m && !max.compareAndSet(m, micros)) {
+			m = max.get();
+		}
+	}
+	public long getCount() {
+		return total.get();
+	}
+	public long getMaxMicros() {
+		return max.get();
+	}
+	public double getMeanMicros() {
+		long ct = total.get();
+		return ct == 0 ? 0 : (double) sum.get() / ct;
+	}
+	/**
+	 * @param percentile value between 0 and 100
+	 * @return the upper bound (in microseconds) of the bucket containing the requested percentile
+	 */
+	public long getPercentileMicros(double percentile) {
+		long ct = total.get();
+		if (ct == 0)
+			return 0;
+		long target = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100.0 * ct);
+		if (target < 1)
+			target = 1;
+		long seen = 0;
+		for (int idx = 0; idx < BUCKETS; idx++) {
+			seen += counts.get(idx);
+			if (seen >= target)
+				return Math.min(upperBoundOf(idx), max.get());
+		}
+		return max.get();
+	}
+	public void reset() {
+		for (int idx = 0; idx < BUCKETS; idx++) {
+			counts.set(idx, 0);
+		}
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int indexOf(long v) {
+		if (v < SUB)
+			return (int) v;
+		int msb = 63 - Long.numberOfLeadingZeros(v);
+		if (msb > MAX_MSB)
+			return BUCKETS - 1;
+		int shift = msb - SUB_BITS;
+		return (shift * SUB) + (int) (v >>> shift);
+	}
+	static long upperBoundOf(int idx) {
+		int shift = Math.max(0, idx / SUB - 1);
+		long top = idx - (shift * SUB);
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,142 @@
+package dbutil.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import dbutil.DBL;
+
+/**
+ * Registry of query and connection statistics kept per schema (DBL) and per entity class.
+ * Every stats object is registered with the platform MBeanServer the first time it is used so the values can be
+ * scraped through JMX under the <tt>dbutil</tt> domain:
+ * <pre>
+ * dbutil:type=Schema,name=GIS
+ * dbutil:type=Connections,name=GIS
+ * dbutil:type=Entity,name=com.example.User
+ * </pre>
+ */
+public final class PqMetrics {
+	public static final String JMX_DOMAIN = "dbutil";
+	private static final ConcurrentMap<DBL, QueryStats> schemaStats = new ConcurrentHashMap<DBL, QueryStats>();
+	private static final ConcurrentMap<DBL, ConnectionStats> connectionStats = new ConcurrentHashMap<DBL, ConnectionStats>();
+	private static final ConcurrentMap<Class<?>, QueryStats> entityStats = new ConcurrentHashMap<Class<?>, QueryStats>();
+	private static volatile boolean enabled = true;
+	private static volatile boolean jmxEnabled = true;
+
+	private PqMetrics() {
+		// Utility class, hide the constructor.
+	}
+
+	public static void setEnabled(boolean flag) {
+		enabled = flag;
+	}
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	/**
+	 * Turn JMX registration on or off. Stats objects created while disabled are not registered later.
+	 */
+	public static void setJmxEnabled(boolean flag) {
+		jmxEnabled = flag;
+	}
+
+	public static void recordQuery(DBL dbl, Class<?> entity, String operation, long nanos, int rows, boolean failed) {
+		if (!enabled)
+			return;
+		if (dbl != null)
+			getSchemaStats(dbl).record(operation, nanos, rows, failed);
+		if (entity != null)
+			getEntityStats(entity).record(operation, nanos, rows, failed);
+	}
+	public static void connectionAcquired(DBL dbl, long waitNanos) {
+		if (enabled && dbl != null)
+			getConnectionStats(dbl).acquired(waitNanos);
+	}
+	public static void connectionFailed(DBL dbl, long waitNanos) {
+		if (enabled && dbl != null)
+			getConnectionStats(dbl).failed(waitNanos);
+	}
+	public static void connectionReleased(DBL dbl) {
+		if (enabled && dbl != null)
+			getConnectionStats(dbl).released();
+	}
+	public static void cacheHit(DBL dbl, Class<?> entity, int ct) {
+		if (!enabled || ct == 0)
+			return;
+		if (dbl != null)
+			getSchemaStats(dbl).cacheHit(ct);
+		if (entity != null)
+			getEntityStats(entity).cacheHit(ct);
+	}
+	public static void cacheMiss(DBL dbl, Class<?> entity, int ct) {
+		if (!enabled || ct == 0)
+			return;
+		if (dbl != null)
+			getSchemaStats(dbl).cacheMiss(ct);
+		if (entity != null)
+			getEntityStats(entity).cacheMiss(ct);
+	}
+
+	public static QueryStats getSchemaStats(DBL dbl) {
+		QueryStats qs = schemaStats.get(dbl);
+		if (qs == null) {
+			qs = new QueryStats(dbl.name());
+			QueryStats existing = schemaStats.putIfAbsent(dbl, qs);
+			if (existing != null)
+				return existing;
+			register("Schema", dbl.name(), qs);
+		}
+		return qs;
+	}
+	public static ConnectionStats getConnectionStats(DBL dbl) {
+		ConnectionStats cs = connectionStats.get(dbl);
+		if (cs == null) {
+			cs = new ConnectionStats(dbl.name());
+			ConnectionStats existing = connectionStats.putIfAbsent(dbl, cs);
+			if (existing != null)
+				return existing;
+			register("Connections", dbl.name(), cs);
+		}
+		return cs;
+	}
+	public static QueryStats getEntityStats(Class<?> entity) {
+		QueryStats qs = entityStats.get(entity);
+		if (qs == null) {
+			qs = new QueryStats(entity.getName());
+			QueryStats existing = entityStats.putIfAbsent(entity, qs);
+			if (existing != null)
+				return existing;
+			register("Entity", entity.getName(), qs);
+		}
+		return qs;
+	}
+	public static void reset() {
+		for (QueryStats qs: schemaStats.values())
+			qs.reset();
+		for (QueryStats qs: entityStats.values())
+			qs.reset();
+		for (ConnectionStats cs: connectionStats.values())
+			cs.reset();
+	}
+
+	/**
+	 * Registers an MBean under <tt>dbutil:type=&lt;type&gt;,name=&lt;name&gt;</tt> unless JMX is disabled
+	 */
+	public static void register(String type, String name, Object mbean) {
+		if (!jmxEnabled)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + name);
+			if (!server.isRegistered(on))
+				server.registerMBean(mbean, on);
+		} catch (Exception e) {
+			// metrics must never break a query; report and keep counting in memory
+			System.out.println("PQ METRICS: unable to register " + type + " " + name + " with JMX: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package dbutil.metrics;
+
+/**
+ * Splits the time spent running a single query into phases. Each call to {@link #lap(Phase)} charges the time
+ * elapsed since the previous lap to the given phase.
+ */
+public final class QueryPhases {
+	public static enum Phase { sql, connect, execute, hydrate, join };
+	private final long[] nanos = new long[Phase.values().length];
+	private long last = System.nanoTime();
+
+	public void lap(Phase phase) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - last;
+		last = now;
+	}
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Phase p: Phase.values()) {
+			if (nanos[p.ordinal()] > 0) {
+				if (sb.length() > 0)
+					sb.append(' ');
+				sb.append(p.name()).append('=').append(String.format("%.2f", nanos[p.ordinal()] / 1000000.0)).append("ms");
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,150 @@
+package dbutil.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregated query counters for one schema (DBL) or one entity class. All counters are lock free.
+ */
+public class QueryStats implements QueryStatsMBean {
+	private final String name;
+	private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+	private final AtomicLong rowsFetched = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	public QueryStats(String name) {
+		this.name = name;
+	}
+	public String getName() {
+		return name;
+	}
+
+	public void record(String operation, long nanos, int rows, boolean failed) {
+		OperationStats os = getOperationStats(operation);
+		os.count.incrementAndGet();
+		if (failed)
+			os.errors.incrementAndGet();
+		os.latency.recordNanos(nanos);
+		if (rows > 0)
+			rowsFetched.addAndGet(rows);
+	}
+	public void cacheHit(int ct) {
+		cacheHits.addAndGet(ct);
+	}
+	public void cacheMiss(int ct) {
+		cacheMisses.addAndGet(ct);
+	}
+	public LatencyHistogram getHistogram(String operation) {
+		return getOperationStats(operation).latency;
+	}
+	private OperationStats getOperationStats(String operation) {
+		OperationStats os = operations.get(operation);
+		if (os == null) {
+			os = new OperationStats();
+			OperationStats existing = operations.putIfAbsent(operation, os);
+			if (existing != null)
+				os = existing;
+		}
+		return os;
+	}
+
+	@Override
+	public long getQueryCount() {
+		long ct = 0;
+		for (OperationStats os: operations.values()) {
+			ct += os.count.get();
+		}
+		return ct;
+	}
+	@Override
+	public long getErrorCount() {
+		long ct = 0;
+		for (OperationStats os: operations.values()) {
+			ct += os.errors.get();
+		}
+		return ct;
+	}
+	@Override
+	public long getRowsFetched() {
+		return rowsFetched.get();
+	}
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+	@Override
+	public double getCacheHitRatio() {
+		long hits = cacheHits.get();
+		long total = hits + cacheMisses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	@Override
+	public String[] getOperations() {
+		return new TreeSet<String>(operations.keySet()).toArray(new String[0]);
+	}
+	@Override
+	public String[] getSummary() {
+		List<String> lines = new ArrayList<String>();
+		for (String op: getOperations()) {
+			OperationStats os = operations.get(op);
+			LatencyHistogram h = os.latency;
+			lines.add(String.format("%s count=%d errors=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+					op, os.count.get(), os.errors.get(), h.getMeanMicros() / 1000.0, h.getPercentileMicros(50) / 1000.0,
+					h.getPercentileMicros(95) / 1000.0, h.getPercentileMicros(99) / 1000.0, h.getMaxMicros() / 1000.0));
+		}
+		lines.add(String.format("rows=%d cacheHits=%d cacheMisses=%d", rowsFetched.get(), cacheHits.get(), cacheMisses.get()));
+		return lines.toArray(new String[lines.size()]);
+	}
+	@Override
+	public long getOperationCount(String operation) {
+		OperationStats os = operations.get(operation);
+		return os == null ? 0 : os.count.get();
+	}
+	@Override
+	public long getOperationErrorCount(String operation) {
+		OperationStats os = operations.get(operation);
+		return os == null ? 0 : os.errors.get();
+	}
+	@Override
+	public double getMeanLatencyMillis(String operation) {
+		OperationStats os = operations.get(operation);
+		return os == null ? 0 : os.latency.getMeanMicros() / 1000.0;
+	}
+	@Override
+	public double getLatencyPercentileMillis(String operation, double percentile) {
+		OperationStats os = operations.get(operation);
+		return os == null ? 0 : os.latency.getPercentileMicros(percentile) / 1000.0;
+	}
+	@Override
+	public double getMaxLatencyMillis(String operation) {
+		OperationStats os = operations.get(operation);
+		return os == null ? 0 : os.latency.getMaxMicros() / 1000.0;
+	}
+	@Override
+	public void reset() {
+		for (Map.Entry<String, OperationStats> e: operations.entrySet()) {
+			e.getValue().count.set(0);
+			e.getValue().errors.set(0);
+			e.getValue().latency.reset();
+		}
+		rowsFetched.set(0);
+		cacheHits.set(0);
+		cacheMisses.set(0);
+	}
+
+	private static final class OperationStats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+}
@@ -0,0 +1,27 @@
+package dbutil.metrics;
+
+/**
+ * JMX view of the query statistics collected for a single schema (DBL) or entity class
+ */
+public interface QueryStatsMBean {
+	public long getQueryCount();
+	public long getErrorCount();
+	public long getRowsFetched();
+	public long getCacheHits();
+	public long getCacheMisses();
+	public double getCacheHitRatio();
+	/**
+	 * @return names of the operations (select, count, insert, update, delete...) that have been recorded
+	 */
+	public String[] getOperations();
+	/**
+	 * @return one line per operation containing count, errors, rows and latency percentiles
+	 */
+	public String[] getSummary();
+	public long getOperationCount(String operation);
+	public long getOperationErrorCount(String operation);
+	public double getMeanLatencyMillis(String operation);
+	public double getLatencyPercentileMillis(String operation, double percentile);
+	public double getMaxLatencyMillis(String operation);
+	public void reset();
+}
@@ -0,0 +1,85 @@
+package dbutil.metrics;
+
+import java.util.Date;
+
+/**
+ * A single entry of the {@link SlowQueryLog}. Parameter values are never stored, only their types.
+ */
+public final class SlowQuery {
+	private final Date timestamp;
+	private final String schema;
+	private final String entity;
+	private final String operation;
+	private final String sql;
+	private final String[] parameterTypes;
+	private final int rows;
+	private final long nanos;
+	private final String phases;
+	// filled in asynchronously once the execution plan has been captured
+	private volatile String plan;
+
+	SlowQuery(String schema, String entity, String operation, String sql, String[] parameterTypes, int rows, long nanos, String phases) {
+		this.timestamp = new Date();
+		this.schema = schema;
+		this.entity = entity;
+		this.operation = operation;
+		this.sql = sql;
+		this.parameterTypes = parameterTypes;
+		this.rows = rows;
+		this.nanos = nanos;
+		this.phases = phases;
+	}
+
+	public Date getTimestamp() {
+		return timestamp;
+	}
+	public String getSchema() {
+		return schema;
+	}
+	public String getEntity() {
+		return entity;
+	}
+	public String getOperation() {
+		return operation;
+	}
+	public String getSql() {
+		return sql;
+	}
+	public String[] getParameterTypes() {
+		return parameterTypes.clone();
+	}
+	public int getRows() {
+		return rows;
+	}
+	public double getMillis() {
+		return nanos / 1000000.0;
+	}
+	public String getPhases() {
+		return phases;
+	}
+	/**
+	 * @return the execution plan, or null if it has not been captured (yet)
+	 */
+	public String getPlan() {
+		return plan;
+	}
+	void setPlan(String plan) {
+		this.plan = plan;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%tF %<tT %s %s %s %.2fms rows=%d [%s]", timestamp, schema, entity, operation, getMillis(), rows, phases));
+		sb.append("\nparameters: (");
+		for (int x = 0; x < parameterTypes.length; x++) {
+			if (x > 0)
+				sb.append(',');
+			sb.append(parameterTypes[x]);
+		}
+		sb.append(")\n").append(sql);
+		if (plan != null)
+			sb.append("\nplan:\n").append(plan);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,191 @@
+package dbutil.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import dbutil.DB;
+import dbutil.DBL;
+import dbutil.Dialect;
+import dbutil.ResultSet;
+
+/**
+ * Bounded in memory log of queries that took longer than a configurable threshold. Each entry holds the generated
+ * sql, the parameter types (values are redacted), the row count and the phase breakdown of the query. When explain
+ * is enabled the execution plan is captured on a background thread with the dialect specific explain statement and
+ * attached to the entry once it is available.
+ * <p>The log is disabled until a threshold is set: <pre>SlowQueryLog.getInstance().setThresholdMillis(500);</pre>
+ * It is registered with JMX as <tt>dbutil:type=SlowQueryLog,name=PojoQuery</tt>
+ */
+public final class SlowQueryLog implements SlowQueryLogMBean {
+	private static final SlowQueryLog INSTANCE = new SlowQueryLog();
+	static {
+		PqMetrics.register("SlowQueryLog", "PojoQuery", INSTANCE);
+	}
+	// a negative threshold disables the log
+	private volatile long thresholdNanos = -1;
+	private volatile boolean explainEnabled = true;
+	private volatile AtomicReferenceArray<SlowQuery> ring = new AtomicReferenceArray<SlowQuery>(100);
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong planIds = new AtomicLong();
+	// plans are captured one at a time; when the queue is full new plan requests are dropped instead of piling up
+	private final ThreadPoolExecutor explainExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(32), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "pq-slow-query-explain");
+					t.setDaemon(true);
+					return t;
+				}
+			}, new ThreadPoolExecutor.DiscardPolicy());
+
+	private SlowQueryLog() {
+		explainExecutor.allowCoreThreadTimeOut(true);
+	}
+	public static SlowQueryLog getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Called by PojoQuery after every query. Does nothing unless the query exceeded the threshold.
+	 */
+	public void record(DBL dbl, Class<?> entity, String operation, String sql, List<Object> parms, int rows, long nanos, QueryPhases phases) {
+		long threshold = thresholdNanos;
+		if (threshold < 0 || nanos < threshold || sql == null)
+			return;
+		String[] types = new String[parms == null ? 0 : parms.size()];
+		for (int x = 0; x < types.length; x++) {
+			Object parm = parms.get(x);
+			types[x] = parm == null ? "null" : parm.getClass().getSimpleName();
+		}
+		SlowQuery entry = new SlowQuery(dbl == null ? null : dbl.name(), entity == null ? null : entity.getName(), operation, sql,
+				types, rows, nanos, phases == null ? "" : phases.toString());
+		AtomicReferenceArray<SlowQuery> r = ring;
+		r.set((int) (recorded.getAndIncrement() % r.length()), entry);
+		if (explainEnabled && dbl != null && ("select".equals(operation) || "count".equals(operation) || "exists".equals(operation))) {
+			// values are only held until the plan has been captured, they are never stored in the entry
+			explainExecutor.execute(new ExplainTask(dbl, entry, parms == null ? null : new ArrayList<Object>(parms)));
+		}
+	}
+	/**
+	 * @return buffered slow queries, newest first
+	 */
+	public List<SlowQuery> getSlowQueries() {
+		AtomicReferenceArray<SlowQuery> r = ring;
+		List<SlowQuery> entries = new ArrayList<SlowQuery>(r.length());
+		long last = recorded.get();
+		for (long x = last - 1; x >= 0 && x >= last - r.length(); x--) {
+			SlowQuery sq = r.get((int) (x % r.length()));
+			if (sq != null)
+				entries.add(sq);
+		}
+		return entries;
+	}
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Slow query log capacity must be at least 1");
+		ring = new AtomicReferenceArray<SlowQuery>(capacity);
+		recorded.set(0);
+	}
+
+	@Override
+	public long getThresholdMillis() {
+		return thresholdNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+	@Override
+	public void setThresholdMillis(long millis) {
+		thresholdNanos = millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+	@Override
+	public boolean isExplainEnabled() {
+		return explainEnabled;
+	}
+	@Override
+	public void setExplainEnabled(boolean flag) {
+		explainEnabled = flag;
+	}
+	@Override
+	public int getCapacity() {
+		return ring.length();
+	}
+	@Override
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+	@Override
+	public String[] getEntries() {
+		List<SlowQuery> entries = getSlowQueries();
+		String[] lines = new String[entries.size()];
+		for (int x = 0; x < lines.length; x++) {
+			lines[x] = entries.get(x).toString();
+		}
+		return lines;
+	}
+	@Override
+	public synchronized void clear() {
+		ring = new AtomicReferenceArray<SlowQuery>(ring.length());
+		recorded.set(0);
+	}
+
+	/**
+	 * Runs the dialect specific explain statements on a separate connection and stores the plan on the entry
+	 */
+	private final class ExplainTask extends DB implements Runnable {
+		private final DBL dbl;
+		private final SlowQuery entry;
+		private final List<Object> parms;
+
+		ExplainTask(DBL dbl, SlowQuery entry, List<Object> parms) {
+			this.dbl = dbl;
+			this.entry = entry;
+			this.parms = parms;
+		}
+		@Override
+		public void run() {
+			try {
+				Dialect dialect = dbl.getInstance().getDialect();
+				String[] stmts = dialect.getExplainStatements(entry.getSql(), "PQ" + planIds.incrementAndGet());
+				if (stmts == null) {
+					entry.setPlan("explain is not supported for " + dialect);
+					return;
+				}
+				// keep the connection open between statements since some databases store the plan per session
+				beginTransaction();
+				init(dbl);
+				for (int x = 0; x < stmts.length - 1; x++) {
+					prepareStatement(stmts[x]);
+					executeUpdate();
+				}
+				prepareStatement(stmts[stmts.length - 1]);
+				if (dialect.bindsExplainParameters() && parms != null)
+					setParameters(parms);
+				ResultSet rs = executeQuery();
+				StringBuilder plan = new StringBuilder();
+				while (rs.next()) {
+					Map<String, Object> row = rs.getRow();
+					if (row.size() == 1)
+						plan.append(row.values().iterator().next());
+					else
+						plan.append(new TreeMap<String, Object>(row));
+					plan.append('\n');
+				}
+				entry.setPlan(plan.toString());
+			} catch (Exception e) {
+				entry.setPlan("unable to capture plan: " + e.getMessage());
+			} finally {
+				try {
+					rollback();
+				} catch (Exception e) {
+				}
+				endTransaction();
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package dbutil.metrics;
+
+/**
+ * JMX view of the {@link SlowQueryLog}
+ */
+public interface SlowQueryLogMBean {
+	public long getThresholdMillis();
+	public void setThresholdMillis(long millis);
+	public boolean isExplainEnabled();
+	public void setExplainEnabled(boolean flag);
+	public int getCapacity();
+	public long getRecordedCount();
+	/**
+	 * @return the buffered slow queries, newest first
+	 */
+	public String[] getEntries();
+	public void clear();
+}
@@ -0,0 +1,358 @@
+package dbutil.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import dbutil.EntityMetas;
+import dbutil.annotations.DbColumn;
+import dbutil.annotations.DbTable;
+import dbutil.annotations.Id;
+import dbutil.annotations.PojoSecurity;
+
+/**
+ * Writes a <tt>&lt;Entity&gt;_PqMeta</tt> class next to every @DbTable class so PojoQuery can create, read and
+ * populate entities without reflection. The processor is registered in META-INF/services and runs automatically
+ * when the pquery jar is on the compile classpath. Entities it cannot handle (abstract, inner or private classes,
+ * classes without an accessible no argument constructor) are skipped with a note and use reflection at runtime.
+ * <p>Fields are reached directly when they are visible from the entity package, otherwise reflectively. Like the
+ * reflective metadata, get/is/set methods are never called, so an entity is populated the same way whether or not
+ * the processor ran over it.
+ * <p>It also writes the <tt>&lt;Entity&gt;_</tt> metamodel with an Attribute per @DbColumn field and a
+ * JoinAttribute per @JoinTable field, used to build a Criteria without pql strings.
+ */
+public class EntityMetaProcessor extends AbstractProcessor {
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(DbTable.class.getName());
+	}
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element e: roundEnv.getElementsAnnotatedWith(DbTable.class)) {
+			if (e.getKind() != ElementKind.CLASS)
+				continue;
+			TypeElement entity = (TypeElement) e;
+			if (isReferenceable(entity)) {
+				try {
+					generateMetamodel(entity);
+				} catch (IOException ex) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "PQ: unable to write the metamodel of " + entity + ": " + ex.getMessage(), entity);
+				}
+			}
+			String skip = getSkipReason(entity);
+			if (skip != null) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "PQ: no metadata generated for " + entity + " (" + skip + ")", entity);
+				continue;
+			}
+			try {
+				generate(entity);
+			} catch (IOException ex) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "PQ: unable to write metadata for " + entity + ": " + ex.getMessage(), entity);
+			}
+		}
+		return false;
+	}
+
+	private String getSkipReason(TypeElement entity) {
+		Set<Modifier> mods = entity.getModifiers();
+		if (mods.contains(Modifier.ABSTRACT))
+			return "abstract";
+		if (mods.contains(Modifier.PRIVATE))
+			return "private";
+		if (entity.getNestingKind() == NestingKind.MEMBER && !mods.contains(Modifier.STATIC))
+			return "inner class";
+		if (entity.getNestingKind() != NestingKind.TOP_LEVEL && entity.getNestingKind() != NestingKind.MEMBER)
+			return "local class";
+		List<ExecutableElement> constructors = ElementFilter.constructorsIn(entity.getEnclosedElements());
+		for (ExecutableElement c: constructors) {
+			if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+				return null;
+		}
+		return "no accessible no argument constructor";
+	}
+
+	private void generate(TypeElement entity) throws IOException {
+		String pkg = getPackage(entity);
+		String binaryName = processingEnv.getElementUtils().getBinaryName(entity).toString();
+		String genName = EntityMetas.getGeneratedName(binaryName);
+		String simpleName = genName.substring(pkg.length() == 0 ? 0 : pkg.length() + 1);
+		String type = entity.getQualifiedName().toString();
+
+		DbTable tbl = entity.getAnnotation(DbTable.class);
+		String alias = tbl.alias().equals("") ? entity.getSimpleName().toString() : tbl.alias();
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		for (TypeElement t = entity; t != null; t = getSuperclass(t)) {
+			for (VariableElement f: ElementFilter.fieldsIn(t.getEnclosedElements())) {
+				if (f.getAnnotation(DbColumn.class) != null)
+					fields.add(f);
+			}
+		}
+		int n = fields.size();
+		String[] names = new String[n];
+		String[] columns = new String[n];
+		String[] sequences = new String[n];
+		List<Integer> idlist = new ArrayList<Integer>();
+		for (int x = 0; x < n; x++) {
+			VariableElement f = fields.get(x);
+			names[x] = f.getSimpleName().toString();
+			columns[x] = f.getAnnotation(DbColumn.class).value();
+			Id id = f.getAnnotation(Id.class);
+			sequences[x] = id == null ? "" : id.sequence();
+			if (id != null)
+				idlist.add(x);
+		}
+		int[] ids = new int[idlist.size()];
+		for (int x = 0; x < ids.length; x++) {
+			ids[x] = idlist.get(x);
+		}
+		String[] sql = EntityMetas.buildSql(tbl.value(), alias, columns, ids, sequences);
+
+		StringBuilder src = new StringBuilder();
+		if (pkg.length() > 0)
+			src.append("package ").append(pkg).append(";\n\n");
+		src.append("/**\n * Generated by ").append(getClass().getName()).append(" from {@link ").append(type).append("}. Do not edit\n */\n");
+		src.append("public final class ").append(simpleName).append(" extends dbutil.GeneratedEntityMeta<").append(type).append("> {\n");
+		src.append("\tpublic ").append(simpleName).append("() {\n");
+		src.append("\t\tsuper(").append(type).append(".class, ").append(literal(tbl.value())).append(", ").append(literal(alias)).append(",\n");
+		src.append("\t\t\tnew String[] {").append(literals(names)).append("},\n");
+		src.append("\t\t\tnew String[] {").append(literals(columns)).append("},\n");
+		src.append("\t\t\tnew Class<?>[] {");
+		for (int x = 0; x < n; x++) {
+			src.append(x > 0 ? ", " : "").append(erasure(fields.get(x).asType())).append(".class");
+		}
+		src.append("},\n");
+		src.append("\t\t\tnew int[] {");
+		for (int x = 0; x < ids.length; x++) {
+			src.append(x > 0 ? ", " : "").append(ids[x]);
+		}
+		src.append("},\n");
+		src.append("\t\t\tnew String[] {").append(literals(sql)).append("},\n");
+		src.append("\t\t\t").append(security(entity.getAnnotation(PojoSecurity.class))).append(",\n");
+		src.append("\t\t\tnew dbutil.SecurityDescriptor[] {");
+		for (int x = 0; x < n; x++) {
+			src.append(x > 0 ? ",\n\t\t\t\t" : "\n\t\t\t\t").append(security(fields.get(x).getAnnotation(PojoSecurity.class)));
+		}
+		src.append("});\n\t}\n");
+
+		src.append("\t@Override\n\tpublic ").append(type).append(" newInstance() {\n\t\treturn new ").append(type).append("();\n\t}\n");
+
+		src.append("\t@Override\n\tpublic Object get(").append(type).append(" obj, int idx) throws IllegalAccessException {\n\t\tswitch (idx) {\n");
+		for (int x = 0; x < n; x++) {
+			VariableElement f = fields.get(x);
+			src.append("\t\tcase ").append(x).append(": return ");
+			if (isVisible(entity, f))
+				src.append("obj.").append(names[x]);
+			else
+				src.append("field(").append(x).append(").get(obj)");
+			src.append(";\n");
+		}
+		src.append("\t\tdefault: throw badIndex(idx);\n\t\t}\n\t}\n");
+
+		src.append("\t@Override\n\tpublic void set(").append(type).append(" obj, int idx, Object value) throws IllegalAccessException {\n\t\tswitch (idx) {\n");
+		for (int x = 0; x < n; x++) {
+			VariableElement f = fields.get(x);
+			TypeMirror ftype = f.asType();
+			String cast = "(" + boxed(ftype) + ") value";
+			boolean primitive = ftype.getKind().isPrimitive();
+			src.append("\t\tcase ").append(x).append(": ");
+			if (primitive)
+				src.append("if (value != null) ");
+			if (isVisible(entity, f) && !f.getModifiers().contains(Modifier.FINAL))
+				src.append("obj.").append(names[x]).append(" = ").append(cast);
+			else
+				src.append("field(").append(x).append(").set(obj, value)");
+			src.append("; break;\n");
+		}
+		src.append("\t\tdefault: throw badIndex(idx);\n\t\t}\n\t}\n");
+		src.append("}\n");
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(genName, entity);
+		Writer w = file.openWriter();
+		try {
+			w.write(src.toString());
+		} finally {
+			w.close();
+		}
+	}
+
+	// the metamodel only names the entity type, so any class that can be referenced from its package will do
+	private boolean isReferenceable(TypeElement entity) {
+		for (Element e = entity; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			TypeElement t = (TypeElement) e;
+			if (t.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+			if (t.getNestingKind() != NestingKind.TOP_LEVEL && t.getNestingKind() != NestingKind.MEMBER)
+				return false;
+		}
+		return true;
+	}
+	// stands for the join leading to the entity in the attribute constructors of the metamodel
+	private static final String VIA = "<via>";
+	private String getMetamodelName(TypeElement entity) {
+		return processingEnv.getElementUtils().getBinaryName(entity).toString().replace('$', '_') + "_";
+	}
+
+	private void generateMetamodel(TypeElement entity) throws IOException {
+		String pkg = getPackage(entity);
+		String genName = getMetamodelName(entity);
+		String simpleName = genName.substring(pkg.length() == 0 ? 0 : pkg.length() + 1);
+		String type = erasure(entity.asType());
+
+		StringBuilder statics = new StringBuilder();
+		StringBuilder fields = new StringBuilder();
+		StringBuilder inits = new StringBuilder();
+		Set<String> names = new java.util.HashSet<String>();
+		for (TypeElement t = entity; t != null; t = getSuperclass(t)) {
+			for (VariableElement f: ElementFilter.fieldsIn(t.getEnclosedElements())) {
+				String name = f.getSimpleName().toString();
+				if (f.getModifiers().contains(Modifier.STATIC) || !names.add(name))
+					continue;
+				String attrType;
+				String create;
+				if (f.getAnnotation(DbColumn.class) != null) {
+					String valueType = boxed(f.asType());
+					attrType = "dbutil.Attribute<" + type + ", " + valueType + ">";
+					create = "new " + attrType + "(" + type + ".class, " + literal(name) + ", "
+							+ literal(f.getAnnotation(DbColumn.class).value()) + ", " + valueType + ".class, " + VIA + ")";
+				} else if (f.getAnnotation(dbutil.annotations.JoinTable.class) != null) {
+					TypeElement target = getJoinTarget(f.asType());
+					if (target == null || target.getAnnotation(DbTable.class) == null || !isReferenceable(target))
+						continue;
+					String targetType = erasure(target.asType());
+					String pathType = getMetamodelName(target) + ".Path";
+					attrType = "dbutil.JoinAttribute<" + type + ", " + targetType + ", " + pathType + ">";
+					create = "new " + attrType + "(" + type + ".class, " + literal(name) + ", " + targetType + ".class, " + VIA + ") {\n"
+							+ "\t\t\t@Override\n\t\t\tprotected " + pathType + " path() {\n\t\t\t\treturn new " + pathType + "(this);\n\t\t\t}\n\t\t}";
+				} else
+					continue;
+				statics.append("\tpublic static final ").append(attrType).append(" ").append(name).append(" = ")
+						.append(create.replace(VIA, "null").replace("\n\t\t", "\n\t")).append(";\n");
+				fields.append("\t\tpublic final ").append(attrType).append(" ").append(name).append(";\n");
+				inits.append("\t\t\t").append(name).append(" = ").append(create.replace(VIA, "via").replace("\n\t\t", "\n\t\t\t")).append(";\n");
+			}
+		}
+
+		StringBuilder src = new StringBuilder();
+		if (pkg.length() > 0)
+			src.append("package ").append(pkg).append(";\n\n");
+		src.append("/**\n * Generated by ").append(getClass().getName()).append(" from {@link ").append(type).append("}. Do not edit\n */\n");
+		src.append("public final class ").append(simpleName).append(" {\n");
+		src.append(statics);
+		src.append("\n\tprivate ").append(simpleName).append("() {\n\t}\n\n");
+		src.append("\t/**\n\t * The attributes of ").append(entity.getSimpleName()).append(" reached through a join\n\t */\n");
+		src.append("\tpublic static final class Path {\n");
+		src.append(fields);
+		src.append("\n\t\tpublic Path(dbutil.JoinAttribute<?, ").append(type).append(", ?> via) {\n");
+		src.append(inits);
+		src.append("\t\t}\n\t}\n}\n");
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(genName, entity);
+		Writer w = file.openWriter();
+		try {
+			w.write(src.toString());
+		} finally {
+			w.close();
+		}
+	}
+	// the entity of a join field: the element of a collection, the value of a map or the field type itself
+	private TypeElement getJoinTarget(TypeMirror t) {
+		if (t.getKind() != TypeKind.DECLARED)
+			return null;
+		DeclaredType dt = (DeclaredType) t;
+		javax.lang.model.util.Types types = processingEnv.getTypeUtils();
+		TypeMirror collection = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.Collection").asType());
+		TypeMirror map = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.Map").asType());
+		TypeMirror target = t;
+		if (types.isAssignable(types.erasure(t), collection))
+			target = dt.getTypeArguments().size() == 1 ? dt.getTypeArguments().get(0) : null;
+		else if (types.isAssignable(types.erasure(t), map))
+			target = dt.getTypeArguments().size() == 2 ? dt.getTypeArguments().get(1) : null;
+		if (target == null || target.getKind() != TypeKind.DECLARED)
+			return null;
+		return (TypeElement) ((DeclaredType) target).asElement();
+	}
+
+	// true when the generated class (in the entity package) can use the field directly
+	private boolean isVisible(TypeElement entity, VariableElement f) {
+		Set<Modifier> mods = f.getModifiers();
+		if (mods.contains(Modifier.PRIVATE) || mods.contains(Modifier.STATIC))
+			return false;
+		return mods.contains(Modifier.PUBLIC) || getPackage(f.getEnclosingElement()).equals(getPackage(entity));
+	}
+	private TypeElement getSuperclass(TypeElement t) {
+		TypeMirror sup = t.getSuperclass();
+		if (sup.getKind() != TypeKind.DECLARED)
+			return null;
+		TypeElement s = (TypeElement) ((DeclaredType) sup).asElement();
+		return s.getQualifiedName().contentEquals("java.lang.Object") ? null : s;
+	}
+	private String getPackage(Element e) {
+		PackageElement p = processingEnv.getElementUtils().getPackageOf(e);
+		return p.isUnnamed() ? "" : p.getQualifiedName().toString();
+	}
+	private String erasure(TypeMirror t) {
+		return processingEnv.getTypeUtils().erasure(t).toString();
+	}
+	private String boxed(TypeMirror t) {
+		if (t.getKind().isPrimitive())
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) t).getQualifiedName().toString();
+		return erasure(t);
+	}
+	private static String security(PojoSecurity pjs) {
+		if (pjs == null)
+			return "null";
+		return "new dbutil.SecurityDescriptor(new String[] {" + literals(pjs.groups()) + "}, new String[] {"
+				+ literals(pjs.groupsecurity()) + "}, " + literal(pjs.everyone()) + ")";
+	}
+	private static String literals(String[] values) {
+		StringBuilder sb = new StringBuilder();
+		for (int x = 0; x < values.length; x++) {
+			sb.append(x > 0 ? ", " : "").append(literal(values[x]));
+		}
+		return sb.toString();
+	}
+	private static String literal(String value) {
+		if (value == null)
+			return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c: value.toCharArray()) {
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}